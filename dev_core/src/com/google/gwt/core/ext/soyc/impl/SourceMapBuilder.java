@@ -0,0 +1,298 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.core.ext.soyc.impl;
+
+import com.google.gwt.dev.jjs.SourceInfo;
+import com.google.gwt.dev.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds a V3 source map for one JavaScript fragment while its text is
+ * generated. Java source is entered and exited in the order the JavaScript is
+ * printed, so mappings nest like a stack: each covers the text from where it
+ * was entered to where it was exited, except where a nested mapping covers
+ * it. Segments are VLQ-encoded into a byte buffer as soon as they are known,
+ * so memory grows with the size of the map rather than with the number of
+ * mapped nodes.
+ */
+public class SourceMapBuilder {
+
+  private static final char[] BASE64_DIGITS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  /**
+   * Source index meaning that no Java source is mapped.
+   */
+  private static final int UNMAPPED = -1;
+
+  /**
+   * Source file index and zero-based source line of each open mapping.
+   */
+  private int[] openSources = new int[16];
+  private int[] openSourceLines = new int[16];
+  private int depth;
+
+  /**
+   * The segment starting at the last position seen. It is only encoded once
+   * the position moves on, so that a mapping entered at the same position
+   * replaces it.
+   */
+  private boolean hasPending;
+  private int pendingLine;
+  private int pendingColumn;
+  private int pendingSource;
+  private int pendingSourceLine;
+
+  private byte[] mappings = new byte[1024];
+  private int mappingsSize;
+  private int maxLine;
+
+  /**
+   * State of the encoder, which writes fields relative to the previous
+   * segment.
+   */
+  private int line;
+  private boolean lineHasSegment;
+  private int previousColumn;
+  private int previousSource;
+  private int previousSourceLine;
+  private int lastSource = UNMAPPED;
+  private int lastSourceLine;
+
+  private final Map<String, Integer> sources = new LinkedHashMap<String, Integer>();
+
+  /**
+   * Starts mapping the JavaScript printed from the given position onwards to
+   * <code>info</code>. If <code>info</code> has no Java source to map to,
+   * records nothing and returns false; otherwise {@link #exit(int, int)} must
+   * be called at the position where the JavaScript for <code>info</code> ends.
+   */
+  public boolean enter(SourceInfo info, int line, int column) {
+    if (info.getFileName() == null || info.getStartLine() < 0) {
+      // Synthetic code with no Java source.
+      return false;
+    }
+    if (line == 0) {
+      // The recorder has always treated these as bogus.
+      return false;
+    }
+
+    Integer source = sources.get(info.getFileName());
+    if (source == null) {
+      source = sources.size();
+      sources.put(info.getFileName(), source);
+    }
+    if (depth == openSources.length) {
+      openSources = grow(openSources);
+      openSourceLines = grow(openSourceLines);
+    }
+
+    /*
+     * Starting with V3, source map line numbers are zero-based. GWT's line
+     * numbers for Java files originally came from the JDT, which is 1-based,
+     * so adjust them here to avoid an off-by-one error in debuggers.
+     */
+    int sourceLine = info.getStartLine() - 1;
+    openSources[depth] = source;
+    openSourceLines[depth] = sourceLine;
+    depth++;
+    setSegment(line, column, source, sourceLine);
+    return true;
+  }
+
+  /**
+   * Ends the innermost mapping at the given position. The mapping it was
+   * nested in, if any, covers the JavaScript that follows.
+   */
+  public void exit(int line, int column) {
+    assert depth > 0 : "exit() without enter()";
+    depth--;
+    if (depth == 0) {
+      setSegment(line, column, UNMAPPED, 0);
+    } else {
+      setSegment(line, column, openSources[depth - 1], openSourceLines[depth - 1]);
+    }
+  }
+
+  /**
+   * Returns the source map as the bytes of a JSON file.
+   *
+   * @param file the name of the generated file the map is for
+   */
+  public byte[] toByteArray(String file) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(mappingsSize + 64 * sources.size()
+        + 128);
+    try {
+      writeTo(out, file);
+    } catch (IOException e) {
+      throw new RuntimeException("Unexpected IOException from a ByteArrayOutputStream", e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Writes the source map as JSON to <code>out</code>, in the layout the
+   * Closure source map tools expect.
+   *
+   * @param out the stream to write UTF-8 bytes to
+   * @param file the name of the generated file the map is for
+   */
+  public void writeTo(OutputStream out, String file) throws IOException {
+    assert depth == 0 : "Unbalanced enter() and exit()";
+    flushPending();
+
+    Writer writer = new OutputStreamWriter(out, Util.DEFAULT_ENCODING);
+    writer.write("{\n\"version\":3,\n\"file\":");
+    writeJsonString(writer, file);
+    writer.write(",\n\"lineCount\":");
+    writer.write(Integer.toString(maxLine + 1));
+    writer.write(",\n\"mappings\":\"");
+    writer.flush();
+    // Mappings are already ASCII.
+    out.write(mappings, 0, mappingsSize);
+    writer.write("\",\n\"sources\":[");
+    boolean first = true;
+    for (String source : sources.keySet()) {
+      if (!first) {
+        writer.write(',');
+      }
+      first = false;
+      writeJsonString(writer, source);
+    }
+    writer.write("],\n\"names\":[]\n}\n");
+    writer.flush();
+  }
+
+  private static int[] grow(int[] array) {
+    int[] newArray = new int[array.length * 2];
+    System.arraycopy(array, 0, newArray, 0, array.length);
+    return newArray;
+  }
+
+  private static void writeJsonString(Writer writer, String s) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+
+  private void append(int b) {
+    if (mappingsSize == mappings.length) {
+      byte[] newMappings = new byte[mappings.length * 2];
+      System.arraycopy(mappings, 0, newMappings, 0, mappingsSize);
+      mappings = newMappings;
+    }
+    mappings[mappingsSize++] = (byte) b;
+  }
+
+  /**
+   * Encodes the pending segment, unless it changes nothing. A mapping that
+   * continues onto new lines gets a segment at the start of each of them, as
+   * a segment only covers the rest of its own line.
+   */
+  private void flushPending() {
+    if (!hasPending) {
+      return;
+    }
+    hasPending = false;
+
+    int continuedSource = lastSource;
+    int continuedSourceLine = lastSourceLine;
+    while (line < pendingLine) {
+      append(';');
+      line++;
+      lineHasSegment = false;
+      previousColumn = 0;
+      lastSource = UNMAPPED;
+      if (continuedSource != UNMAPPED && (line < pendingLine || pendingColumn > 0)) {
+        writeSegment(0, continuedSource, continuedSourceLine);
+      }
+    }
+
+    if (pendingSource == lastSource
+        && (pendingSource == UNMAPPED || pendingSourceLine == lastSourceLine)) {
+      // Still in the same mapping, or in unmapped text at the start of a line.
+      return;
+    }
+    writeSegment(pendingColumn, pendingSource, pendingSourceLine);
+  }
+
+  private void setSegment(int line, int column, int source, int sourceLine) {
+    if (hasPending && (line != pendingLine || column != pendingColumn)) {
+      flushPending();
+    }
+    hasPending = true;
+    pendingLine = line;
+    pendingColumn = column;
+    pendingSource = source;
+    pendingSourceLine = sourceLine;
+    maxLine = Math.max(maxLine, line);
+  }
+
+  /**
+   * Encodes a segment of the current line.
+   */
+  private void writeSegment(int column, int source, int sourceLine) {
+    if (lineHasSegment) {
+      append(',');
+    }
+    writeVlq(column - previousColumn);
+    previousColumn = column;
+    if (source != UNMAPPED) {
+      writeVlq(source - previousSource);
+      writeVlq(sourceLine - previousSourceLine);
+      // Every source column is 0, so it never changes.
+      writeVlq(0);
+      previousSource = source;
+      previousSourceLine = sourceLine;
+    }
+    lineHasSegment = true;
+    lastSource = source;
+    lastSourceLine = sourceLine;
+  }
+
+  /**
+   * Appends <code>value</code> as a base 64 variable length quantity, sign
+   * bit lowest.
+   */
+  private void writeVlq(int value) {
+    int vlq = value < 0 ? ((-value) << 1) | 1 : value << 1;
+    do {
+      int digit = vlq & 31;
+      vlq >>>= 5;
+      if (vlq != 0) {
+        digit |= 32;
+      }
+      append(BASE64_DIGITS[digit]);
+    } while (vlq != 0);
+  }
+}
@@ -167,13 +167,12 @@ public class SymbolMapsLinker extends AbstractLinker {
 
     private int permutationId;
     private int fragment;
-    private byte[] js;
 
     public SourceMapArtifact(int permutationId, int fragment, byte[] js) {
+      // The contents are kept in the disk cache only, since maps can be large.
       super(SymbolMapsLinker.class, permutationId + '/' + sourceMapFilenameForFragment(fragment), js);
       this.permutationId = permutationId;
       this.fragment = fragment;
-      this.js = js;
     }
 
     public int getFragment() {
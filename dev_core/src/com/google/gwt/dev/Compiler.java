@@ -240,7 +240,7 @@ public class Compiler {
           List<FileBackedObject<PermutationResult>> resultFiles = CompilePerms.makeResultFiles(
               options.getCompilerWorkDir(moduleName), allPerms);
           CompilePerms.compile(branch, precompilation, allPerms,
-              options.getLocalWorkers(), resultFiles);
+              options.getLocalWorkers(), resultFiles, PermutationResultCache.create());
           compilePermutationsEvent.end();
 
           ArtifactSet generatedArtifacts = precompilation.getGeneratedArtifacts();
@@ -209,6 +209,13 @@ public abstract class PermutationWorkerFactory {
    */
   public static final String FACTORY_IMPL_PROPERTY = "gwt.jjs.permutationWorkerFactory";
 
+  /**
+   * A Java system property that, when <code>true</code>, resolves the rebinds
+   * shared by all permutations in a batch and optimizes the result once before
+   * handing it to the workers.
+   */
+  public static final String SHARED_REBINDS_PROPERTY = "gwt.jjs.sharedRebinds";
+
   /**
    * This value can be passed into {@link #setLocalWorkers(int)} to indicate
    * that a heuristic should be used to determine the total number of local
@@ -261,11 +268,15 @@ public abstract class PermutationWorkerFactory {
       work.add(new Work(logger, perm, resultFiles.get(i)));
     }
 
+    UnifiedAst unifiedAst = precompilation.getUnifiedAst();
+    if (permutations.length > 1 && Boolean.getBoolean(SHARED_REBINDS_PROPERTY)) {
+      unifiedAst = unifiedAst.resolveSharedRebinds(logger, permutations);
+    }
+
     // Create the workers.
     List<PermutationWorker> workers = new ArrayList<PermutationWorker>();
     try {
-      createWorkers(logger, precompilation.getUnifiedAst(), work.size(),
-          localWorkers, workers);
+      createWorkers(logger, unifiedAst, work.size(), localWorkers, workers);
 
       // Get it done!
       Manager.run(logger, work, workers);
@@ -298,9 +309,12 @@ public abstract class PermutationWorkerFactory {
         "Creating PermutationWorkerFactory instances");
 
     List<PermutationWorkerFactory> mutableFactories = new ArrayList<PermutationWorkerFactory>();
-    String classes = System.getProperty(FACTORY_IMPL_PROPERTY,
-        ThreadedPermutationWorkerFactory.class.getName() + ","
-            + ExternalPermutationWorkerFactory.class.getName());
+    String defaultClasses = ThreadedPermutationWorkerFactory.class.getName() + ","
+        + ExternalPermutationWorkerFactory.class.getName();
+    if (System.getProperty(DaemonPermutationWorkerFactory.STATE_FILE_PROPERTY) != null) {
+      defaultClasses = DaemonPermutationWorkerFactory.class.getName() + "," + defaultClasses;
+    }
+    String classes = System.getProperty(FACTORY_IMPL_PROPERTY, defaultClasses);
     if (logger.isLoggable(TreeLogger.SPAM)) {
       logger.log(TreeLogger.SPAM, "Factory impl property is " + classes);
     }
@@ -18,13 +18,16 @@ package com.google.gwt.dev.javac;
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.dev.javac.CompilationStateBuilder.CompileMoreLater;
 import com.google.gwt.dev.javac.typemodel.TypeOracle;
+import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.log.speedtracer.DevModeEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -127,6 +130,20 @@ public class CompilationState {
     return exposedUnits;
   }
 
+  /**
+   * Returns a strong name computed from the content of every unit, including
+   * generated units. Any change to a source file or to generator output
+   * produces a different name.
+   */
+  public String getStrongName() {
+    List<String> contentIds = new ArrayList<String>(unitMap.size());
+    for (CompilationUnit unit : unitMap.values()) {
+      contentIds.add(unit.getContentId().get());
+    }
+    Collections.sort(contentIds);
+    return Util.computeStrongName(Util.getBytes(contentIds.toArray(new String[contentIds.size()])));
+  }
+
   public TypeOracle getTypeOracle() {
     return mediator.getTypeOracle();
   }
@@ -52,6 +52,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages a centralized cache for compiled units.
@@ -207,51 +208,78 @@ public class CompilationStateBuilder {
         final TreeLogger branch = logger.branch(TreeLogger.TRACE, "Compiling...");
         // Compile anything that needs to be compiled.
         buildQueue = new LinkedBlockingQueue<CompilationUnitBuilder>();
-        final ArrayList<CompilationUnit> newlyBuiltUnits = new ArrayList<CompilationUnit>();
+        /*
+         * Each unit is stored at its builder's index, so that units are merged
+         * in input order however the build threads interleave, and the output
+         * does not depend on the number of threads.
+         */
+        final Map<CompilationUnitBuilder, Integer> builderIndexes =
+            new IdentityHashMap<CompilationUnitBuilder, Integer>();
+        for (CompilationUnitBuilder builder : builders) {
+          builderIndexes.put(builder, builderIndexes.size());
+        }
+        final CompilationUnit[] builtUnits = new CompilationUnit[builders.size()];
         final CompilationUnitBuilder sentinel = CompilationUnitBuilder.create((GeneratedUnit) null);
         final Throwable[] workerException = new Throwable[1];
         final ProgressLogger progressLogger =
             new ProgressLogger(branch, TreeLogger.TRACE, builders.size(), 10);
-        Thread buildThread = new Thread() {
-          @Override
-          public void run() {
-            int processedCompilationUnitBuilders = 0;
-            try {
-              do {
-                CompilationUnitBuilder builder = buildQueue.take();
-                if (!progressLogger.isTimerStarted()) {
-                  // Set start time here, after first job has arrived, since it can take a little
-                  // while for the first job to arrive, and this helps with the accuracy of the
-                  // estimated times.
-                  progressLogger.startTimer();
-                }
-                if (builder == sentinel) {
-                  return;
+        final AtomicInteger processedCompilationUnitBuilders = new AtomicInteger();
+        int threadCount = getBuildThreadCount();
+        Thread[] buildThreads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+          buildThreads[i] = new Thread() {
+            @Override
+            public void run() {
+              try {
+                do {
+                  CompilationUnitBuilder builder = buildQueue.take();
+                  synchronized (progressLogger) {
+                    if (!progressLogger.isTimerStarted()) {
+                      // Set start time here, after first job has arrived, since it can take a
+                      // little while for the first job to arrive, and this helps with the
+                      // accuracy of the estimated times.
+                      progressLogger.startTimer();
+                    }
+                  }
+                  if (builder == sentinel) {
+                    return;
+                  }
+                  // Expensive, must serialize GWT AST types to bytes.
+                  builtUnits[builderIndexes.get(builder)] = builder.build();
+
+                  int processed = processedCompilationUnitBuilders.incrementAndGet();
+                  synchronized (progressLogger) {
+                    progressLogger.updateProgress(processed);
+                  }
+                } while (true);
+              } catch (Throwable e) {
+                synchronized (workerException) {
+                  if (workerException[0] == null) {
+                    workerException[0] = e;
+                  }
                 }
-                // Expensive, must serialize GWT AST types to bytes.
-                CompilationUnit unit = builder.build();
-                newlyBuiltUnits.add(unit);
-
-                processedCompilationUnitBuilders++;
-                progressLogger.updateProgress(processedCompilationUnitBuilders);
-              } while (true);
-            } catch (Throwable e) {
-              workerException[0] = e;
+              }
             }
-          }
-        };
-        buildThread.setName("CompilationUnitBuilder");
-        buildThread.start();
+          };
+          buildThreads[i].setName(threadCount == 1 ? "CompilationUnitBuilder"
+              : "CompilationUnitBuilder-" + i);
+          buildThreads[i].start();
+        }
         Event jdtCompilerEvent = SpeedTracerLogger.start(eventType);
         long compilationStartNanos = System.nanoTime();
         try {
           compiler.doCompile(builders);
         } finally {
           jdtCompilerEvent.end();
+          // One sentinel per thread.
+          for (int i = 0; i < threadCount; ++i) {
+            buildQueue.add(sentinel);
+          }
         }
-        buildQueue.add(sentinel);
         try {
-          buildThread.join();
+          for (Thread buildThread : buildThreads) {
+            buildThread.join();
+          }
           long compilationNanos = System.nanoTime() - compilationStartNanos;
           // Convert nanos to seconds.
           double compilationSeconds = compilationNanos / (double) TimeUnit.SECONDS.toNanos(1);
@@ -267,6 +295,12 @@ public class CompilationStateBuilder {
         } finally {
           buildQueue = null;
         }
+        List<CompilationUnit> newlyBuiltUnits = new ArrayList<CompilationUnit>(builtUnits.length);
+        for (CompilationUnit unit : builtUnits) {
+          if (unit != null) {
+            newlyBuiltUnits.add(unit);
+          }
+        }
         resultUnits.addAll(newlyBuiltUnits);
         builders.clear();
 
@@ -350,8 +384,18 @@ public class CompilationStateBuilder {
     }
   }
 
+  /**
+   * A Java system property that sets the number of threads that build
+   * compilation units from JDT's output while JDT keeps compiling. Defaults to
+   * one less than the number of available processors, up to
+   * {@link #MAX_DEFAULT_BUILD_THREADS}.
+   */
+  public static final String BUILD_THREADS_PROPERTY = "gwt.jdt.buildThreads";
+
   private static final CompilationStateBuilder instance = new CompilationStateBuilder();
 
+  private static final int MAX_DEFAULT_BUILD_THREADS = 8;
+
   /**
    * Use previously compiled {@link CompilationUnit}s to pre-populate the unit
    * cache.
@@ -395,6 +439,15 @@ public class CompilationStateBuilder {
     return instance;
   }
 
+  /**
+   * Returns the number of threads configured by {@link #BUILD_THREADS_PROPERTY}.
+   */
+  static int getBuildThreadCount() {
+    int defaultCount = Math.min(MAX_DEFAULT_BUILD_THREADS,
+        Runtime.getRuntime().availableProcessors() - 1);
+    return Math.max(1, Integer.getInteger(BUILD_THREADS_PROPERTY, defaultCount));
+  }
+
   /**
    * Called to setup the directory where the persistent {@link CompilationUnit}
    * cache should be stored. Only the first call to init() will have an effect.
@@ -0,0 +1,774 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.javac;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.javac.MappedCompilationUnit.ByteBufferInputStream;
+import com.google.gwt.dev.jjs.InternalCompilerException;
+import com.google.gwt.dev.jjs.impl.GwtAstBuilder;
+import com.google.gwt.dev.util.log.speedtracer.DevModeEventType;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A persistent cache of {@link CompilationUnit} instances backed by a single
+ * append-only log file.
+ * <p>
+ * Each record in the log holds a small header, written with
+ * {@link java.io.DataOutput}, followed by the serialized
+ * {@link CachedCompilationUnit}. At startup the log is memory mapped and only
+ * the headers are decoded. The class files and AST of a unit are deserialized
+ * from the mapping only when the unit is found, and a unit that cannot be
+ * deserialized is treated as a miss, see {@link MappedCompilationUnit}.
+ * <p>
+ * Newly compiled units are appended by a background thread. When more than
+ * half of the log is taken up by units that have since been replaced,
+ * {@link #cleanup(TreeLogger)} schedules a compaction in the same thread,
+ * which copies the live records into a new log without deserializing them.
+ * Units already loaded from the old log keep reading from its mapping, which
+ * remains valid after the file is replaced.
+ * <p>
+ * Every process using the same cache directory shares the log. Appending,
+ * truncating and replacing it are done while holding an exclusive
+ * {@link FileLock} on a separate lock file, which also counts how many times
+ * the log has been replaced so that each process can tell when to reopen it.
+ * The log is only ever truncated to drop a partial record, which no process
+ * can have read; a log with an unknown format is replaced rather than
+ * truncated, since another version of GWT may have it mapped.
+ * <p>
+ * System Properties (see {@link UnitCacheFactory}).
+ */
+class MappedUnitCache extends MemoryUnitCache {
+
+  /**
+   * The location of a record in the log.
+   */
+  private static class Record {
+    final int length;
+    final long offset;
+
+    Record(long offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Compact the log when less than this fraction of it is live.
+   */
+  static final double COMPACTION_THRESHOLD = 0.5;
+
+  static final String LOCK_FILE_NAME = "mapped-unitCache.lock";
+
+  static final String LOG_FILE_NAME = "mapped-unitCache.log";
+
+  /**
+   * Logs smaller than this are never compacted.
+   */
+  static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+  /**
+   * Each log starts with this magic number and {@link #FORMAT_VERSION}.
+   */
+  private static final int FILE_HEADER_SIZE = 8;
+
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * A JVM can only hold one {@link FileLock} on a file at a time, so caches in
+   * the same process also take this lock before locking the file.
+   */
+  private static final Lock LOCAL_LOCK = new ReentrantLock();
+
+  private static final int MAGIC = 0x47575543;
+
+  /**
+   * Each record starts with the header and payload lengths.
+   */
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  private static void close(FileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private static ByteBuffer newFileHeader() {
+    ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    fileHeader.putInt(MAGIC);
+    fileHeader.putInt(FORMAT_VERSION);
+    fileHeader.flip();
+    return fileHeader;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice();
+  }
+
+  private int addedSinceLastCleanup = 0;
+
+  /**
+   * Used to append, compact and close the log in a background thread. Every
+   * field below that is not final is only touched from this thread.
+   */
+  private final ExecutorService backgroundService;
+
+  private final File cacheDirectory;
+
+  private final Runnable compactTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        maybeCompact();
+      } catch (IOException ex) {
+        logger.log(TreeLogger.TRACE, "Error compacting unit cache. Shutting down cache thread.",
+            ex);
+        backgroundService.shutdownNow();
+      }
+    }
+  };
+
+  /**
+   * The total length of live records.
+   */
+  private long liveBytes;
+
+  /**
+   * The most recent record for each resource path.
+   */
+  private final Map<String, Record> liveRecords = new HashMap<String, Record>();
+
+  /**
+   * Holds the number of times the log has been replaced.
+   */
+  private FileChannel lockChannel;
+
+  private final File lockFile;
+
+  private FileChannel logChannel;
+
+  private final File logFile;
+
+  /**
+   * The number of times the log had been replaced when {@link #logChannel}
+   * was opened.
+   */
+  private long logGeneration;
+
+  private final TreeLogger logger;
+
+  /**
+   * The end of the last record this process read or wrote.
+   */
+  private long logSize;
+
+  private final long minCompactionSize;
+
+  private final Runnable shutdownThreadTask = new Runnable() {
+    @Override
+    public void run() {
+      closeLog();
+      closeLockFile();
+      logger.log(TreeLogger.TRACE, "Shutting down MappedUnitCache thread");
+      backgroundService.shutdownNow();
+    }
+  };
+
+  /**
+   * Saved to be able to wait for the initial load to complete.
+   */
+  private Future<Boolean> unitMapLoadStatus;
+
+  private final Runnable unitMapLoadTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        loadUnitMap();
+      } catch (IOException ex) {
+        closeLog();
+        closeLockFile();
+        logger.log(TreeLogger.ERROR, "Error opening cache " + logFile + ". Disabling cache.", ex);
+        backgroundService.shutdownNow();
+      }
+    }
+  };
+
+  MappedUnitCache(TreeLogger logger, File cacheDir) throws UnableToCompleteException {
+    this(logger, cacheDir, MIN_COMPACTION_SIZE);
+  }
+
+  MappedUnitCache(final TreeLogger logger, File cacheDir, long minCompactionSize)
+      throws UnableToCompleteException {
+    assert cacheDir != null;
+    this.logger = logger;
+    this.minCompactionSize = minCompactionSize;
+    this.cacheDirectory = new File(cacheDir, PersistentUnitCache.UNIT_CACHE_PREFIX);
+    this.lockFile = new File(cacheDirectory, LOCK_FILE_NAME);
+    this.logFile = new File(cacheDirectory, LOG_FILE_NAME);
+    if (logger.isLoggable(TreeLogger.TRACE)) {
+      logger.log(TreeLogger.TRACE, "Persistent unit cache dir set to: "
+          + this.cacheDirectory.getAbsolutePath());
+    }
+
+    if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+      logger.log(TreeLogger.WARN, "Unable to initialize cache. Couldn't create directory "
+          + cacheDirectory.getAbsolutePath() + ".");
+      throw new UnableToCompleteException();
+    }
+
+    backgroundService = Executors.newSingleThreadExecutor();
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          Future<Boolean> status = backgroundService.submit(shutdownThreadTask, Boolean.TRUE);
+          // Don't let the shutdown hang more than 5 seconds
+          status.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // ignore
+        } catch (RejectedExecutionException e) {
+          // already shutdown, ignore
+        } catch (ExecutionException e) {
+          logger.log(TreeLogger.ERROR, "Error during shutdown", e);
+        } catch (TimeoutException e) {
+          // ignore
+        } finally {
+          backgroundService.shutdownNow();
+        }
+      }
+    });
+
+    /*
+     * Read the unit headers in the background. The add() and find() methods
+     * block if invoked before this thread finishes.
+     */
+    unitMapLoadStatus = backgroundService.submit(unitMapLoadTask, Boolean.TRUE);
+  }
+
+  /**
+   * Enqueue a unit to be appended by the background thread.
+   */
+  @Override
+  public void add(CompilationUnit newUnit) {
+    awaitUnitCacheMapLoad();
+    addedSinceLastCleanup++;
+    super.add(newUnit);
+    appendImpl(newUnit);
+  }
+
+  /**
+   * Schedules a compaction of the log if enough of it has been replaced by
+   * newer units.
+   */
+  @Override
+  public void cleanup(TreeLogger logger) {
+    awaitUnitCacheMapLoad();
+    if (backgroundService.isShutdown()) {
+      return;
+    }
+    logger.log(TreeLogger.TRACE, "Added " + addedSinceLastCleanup
+        + " units to cache since last cleanup.");
+    addedSinceLastCleanup = 0;
+    try {
+      backgroundService.execute(compactTask);
+    } catch (RejectedExecutionException ex) {
+      // Cache background thread is not running - ignore
+    }
+  }
+
+  @Override
+  public CompilationUnit find(ContentId contentId) {
+    awaitUnitCacheMapLoad();
+    return ensureLoaded(super.find(contentId));
+  }
+
+  @Override
+  public CompilationUnit find(String resourcePath) {
+    awaitUnitCacheMapLoad();
+    return ensureLoaded(super.find(resourcePath));
+  }
+
+  /**
+   * For Unit testing - waits for pending writes and returns the size of the
+   * log.
+   */
+  long getLogSize() throws InterruptedException, ExecutionException {
+    return backgroundService.submit(new Callable<Long>() {
+      @Override
+      public Long call() {
+        return logSize;
+      }
+    }).get();
+  }
+
+  /**
+   * For Unit testing - shutdown the persistent cache.
+   */
+  void shutdown() throws InterruptedException, ExecutionException {
+    try {
+      Future<Runnable> future = backgroundService.submit(shutdownThreadTask, shutdownThreadTask);
+      backgroundService.shutdown();
+      future.get();
+    } catch (RejectedExecutionException ex) {
+      // background thread is not running - ignore
+    }
+  }
+
+  private void append(CompilationUnit unit) throws IOException {
+    CachedCompilationUnit cached = unit.asCachedCompilationUnit();
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerStream = new DataOutputStream(header);
+    MappedCompilationUnit.writeHeader(cached, headerStream);
+    headerStream.close();
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    ObjectOutputStream payloadStream = new ObjectOutputStream(payload);
+    payloadStream.writeObject(cached);
+    payloadStream.close();
+
+    int length = RECORD_HEADER_SIZE + header.size() + payload.size();
+    ByteBuffer record = ByteBuffer.allocate(length);
+    record.putInt(header.size());
+    record.putInt(payload.size());
+    record.put(header.toByteArray());
+    record.put(payload.toByteArray());
+    record.flip();
+
+    // Other processes may have appended since, so write at the actual end.
+    FileLock lock = lockLog();
+    try {
+      long offset = logChannel.size();
+      logChannel.position(offset);
+      while (record.hasRemaining()) {
+        logChannel.write(record);
+      }
+      recordLive(unit.getResourcePath(), new Record(offset, length));
+      logSize = offset + length;
+    } finally {
+      unlockLog(lock);
+    }
+  }
+
+  private void appendImpl(final CompilationUnit unit) {
+    try {
+      backgroundService.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            append(unit);
+          } catch (IOException ex) {
+            backgroundService.shutdownNow();
+            if (logger.isLoggable(TreeLogger.TRACE)) {
+              logger.log(TreeLogger.TRACE, "Error saving unit to cache in: "
+                  + cacheDirectory.getAbsolutePath(), ex);
+            }
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      // background thread is not running, ignore
+    }
+  }
+
+  private synchronized void awaitUnitCacheMapLoad() {
+    // wait on initial load of unit map to complete.
+    try {
+      if (unitMapLoadStatus != null) {
+        unitMapLoadStatus.get();
+        // no need to check any more.
+        unitMapLoadStatus = null;
+      }
+    } catch (InterruptedException e) {
+      throw new InternalCompilerException("Interrupted waiting for unit cache map to load.", e);
+    } catch (ExecutionException e) {
+      logger.log(TreeLogger.ERROR, "Failure in unit cache map load.", e);
+      // keep going
+      unitMapLoadStatus = null;
+    }
+  }
+
+  private void closeLockFile() {
+    if (lockChannel != null) {
+      close(lockChannel);
+      lockChannel = null;
+    }
+  }
+
+  private void closeLog() {
+    if (logChannel != null) {
+      close(logChannel);
+      logChannel = null;
+    }
+  }
+
+  /**
+   * Returns <code>unit</code>, or <code>null</code> if it was read from the
+   * log and its payload cannot be deserialized, in which case it is dropped
+   * from the cache so that it is compiled again.
+   */
+  private CompilationUnit ensureLoaded(CompilationUnit unit) {
+    if (unit instanceof MappedCompilationUnit
+        && !((MappedCompilationUnit) unit).tryLoad(logger)) {
+      super.remove(unit);
+      return null;
+    }
+    return unit;
+  }
+
+  /**
+   * Takes the lock every process holds while changing the log, reopening the
+   * log first if another process has replaced it.
+   */
+  private FileLock lockLog() throws IOException {
+    LOCAL_LOCK.lock();
+    FileLock lock = null;
+    try {
+      lock = lockChannel.lock();
+      long generation = readGeneration();
+      if (logChannel == null || generation != logGeneration) {
+        closeLog();
+        logChannel = new RandomAccessFile(logFile, "rw").getChannel();
+        logGeneration = generation;
+      }
+      return lock;
+    } catch (IOException e) {
+      unlockLog(lock);
+      throw e;
+    } catch (RuntimeException e) {
+      unlockLog(lock);
+      throw e;
+    }
+  }
+
+  /**
+   * Maps the log and decodes every record header, truncating any partial
+   * record left at the end by an interrupted write.
+   */
+  private void loadUnitMap() throws IOException {
+    Event loadPersistentUnitEvent =
+        SpeedTracerLogger.start(DevModeEventType.LOAD_PERSISTENT_UNIT_CACHE);
+    try {
+      lockChannel = new RandomAccessFile(lockFile, "rw").getChannel();
+      FileLock lock = lockLog();
+      try {
+        long size = logChannel.size();
+        logSize = 0;
+        if (size > Integer.MAX_VALUE) {
+          logger.log(TreeLogger.TRACE, "Discarding oversized unit cache " + logFile);
+        } else if (hasCurrentFormat(size)) {
+          Map<String, Record> records = new HashMap<String, Record>();
+          logSize = readRecords(logChannel.map(FileChannel.MapMode.READ_ONLY, 0, size), records,
+              true);
+          for (Map.Entry<String, Record> entry : records.entrySet()) {
+            recordLive(entry.getKey(), entry.getValue());
+          }
+        }
+        if (logSize == 0) {
+          if (logger.isLoggable(TreeLogger.TRACE)) {
+            logger.log(TreeLogger.TRACE, "Starting with empty unit cache in " + logFile);
+          }
+          if (size == 0) {
+            logChannel.write(newFileHeader(), 0);
+          } else {
+            File tempFile = new File(cacheDirectory, LOG_FILE_NAME + ".tmp");
+            FileChannel out = new RandomAccessFile(tempFile, "rw").getChannel();
+            try {
+              out.truncate(0);
+              out.write(newFileHeader(), 0);
+            } finally {
+              close(out);
+            }
+            if (!replaceLog(tempFile)) {
+              throw new IOException("Unable to replace " + logFile);
+            }
+          }
+          logSize = FILE_HEADER_SIZE;
+        } else if (logSize < size) {
+          if (logger.isLoggable(TreeLogger.TRACE)) {
+            logger.log(TreeLogger.TRACE, "Truncating damaged unit cache " + logFile + " at "
+                + logSize);
+          }
+          logChannel.truncate(logSize);
+        }
+      } finally {
+        unlockLog(lock);
+      }
+    } finally {
+      loadPersistentUnitEvent.end();
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the log starts with the magic number and
+   * format version this class writes.
+   */
+  private boolean hasCurrentFormat(long size) throws IOException {
+    if (size < FILE_HEADER_SIZE) {
+      return false;
+    }
+    ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    while (fileHeader.hasRemaining()
+        && logChannel.read(fileHeader, fileHeader.position()) >= 0) {
+      // keep reading
+    }
+    return fileHeader.getInt(0) == MAGIC && fileHeader.getInt(4) == FORMAT_VERSION;
+  }
+
+  /**
+   * Copies the live records into a new log if enough of the current one has
+   * been replaced.
+   */
+  private void maybeCompact() throws IOException {
+    if (logChannel == null || !shouldCompact(liveBytes, logSize)) {
+      return;
+    }
+    Event compactEvent = SpeedTracerLogger.start(DevModeEventType.COMPACT_UNIT_CACHE);
+    try {
+      FileLock lock = lockLog();
+      try {
+        /*
+         * Other processes may have appended units this one has not read, so
+         * find the live records from the log itself.
+         */
+        long size = logChannel.size();
+        Map<String, Record> records = new HashMap<String, Record>();
+        long end = FILE_HEADER_SIZE;
+        if (size <= Integer.MAX_VALUE && hasCurrentFormat(size)) {
+          end = readRecords(logChannel.map(FileChannel.MapMode.READ_ONLY, 0, size), records,
+              false);
+        }
+        long live = 0;
+        for (Record record : records.values()) {
+          live += record.length;
+        }
+        liveRecords.clear();
+        liveRecords.putAll(records);
+        liveBytes = live;
+        logSize = end;
+        if (!shouldCompact(live, end)) {
+          return;
+        }
+
+        List<Map.Entry<String, Record>> sorted =
+            new ArrayList<Map.Entry<String, Record>>(records.entrySet());
+        // Keep records in the order they were written.
+        Collections.sort(sorted, new Comparator<Map.Entry<String, Record>>() {
+          @Override
+          public int compare(Map.Entry<String, Record> a, Map.Entry<String, Record> b) {
+            long diff = a.getValue().offset - b.getValue().offset;
+            return diff < 0 ? -1 : (diff == 0 ? 0 : 1);
+          }
+        });
+
+        File tempFile = new File(cacheDirectory, LOG_FILE_NAME + ".tmp");
+        FileChannel out = new RandomAccessFile(tempFile, "rw").getChannel();
+        Map<String, Record> newRecords = new HashMap<String, Record>();
+        long newSize = FILE_HEADER_SIZE;
+        try {
+          out.truncate(0);
+          logChannel.transferTo(0, FILE_HEADER_SIZE, out);
+          for (Map.Entry<String, Record> entry : sorted) {
+            Record record = entry.getValue();
+            long copied = 0;
+            while (copied < record.length) {
+              copied +=
+                  logChannel.transferTo(record.offset + copied, record.length - copied, out);
+            }
+            newRecords.put(entry.getKey(), new Record(newSize, record.length));
+            newSize += record.length;
+          }
+        } finally {
+          close(out);
+        }
+
+        /*
+         * Units loaded from the old log hold on to its mapping, which stays
+         * valid after the rename on platforms that allow it. Where the rename
+         * fails, keep appending to the old log.
+         */
+        if (!replaceLog(tempFile)) {
+          logger.log(TreeLogger.TRACE, "Unable to replace " + logFile + " with compacted log.");
+        } else {
+          if (logger.isLoggable(TreeLogger.TRACE)) {
+            logger.log(TreeLogger.TRACE, "Compacted unit cache from " + end + " to " + newSize
+                + " bytes.");
+          }
+          liveRecords.clear();
+          liveRecords.putAll(newRecords);
+          logSize = newSize;
+        }
+      } finally {
+        unlockLog(lock);
+      }
+    } finally {
+      compactEvent.end();
+    }
+  }
+
+  /**
+   * Adds a unit read from the log to the in-memory cache.
+   */
+  private void putLoadedUnit(MappedCompilationUnit unit) {
+    UnitCacheEntry entry = new UnitCacheEntry(unit, UnitOrigin.PERSISTENT);
+    UnitCacheEntry existingEntry = unitMap.get(unit.getResourcePath());
+    /*
+     * Don't assume that an existing entry is stale - an entry might have been
+     * loaded already from another source like a CompilationUnitArchive that is
+     * more up to date. If the timestamps are the same, accept the latest
+     * version.
+     */
+    if (existingEntry != null
+        && unit.getLastModified() >= existingEntry.getUnit().getLastModified()) {
+      super.remove(existingEntry.getUnit());
+      unitMap.put(unit.getResourcePath(), entry);
+      unitMapByContentId.put(unit.getContentId(), entry);
+    } else if (existingEntry == null) {
+      unitMap.put(unit.getResourcePath(), entry);
+      unitMapByContentId.put(unit.getContentId(), entry);
+    }
+  }
+
+  /**
+   * Returns the number of times the log has been replaced, as recorded in the
+   * lock file.
+   */
+  private long readGeneration() throws IOException {
+    ByteBuffer generation = ByteBuffer.allocate(8);
+    while (generation.hasRemaining()
+        && lockChannel.read(generation, generation.position()) >= 0) {
+      // keep reading
+    }
+    return generation.hasRemaining() ? 0 : generation.getLong(0);
+  }
+
+  /**
+   * Reads record headers from a mapped log into <code>records</code>,
+   * returning the end of the last complete record.
+   *
+   * @param load whether to add the units read to the in-memory cache
+   */
+  private long readRecords(MappedByteBuffer buffer, Map<String, Record> records, boolean load) {
+    int size = buffer.limit();
+    int pos = FILE_HEADER_SIZE;
+    while (pos + RECORD_HEADER_SIZE <= size) {
+      int headerLength = buffer.getInt(pos);
+      int payloadLength = buffer.getInt(pos + 4);
+      long end = (long) pos + RECORD_HEADER_SIZE + headerLength + payloadLength;
+      if (headerLength < 0 || payloadLength < 0 || end > size) {
+        break;
+      }
+      int headerStart = pos + RECORD_HEADER_SIZE;
+      MappedCompilationUnit unit;
+      try {
+        unit = new MappedCompilationUnit(new DataInputStream(new ByteBufferInputStream(
+            slice(buffer, headerStart, headerLength))), slice(buffer, headerStart + headerLength,
+            payloadLength));
+      } catch (IOException ex) {
+        break;
+      }
+      if (unit.getTypesSerializedVersion() == GwtAstBuilder.getSerializationVersion()) {
+        records.put(unit.getResourcePath(), new Record(pos, (int) (end - pos)));
+        if (load) {
+          putLoadedUnit(unit);
+        }
+      }
+      pos = (int) end;
+    }
+    return pos;
+  }
+
+  private void recordLive(String resourcePath, Record record) {
+    Record old = liveRecords.put(resourcePath, record);
+    if (old != null) {
+      liveBytes -= old.length;
+    }
+    liveBytes += record.length;
+  }
+
+  /**
+   * Replaces the log with <code>tempFile</code> and tells other processes to
+   * reopen it. Must be called while holding the lock.
+   *
+   * @return <code>false</code> if the log could not be replaced, in which case
+   *         the current one is kept
+   */
+  private boolean replaceLog(File tempFile) throws IOException {
+    closeLog();
+    boolean replaced = tempFile.renameTo(logFile);
+    if (replaced) {
+      logGeneration = readGeneration() + 1;
+      ByteBuffer generation = ByteBuffer.allocate(8);
+      generation.putLong(logGeneration);
+      generation.flip();
+      while (generation.hasRemaining()) {
+        lockChannel.write(generation, generation.position());
+      }
+    } else {
+      tempFile.delete();
+    }
+    logChannel = new RandomAccessFile(logFile, "rw").getChannel();
+    return replaced;
+  }
+
+  private boolean shouldCompact(long live, long size) {
+    return size >= minCompactionSize && live < (size - FILE_HEADER_SIZE) * COMPACTION_THRESHOLD;
+  }
+
+  private void unlockLog(FileLock lock) {
+    try {
+      if (lock != null) {
+        lock.release();
+      }
+    } catch (IOException e) {
+      // ignore, closing the lock file releases it
+    } finally {
+      LOCAL_LOCK.unlock();
+    }
+  }
+}
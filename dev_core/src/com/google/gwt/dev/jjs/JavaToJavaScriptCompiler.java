@@ -35,13 +35,16 @@ import com.google.gwt.core.ext.soyc.Range;
 import com.google.gwt.core.ext.soyc.SourceMapRecorder;
 import com.google.gwt.core.ext.soyc.impl.DependencyRecorder;
 import com.google.gwt.core.ext.soyc.impl.SizeMapRecorder;
+import com.google.gwt.core.ext.soyc.impl.SourceMapBuilder;
 import com.google.gwt.core.ext.soyc.impl.SplitPointRecorder;
 import com.google.gwt.core.ext.soyc.impl.StoryRecorder;
 import com.google.gwt.core.linker.SoycReportLinker;
+import com.google.gwt.dev.About;
 import com.google.gwt.dev.Permutation;
 import com.google.gwt.dev.cfg.ConfigurationProperty;
 import com.google.gwt.dev.cfg.ModuleDef;
 import com.google.gwt.dev.javac.CompilationProblemReporter;
+import com.google.gwt.dev.javac.CompilationState;
 import com.google.gwt.dev.javac.typemodel.TypeOracle;
 import com.google.gwt.dev.jdt.RebindPermutationOracle;
 import com.google.gwt.dev.jjs.UnifiedAst.AST;
@@ -76,6 +79,7 @@ import com.google.gwt.dev.jjs.impl.EnumOrdinalizer;
 import com.google.gwt.dev.jjs.impl.EqualityNormalizer;
 import com.google.gwt.dev.jjs.impl.Finalizer;
 import com.google.gwt.dev.jjs.impl.FixAssignmentToUnbox;
+import com.google.gwt.dev.jjs.impl.FragmentLoadProfile;
 import com.google.gwt.dev.jjs.impl.GenerateJavaScriptAST;
 import com.google.gwt.dev.jjs.impl.HandleCrossFragmentReferences;
 import com.google.gwt.dev.jjs.impl.ImplementClassLiteralsAsFields;
@@ -88,8 +92,10 @@ import com.google.gwt.dev.jjs.impl.LongCastNormalizer;
 import com.google.gwt.dev.jjs.impl.LongEmulationNormalizer;
 import com.google.gwt.dev.jjs.impl.MakeCallsStatic;
 import com.google.gwt.dev.jjs.impl.MethodCallTightener;
+import com.google.gwt.dev.jjs.impl.MethodDependencyIndex;
 import com.google.gwt.dev.jjs.impl.MethodInliner;
 import com.google.gwt.dev.jjs.impl.OptimizerStats;
+import com.google.gwt.dev.jjs.impl.ParallelOptimizer;
 import com.google.gwt.dev.jjs.impl.PostOptimizationCompoundAssignmentNormalizer;
 import com.google.gwt.dev.jjs.impl.Pruner;
 import com.google.gwt.dev.jjs.impl.RecordRebinds;
@@ -138,12 +144,17 @@ import com.google.gwt.dev.js.ast.JsProgram;
 import com.google.gwt.dev.js.ast.JsVars;
 import com.google.gwt.dev.js.ast.JsVisitor;
 import com.google.gwt.dev.util.DefaultTextOutput;
+import com.google.gwt.dev.util.DiskCache;
+import com.google.gwt.dev.util.DiskCacheToken;
 import com.google.gwt.dev.util.Empty;
 import com.google.gwt.dev.util.Memory;
+import com.google.gwt.dev.util.TextOutput;
+import com.google.gwt.dev.util.Utf8TextOutput;
 import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.arg.OptionOptimize;
 import com.google.gwt.dev.util.collect.Lists;
 import com.google.gwt.dev.util.collect.Maps;
+import com.google.gwt.dev.util.log.metrics.CompilerMetrics;
 import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
@@ -167,6 +178,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -177,20 +189,41 @@ import javax.xml.parsers.ParserConfigurationException;
  */
 public class JavaToJavaScriptCompiler {
 
+  /**
+   * The text and bookkeeping generated for one fragment.
+   */
+  private static class FragmentOutput {
+    final DiskCacheToken js;
+    final StatementRanges ranges;
+    final SizeBreakdown sizeBreakdown;
+    final Map<Range, SourceInfo> sourceInfoMap;
+    final byte[] sourceMap;
+
+    FragmentOutput(DiskCacheToken js, StatementRanges ranges, SizeBreakdown sizeBreakdown,
+        Map<Range, SourceInfo> sourceInfoMap, byte[] sourceMap) {
+      this.js = js;
+      this.ranges = ranges;
+      this.sizeBreakdown = sizeBreakdown;
+      this.sourceInfoMap = sourceInfoMap;
+      this.sourceMap = sourceMap;
+    }
+  }
+
+  /**
+   * Keeps the generated fragments in the {@link DiskCache} until they are asked
+   * for; they are streamed rather than copied through memory when the result
+   * is serialized.
+   */
   private static class PermutationResultImpl implements PermutationResult {
     private final ArtifactSet artifacts = new ArtifactSet();
-    private final byte[][] js;
+    private final DiskCacheToken[] js;
     private final Permutation permutation;
     private final byte[] serializedSymbolMap;
     private final StatementRanges[] statementRanges;
 
-    public PermutationResultImpl(String[] js, Permutation permutation, SymbolData[] symbolMap,
-        StatementRanges[] statementRanges) {
-      byte[][] bytes = new byte[js.length][];
-      for (int i = 0; i < js.length; ++i) {
-        bytes[i] = Util.getBytes(js[i]);
-      }
-      this.js = bytes;
+    public PermutationResultImpl(DiskCacheToken[] js, Permutation permutation,
+        SymbolData[] symbolMap, StatementRanges[] statementRanges) {
+      this.js = js;
       this.permutation = permutation;
       try {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -214,7 +247,11 @@ public class JavaToJavaScriptCompiler {
 
     @Override
     public byte[][] getJs() {
-      return js;
+      byte[][] bytes = new byte[js.length][];
+      for (int i = 0; i < js.length; ++i) {
+        bytes[i] = js[i].readByteArray();
+      }
+      return bytes;
     }
 
     @Override
@@ -265,6 +302,7 @@ public class JavaToJavaScriptCompiler {
     JJSOptions options = unifiedAst.getOptions();
     long startTimeMilliseconds = System.currentTimeMillis();
 
+    CompilerMetrics.beginPermutation(permutation.getId(), options.isCompilerMetricsEnabled());
     Event jjsCompilePermutationEvent =
         SpeedTracerLogger.start(CompilerEventType.JJS_COMPILE_PERMUTATION, "name", permutation
             .prettyPrint());
@@ -419,9 +457,11 @@ public class JavaToJavaScriptCompiler {
           "compiler.useSourceMaps", "true", true, false, false);
       // (10.5) Obfuscate
       Map<JsName, String> obfuscateMap = Maps.create();
+      FragmentLoadProfile fragmentProfile = FragmentLoadProfile.fromProperty(logger);
       switch (options.getOutput()) {
         case OBFUSCATED:
-          obfuscateMap = JsStringInterner.exec(jprogram, jsProgram, isIE6orUnknown);
+          obfuscateMap =
+              JsStringInterner.exec(jprogram, jsProgram, isIE6orUnknown, fragmentProfile);
           JsObfuscateNamer.exec(jsProgram);
           if (options.isAggressivelyOptimize()) {
             if (JsStackEmulator.getStackMode(propertyOracles) == JsStackEmulator.StackMode.STRIP) {
@@ -443,7 +483,8 @@ public class JavaToJavaScriptCompiler {
           JsPrettyNamer.exec(jsProgram);
           break;
         case DETAILED:
-          obfuscateMap = JsStringInterner.exec(jprogram, jsProgram, isIE6orUnknown);
+          obfuscateMap =
+              JsStringInterner.exec(jprogram, jsProgram, isIE6orUnknown, fragmentProfile);
           JsVerboseNamer.exec(jsProgram);
           break;
         default:
@@ -473,14 +514,17 @@ public class JavaToJavaScriptCompiler {
       JsBreakUpLargeVarStatements.exec(jsProgram, propertyOracles);
 
       // (12) Generate the final output text.
-      String[] js = new String[jsProgram.getFragmentCount()];
+      DiskCacheToken[] js = new DiskCacheToken[jsProgram.getFragmentCount()];
       StatementRanges[] ranges = new StatementRanges[js.length];
       SizeBreakdown[] sizeBreakdowns =
           options.isSoycEnabled() || options.isCompilerMetricsEnabled()
               ? new SizeBreakdown[js.length] : null;
-      List<Map<Range, SourceInfo>> sourceInfoMaps = new ArrayList<Map<Range, SourceInfo>>();
+      List<Map<Range, SourceInfo>> sourceInfoMaps =
+          options.isSoycExtra() ? new ArrayList<Map<Range, SourceInfo>>() : null;
+      byte[][] sourceMaps = !options.isClosureCompilerEnabled() && isSourceMapsEnabled
+          ? new byte[js.length][] : null;
       generateJavaScriptCode(options, jprogram, jsProgram, jjsmap, js, ranges,
-          sizeBreakdowns, sourceInfoMaps, splitBlocks, isSourceMapsEnabled);
+          sizeBreakdowns, sourceInfoMaps, sourceMaps, splitBlocks);
 
       PermutationResult toReturn =
           new PermutationResultImpl(js, permutation, makeSymbolMap(symbolTable, jsProgram), ranges);
@@ -494,6 +538,7 @@ public class JavaToJavaScriptCompiler {
             - ManagementFactory.getRuntimeMXBean().getStartTime());
         compilationMetrics.setJsSize(sizeBreakdowns);
         compilationMetrics.setPermutationDescription(permutation.prettyPrint());
+        compilationMetrics.setPhaseMetrics(CompilerMetrics.getPermutationPhases());
         toReturn.addArtifacts(Lists.create(unifiedAst.getModuleMetrics(), unifiedAst
             .getPrecompilationMetrics(), compilationMetrics));
       }
@@ -501,15 +546,14 @@ public class JavaToJavaScriptCompiler {
       // TODO: enable this when ClosureCompiler is enabled
       if (!options.isClosureCompilerEnabled()) {
         toReturn.addArtifacts(makeSoycArtifacts(logger, permutationId, jprogram, js, sizeBreakdowns,
-            options.isSoycExtra() ? sourceInfoMaps : null, dependencies, jjsmap, obfuscateMap,
+            sourceInfoMaps, dependencies, jjsmap, obfuscateMap,
             unifiedAst.getModuleMetrics(), unifiedAst.getPrecompilationMetrics(), compilationMetrics,
             options.isSoycHtmlDisabled()));
       }
 
-      // TODO: enable this when ClosureCompiler is enabled
-      if (!options.isClosureCompilerEnabled() && isSourceMapsEnabled) {
+      if (sourceMaps != null) {
         logger.log(TreeLogger.INFO, "Source Maps Enabled");
-        toReturn.addArtifacts(SourceMapRecorder.makeSourceMapArtifacts(sourceInfoMaps,
+        toReturn.addArtifacts(SourceMapRecorder.makeSourceMapArtifacts(sourceMaps,
             permutationId));
       }
 
@@ -523,6 +567,7 @@ public class JavaToJavaScriptCompiler {
       throw CompilationProblemReporter.logAndTranslateException(logger, e);
     } finally {
       jjsCompilePermutationEvent.end();
+      CompilerMetrics.endPermutation();
     }
   }
 
@@ -632,6 +677,9 @@ public class JavaToJavaScriptCompiler {
         precompilationMetrics.setFinalTypeOracleTypes(finalTypeOracleTypes);
       }
 
+      String strongName =
+          computeStrongName(rpo.getCompilationState(), declEntryPts, additionalRootTypes, options);
+
       // Free up memory.
       rpo.clear();
 
@@ -719,6 +767,7 @@ public class JavaToJavaScriptCompiler {
       Event createUnifiedAstEvent = SpeedTracerLogger.start(CompilerEventType.CREATE_UNIFIED_AST);
       UnifiedAst result =
           new UnifiedAst(options, new AST(jprogram, jsProgram), singlePermutation, rebindRequests);
+      result.setStrongName(strongName);
       createUnifiedAstEvent.end();
       return result;
     } catch (Throwable e) {
@@ -727,6 +776,87 @@ public class JavaToJavaScriptCompiler {
     }
   }
 
+  /**
+   * Resolves the rebinds that every one of <code>permutations</code> answers
+   * the same way and optimizes the result once, so that each permutation
+   * compile starts from a smaller, already optimized AST and only resolves the
+   * rebinds that differ. <code>unifiedAst</code> is consumed unless it is
+   * returned unchanged, which happens for draft compiles, coverage builds and
+   * when there are no shared answers.
+   *
+   * @param logger the logger to use
+   * @param unifiedAst the result of a precompile
+   * @param permutations the permutations that will be compiled from the result
+   * @return an AST to compile <code>permutations</code> from
+   * @throws UnableToCompleteException if an error occurs
+   */
+  public static UnifiedAst resolveSharedRebinds(TreeLogger logger, UnifiedAst unifiedAst,
+      Permutation[] permutations) throws UnableToCompleteException {
+    JJSOptions options = unifiedAst.getOptions();
+    if (options.getOptimizationLevel() == OptionOptimize.OPTIMIZE_LEVEL_DRAFT
+        || System.getProperty("gwt.coverage") != null) {
+      // Coverage must see the AST before any permutation is optimized.
+      return unifiedAst;
+    }
+    Map<String, String> sharedAnswers =
+        getSharedRebindAnswers(permutations, unifiedAst.getRebindRequests());
+    if (sharedAnswers.isEmpty()) {
+      return unifiedAst;
+    }
+
+    Event resolveSharedRebindsEvent =
+        SpeedTracerLogger.start(CompilerEventType.RESOLVE_SHARED_REBINDS);
+    try {
+      AST ast = unifiedAst.getFreshAst();
+      JProgram jprogram = ast.getJProgram();
+      ResolveRebinds.execShared(jprogram, sharedAnswers);
+      optimize(options, jprogram);
+
+      Set<String> rebindRequests = new HashSet<String>();
+      RecordRebinds.exec(jprogram, rebindRequests);
+      if (logger.isLoggable(TreeLogger.INFO)) {
+        logger.log(TreeLogger.INFO, "Resolved " + sharedAnswers.size()
+            + " rebinds shared by " + permutations.length + " permutations; "
+            + rebindRequests.size() + " remain per permutation");
+      }
+
+      UnifiedAst result = new UnifiedAst(options, ast, false, rebindRequests);
+      result.setModuleMetrics(unifiedAst.getModuleMetrics());
+      result.setPrecompilationMetrics(unifiedAst.getPrecompilationMetrics());
+      String strongName = unifiedAst.getStrongName();
+      if (strongName != null) {
+        strongName = Util.computeStrongName(Util.getBytes(strongName
+            + new TreeMap<String, String>(sharedAnswers)));
+      }
+      result.setStrongName(strongName);
+      return result;
+    } catch (Throwable e) {
+      throw CompilationProblemReporter.logAndTranslateException(logger, e);
+    } finally {
+      resolveSharedRebindsEvent.end();
+    }
+  }
+
+  /**
+   * Returns the answers to live rebind requests that are the same in every
+   * property combination of every permutation.
+   */
+  static Map<String, String> getSharedRebindAnswers(Permutation[] permutations,
+      Set<String> liveRebindRequests) {
+    List<Map<String, String>> allAnswers = new ArrayList<Map<String, String>>();
+    for (Permutation permutation : permutations) {
+      Collections.addAll(allAnswers, permutation.getOrderedRebindAnswers());
+    }
+    if (allAnswers.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, String>[] answers = allAnswers.toArray(new Map[allAnswers.size()]);
+    Map<String, String> toReturn = ResolveRebinds.getHardRebindAnswers(answers);
+    toReturn.keySet().retainAll(liveRebindRequests);
+    return toReturn;
+  }
+
   /**
    * Perform the minimal amount of optimization to make sure the compile
    * succeeds.
@@ -749,6 +879,12 @@ public class JavaToJavaScriptCompiler {
     List<OptimizerStats> allOptimizerStats = new ArrayList<OptimizerStats>();
     int counter = 0;
     int optimizationLevel = options.getOptimizationLevel();
+    MethodDependencyIndex dependencyIndex =
+        MethodDependencyIndex.isEnabled() ? new MethodDependencyIndex(jprogram) : null;
+    // A parallel pass may leave work for the next pass, so only use it when
+    // the passes run until nothing changes.
+    boolean parallelDeadCodeElimination = optimizationLevel == OptionOptimize.OPTIMIZE_LEVEL_MAX
+        && ParallelOptimizer.isDeadCodeEliminationEnabled();
     while (true) {
       counter++;
       if (optimizationLevel < OptionOptimize.OPTIMIZE_LEVEL_MAX && counter > optimizationLevel) {
@@ -760,7 +896,8 @@ public class JavaToJavaScriptCompiler {
       }
       AstDumper.maybeDumpAST(jprogram);
       OptimizerStats stats =
-          optimizeLoop("Pass " + counter, jprogram, options.isAggressivelyOptimize());
+          optimizeLoop("Pass " + counter, jprogram, options.isAggressivelyOptimize(),
+              dependencyIndex, parallelDeadCodeElimination);
       allOptimizerStats.add(stats);
       if (!stats.didChange()) {
         break;
@@ -827,6 +964,20 @@ public class JavaToJavaScriptCompiler {
 
   protected static OptimizerStats optimizeLoop(String passName, JProgram jprogram,
       boolean isAggressivelyOptimize) {
+    return optimizeLoop(passName, jprogram, isAggressivelyOptimize, null, false);
+  }
+
+  /**
+   * Runs one pass of the Java optimizers.
+   * 
+   * @param dependencyIndex if not <code>null</code>, intraprocedural optimizers
+   *          only revisit the methods it reports as dirty
+   * @param parallelDeadCodeElimination whether to run
+   *          {@link DeadCodeElimination} with {@link ParallelOptimizer}
+   */
+  protected static OptimizerStats optimizeLoop(String passName, JProgram jprogram,
+      boolean isAggressivelyOptimize, MethodDependencyIndex dependencyIndex,
+      boolean parallelDeadCodeElimination) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "phase", "loop");
 
     // Count the number of nodes in the AST so we can measure the efficiency of
@@ -864,7 +1015,16 @@ public class JavaToJavaScriptCompiler {
     stats.add(MethodCallTightener.exec(jprogram).recordVisits(numNodes));
 
     // dead code removal??
-    stats.add(DeadCodeElimination.exec(jprogram).recordVisits(numNodes));
+    // Revisiting only the dirty methods beats visiting every type in parallel,
+    // so incremental optimization turns the parallel pass off.
+    if (dependencyIndex != null) {
+      stats.add(DeadCodeElimination.exec(jprogram, dependencyIndex.takeDirtyMethods())
+          .recordVisits(numNodes));
+    } else if (parallelDeadCodeElimination) {
+      stats.add(ParallelOptimizer.execDeadCodeElimination(jprogram).recordVisits(numNodes));
+    } else {
+      stats.add(DeadCodeElimination.exec(jprogram).recordVisits(numNodes));
+    }
 
     // inlining
     stats.add(MethodInliner.exec(jprogram).recordVisits(numNodes));
@@ -898,6 +1058,26 @@ public class JavaToJavaScriptCompiler {
     return dependencyRecorder;
   }
 
+  /**
+   * Computes a name for the unified AST that depends only on its inputs: the
+   * content of every compilation unit, the entry points, the compiler options
+   * and the compiler version. The serialized AST itself is not stable between
+   * runs, so it cannot be hashed directly.
+   */
+  private static String computeStrongName(CompilationState compilationState,
+      String[] declEntryPts, String[] additionalRootTypes, JJSOptions options) throws IOException {
+    ByteArrayOutputStream optionsBytes = new ByteArrayOutputStream();
+    Util.writeObjectToStream(optionsBytes, new JJSOptionsImpl(options));
+    List<String> parts = new ArrayList<String>();
+    parts.add(About.getGwtVersionNum());
+    parts.add(compilationState.getStrongName());
+    parts.add(Util.computeStrongName(optionsBytes.toByteArray()));
+    Collections.addAll(parts, declEntryPts);
+    parts.add("");
+    Collections.addAll(parts, additionalRootTypes);
+    return Util.computeStrongName(Util.getBytes(parts.toArray(new String[parts.size()])));
+  }
+
   private static JMethodCall createReboundModuleLoad(TreeLogger logger, SourceInfo info,
       JDeclaredType reboundEntryType, String originalMainClassName, JDeclaredType enclosingType)
       throws UnableToCompleteException {
@@ -1038,80 +1218,149 @@ public class JavaToJavaScriptCompiler {
    * @param sizeBreakdowns An array to hold the size breakdowns for that
 *          JavaScript
    * @param sourceInfoMaps An array to hold the source info maps for that
-*          JavaScript
+*          JavaScript, or null
+   * @param sourceMaps An array to hold the encoded source maps for that
+   *          JavaScript, or null if source maps are disabled
    * @param splitBlocks true if current permutation is for IE6 or unknown
-   * @param sourceMapsEnabled
    */
-  private static void generateJavaScriptCode(JJSOptions options,
+  private static void generateJavaScriptCode(final JJSOptions options,
       JProgram jprogram, JsProgram jsProgram,
-      JavaToJavaScriptMap jjsMap, String[] js, StatementRanges[] ranges,
-      SizeBreakdown[] sizeBreakdowns,
-      List<Map<Range, SourceInfo>> sourceInfoMaps,
-      boolean splitBlocks, boolean sourceMapsEnabled) {
+      final JavaToJavaScriptMap jjsMap, DiskCacheToken[] js, StatementRanges[] ranges,
+      final SizeBreakdown[] sizeBreakdowns,
+      final List<Map<Range, SourceInfo>> sourceInfoMaps, byte[][] sourceMaps,
+      final boolean splitBlocks) {
 
     boolean useClosureCompiler = options.isClosureCompilerEnabled();
     if (useClosureCompiler) {
       ClosureJsRunner runner = new ClosureJsRunner();
-      runner.compile(jprogram, jsProgram, js, options.getOutput());
+      String[] closureJs = new String[js.length];
+      runner.compile(jprogram, jsProgram, closureJs, options.getOutput());
+      for (int i = 0; i < js.length; i++) {
+        js[i] = new DiskCacheToken(DiskCache.INSTANCE.writeString(closureJs[i]));
+      }
       return;
     }
 
-    for (int i = 0; i < js.length; i++) {
-      DefaultTextOutput out = new DefaultTextOutput(options.getOutput().shouldMinimize());
-      JsSourceGenerationVisitorWithSizeBreakdown v;
+    final boolean sourceMapsEnabled = sourceMaps != null;
+    FragmentOutput[] outputs = new FragmentOutput[js.length];
+    if (ParallelOptimizer.isEnabled() && js.length > 1) {
+      List<Callable<FragmentOutput>> tasks = new ArrayList<Callable<FragmentOutput>>(js.length);
+      for (int i = 0; i < js.length; i++) {
+        final int fragmentNumber = i;
+        final JsBlock fragment = jsProgram.getFragmentBlock(i);
+        tasks.add(new Callable<FragmentOutput>() {
+          public FragmentOutput call() {
+            return generateFragment(options, jjsMap, fragment, fragmentNumber,
+                sizeBreakdowns != null, sourceInfoMaps != null, splitBlocks, sourceMapsEnabled);
+          }
+        });
+      }
+      outputs = ParallelOptimizer.runAll(tasks).toArray(outputs);
+    } else {
+      for (int i = 0; i < js.length; i++) {
+        outputs[i] = generateFragment(options, jjsMap, jsProgram.getFragmentBlock(i), i,
+            sizeBreakdowns != null, sourceInfoMaps != null, splitBlocks, sourceMapsEnabled);
+      }
+    }
 
+    // Merge in fragment order so the result does not depend on scheduling.
+    for (int i = 0; i < js.length; i++) {
+      js[i] = outputs[i].js;
+      ranges[i] = outputs[i].ranges;
+      if (sizeBreakdowns != null) {
+        sizeBreakdowns[i] = outputs[i].sizeBreakdown;
+      }
       if (sourceInfoMaps != null) {
-        v = new JsReportGenerationVisitor(out, jjsMap);
-      } else {
-        v = new JsSourceGenerationVisitorWithSizeBreakdown(out, jjsMap);
+        sourceInfoMaps.add(outputs[i].sourceInfoMap);
       }
-      v.accept(jsProgram.getFragmentBlock(i));
+      if (sourceMaps != null) {
+        sourceMaps[i] = outputs[i].sourceMap;
+      }
+    }
+  }
 
-      StatementRanges statementRanges = v.getStatementRanges();
-      String code = out.toString();
-      Map<Range, SourceInfo> infoMap = (sourceInfoMaps != null) ? v.getSourceInfoMap() : null;
+  /**
+   * Generates the text of a single fragment. Only reads the JavaScript AST, so
+   * several fragments may be generated at once. When source maps are enabled,
+   * the fragment's map is encoded while its text is generated.
+   */
+  private static FragmentOutput generateFragment(JJSOptions options, JavaToJavaScriptMap jjsMap,
+      JsBlock fragment, int fragmentNumber, boolean recordSizes, boolean recordSourceInfo,
+      boolean splitBlocks, boolean sourceMapsEnabled) {
+    // TODO(cromwellian) move to the Js AST, re-enable sourcemaps + clustering
+    boolean cluster = !sourceMapsEnabled
+        && options.isAggressivelyOptimize()
+        // only cluster for obfuscated mode
+        && options.getOutput() == JsOutputOption.OBFUSCATED;
+    boolean splitIeBlocks = !sourceMapsEnabled && splitBlocks;
+    boolean minimize = options.getOutput().shouldMinimize();
+
+    if (!cluster && !splitIeBlocks) {
+      // Nothing rewrites the text, so encode it straight into the disk cache.
+      Utf8TextOutput out = new Utf8TextOutput(minimize);
+      SourceMapBuilder sourceMapBuilder = sourceMapsEnabled ? new SourceMapBuilder() : null;
+      JsSourceGenerationVisitorWithSizeBreakdown v =
+          makeSourceGenerationVisitor(out, jjsMap, recordSourceInfo, sourceMapBuilder);
+      v.accept(fragment);
+      return new FragmentOutput(out.toDiskCache(), v.getStatementRanges(),
+          recordSizes ? v.getSizeBreakdown() : null,
+          recordSourceInfo ? v.getSourceInfoMap() : null,
+          sourceMapsEnabled ? sourceMapBuilder.toByteArray(
+              SourceMapRecorder.fileNameForFragment(fragmentNumber)) : null);
+    }
 
-      JsAbstractTextTransformer transformer =
-          new JsAbstractTextTransformer(code, statementRanges, infoMap) {
-            @Override
-            public void exec() {
-            }
+    // Rewriting the text would invalidate a source map.
+    assert !sourceMapsEnabled;
+    DefaultTextOutput out = new DefaultTextOutput(minimize);
+    JsSourceGenerationVisitorWithSizeBreakdown v =
+        makeSourceGenerationVisitor(out, jjsMap, recordSourceInfo, null);
+    v.accept(fragment);
+
+    StatementRanges statementRanges = v.getStatementRanges();
+    String code = out.toString();
+    Map<Range, SourceInfo> infoMap = recordSourceInfo ? v.getSourceInfoMap() : null;
+
+    JsAbstractTextTransformer transformer =
+        new JsAbstractTextTransformer(code, statementRanges, infoMap) {
+          @Override
+          public void exec() {
+          }
 
-            @Override
-            protected void updateSourceInfoMap() {
-            }
-          };
+          @Override
+          protected void updateSourceInfoMap() {
+          }
+        };
 
-      /**
-       * Reorder function decls to improve compression ratios. Also restructures
-       * the top level blocks into sub-blocks if they exceed 32767 statements.
-       */
-      Event functionClusterEvent = SpeedTracerLogger.start(CompilerEventType.FUNCTION_CLUSTER);
-      // TODO(cromwellian) move to the Js AST, re-enable sourcemaps + clustering
-      if (!sourceMapsEnabled
-          && options.isAggressivelyOptimize()
-          // only cluster for obfuscated mode
-          && options.getOutput() == JsOutputOption.OBFUSCATED) {
-        transformer = new JsFunctionClusterer(transformer);
-        transformer.exec();
-      }
-      functionClusterEvent.end();
+    /**
+     * Reorder function decls to improve compression ratios. Also restructures
+     * the top level blocks into sub-blocks if they exceed 32767 statements.
+     */
+    Event functionClusterEvent = SpeedTracerLogger.start(CompilerEventType.FUNCTION_CLUSTER);
+    if (cluster) {
+      transformer = new JsFunctionClusterer(transformer);
+      transformer.exec();
+    }
+    functionClusterEvent.end();
 
-      // rewrite top-level blocks to limit the number of statements
-      if (!sourceMapsEnabled && splitBlocks) {
-        transformer = new JsIEBlockTextTransformer(transformer);
-        transformer.exec();
-      }
+    // rewrite top-level blocks to limit the number of statements
+    if (splitIeBlocks) {
+      transformer = new JsIEBlockTextTransformer(transformer);
+      transformer.exec();
+    }
 
-      js[i] = transformer.getJs();
-      ranges[i] = transformer.getStatementRanges();
-      if (sizeBreakdowns != null) {
-        sizeBreakdowns[i] = v.getSizeBreakdown();
-      }
-      if (sourceInfoMaps != null) {
-        sourceInfoMaps.add(transformer.getSourceInfoMap());
-      }
+    DiskCacheToken js = new DiskCacheToken(DiskCache.INSTANCE.writeString(transformer.getJs()));
+    return new FragmentOutput(js, transformer.getStatementRanges(),
+        recordSizes ? v.getSizeBreakdown() : null,
+        recordSourceInfo ? transformer.getSourceInfoMap() : null, null);
+  }
+
+  private static JsSourceGenerationVisitorWithSizeBreakdown makeSourceGenerationVisitor(
+      TextOutput out, JavaToJavaScriptMap jjsMap, boolean recordSourceInfo,
+      SourceMapBuilder sourceMapBuilder) {
+    if (recordSourceInfo || sourceMapBuilder != null) {
+      return new JsReportGenerationVisitor(out, jjsMap, recordSourceInfo, sourceMapBuilder);
     }
+    return new JsSourceGenerationVisitorWithSizeBreakdown(out, jjsMap);
   }
 
   /**
@@ -1148,7 +1397,7 @@ public class JavaToJavaScriptCompiler {
   }
 
   private static Collection<? extends Artifact<?>> makeSoycArtifacts(TreeLogger logger,
-      int permutationId, JProgram jprogram, String[] js, SizeBreakdown[] sizeBreakdowns,
+      int permutationId, JProgram jprogram, DiskCacheToken[] js, SizeBreakdown[] sizeBreakdowns,
       List<Map<Range, SourceInfo>> sourceInfoMaps, SyntheticArtifact dependencies,
       JavaToJavaScriptMap jjsmap, Map<JsName, String> obfuscateMap,
       ModuleMetricsArtifact moduleMetricsArtifact,
@@ -1189,7 +1438,11 @@ public class JavaToJavaScriptCompiler {
       Event recordStories =
           SpeedTracerLogger.start(CompilerEventType.MAKE_SOYC_ARTIFACTS, "phase", "recordStories");
       baos.reset();
-      StoryRecorder.recordStories(logger, baos, sourceInfoMaps, js);
+      String[] jsStrings = new String[js.length];
+      for (int i = 0; i < js.length; i++) {
+        jsStrings[i] = js[i].readString();
+      }
+      StoryRecorder.recordStories(logger, baos, sourceInfoMaps, jsStrings);
       soycArtifacts.add(new SyntheticArtifact(SoycReportLinker.class, "detailedStories"
           + permutationId + ".xml.gz", baos.toByteArray()));
       recordStories.end();
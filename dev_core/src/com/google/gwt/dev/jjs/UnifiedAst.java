@@ -23,6 +23,7 @@ import com.google.gwt.dev.Permutation;
 import com.google.gwt.dev.jjs.ast.JProgram;
 import com.google.gwt.dev.js.ast.JsProgram;
 import com.google.gwt.dev.util.DiskCache;
+import com.google.gwt.dev.util.InterningObjectInputStream;
 import com.google.gwt.dev.util.Util;
 
 import java.io.IOException;
@@ -101,6 +102,11 @@ public class UnifiedAst implements Serializable {
    */
   private transient long serializedAstToken;
 
+  /**
+   * A name that changes whenever the inputs to precompilation change.
+   */
+  private String strongName;
+
   public UnifiedAst(JJSOptions options, AST initialAst, boolean singlePermutation,
       Set<String> rebindRequests) {
     this.options = new JJSOptionsImpl(options);
@@ -118,6 +124,7 @@ public class UnifiedAst implements Serializable {
     other.initialAst = null; // steal its copy
     this.rebindRequests = other.rebindRequests;
     this.serializedAstToken = other.serializedAstToken;
+    this.strongName = other.strongName;
   }
 
   /**
@@ -134,6 +141,35 @@ public class UnifiedAst implements Serializable {
     return JavaToJavaScriptCompiler.compilePermutation(logger, this, permutation);
   }
 
+  /**
+   * Returns an AST in which the rebinds answered the same way by every one of
+   * <code>permutations</code> are resolved and the result is optimized once,
+   * leaving each permutation to resolve only the rebinds that differ. This AST
+   * is consumed in the process. Returns this AST if there is nothing to share.
+   *
+   * @param logger the logger to use
+   * @param permutations the permutations that will be compiled from the result
+   * @throws UnableToCompleteException if an error occurs
+   */
+  public UnifiedAst resolveSharedRebinds(TreeLogger logger, Permutation[] permutations)
+      throws UnableToCompleteException {
+    return JavaToJavaScriptCompiler.resolveSharedRebinds(logger, this, permutations);
+  }
+
+  /**
+   * Drops the prepared AST and frees the disk space used by the serialized
+   * one. This object cannot be compiled or serialized afterwards.
+   */
+  public void dispose() {
+    synchronized (myLockObject) {
+      initialAst = null;
+      if (serializedAstToken >= 0) {
+        diskCache.free(serializedAstToken);
+        serializedAstToken = -1;
+      }
+    }
+  }
+
   /**
    * Return the current AST so that clients can explicitly walk the Java or
    * JavaScript parse trees.
@@ -151,7 +187,7 @@ public class UnifiedAst implements Serializable {
           throw new IllegalStateException(
               "No serialized AST was cached and AST was already consumed.");
         }
-        return diskCache.readObject(serializedAstToken, AST.class);
+        return readSerializedAst();
       }
     }
   }
@@ -184,6 +220,15 @@ public class UnifiedAst implements Serializable {
     return rebindRequests;
   }
 
+  /**
+   * Returns a name computed from the inputs to precompilation, or
+   * <code>null</code> if it is unknown. Two ASTs with the same strong name
+   * produce the same output for the same permutation.
+   */
+  public String getStrongName() {
+    return strongName;
+  }
+
   /**
    * Internally prepares a new AST for compilation if one is not already
    * prepared.
@@ -191,7 +236,7 @@ public class UnifiedAst implements Serializable {
   public void prepare() {
     synchronized (myLockObject) {
       if (initialAst == null) {
-        initialAst = diskCache.readObject(serializedAstToken, AST.class);
+        initialAst = readSerializedAst();
       }
     }
   }
@@ -210,6 +255,28 @@ public class UnifiedAst implements Serializable {
     this.precompilationMetrics = metrics;
   }
 
+  /**
+   * Save the name computed from the inputs to precompilation.
+   */
+  public void setStrongName(String strongName) {
+    this.strongName = strongName;
+  }
+
+  /**
+   * Deserializes a new copy of the AST. Its Strings are interned, so the copies
+   * held by concurrent permutation workers share names and literals.
+   */
+  private AST readSerializedAst() {
+    try {
+      return InterningObjectInputStream.readObject(diskCache.readByteArray(serializedAstToken),
+          AST.class);
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException("Unexpected exception deserializing AST", e);
+    } catch (IOException e) {
+      throw new RuntimeException("Unexpected exception deserializing AST", e);
+    }
+  }
+
   /**
    * Re-initialize lock object; copy serialized AST straight to cache.
    */
@@ -83,6 +83,7 @@ public class JClassType extends JDeclaredType implements CanBeSetFinal {
 
   public void setFinal() {
     isFinal = true;
+    markModified();
   }
 
   /**
@@ -93,11 +94,15 @@ public class JClassType extends JDeclaredType implements CanBeSetFinal {
   }
 
   public void traverse(JVisitor visitor, Context ctx) {
+    int modsBefore = JModVisitor.getNumMods(visitor);
     if (visitor.visit(this, ctx)) {
+      recordModifications(visitor, modsBefore);
       fields = visitor.acceptWithInsertRemoveImmutable(fields);
       methods = visitor.acceptWithInsertRemoveImmutable(methods);
+      modsBefore = JModVisitor.getNumMods(visitor);
     }
     visitor.endVisit(this, ctx);
+    recordModifications(visitor, modsBefore);
   }
 
   @Override
@@ -84,6 +84,13 @@ public abstract class JDeclaredType extends JReferenceType {
    */
   private boolean isExternal;
 
+  /**
+   * Incremented each time this type itself, as opposed to one of its members,
+   * is changed through a setter or by a {@link JModVisitor} while traversing
+   * it.
+   */
+  private transient int modificationCount;
+
   /**
    * This type's implemented interfaces.
    */
@@ -123,6 +130,7 @@ public abstract class JDeclaredType extends JReferenceType {
   public void addField(JField field) {
     assert field.getEnclosingType() == this;
     fields = Lists.add(fields, field);
+    markModified();
   }
 
   /**
@@ -130,6 +138,7 @@ public abstract class JDeclaredType extends JReferenceType {
    */
   public void addImplements(JInterfaceType superInterface) {
     superInterfaces = Lists.add(superInterfaces, superInterface);
+    markModified();
   }
 
   /**
@@ -142,6 +151,7 @@ public abstract class JDeclaredType extends JReferenceType {
     assert !method.getName().equals("$init") || getMethods().size() == 1 : "Attempted adding $init "
         + "method with index != 1";
     methods = Lists.add(methods, method);
+    markModified();
   }
 
   /**
@@ -251,6 +261,14 @@ public abstract class JDeclaredType extends JReferenceType {
     return "L" + name.replace('.', '/') + ';';
   }
 
+  /**
+   * Returns a counter that changes whenever this type is modified outside of
+   * any of its fields or methods, including when members are added or removed.
+   */
+  public int getModificationCount() {
+    return modificationCount;
+  }
+
   /**
    * Returns this type's declared methods; does not include methods defined in a
    * super type unless they are overridden by this type.
@@ -289,6 +307,7 @@ public abstract class JDeclaredType extends JReferenceType {
   public void removeField(int i) {
     assert !isExternal() : "External types can not be modified.";
     fields = Lists.remove(fields, i);
+    markModified();
   }
 
   /**
@@ -297,6 +316,7 @@ public abstract class JDeclaredType extends JReferenceType {
   public void removeMethod(int i) {
     assert !isExternal() : "External types can not be modified.";
     methods = Lists.remove(methods, i);
+    markModified();
   }
 
   /**
@@ -351,6 +371,23 @@ public abstract class JDeclaredType extends JReferenceType {
     methods = Lists.create(a);
   }
 
+  /**
+   * Records a change to this type made through a setter.
+   */
+  void markModified() {
+    ++modificationCount;
+  }
+
+  /**
+   * Call after a visitor's <code>visit</code> or <code>endVisit</code> of this
+   * type to record whether it changed anything.
+   */
+  protected void recordModifications(JVisitor visitor, int modsBefore) {
+    if (JModVisitor.getNumMods(visitor) != modsBefore) {
+      markModified();
+    }
+  }
+
   /**
    * Subclasses must replace themselves with a shallow reference when
    * {@link #isExternal()} is <code>true</code>.
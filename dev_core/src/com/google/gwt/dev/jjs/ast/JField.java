@@ -83,6 +83,13 @@ public class JField extends JVariable implements CanBeStatic, HasEnclosingType {
   private final boolean isStatic;
   private final boolean isThisRef;
   private boolean isVolatile;
+
+  /**
+   * Incremented each time this field is changed through a setter, or by a
+   * {@link JModVisitor} while traversing it.
+   */
+  private transient int modificationCount;
+
   private transient String signature;
 
   public JField(SourceInfo info, String name, JDeclaredType enclosingType, JType type,
@@ -108,6 +115,14 @@ public class JField extends JVariable implements CanBeStatic, HasEnclosingType {
     return null;
   }
 
+  /**
+   * Returns a counter that changes whenever this field's declaration is
+   * modified.
+   */
+  public int getModificationCount() {
+    return modificationCount;
+  }
+
   public String getSignature() {
     if (signature == null) {
       StringBuilder sb = new StringBuilder();
@@ -149,6 +164,7 @@ public class JField extends JVariable implements CanBeStatic, HasEnclosingType {
 
   public void setInitializer(JDeclarationStatement declStmt) {
     this.declStmt = declStmt;
+    markModified();
   }
 
   public void setVolatile() {
@@ -156,13 +172,23 @@ public class JField extends JVariable implements CanBeStatic, HasEnclosingType {
       throw new IllegalStateException("Final fields cannot be set volatile");
     }
     isVolatile = true;
+    markModified();
   }
 
   public void traverse(JVisitor visitor, Context ctx) {
+    int modsBefore = JModVisitor.getNumMods(visitor);
     if (visitor.visit(this, ctx)) {
       // Do not visit declStmt, it gets visited within its own code block.
     }
     visitor.endVisit(this, ctx);
+    if (JModVisitor.getNumMods(visitor) != modsBefore) {
+      markModified();
+    }
+  }
+
+  @Override
+  void markModified() {
+    ++modificationCount;
   }
 
   protected Object writeReplace() {
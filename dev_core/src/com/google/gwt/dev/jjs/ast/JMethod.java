@@ -105,6 +105,13 @@ public class JMethod extends JNode implements HasEnclosingType, HasName, HasType
   private boolean isFinal;
   private final boolean isStatic;
   private boolean isSynthetic = false;
+
+  /**
+   * Incremented each time this method is changed through a setter, or by a
+   * {@link JModVisitor} while traversing it.
+   */
+  private transient int modificationCount;
+
   private final String name;
 
   private List<JType> originalParamTypes;
@@ -174,6 +181,7 @@ public class JMethod extends JNode implements HasEnclosingType, HasName, HasType
    */
   public void addParam(JParameter x) {
     params = Lists.add(params, x);
+    markModified();
   }
 
   public void addThrownException(JClassType exceptionType) {
@@ -214,6 +222,14 @@ public class JMethod extends JNode implements HasEnclosingType, HasName, HasType
     return enclosingType;
   }
 
+  /**
+   * Returns a counter that changes whenever this method's signature or body is
+   * modified.
+   */
+  public int getModificationCount() {
+    return modificationCount;
+  }
+
   public String getName() {
     return name;
   }
@@ -316,6 +332,7 @@ public class JMethod extends JNode implements HasEnclosingType, HasName, HasType
    */
   public void removeParam(int index) {
     params = Lists.remove(params, index);
+    markModified();
   }
 
   /**
@@ -337,6 +354,7 @@ public class JMethod extends JNode implements HasEnclosingType, HasName, HasType
 
   public void setAbstract(boolean isAbstract) {
     this.isAbstract = isAbstract;
+    markModified();
   }
 
   public void setBody(JAbstractMethodBody body) {
@@ -344,10 +362,12 @@ public class JMethod extends JNode implements HasEnclosingType, HasName, HasType
     if (body != null) {
       body.setMethod(this);
     }
+    markModified();
   }
 
   public void setFinal() {
     isFinal = true;
+    markModified();
   }
 
   public void setOriginalTypes(JType returnType, List<JType> paramTypes) {
@@ -386,18 +406,35 @@ public class JMethod extends JNode implements HasEnclosingType, HasName, HasType
 
   public void setType(JType newType) {
     returnType = newType;
+    markModified();
   }
 
   public void traverse(JVisitor visitor, Context ctx) {
     String before = null;
     before = traceBefore(visitor);
+    int modsBefore = JModVisitor.getNumMods(visitor);
     if (visitor.visit(this, ctx)) {
       visitChildren(visitor);
     }
     visitor.endVisit(this, ctx);
+    recordModifications(visitor, modsBefore);
     traceAfter(visitor, before);
   }
 
+  /**
+   * Records a change to this method's signature or body, including one made to
+   * a parameter or local.
+   */
+  void markModified() {
+    ++modificationCount;
+  }
+
+  protected void recordModifications(JVisitor visitor, int modsBefore) {
+    if (JModVisitor.getNumMods(visitor) != modsBefore) {
+      markModified();
+    }
+  }
+
   protected void traceAfter(JVisitor visitor, String before) {
     if (trace && visitor instanceof JModVisitor) {
       String after = this.toSource();
@@ -65,4 +65,9 @@ public class JParameter extends JVariable implements HasEnclosingMethod {
     }
     visitor.endVisit(this, ctx);
   }
+
+  @Override
+  void markModified() {
+    enclosingMethod.markModified();
+  }
 }
@@ -74,11 +74,19 @@ public abstract class JVariable extends JNode implements CanBeSetFinal, CanHaveI
 
   public void setFinal() {
     isFinal = true;
+    markModified();
   }
 
   public void setType(JType newType) {
     assert newType != null;
     type = newType;
+    markModified();
+  }
+
+  /**
+   * Called when a setter changes this variable's declaration.
+   */
+  void markModified() {
   }
 
 }
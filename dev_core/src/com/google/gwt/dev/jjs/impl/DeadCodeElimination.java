@@ -27,6 +27,7 @@ import com.google.gwt.dev.jjs.ast.JCastOperation;
 import com.google.gwt.dev.jjs.ast.JCharLiteral;
 import com.google.gwt.dev.jjs.ast.JClassType;
 import com.google.gwt.dev.jjs.ast.JConditional;
+import com.google.gwt.dev.jjs.ast.JConstructor;
 import com.google.gwt.dev.jjs.ast.JContinueStatement;
 import com.google.gwt.dev.jjs.ast.JDeclarationStatement;
 import com.google.gwt.dev.jjs.ast.JDeclaredType;
@@ -34,6 +35,7 @@ import com.google.gwt.dev.jjs.ast.JDoStatement;
 import com.google.gwt.dev.jjs.ast.JDoubleLiteral;
 import com.google.gwt.dev.jjs.ast.JExpression;
 import com.google.gwt.dev.jjs.ast.JExpressionStatement;
+import com.google.gwt.dev.jjs.ast.JField;
 import com.google.gwt.dev.jjs.ast.JFieldRef;
 import com.google.gwt.dev.jjs.ast.JForStatement;
 import com.google.gwt.dev.jjs.ast.JIfStatement;
@@ -499,7 +501,7 @@ public class DeadCodeElimination {
        * / it has no side effects.
        */
       if (ignoringExpressionOutput.contains(x)) {
-        if (!x.getTarget().isEmpty()) {
+        if (!isEmptyConstructor(x.getTarget())) {
           return;
         }
         JMultiExpression multi = new JMultiExpression(x.getSourceInfo());
@@ -1563,7 +1565,7 @@ public class DeadCodeElimination {
 
     private JLiteral tryGetConstant(JVariableRef x) {
       if (!lvalues.contains(x)) {
-        JLiteral lit = x.getTarget().getConstInitializer();
+        JLiteral lit = getConstInitializer(x);
         if (lit != null) {
           /*
            * Upcast the initializer so that the semantics of any arithmetic on
@@ -1790,12 +1792,76 @@ public class DeadCodeElimination {
     return new DeadCodeElimination(program).execImpl(node);
   }
 
+  /**
+   * Runs over each of the given methods, in order, skipping those of external
+   * types as a run over the whole program does.
+   */
+  public static OptimizerStats exec(JProgram program, List<JMethod> methods) {
+    DeadCodeElimination dce = new DeadCodeElimination(program);
+    OptimizerStats stats = new OptimizerStats(NAME);
+    Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME,
+        "methods", "" + methods.size());
+    for (JMethod method : methods) {
+      JDeclaredType enclosingType = method.getEnclosingType();
+      if (enclosingType != null && enclosingType.isExternal()) {
+        // We can't eliminate code from an external type
+        continue;
+      }
+      DeadCodeVisitor deadCodeVisitor = dce.new DeadCodeVisitor();
+      deadCodeVisitor.accept(method);
+      stats.recordModified(deadCodeVisitor.getNumMods());
+    }
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  /**
+   * Optimizes a single type while other types may be optimized concurrently.
+   * Facts about other types are taken from the supplied snapshots rather than
+   * from the live AST, so the result does not depend on scheduling.
+   * 
+   * @param emptyConstructors constructors of every type, including this one,
+   *          that were empty when the snapshot was taken
+   * @param constFields constant initializers of fields when the snapshot was
+   *          taken
+   */
+  static OptimizerStats execShard(JProgram program, JDeclaredType type,
+      Set<JConstructor> emptyConstructors, Map<JField, JLiteral> constFields) {
+    // No event per shard; the caller times the whole parallel run.
+    return new DeadCodeElimination(program, type, emptyConstructors, constFields).runVisitor(type);
+  }
+
+  /**
+   * Constant field initializers frozen at the start of a concurrent run, or
+   * <code>null</code> when running over the whole program.
+   */
+  private final Map<JField, JLiteral> frozenConstFields;
+
+  /**
+   * Empty constructors frozen at the start of a concurrent run, or
+   * <code>null</code> when running over the whole program.
+   */
+  private final Set<JConstructor> frozenEmptyConstructors;
+
   private final JProgram program;
 
+  /**
+   * The only type this instance may modify when running concurrently.
+   */
+  private final JDeclaredType shardType;
+
   private final Map<JType, Class<?>> typeClassMap = new IdentityHashMap<JType, Class<?>>();
 
   public DeadCodeElimination(JProgram program) {
+    this(program, null, null, null);
+  }
+
+  private DeadCodeElimination(JProgram program, JDeclaredType shardType,
+      Set<JConstructor> frozenEmptyConstructors, Map<JField, JLiteral> frozenConstFields) {
     this.program = program;
+    this.shardType = shardType;
+    this.frozenEmptyConstructors = frozenEmptyConstructors;
+    this.frozenConstFields = frozenConstFields;
     typeClassMap.put(program.getTypeJavaLangObject(), Object.class);
     typeClassMap.put(program.getTypeJavaLangString(), String.class);
     typeClassMap.put(program.getTypePrimitiveBoolean(), boolean.class);
@@ -1808,14 +1874,40 @@ public class DeadCodeElimination {
     typeClassMap.put(program.getTypePrimitiveShort(), short.class);
   }
 
+  private JLiteral getConstInitializer(JVariableRef x) {
+    if (frozenConstFields != null && x.getTarget() instanceof JField) {
+      JField field = (JField) x.getTarget();
+      if (field.getEnclosingType() != shardType) {
+        return frozenConstFields.get(field);
+      }
+    }
+    return x.getTarget().getConstInitializer();
+  }
+
+  private boolean isEmptyConstructor(JConstructor ctor) {
+    if (frozenEmptyConstructors != null) {
+      /*
+       * Even a constructor of the shard's own type must use the snapshot:
+       * JConstructor.isEmpty() follows super() calls into other types and
+       * caches its answer.
+       */
+      return frozenEmptyConstructors.contains(ctor);
+    }
+    return ctor.isEmpty();
+  }
+
   private OptimizerStats execImpl(JNode node) {
-    OptimizerStats stats = new OptimizerStats(NAME);
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
+    OptimizerStats stats = runVisitor(node);
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
 
+  private OptimizerStats runVisitor(JNode node) {
+    OptimizerStats stats = new OptimizerStats(NAME);
     DeadCodeVisitor deadCodeVisitor = new DeadCodeVisitor();
     deadCodeVisitor.accept(node);
     stats.recordModified(deadCodeVisitor.getNumMods());
-    optimizeEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
 }
@@ -666,11 +666,6 @@ public class EnumOrdinalizer {
       }
 
       if (canBeOrdinal(x)) {
-        /*
-         * Cleanup clinit method for ordinalizable enums.
-         */
-        updateClinit(x.getClinitMethod());
-
         /*
          * Remove any static impl mappings for any methods in an ordinal enum
          * class. An ordinalized enum will no longer have an instance passed as
@@ -695,6 +690,18 @@ public class EnumOrdinalizer {
         int ordinal = ((JEnumField) x).ordinal();
         x.setInitializer(new JDeclarationStatement(x.getSourceInfo(), new JFieldRef(x
             .getSourceInfo(), null, x, x.getEnclosingType()), program.getLiteralInt(ordinal)));
+        madeChanges();
+      }
+      return true;
+    }
+
+    /**
+     * Cleanup clinit method for ordinalizable enums.
+     */
+    @Override
+    public boolean visit(JMethod x, Context ctx) {
+      if (JProgram.isClinit(x) && canBeOrdinal(x.getEnclosingType())) {
+        updateClinit(x);
       }
       return true;
     }
@@ -753,7 +760,8 @@ public class EnumOrdinalizer {
 
     /**
      * Remove initialization of enum constants, and the $VALUES array, in the
-     * clinit for an ordinalizable enum.
+     * clinit for an ordinalizable enum. The enum constants have already been
+     * given their ordinals as initializers.
      */
     private void updateClinit(JMethod method) {
       assert JProgram.isClinit(method);
@@ -769,9 +777,13 @@ public class EnumOrdinalizer {
             // See if LHS is a field ref to the class being initialized.
             JField field = enumRef.getField();
             if (field.isStatic() && field.getEnclosingType() == enclosingType) {
-              if (field instanceof JEnumField || field.getName().equals("$VALUES")) {
+              if (field instanceof JEnumField) {
+                block.removeStmt(removeIndex--);
+                madeChanges();
+              } else if (field.getName().equals("$VALUES")) {
                 block.removeStmt(removeIndex--);
                 field.setInitializer(null);
+                madeChanges();
               }
             }
           }
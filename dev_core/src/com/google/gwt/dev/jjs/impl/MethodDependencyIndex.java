@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.Context;
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JField;
+import com.google.gwt.dev.jjs.ast.JFieldRef;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JMethodCall;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.ast.JVisitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks which methods an intraprocedural optimizer needs to revisit after
+ * the rest of the optimizers have run.
+ *
+ * Every {@link com.google.gwt.dev.jjs.ast.JModVisitor} bumps the modification
+ * count of each method, field and type it changes. This index remembers the
+ * counts seen by the previous pass and keeps a reverse reference map from each
+ * type to the methods that call, instantiate or read members of that type.
+ * A method is dirty if it changed itself, or if any type it references
+ * changed, since the results of {@link DeadCodeElimination} depend only on
+ * those facts.
+ *
+ * Changes to the set of instantiated types can affect any method, so they
+ * make every method dirty.
+ */
+public class MethodDependencyIndex {
+
+  /**
+   * Records the types referenced by a single method.
+   */
+  private static class ReferenceCollector extends JVisitor {
+    private final Set<JDeclaredType> referencedTypes = new LinkedHashSet<JDeclaredType>();
+
+    @Override
+    public void endVisit(JFieldRef x, Context ctx) {
+      JDeclaredType type = x.getField().getEnclosingType();
+      if (type != null) {
+        referencedTypes.add(type);
+      }
+    }
+
+    @Override
+    public void endVisit(JMethodCall x, Context ctx) {
+      JDeclaredType type = x.getTarget().getEnclosingType();
+      if (type != null) {
+        referencedTypes.add(type);
+      }
+    }
+  }
+
+  /**
+   * A Java system property that enables incremental optimization.
+   */
+  public static final String INCREMENTAL_PROPERTY = "gwt.jjs.incrementalOptimize";
+
+  /**
+   * Returns <code>true</code> if optimizers should only revisit dirty methods.
+   */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(INCREMENTAL_PROPERTY);
+  }
+
+  /**
+   * Records the current count of a node, returning <code>true</code> if it
+   * differs from the previous one or the node is new.
+   */
+  private static <T> boolean update(Map<T, Integer> counts, T node, int count) {
+    Integer previous = counts.put(node, count);
+    return previous == null || previous != count;
+  }
+
+  private final Map<JDeclaredType, JDeclaredType> clinitTargets =
+      new IdentityHashMap<JDeclaredType, JDeclaredType>();
+
+  private final Map<JField, Integer> fieldCounts = new IdentityHashMap<JField, Integer>();
+
+  private final Set<JDeclaredType> instantiatedTypes =
+      Collections.newSetFromMap(new IdentityHashMap<JDeclaredType, Boolean>());
+
+  private final Map<JMethod, Integer> methodCounts = new IdentityHashMap<JMethod, Integer>();
+
+  private final JProgram program;
+
+  private final Map<JMethod, Set<JDeclaredType>> referencedTypes =
+      new IdentityHashMap<JMethod, Set<JDeclaredType>>();
+
+  private final Map<JDeclaredType, Set<JMethod>> referrers =
+      new IdentityHashMap<JDeclaredType, Set<JMethod>>();
+
+  private final Map<JDeclaredType, Integer> typeCounts =
+      new IdentityHashMap<JDeclaredType, Integer>();
+
+  public MethodDependencyIndex(JProgram program) {
+    this.program = program;
+  }
+
+  /**
+   * Returns the methods that changed, or that depend on something that
+   * changed, since the last call, in a deterministic order. The first call
+   * returns every method. Afterwards the current state of the program becomes
+   * the baseline for the next call.
+   */
+  public List<JMethod> takeDirtyMethods() {
+    Set<JMethod> liveMethods = Collections.newSetFromMap(new IdentityHashMap<JMethod, Boolean>());
+    Set<JMethod> dirty = new LinkedHashSet<JMethod>();
+    Set<JDeclaredType> changedTypes = new LinkedHashSet<JDeclaredType>();
+    boolean instantiationChanged = false;
+
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      boolean isInstantiated = program.typeOracle.isInstantiatedType(type);
+      if (isInstantiated != instantiatedTypes.contains(type)) {
+        instantiationChanged = true;
+        if (isInstantiated) {
+          instantiatedTypes.add(type);
+        } else {
+          instantiatedTypes.remove(type);
+        }
+      }
+      boolean typeChanged = update(typeCounts, type, type.getModificationCount());
+      if (!clinitTargets.containsKey(type) || clinitTargets.get(type) != type.getClinitTarget()) {
+        clinitTargets.put(type, type.getClinitTarget());
+        typeChanged = true;
+      }
+      for (JField field : type.getFields()) {
+        if (update(fieldCounts, field, field.getModificationCount())) {
+          typeChanged = true;
+        }
+      }
+      for (JMethod method : type.getMethods()) {
+        liveMethods.add(method);
+        if (update(methodCounts, method, method.getModificationCount())) {
+          reindex(method);
+          dirty.add(method);
+          typeChanged = true;
+        }
+      }
+      if (typeChanged) {
+        changedTypes.add(type);
+      }
+    }
+
+    if (instantiationChanged) {
+      dirty.addAll(liveMethods);
+    } else {
+      for (JDeclaredType type : changedTypes) {
+        Set<JMethod> typeReferrers = referrers.get(type);
+        if (typeReferrers != null) {
+          dirty.addAll(typeReferrers);
+        }
+      }
+    }
+
+    List<JMethod> result = new ArrayList<JMethod>(dirty.size());
+    for (JMethod method : dirty) {
+      if (liveMethods.contains(method)) {
+        result.add(method);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Recomputes the types referenced by a changed method.
+   */
+  private void reindex(JMethod method) {
+    Set<JDeclaredType> oldTypes = referencedTypes.get(method);
+    if (oldTypes != null) {
+      for (JDeclaredType type : oldTypes) {
+        Set<JMethod> typeReferrers = referrers.get(type);
+        if (typeReferrers != null) {
+          typeReferrers.remove(method);
+        }
+      }
+    }
+    ReferenceCollector collector = new ReferenceCollector();
+    collector.accept(method);
+    referencedTypes.put(method, collector.referencedTypes);
+    for (JDeclaredType type : collector.referencedTypes) {
+      Set<JMethod> typeReferrers = referrers.get(type);
+      if (typeReferrers == null) {
+        typeReferrers = new LinkedHashSet<JMethod>();
+        referrers.put(type, typeReferrers);
+      }
+      typeReferrers.add(method);
+    }
+  }
+}
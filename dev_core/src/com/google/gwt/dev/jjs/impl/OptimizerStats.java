@@ -24,9 +24,11 @@ import java.util.List;
  */
 public class OptimizerStats {
   private final List<OptimizerStats> children = new ArrayList<OptimizerStats>();
+  private long elapsedNanos = 0;
   private final String name;
   private int numMods = 0;
   private int numVisits = 0;
+  private long workerNanos = 0;
 
   public OptimizerStats(String name) {
     this.name = name;
@@ -65,6 +67,17 @@ public class OptimizerStats {
     return name;
   }
 
+  /**
+   * @return the ratio of time spent in worker threads to wall-clock time for
+   *         this pass, or <code>0</code> if the pass did not run in parallel
+   */
+  public double getParallelSpeedup() {
+    if (elapsedNanos == 0 || workerNanos == 0) {
+      return 0;
+    }
+    return (double) workerNanos / (double) elapsedNanos;
+  }
+
   /**
    * @return the number of times the AST was modified by the optimizer
    */
@@ -114,6 +127,18 @@ public class OptimizerStats {
     return this;
   }
 
+  /**
+   * Records the timing of a pass that was split across worker threads.
+   * 
+   * @param elapsedNanos the wall-clock time of the whole pass
+   * @param workerNanos the sum of the time spent by each worker
+   */
+  public OptimizerStats recordParallelTime(long elapsedNanos, long workerNanos) {
+    this.elapsedNanos += elapsedNanos;
+    this.workerNanos += workerNanos;
+    return this;
+  }
+
   /**
    * Increment the number of times tree nodes were visited.
    */
@@ -139,6 +164,10 @@ public class OptimizerStats {
     }
     String entry = String.format("%-6s%% (%6d/%6d)", ratioString, mods, visits);
     builder.append(String.format("%12s: %-22s  ", name, entry));
+    double speedup = getParallelSpeedup();
+    if (speedup > 0) {
+      builder.append(String.format("(parallel %4.2fx) ", speedup));
+    }
 
     if (children.size() > 0) {
       builder.append("\n      ");
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Scores a fragment partition against recorded split point traces, counting
+ * the round trips and bytes each session would have needed before its
+ * <code>runAsync</code> callbacks could run.
+ *
+ * A session that reaches any exclusive fragment first downloads the leftovers
+ * fragment, and then each fragment holding a split point it fired, once.
+ * Code in the initial download is never counted.
+ *
+ * Run from the command line as
+ * <code>PartitionEvaluator &lt;partition&gt; &lt;trace&gt;</code>, where the
+ * trace is in {@link FragmentLoadProfile} format with split point numbers,
+ * and the partition file has one line per fragment:
+ * 
+ * <pre>
+ * leftovers &lt;size&gt;
+ * &lt;fragment&gt; &lt;size&gt; &lt;split point&gt;...
+ * </pre>
+ * 
+ * Split points not listed are taken to be part of the initial download.
+ */
+public class PartitionEvaluator {
+
+  /**
+   * The cost of a partition over a set of sessions.
+   */
+  public static class Score {
+    private final long bytes;
+    private final long roundTrips;
+    private final int sessions;
+
+    Score(int sessions, long roundTrips, long bytes) {
+      this.sessions = sessions;
+      this.roundTrips = roundTrips;
+      this.bytes = bytes;
+    }
+
+    /**
+     * Returns the total size downloaded, summed over all sessions.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Returns a single cost per session, counting each round trip as
+     * <code>roundTripCost</code> bytes.
+     */
+    public double getCost(double roundTripCost) {
+      return getExpectedRoundTrips() * roundTripCost + getExpectedBytes();
+    }
+
+    public double getExpectedBytes() {
+      return sessions == 0 ? 0 : (double) bytes / sessions;
+    }
+
+    public double getExpectedRoundTrips() {
+      return sessions == 0 ? 0 : (double) roundTrips / sessions;
+    }
+
+    /**
+     * Returns the total number of downloads, summed over all sessions.
+     */
+    public long getRoundTrips() {
+      return roundTrips;
+    }
+
+    public int getSessionCount() {
+      return sessions;
+    }
+
+    @Override
+    public String toString() {
+      return sessions + " sessions, " + getExpectedRoundTrips() + " round trips and "
+          + getExpectedBytes() + " bytes per session";
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.out.println("Usage: PartitionEvaluator <partition> <trace>");
+      return;
+    }
+    PartitionEvaluator evaluator = new PartitionEvaluator(FragmentLoadProfile.read(open(args[1])));
+    Reader partition = open(args[0]);
+    try {
+      System.out.println(evaluator.score(partition));
+    } finally {
+      partition.close();
+    }
+  }
+
+  private static Reader open(String fileName) throws IOException {
+    return new InputStreamReader(new FileInputStream(new File(fileName)), "UTF-8");
+  }
+
+  /**
+   * Distinct sets of split points fired, mapped to the number of sessions that
+   * fired exactly that set.
+   */
+  private final Map<BitSet, Integer> sessionCounts = new LinkedHashMap<BitSet, Integer>();
+
+  private final int sessions;
+
+  /**
+   * @param trace the split points each recorded session fired
+   */
+  public PartitionEvaluator(FragmentLoadProfile trace) {
+    for (BitSet session : trace.getSessions()) {
+      Integer count = sessionCounts.get(session);
+      sessionCounts.put(session, count == null ? 1 : count + 1);
+    }
+    sessions = trace.getSessionCount();
+  }
+
+  /**
+   * Scores a partition read from a file in the format described above.
+   * 
+   * @throws NumberFormatException if the file is malformed
+   */
+  public Score score(Reader partition) throws IOException {
+    BufferedReader in = new BufferedReader(partition);
+    List<int[]> fragments = new ArrayList<int[]>();
+    long leftoversSize = 0;
+    int numSplitPoints = 0;
+    int numFragments = 0;
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+      String[] tokens = line.split("[\\s,]+");
+      if (tokens[0].equals("leftovers")) {
+        if (tokens.length != 2) {
+          throw new NumberFormatException("Expected a leftovers size: " + line);
+        }
+        leftoversSize = Long.parseLong(tokens[1]);
+        continue;
+      }
+      if (tokens.length < 2) {
+        throw new NumberFormatException("Expected a fragment and its size: " + line);
+      }
+      int[] fragment = new int[tokens.length];
+      for (int i = 0; i < tokens.length; i++) {
+        fragment[i] = Integer.parseInt(tokens[i]);
+        if (fragment[i] < 0 || (i == 0 && fragment[i] == 0)) {
+          throw new NumberFormatException("Bad number " + tokens[i] + " in: " + line);
+        }
+      }
+      for (int i = 2; i < fragment.length; i++) {
+        numSplitPoints = Math.max(numSplitPoints, fragment[i] + 1);
+      }
+      numFragments = Math.max(numFragments, fragment[0] + 1);
+      fragments.add(fragment);
+    }
+
+    int[] fragmentOf = new int[numSplitPoints];
+    long[] fragmentSizes = new long[numFragments];
+    for (int[] fragment : fragments) {
+      fragmentSizes[fragment[0]] += fragment[1];
+      for (int i = 2; i < fragment.length; i++) {
+        fragmentOf[fragment[i]] = fragment[0];
+      }
+    }
+    return score(fragmentOf, fragmentSizes, leftoversSize);
+  }
+
+  /**
+   * Scores a partition.
+   * 
+   * @param fragmentOf the fragment holding each split point's exclusive code,
+   *          or 0 for split points in the initial download; split points
+   *          beyond the end of the array are also treated as initial
+   * @param fragmentSizes the size of each exclusive fragment
+   * @param leftoversSize the size of the leftovers fragment
+   */
+  public Score score(int[] fragmentOf, long[] fragmentSizes, long leftoversSize) {
+    long roundTrips = 0;
+    long bytes = 0;
+    BitSet loaded = new BitSet();
+    for (Entry<BitSet, Integer> entry : sessionCounts.entrySet()) {
+      BitSet fired = entry.getKey();
+      loaded.clear();
+      long sessionBytes = 0;
+      for (int sp = fired.nextSetBit(1); sp >= 0 && sp < fragmentOf.length; sp =
+          fired.nextSetBit(sp + 1)) {
+        int fragment = fragmentOf[sp];
+        if (fragment > 0 && !loaded.get(fragment)) {
+          loaded.set(fragment);
+          sessionBytes += fragmentSizes[fragment];
+        }
+      }
+      if (loaded.isEmpty()) {
+        continue;
+      }
+      int count = entry.getValue();
+      roundTrips += (long) (loaded.cardinality() + 1) * count;
+      bytes += (sessionBytes + leftoversSize) * count;
+    }
+    return new Score(sessions, roundTrips, bytes);
+  }
+}
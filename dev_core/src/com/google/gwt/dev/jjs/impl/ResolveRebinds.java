@@ -51,6 +51,9 @@ public class ResolveRebinds {
   private class RebindVisitor extends JModVisitor {
     @Override
     public void endVisit(JGwtCreate x, Context ctx) {
+      if (sharedOnly && isSoftRebind(x.getSourceType())) {
+        return;
+      }
 
       if (isSoftRebind(x.getSourceType())) {
         JMethod method =
@@ -76,6 +79,9 @@ public class ResolveRebinds {
 
     @Override
     public void endVisit(JReboundEntryPoint x, Context ctx) {
+      if (sharedOnly && isSoftRebind(x.getSourceType())) {
+        return;
+      }
 
       if (isSoftRebind(x.getSourceType())) {
         JMethod method =
@@ -101,7 +107,18 @@ public class ResolveRebinds {
   }
 
   public static boolean exec(JProgram program, Map<String, String>[] orderedRebindAnswers) {
-    return new ResolveRebinds(program, orderedRebindAnswers).execImpl();
+    return new ResolveRebinds(program, orderedRebindAnswers, false).execImpl();
+  }
+
+  /**
+   * Resolves only the rebind requests answered in <code>sharedAnswers</code>.
+   * Every other GWT.create() and rebound entry point is left in place for a
+   * later call to {@link #exec}.
+   */
+  public static boolean execShared(JProgram program, Map<String, String> sharedAnswers) {
+    @SuppressWarnings("unchecked")
+    Map<String, String>[] orderedRebindAnswers = new Map[] {sharedAnswers};
+    return new ResolveRebinds(program, orderedRebindAnswers, true).execImpl();
   }
 
   /**
@@ -129,10 +146,13 @@ public class ResolveRebinds {
   private final JMethod permutationIdMethod;
   private final JProgram program;
   private final Map<String, JMethod> rebindMethods = new HashMap<String, JMethod>();
+  private final boolean sharedOnly;
 
-  private ResolveRebinds(JProgram program, Map<String, String>[] orderedRebindAnswers) {
+  private ResolveRebinds(JProgram program, Map<String, String>[] orderedRebindAnswers,
+      boolean sharedOnly) {
     this.program = program;
     this.orderedRebindAnswers = orderedRebindAnswers;
+    this.sharedOnly = sharedOnly;
 
     this.hardRebindAnswers = getHardRebindAnswers(orderedRebindAnswers);
     this.holderType = (JClassType) program.getIndexedType("CollapsedPropertyHolder");
@@ -34,7 +34,11 @@ import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgWriteNode;
 public class LivenessIntegratedFlowFunction implements
     IntegratedFlowFunction<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, 
     LivenessAssumption> {
-  private final LivenessFlowFunction flowFunction = new LivenessFlowFunction();
+  private final LivenessFlowFunction flowFunction;
+
+  public LivenessIntegratedFlowFunction(LivenessFlowFunction flowFunction) {
+    this.flowFunction = flowFunction;
+  }
   
   public Transformation<CfgTransformer, Cfg> 
   interpretOrReplace(CfgNode<?> node, Cfg graph,
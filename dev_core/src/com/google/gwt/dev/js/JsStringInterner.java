@@ -17,6 +17,7 @@ package com.google.gwt.dev.js;
 
 import com.google.gwt.dev.jjs.SourceInfo;
 import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.impl.FragmentLoadProfile;
 import com.google.gwt.dev.js.ast.JsBinaryOperation;
 import com.google.gwt.dev.js.ast.JsBlock;
 import com.google.gwt.dev.js.ast.JsContext;
@@ -34,6 +35,7 @@ import com.google.gwt.dev.js.ast.JsVars;
 import com.google.gwt.dev.js.ast.JsVars.JsVar;
 import com.google.gwt.dev.js.ast.JsVisitor;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -52,6 +54,11 @@ import java.util.TreeSet;
  * replaced with a JsNameRef. This optimization is complete in a single pass,
  * although it may be performed multiple times without duplicating the intern
  * pool.
+ *
+ * A String used by several fragments is normally declared in the last fragment
+ * that loads before all of them. Given a {@link FragmentLoadProfile}, it is
+ * instead declared in each fragment that uses it whenever real sessions would
+ * download fewer copies that way.
  */
 public class JsStringInterner {
 
@@ -60,9 +67,12 @@ public class JsStringInterner {
    */
   private static class OccurenceCounter extends JsVisitor {
 
-    private Map<String, Integer> occurenceMap = new HashMap<String, Integer>();
+    /**
+     * Mutable counts, so that counting does not box.
+     */
+    private Map<String, int[]> occurenceMap = new HashMap<String, int[]>();
 
-    public Map<String, Integer> buildOccurenceMap() {
+    public Map<String, int[]> buildOccurenceMap() {
       return occurenceMap;
     }
 
@@ -108,11 +118,12 @@ public class JsStringInterner {
     @Override
     public boolean visit(JsStringLiteral x, JsContext ctx) {
       String literal = x.getValue();
-      Integer occurs = occurenceMap.get(literal);
+      int[] occurs = occurenceMap.get(literal);
       if (occurs == null) {
-        occurs = 0;
+        occurs = new int[1];
+        occurenceMap.put(literal, occurs);
       }
-      occurenceMap.put(literal, ++occurs);
+      ++occurs[0];
       return false;
     }
 
@@ -149,6 +160,11 @@ public class JsStringInterner {
     private final SortedMap<JsStringLiteral, Integer> fragmentAssignment = new TreeMap<JsStringLiteral, Integer>(
         LITERAL_COMPARATOR);
 
+    /**
+     * The fragments that use each String, or null if no profile is in use.
+     */
+    private final Map<String, BitSet> fragmentsUsing;
+
     /**
      * A counter used for assigning ids to Strings. Even though it's unlikely
      * that someone would actually have two billion strings in their
@@ -160,7 +176,7 @@ public class JsStringInterner {
      * Count of # of occurences of each String literal, or null if
      * count-sensitive interning is off.
      */
-    private Map<String, Integer> occurenceMap;
+    private Map<String, int[]> occurenceMap;
 
     /**
      * Only used to get fragment load order so strings used in multiple
@@ -185,12 +201,14 @@ public class JsStringInterner {
      * 
      * @param scope specifies the scope in which the interned strings should be
      * @param occurenceMap
+     * @param trackFragments whether to record every fragment using a String
      */
     public StringVisitor(JProgram program, JsScope scope,
-        Map<String, Integer> occurenceMap) {
+        Map<String, int[]> occurenceMap, boolean trackFragments) {
       this.program = program;
       this.scope = scope;
       this.occurenceMap = occurenceMap;
+      this.fragmentsUsing = trackFragments ? new HashMap<String, BitSet>() : null;
     }
 
     @Override
@@ -240,9 +258,9 @@ public class JsStringInterner {
     @Override
     public boolean visit(JsStringLiteral x, JsContext ctx) {
       if (occurenceMap != null) {
-        Integer occurences = occurenceMap.get(x.getValue());
+        int[] occurences = occurenceMap.get(x.getValue());
         assert occurences != null;
-        if (occurences < INTERN_THRESHOLD) {
+        if (occurences[0] < INTERN_THRESHOLD) {
           return false;
         }
       }
@@ -271,6 +289,15 @@ public class JsStringInterner {
         }
       }
 
+      if (fragmentsUsing != null) {
+        BitSet fragments = fragmentsUsing.get(x.getValue());
+        if (fragments == null) {
+          fragments = new BitSet();
+          fragmentsUsing.put(x.getValue(), fragments);
+        }
+        fragments.set(currentFragment);
+      }
+
       ctx.replaceMe(name.makeRef(x.getSourceInfo().makeChild()));
       return false;
     }
@@ -307,8 +334,20 @@ public class JsStringInterner {
    */
   public static Map<JsName, String> exec(JProgram jprogram, JsProgram program,
       boolean alwaysIntern) {
+    return exec(jprogram, program, alwaysIntern, null);
+  }
+
+  /**
+   * Like {@link #exec(JProgram, JsProgram, boolean)}, but declares each String
+   * shared by several fragments where <code>profile</code> predicts the fewest
+   * downloads of it.
+   * 
+   * @param profile which fragments real sessions loaded, or <code>null</code>
+   */
+  public static Map<JsName, String> exec(JProgram jprogram, JsProgram program,
+      boolean alwaysIntern, FragmentLoadProfile profile) {
     StringVisitor v = new StringVisitor(jprogram, program.getScope(), alwaysIntern ? null :
-      getOccurenceMap(program));
+      getOccurenceMap(program), profile != null);
     v.accept(program);
 
     Map<Integer, SortedSet<JsStringLiteral>> bins = new HashMap<Integer, SortedSet<JsStringLiteral>>();
@@ -316,6 +355,16 @@ public class JsStringInterner {
       bins.put(i, new TreeSet<JsStringLiteral>(LITERAL_COMPARATOR));
     }
     for (Map.Entry<JsStringLiteral, Integer> entry : v.fragmentAssignment.entrySet()) {
+      BitSet using = profile == null ? null : v.fragmentsUsing.get(entry.getKey().getValue());
+      if (using != null && isCheaperToDuplicate(profile, using, entry.getValue())) {
+        JsStringLiteral literal = entry.getKey();
+        for (int i = using.nextSetBit(0); i >= 0; i = using.nextSetBit(i + 1)) {
+          bins.get(i).add(literal);
+          // Each declaration needs its own node.
+          literal = new JsStringLiteral(literal.getSourceInfo(), literal.getValue());
+        }
+        continue;
+      }
       SortedSet<JsStringLiteral> set = bins.get(entry.getValue());
       assert set != null;
       set.add(entry.getKey());
@@ -341,7 +390,7 @@ public class JsStringInterner {
   public static boolean exec(JsProgram program, JsBlock block, JsScope scope,
       boolean alwaysIntern) {
     StringVisitor v = new StringVisitor(null, scope, alwaysIntern ? null :
-        getOccurenceMap(block));
+        getOccurenceMap(block), false);
     v.accept(block);
 
     createVars(program, block, v.toCreate.keySet(), v.toCreate);
@@ -368,12 +417,30 @@ public class JsStringInterner {
     }
   }
 
-  private static Map<String, Integer> getOccurenceMap(JsNode node) {
+  private static Map<String, int[]> getOccurenceMap(JsNode node) {
     OccurenceCounter oc = new OccurenceCounter();
     oc.accept(node);
     return oc.buildOccurenceMap();
   }
 
+  /**
+   * Compares the sessions that would download a String declared once in
+   * <code>commonFragment</code> with those that would download a copy declared
+   * in each fragment <code>using</code> it. Counts are smoothed by one so that
+   * fragments missing from the profile are not treated as free.
+   */
+  private static boolean isCheaperToDuplicate(FragmentLoadProfile profile, BitSet using,
+      int commonFragment) {
+    if (using.cardinality() < 2 || using.get(commonFragment)) {
+      return false;
+    }
+    long duplicatedLoads = 0;
+    for (int i = using.nextSetBit(0); i >= 0; i = using.nextSetBit(i + 1)) {
+      duplicatedLoads += profile.getLoadCount(i) + 1;
+    }
+    return duplicatedLoads < profile.getLoadCount(commonFragment) + 1;
+  }
+
   private static Map<JsName, String> reverse(
       SortedMap<JsStringLiteral, JsName> toCreate) {
     Map<JsName, String> reversed = new LinkedHashMap<JsName, String>(
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adapts {@link TextOutput} to a buffer of UTF-8 bytes that can be moved to a
+ * {@link DiskCache} without ever building a String. Text is encoded as it is
+ * printed and stored in fixed-size chunks, so the buffer never has to be
+ * copied to grow. Positions, lines and columns are counted in characters, as
+ * for {@link DefaultTextOutput}.
+ */
+public class Utf8TextOutput extends AbstractTextOutput {
+
+  /**
+   * Collects bytes in fixed-size chunks.
+   */
+  private static class ChunkedOutputStream extends OutputStream {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private byte[] current;
+    private int used = CHUNK_SIZE;
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      while (len > 0) {
+        if (used == CHUNK_SIZE) {
+          nextChunk();
+        }
+        int n = Math.min(len, CHUNK_SIZE - used);
+        System.arraycopy(b, off, current, used, n);
+        used += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void write(int b) {
+      if (used == CHUNK_SIZE) {
+        nextChunk();
+      }
+      current[used++] = (byte) b;
+    }
+
+    InputStream openStream() {
+      List<InputStream> streams = new ArrayList<InputStream>(chunks.size());
+      for (byte[] chunk : chunks) {
+        int length = chunk == current ? used : CHUNK_SIZE;
+        streams.add(new ByteArrayInputStream(chunk, 0, length));
+      }
+      return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    void release() {
+      chunks.clear();
+      current = null;
+      used = CHUNK_SIZE;
+    }
+
+    long size() {
+      return chunks.isEmpty() ? 0 : (long) (chunks.size() - 1) * CHUNK_SIZE + used;
+    }
+
+    private void nextChunk() {
+      current = new byte[CHUNK_SIZE];
+      chunks.add(current);
+      used = 0;
+    }
+  }
+
+  private final ChunkedOutputStream bytes = new ChunkedOutputStream();
+  private final PrintWriter out;
+
+  public Utf8TextOutput(boolean compact) {
+    super(compact);
+    try {
+      out = new PrintWriter(new OutputStreamWriter(bytes, Util.DEFAULT_ENCODING));
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("The JVM does not support the compiler's default encoding.", e);
+    }
+    setPrintWriter(out);
+  }
+
+  /**
+   * Returns the number of UTF-8 bytes printed so far.
+   */
+  public long getByteCount() {
+    out.flush();
+    return bytes.size();
+  }
+
+  /**
+   * Moves the text printed so far into {@link DiskCache#INSTANCE} and releases
+   * the in-memory buffer. Nothing more may be printed afterwards.
+   */
+  public DiskCacheToken toDiskCache() {
+    out.flush();
+    long token = DiskCache.INSTANCE.transferFromStream(bytes.openStream());
+    bytes.release();
+    return new DiskCacheToken(token);
+  }
+
+  @Override
+  public String toString() {
+    out.flush();
+    return Util.toString(Util.readStreamAsBytes(bytes.openStream()));
+  }
+}
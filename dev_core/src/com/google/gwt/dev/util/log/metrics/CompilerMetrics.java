@@ -0,0 +1,311 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util.log.metrics;
+
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.EventType;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures wall time, CPU time, allocation and garbage collection for compiler
+ * phases and hands the results to a {@link MetricsSink}.
+ * <p>
+ * Metrics are sent to a sink when either of these system properties is set:
+ * <ul>
+ * <li>{@value #FILE_PROPERTY} names a file that receives one JSON object per
+ * line (see {@link JsonLinesMetricsSink}).</li>
+ * <li>{@value #SINK_CLASS_PROPERTY} names a {@link MetricsSink} class to
+ * instantiate.</li>
+ * </ul>
+ * Independently of the sink, a permutation compile can ask for the metrics of
+ * its own phases by calling {@link #beginPermutation(int, boolean)}.
+ * <p>
+ * Phases are normally measured by
+ * {@link com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger} for every
+ * {@link com.google.gwt.dev.util.log.speedtracer.CompilerEventType} event,
+ * whether or not SpeedTracer logging is turned on.
+ */
+public final class CompilerMetrics {
+
+  /**
+   * A phase that has started and not yet ended. A measurement must be ended on
+   * the thread that started it.
+   */
+  public static final class Measurement {
+    private final long allocatedStart;
+    private final Context context;
+    private final long cpuStart;
+    private final int depth;
+    private boolean ended;
+    private final long gcCountStart;
+    private final long gcMillisStart;
+    private final String phase;
+    private final long startMillis;
+    private final long wallStart;
+
+    private Measurement(Context context, String phase) {
+      this.context = context;
+      this.phase = phase;
+      this.depth = context.depth++;
+      this.startMillis = System.currentTimeMillis();
+      this.gcCountStart = getGcCount();
+      this.gcMillisStart = getGcMillis();
+      this.allocatedStart = getAllocatedBytes();
+      this.cpuStart = getCpuNanos();
+      this.wallStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the phase and records its metrics. Calling this more than once has
+     * no further effect.
+     */
+    public void end() {
+      long wallNanos = System.nanoTime() - wallStart;
+      long cpuEnd = getCpuNanos();
+      long allocatedEnd = getAllocatedBytes();
+      if (ended) {
+        return;
+      }
+      ended = true;
+      if (context.depth > 0) {
+        context.depth--;
+      }
+
+      PhaseMetrics metrics =
+          new PhaseMetrics(phase, context.permutationId, depth, startMillis, wallNanos, delta(
+              cpuStart, cpuEnd), delta(allocatedStart, allocatedEnd), getGcCount() - gcCountStart,
+              getGcMillis() - gcMillisStart);
+      if (context.phases != null) {
+        context.phases.add(metrics);
+      }
+      if (sink != null) {
+        sink.record(metrics);
+      }
+    }
+  }
+
+  /**
+   * Per-thread state.
+   */
+  private static class Context {
+    int depth;
+    int permutationId = -1;
+    List<PhaseMetrics> phases;
+  }
+
+  /**
+   * A system property naming a file to append JSON lines to.
+   */
+  public static final String FILE_PROPERTY = "gwt.metrics.file";
+
+  /**
+   * A system property naming a {@link MetricsSink} class.
+   */
+  public static final String SINK_CLASS_PROPERTY = "gwt.metrics.sinkClass";
+
+  private static final Logger log = Logger.getLogger(CompilerMetrics.class.getName());
+
+  private static final ThreadLocal<Context> context = new ThreadLocal<Context>() {
+    @Override
+    protected Context initialValue() {
+      return new Context();
+    }
+  };
+
+  private static final List<GarbageCollectorMXBean> gcMXBeans =
+      ManagementFactory.getGarbageCollectorMXBeans();
+
+  private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+  private static final Method getThreadAllocatedBytesMethod = findGetThreadAllocatedBytes();
+
+  private static final boolean cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+
+  private static MetricsSink sink =
+      createSink(System.getProperty(FILE_PROPERTY), System.getProperty(SINK_CLASS_PROPERTY));
+
+  /**
+   * Starts collecting the metrics of the phases run by the current thread on
+   * behalf of a permutation. Must be paired with {@link #endPermutation()}.
+   * 
+   * @param collect if <code>true</code>, the metrics are also kept for
+   *          {@link #getPermutationPhases()} even if no sink is configured
+   */
+  public static void beginPermutation(int permutationId, boolean collect) {
+    Context ctx = context.get();
+    ctx.permutationId = permutationId;
+    ctx.depth = 0;
+    ctx.phases = collect ? new ArrayList<PhaseMetrics>() : null;
+  }
+
+  /**
+   * Stops attributing the current thread's phases to a permutation.
+   */
+  public static void endPermutation() {
+    context.remove();
+  }
+
+  /**
+   * Returns the phases the current thread has completed so far for the
+   * permutation given to {@link #beginPermutation(int, boolean)}.
+   */
+  public static List<PhaseMetrics> getPermutationPhases() {
+    List<PhaseMetrics> phases = context.get().phases;
+    if (phases == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<PhaseMetrics>(phases);
+  }
+
+  /**
+   * Returns the name recorded for an event, which is the event type's name
+   * followed by the value of an <code>optimizer</code> or <code>phase</code>
+   * data key, if there is one.
+   */
+  public static String getPhaseName(EventType type, String... data) {
+    for (int i = 0; i + 1 < data.length; i += 2) {
+      if ("optimizer".equals(data[i]) || "phase".equals(data[i])) {
+        return type.getName() + ":" + data[i + 1];
+      }
+    }
+    return type.getName();
+  }
+
+  /**
+   * Returns <code>true</code> if phases started by the current thread will be
+   * recorded somewhere.
+   */
+  public static boolean isEnabled() {
+    return sink != null || context.get().phases != null;
+  }
+
+  /**
+   * Starts measuring a phase on the current thread.
+   * 
+   * @return the measurement to end, or <code>null</code> if metrics are not
+   *         enabled for this thread
+   */
+  public static Measurement start(String phase) {
+    Context ctx = context.get();
+    if (sink == null && ctx.phases == null) {
+      return null;
+    }
+    return new Measurement(ctx, phase);
+  }
+
+  /**
+   * Creates the sink configured by system properties, or returns
+   * <code>null</code> if none is configured or it cannot be created.
+   */
+  static MetricsSink createSink(String fileName, String className) {
+    if (className != null) {
+      try {
+        return Class.forName(className).asSubclass(MetricsSink.class).newInstance();
+      } catch (Exception e) {
+        log.log(Level.SEVERE, "Unable to create metrics sink " + className
+            + "; compiler metrics will not be recorded", e);
+        return null;
+      }
+    }
+    if (fileName != null) {
+      try {
+        return new JsonLinesMetricsSink(new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(fileName, true), "UTF-8")));
+      } catch (IOException e) {
+        log.log(Level.SEVERE, "Unable to open " + FILE_PROPERTY + " '" + fileName
+            + "'; compiler metrics will not be recorded", e);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Replaces the sink. Exposed for unit testing.
+   */
+  static void setSink(MetricsSink newSink) {
+    sink = newSink;
+  }
+
+  private static long delta(long start, long end) {
+    return start < 0 || end < 0 ? -1 : end - start;
+  }
+
+  /**
+   * The allocation counter is only available on HotSpot's extended
+   * ThreadMXBean, so it is looked up reflectively.
+   */
+  private static Method findGetThreadAllocatedBytes() {
+    try {
+      Class<?> clazz = Class.forName("com.sun.management.ThreadMXBean");
+      if (clazz.isInstance(threadMXBean)) {
+        Method method = clazz.getMethod("getThreadAllocatedBytes", long.class);
+        // Fail now rather than on every measurement.
+        method.invoke(threadMXBean, Thread.currentThread().getId());
+        return method;
+      }
+    } catch (Exception e) {
+      // Allocation will be reported as unknown.
+    }
+    return null;
+  }
+
+  private static long getAllocatedBytes() {
+    if (getThreadAllocatedBytesMethod == null) {
+      return -1;
+    }
+    try {
+      return (Long) getThreadAllocatedBytesMethod.invoke(threadMXBean, Thread.currentThread()
+          .getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static long getCpuNanos() {
+    return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : -1;
+  }
+
+  private static long getGcCount() {
+    long total = 0;
+    for (GarbageCollectorMXBean gcMXBean : gcMXBeans) {
+      total += Math.max(0, gcMXBean.getCollectionCount());
+    }
+    return total;
+  }
+
+  private static long getGcMillis() {
+    long total = 0;
+    for (GarbageCollectorMXBean gcMXBean : gcMXBeans) {
+      total += Math.max(0, gcMXBean.getCollectionTime());
+    }
+    return total;
+  }
+
+  private CompilerMetrics() {
+  }
+}
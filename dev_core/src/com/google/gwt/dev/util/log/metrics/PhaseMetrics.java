@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util.log.metrics;
+
+import com.google.gwt.dev.json.JsonObject;
+
+import java.io.Serializable;
+
+/**
+ * The resources used by one compiler phase or optimizer pass. Wall time, CPU
+ * time and allocation are measured on the thread that ran the phase; work the
+ * phase hands to other threads is not included. Garbage collection counts are
+ * process-wide, so they also include collections caused by other threads.
+ */
+public final class PhaseMetrics implements Serializable {
+
+  private static final long serialVersionUID = -4217336891652750318L;
+
+  private final long allocatedBytes;
+  private final long cpuNanos;
+  private final int depth;
+  private final long gcCount;
+  private final long gcMillis;
+  private final int permutationId;
+  private final String phase;
+  private final long startMillis;
+  private final long wallNanos;
+
+  public PhaseMetrics(String phase, int permutationId, int depth, long startMillis,
+      long wallNanos, long cpuNanos, long allocatedBytes, long gcCount, long gcMillis) {
+    this.phase = phase;
+    this.permutationId = permutationId;
+    this.depth = depth;
+    this.startMillis = startMillis;
+    this.wallNanos = wallNanos;
+    this.cpuNanos = cpuNanos;
+    this.allocatedBytes = allocatedBytes;
+    this.gcCount = gcCount;
+    this.gcMillis = gcMillis;
+  }
+
+  /**
+   * Returns the bytes allocated by the measuring thread, or -1 if the JVM
+   * cannot report allocations.
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Returns the CPU time used by the measuring thread, or -1 if the JVM cannot
+   * report thread CPU time.
+   */
+  public long getCpuNanos() {
+    return cpuNanos;
+  }
+
+  /**
+   * Returns how many measured phases enclose this one on the same thread.
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Returns the number of garbage collections that ran during the phase.
+   */
+  public long getGcCount() {
+    return gcCount;
+  }
+
+  /**
+   * Returns the accumulated garbage collection time during the phase.
+   */
+  public long getGcMillis() {
+    return gcMillis;
+  }
+
+  /**
+   * Returns the permutation being compiled, or -1 if the phase ran outside of
+   * a permutation compile.
+   */
+  public int getPermutationId() {
+    return permutationId;
+  }
+
+  /**
+   * Returns the phase name, for example <code>Optimize:Pruner</code>.
+   */
+  public String getPhase() {
+    return phase;
+  }
+
+  /**
+   * Returns the time the phase started, in milliseconds since the epoch.
+   */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  public long getWallNanos() {
+    return wallNanos;
+  }
+
+  public JsonObject toJson() {
+    JsonObject json = JsonObject.create();
+    json.put("phase", phase);
+    json.put("permutation", permutationId);
+    json.put("depth", depth);
+    json.put("start", startMillis);
+    json.put("wallNanos", wallNanos);
+    json.put("cpuNanos", cpuNanos);
+    json.put("allocatedBytes", allocatedBytes);
+    json.put("gcCount", gcCount);
+    json.put("gcMillis", gcMillis);
+    return json;
+  }
+
+  @Override
+  public String toString() {
+    return phase + " (permutation " + permutationId + "): " + (wallNanos / 1000000) + " ms";
+  }
+}
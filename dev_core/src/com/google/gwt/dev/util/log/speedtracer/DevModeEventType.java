@@ -28,6 +28,7 @@ public enum DevModeEventType implements EventType {
   CSB_BUILD_FROM_ORACLE("CSB Build From Oracle", "SlateGray"), //
   CSB_PROCESS("CSB Process", "Teal"), //
   COMP_STATE_ADD_GENERATED_UNITS("Comp State Add Generated Units", "Brown"), //
+  COMPACT_UNIT_CACHE("Compact Persistent Unit Cache", "Tan"), //
   DELETE_CACHE("Delete Persistent Cache", "summersky"), //
   JAVA_TO_JS_CALL("Java to JS call", "LightSkyBlue"), //
   JETTY_STARTUP("Jetty startup", "Orchid"), //
@@ -20,6 +20,7 @@ import com.google.gwt.dev.json.JsonObject;
 import com.google.gwt.dev.shell.DevModeSession;
 import com.google.gwt.dev.util.collect.Lists;
 import com.google.gwt.dev.util.log.dashboard.DashboardNotifierFactory;
+import com.google.gwt.dev.util.log.metrics.CompilerMetrics;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
@@ -105,6 +106,7 @@ public final class SpeedTracerLogger {
     List<Event> children;
     List<String> data;
     DevModeSession devModeSession;
+    CompilerMetrics.Measurement measurement;
     
     long elapsedDurationNanos;
     long elapsedStartTimeNanos;
@@ -336,6 +338,21 @@ public final class SpeedTracerLogger {
     }
   }
   
+  /**
+   * Does nothing but feed {@link CompilerMetrics} when logging has not been
+   * turned on.
+   */
+  private class MeasuredEvent extends DummyEvent {
+    MeasuredEvent(CompilerMetrics.Measurement measurement) {
+      this.measurement = measurement;
+    }
+
+    @Override
+    public void end(String... data) {
+      measurement.end();
+    }
+  }
+
   /**
    * Provides functionality specific to garbage collection events.
    */
@@ -658,6 +675,17 @@ public final class SpeedTracerLogger {
     return SpeedTracerLogger.get().startImpl(session, type, data);
   }
 
+  /**
+   * Starts a {@link CompilerMetrics} measurement for compiler events, if
+   * metrics are being recorded.
+   */
+  private static CompilerMetrics.Measurement startMeasurement(EventType type, String... data) {
+    if (!(type instanceof CompilerEventType) || !CompilerMetrics.isEnabled()) {
+      return null;
+    }
+    return CompilerMetrics.start(CompilerMetrics.getPhaseName(type, data));
+  }
+
   private static double convertToMilliseconds(long nanos) {
     return nanos / 1000000.0d;
   }
@@ -836,6 +864,7 @@ public final class SpeedTracerLogger {
     }
     Event currentEvent = threadPendingEvents.pop();
     currentEvent.updateDuration();
+    endMeasurement(currentEvent);
     
     while (currentEvent != event && !threadPendingEvents.isEmpty()) {
       // Missed a closing end for one or more frames! Try to sync back up.
@@ -843,6 +872,7 @@ public final class SpeedTracerLogger {
           "This event was closed without an explicit call to Event.end()");
       currentEvent = threadPendingEvents.pop();
       currentEvent.updateDuration();
+      endMeasurement(currentEvent);
     }
 
     if (threadPendingEvents.isEmpty() && currentEvent != event) {
@@ -893,7 +923,8 @@ public final class SpeedTracerLogger {
 
   Event startImpl(DevModeSession session, EventType type, String... data) {
     if (!enabled) {
-      return dummyEvent;
+      CompilerMetrics.Measurement measurement = startMeasurement(type, data);
+      return measurement == null ? dummyEvent : new MeasuredEvent(measurement);
     }
 
     if (data.length % 2 == 1) {
@@ -922,10 +953,17 @@ public final class SpeedTracerLogger {
               : elapsedTimeKeeper.zeroTimeMillis());
       newEvent.addData("baseTime", "" + baseTime);
     }
+    newEvent.measurement = startMeasurement(type, data);
     threadPendingEvents.push(newEvent);
     return newEvent;
   }
 
+  private void endMeasurement(Event event) {
+    if (event.measurement != null) {
+      event.measurement.end();
+    }
+  }
+
   private ThreadLocal<Stack<Event>> initPendingEvents() {
     return new ThreadLocal<Stack<Event>>() {
       @Override
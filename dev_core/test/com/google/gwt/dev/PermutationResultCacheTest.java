@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+import com.google.gwt.dev.jjs.JJSOptionsImpl;
+import com.google.gwt.dev.jjs.PermutationResult;
+import com.google.gwt.dev.jjs.UnifiedAst;
+import com.google.gwt.dev.jjs.UnifiedAst.AST;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.js.ast.JsProgram;
+import com.google.gwt.dev.util.FileBackedObject;
+import com.google.gwt.dev.util.UnitTestTreeLogger;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+/**
+ * Tests {@link PermutationResultCache}.
+ */
+public class PermutationResultCacheTest extends TestCase {
+
+  private File dir;
+
+  @Override
+  public void setUp() throws Exception {
+    dir = File.createTempFile("PermutationResultCacheTest", "");
+    assertTrue(dir.delete());
+    assertTrue(dir.mkdirs());
+  }
+
+  @Override
+  public void tearDown() {
+    Util.recursiveDelete(dir, false);
+  }
+
+  public void testCorruptEntryIsAMiss() throws Exception {
+    File cacheDir = new File(dir, "cache");
+    PermutationResultCache cache = new PermutationResultCache(cacheDir, 1000);
+    Permutation perm = makePermutation(0);
+    cache.store(TreeLogger.NULL, makeAst("a"), perm, makeResultFile("compiled", "js"));
+    File[] entries = cacheDir.listFiles();
+    assertEquals(1, entries.length);
+    RandomAccessFile entry = new RandomAccessFile(entries[0], "rw");
+    try {
+      // Corrupt the last byte of the result.
+      entry.seek(entry.length() - 1);
+      entry.write('x');
+    } finally {
+      entry.close();
+    }
+
+    UnitTestTreeLogger.Builder builder = new UnitTestTreeLogger.Builder();
+    builder.setLowestLogLevel(TreeLogger.WARN);
+    builder.expectWarn("Cached permutation 0 is corrupt; compiling it instead", null);
+    UnitTestTreeLogger logger = builder.createLogger();
+    assertFalse(cache.restore(logger, makeAst("a"), perm, makeResultFile("restored", null)));
+    logger.assertCorrectLogEntries();
+    assertEquals(0, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0, cacheDir.listFiles().length);
+  }
+
+  public void testCreateIsOptIn() {
+    String oldDir = System.clearProperty(PermutationResultCache.DIR_PROPERTY);
+    try {
+      assertNull(PermutationResultCache.create());
+      System.setProperty(PermutationResultCache.DIR_PROPERTY, dir.getPath());
+      assertNotNull(PermutationResultCache.create());
+    } finally {
+      if (oldDir == null) {
+        System.clearProperty(PermutationResultCache.DIR_PROPERTY);
+      } else {
+        System.setProperty(PermutationResultCache.DIR_PROPERTY, oldDir);
+      }
+    }
+  }
+
+  public void testDifferentAstMisses() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    PermutationResultCache cache = new PermutationResultCache(new File(dir, "cache"), 1000);
+    Permutation perm = makePermutation(0);
+    cache.store(logger, makeAst("a"), perm, makeResultFile("compiled", "js"));
+
+    assertFalse(cache.restore(logger, makeAst("b"), perm, makeResultFile("restored", null)));
+    assertFalse(cache.restore(logger, makeAst("a"), makePermutation(1),
+        makeResultFile("restored", null)));
+    assertEquals(2, cache.getMissCount());
+  }
+
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = new File(dir, "cache");
+    // Room for one entry: a digest and five bytes.
+    PermutationResultCache cache = new PermutationResultCache(cacheDir, 21);
+    UnifiedAst ast = makeAst("a");
+    Permutation older = makePermutation(0);
+    Permutation newer = makePermutation(1);
+    cache.store(logger, ast, older, makeResultFile("older", "older"));
+    cache.store(logger, ast, newer, makeResultFile("newer", "newer"));
+    long now = System.currentTimeMillis();
+    for (File entry : cacheDir.listFiles()) {
+      entry.setLastModified(now - 10000);
+    }
+    assertTrue(cache.restore(logger, ast, newer, makeResultFile("restored", null)));
+
+    cache.evict(logger);
+    assertEquals(1, cacheDir.listFiles().length);
+    assertFalse(cache.restore(logger, ast, older, makeResultFile("restored", null)));
+    assertTrue(cache.restore(logger, ast, newer, makeResultFile("restored", null)));
+  }
+
+  public void testNoStrongNameIsNeverCached() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = new File(dir, "cache");
+    PermutationResultCache cache = new PermutationResultCache(cacheDir, 1000);
+    UnifiedAst ast = makeAst(null);
+    cache.store(logger, ast, makePermutation(0), makeResultFile("compiled", "js"));
+    assertFalse(cacheDir.exists());
+    assertFalse(cache.restore(logger, ast, makePermutation(0), makeResultFile("restored", null)));
+  }
+
+  public void testRestoresStoredResult() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    PermutationResultCache cache = new PermutationResultCache(new File(dir, "cache"), 1000);
+    Permutation perm = makePermutation(0);
+    cache.store(logger, makeAst("a"), perm, makeResultFile("compiled", "js"));
+
+    FileBackedObject<PermutationResult> restored = makeResultFile("restored", null);
+    assertTrue(cache.restore(logger, makeAst("a"), perm, restored));
+    assertEquals("js", Util.readFileAsString(restored.getFile()));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(0, cache.getMissCount());
+  }
+
+  public void testUnrestorableEntryIsAMiss() throws Exception {
+    PermutationResultCache cache = new PermutationResultCache(new File(dir, "cache"), 1000);
+    Permutation perm = makePermutation(0);
+    cache.store(TreeLogger.NULL, makeAst("a"), perm, makeResultFile("compiled", "js"));
+
+    // The result file can't be created, since its directory is a file.
+    File notADirectory = new File(dir, "compiled");
+    FileBackedObject<PermutationResult> restored = new FileBackedObject<PermutationResult>(
+        PermutationResult.class, new File(notADirectory, "restored"));
+    UnitTestTreeLogger.Builder builder = new UnitTestTreeLogger.Builder();
+    builder.setLowestLogLevel(TreeLogger.WARN);
+    builder.expectWarn("Unable to read cached permutation 0; compiling it instead",
+        FileNotFoundException.class);
+    UnitTestTreeLogger logger = builder.createLogger();
+    assertFalse(cache.restore(logger, makeAst("a"), perm, restored));
+    logger.assertCorrectLogEntries();
+    assertEquals(0, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  private UnifiedAst makeAst(String strongName) {
+    UnifiedAst ast = new UnifiedAst(new JJSOptionsImpl(), new AST(new JProgram(),
+        new JsProgram()), true, Collections.<String> emptySet());
+    ast.setStrongName(strongName);
+    return ast;
+  }
+
+  private Permutation makePermutation(int id) {
+    return new Permutation(id, new StaticPropertyOracle(new BindingProperty[0], new String[0],
+        new ConfigurationProperty[0]));
+  }
+
+  /**
+   * Creates a result file. The contents need not be a real serialized result,
+   * since the cache treats it as opaque bytes.
+   */
+  private FileBackedObject<PermutationResult> makeResultFile(String name, String contents) {
+    File file = new File(dir, name);
+    if (contents != null) {
+      assertTrue(Util.writeStringAsFile(file, contents));
+    }
+    return new FileBackedObject<PermutationResult>(PermutationResult.class, file);
+  }
+}
@@ -19,6 +19,7 @@ import com.google.gwt.dev.javac.Dependencies.Ref;
 import com.google.gwt.dev.javac.testing.impl.JavaResourceBase;
 import com.google.gwt.dev.javac.testing.impl.MockJavaResource;
 import com.google.gwt.dev.javac.testing.impl.MockResourceOracle;
+import com.google.gwt.dev.javac.typemodel.JClassType;
 import com.google.gwt.dev.jjs.SourceOrigin;
 import com.google.gwt.dev.js.JsParser;
 import com.google.gwt.dev.js.JsSourceGenerationVisitor;
@@ -34,6 +35,7 @@ import com.google.gwt.dev.util.collect.Lists;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -96,6 +98,10 @@ public class CompilationStateTest extends CompilationStateTestBase {
   }
 
   /* test that a generated unit, if unchanged, is reused */
+  public void testBuildThreadsKeepUnitOrder() {
+    assertEquals(buildInOrder(1), buildInOrder(4));
+  }
+
   public void testCaching() {
     testCaching(JavaResourceBase.FOO);
   }
@@ -400,6 +406,34 @@ public class CompilationStateTest extends CompilationStateTestBase {
     validateCompilationState();
   }
 
+  /**
+   * Returns the names of the units and types built with
+   * <code>threadCount</code> build threads, in the order they were built.
+   */
+  private List<String> buildInOrder(int threadCount) {
+    String oldThreadCount = System.getProperty(CompilationStateBuilder.BUILD_THREADS_PROPERTY);
+    System.setProperty(CompilationStateBuilder.BUILD_THREADS_PROPERTY,
+        String.valueOf(threadCount));
+    try {
+      CompilationState built = new CompilationStateBuilder().doBuildFrom(createTreeLogger(),
+          oracle.getResources(), false);
+      List<String> names = new ArrayList<String>();
+      for (CompilationUnit unit : built.getCompilationUnits()) {
+        names.add(unit.getResourcePath());
+      }
+      for (JClassType type : built.getTypeOracle().getTypes()) {
+        names.add(type.getQualifiedSourceName());
+      }
+      return names;
+    } finally {
+      if (oldThreadCount == null) {
+        System.clearProperty(CompilationStateBuilder.BUILD_THREADS_PROPERTY);
+      } else {
+        System.setProperty(CompilationStateBuilder.BUILD_THREADS_PROPERTY, oldThreadCount);
+      }
+    }
+  }
+
   private void testCaching(MockJavaResource... resources) {
     Set<String> reusedTypes = new HashSet<String>();
     for (MockJavaResource resource : resources) {
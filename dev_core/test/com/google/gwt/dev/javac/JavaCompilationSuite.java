@@ -53,6 +53,7 @@ public class JavaCompilationSuite {
     suite.addTestSuite(JsniCheckerTest.class);
     suite.addTestSuite(JsniCollectorTest.class);
     suite.addTestSuite(JSORestrictionsTest.class);
+    suite.addTestSuite(MappedUnitCacheTest.class);
     suite.addTestSuite(MemoryUnitCacheTest.class);
     suite.addTestSuite(PersistentUnitCacheTest.class);
     suite.addTestSuite(TypeOracleMediatorFromByteCodeTest.class);
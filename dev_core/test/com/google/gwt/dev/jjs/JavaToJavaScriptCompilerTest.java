@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs;
+
+import com.google.gwt.dev.Permutation;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests {@link JavaToJavaScriptCompiler#getSharedRebindAnswers}.
+ */
+public class JavaToJavaScriptCompilerTest extends TestCase {
+
+  private static final Set<String> LIVE = new HashSet<String>(Arrays.asList("A", "B", "C"));
+
+  public void testCollapsedAnswersMustAgree() {
+    Permutation first = makePermutation(0, "A", "a1", "B", "b1");
+    Permutation collapsed = makePermutation(1, "A", "a1", "B", "b2");
+    first.mergeRebindsFromCollapsed(collapsed);
+
+    Map<String, String> shared =
+        JavaToJavaScriptCompiler.getSharedRebindAnswers(new Permutation[] {first}, LIVE);
+    assertEquals(1, shared.size());
+    assertEquals("a1", shared.get("A"));
+  }
+
+  public void testDeadRequestsAreNotShared() {
+    Permutation[] perms = {
+        makePermutation(0, "A", "a1", "Dead", "d"),
+        makePermutation(1, "A", "a1", "Dead", "d")};
+
+    Map<String, String> shared = JavaToJavaScriptCompiler.getSharedRebindAnswers(perms, LIVE);
+    assertEquals(1, shared.size());
+    assertEquals("a1", shared.get("A"));
+  }
+
+  public void testOnlyAnswersCommonToAllPermutations() {
+    Permutation[] perms = {
+        makePermutation(0, "A", "a1", "B", "b1", "C", "c1"),
+        makePermutation(1, "A", "a1", "B", "b2", "C", "c1"),
+        makePermutation(2, "A", "a1", "B", "b1", "C", "c2")};
+
+    Map<String, String> shared = JavaToJavaScriptCompiler.getSharedRebindAnswers(perms, LIVE);
+    assertEquals(1, shared.size());
+    assertEquals("a1", shared.get("A"));
+  }
+
+  private Permutation makePermutation(int id, String... answers) {
+    Permutation perm = new Permutation(id, new StaticPropertyOracle(new BindingProperty[0],
+        new String[0], new ConfigurationProperty[0]));
+    for (int i = 0; i < answers.length; i += 2) {
+      perm.putRebindAnswer(answers[i], answers[i + 1]);
+    }
+    return perm;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs;
+
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.impl.JJSTestBase;
+import com.google.gwt.dev.jjs.impl.MethodDependencyIndex;
+import com.google.gwt.dev.jjs.impl.ParallelOptimizer;
+import com.google.gwt.dev.util.arg.OptionOptimize;
+
+/**
+ * Tests that the ways of running {@link JavaToJavaScriptCompiler#optimize}
+ * produce the same program.
+ */
+public class OptimizeTest extends JJSTestBase {
+
+  private static final String CODE = "int x = C.K + 1; if (true) { b = !!b; } else { i = 2; }"
+      + " new F(); i = Q.f(); G g = new G(); g.set(x); i = new R().scale(i) + S.B.ordinal();"
+      + " return b ? H.twice(g.get()) : 4;";
+
+  @Override
+  public void setUp() throws Exception {
+    addSnippetClassDecl("static volatile boolean b;");
+    addSnippetClassDecl("static volatile int i;");
+    addSnippetClassDecl("static class C { static final int K = 3; }");
+    // Empty constructors that call empty constructors in other types
+    addSnippetClassDecl("static class D { D() { } }");
+    addSnippetClassDecl("static class E extends D { E() { super(); } }");
+    addSnippetClassDecl("static class F extends E { F() { super(); } }");
+    // Methods that only become simple once their callers are inlined
+    addSnippetClassDecl("static class G { int v; void set(int v) { if (v > 0) { this.v = v; } }"
+        + " int get() { return v > 0 ? v : -v; } }");
+    addSnippetClassDecl("static class H { static int twice(int v) { return v + v; } }");
+    // A field that only becomes constant once its own type is optimized
+    addSnippetClassDecl("static class P { static int A = 3; static int B = A + 1; }");
+    addSnippetClassDecl("static class Q { static int f() { int n = i; return P.B == 4 ? n : 2; }"
+        + " }");
+    // An instance method that gets a static implementation
+    addSnippetClassDecl("static class R { int k = 2; int scale(int v) { return b ? v * k : v; } }");
+    // An enum that gets ordinalized
+    addSnippetClassDecl("static enum S { A, B }");
+  }
+
+  /**
+   * Incremental optimization must produce the same program as revisiting
+   * every method on every pass.
+   */
+  public void testIncrementalOptimization() throws Exception {
+    for (int level : new int[] {1, 2, OptionOptimize.OPTIMIZE_LEVEL_MAX}) {
+      String full = optimize(level);
+      String incremental = optimize(level, MethodDependencyIndex.INCREMENTAL_PROPERTY, "true");
+      assertEquals("Optimization level " + level, full, incremental);
+    }
+  }
+
+  /**
+   * Parallel dead code elimination must not change the result of a full
+   * optimization, including when it stops after a limited number of passes.
+   */
+  public void testParallelDeadCodeElimination() throws Exception {
+    for (int level : new int[] {1, 2, OptionOptimize.OPTIMIZE_LEVEL_MAX}) {
+      String sequential = optimize(level, ParallelOptimizer.THREADS_PROPERTY, "1");
+      String parallel = optimize(level, ParallelOptimizer.THREADS_PROPERTY, "4",
+          ParallelOptimizer.DEAD_CODE_ELIMINATION_PROPERTY, "true");
+      assertEquals("Optimization level " + level, sequential, parallel);
+    }
+  }
+
+  /**
+   * Compiles and optimizes the snippet with the given system properties set,
+   * and returns the source of every type.
+   */
+  private String optimize(int level, String... properties) throws Exception {
+    String[] oldValues = new String[properties.length / 2];
+    for (int i = 0; i < properties.length; i += 2) {
+      oldValues[i / 2] = System.setProperty(properties[i], properties[i + 1]);
+    }
+    try {
+      JProgram program = compileSnippet("int", CODE);
+      program.addEntryMethod(findMainMethod(program));
+      JJSOptionsImpl options = new JJSOptionsImpl();
+      options.setOptimizationLevel(level);
+      JavaToJavaScriptCompiler.optimize(options, program);
+      StringBuilder sb = new StringBuilder();
+      for (JDeclaredType type : program.getDeclaredTypes()) {
+        sb.append(type.toSource());
+      }
+      return sb.toString();
+    } finally {
+      for (int i = 0; i < properties.length; i += 2) {
+        if (oldValues[i / 2] == null) {
+          System.clearProperty(properties[i]);
+        } else {
+          System.setProperty(properties[i], oldValues[i / 2]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+
+/**
+ * Tests {@link FragmentLoadProfile}.
+ */
+public class FragmentLoadProfileTest extends TestCase {
+
+  public void testLoadCounts() throws Exception {
+    FragmentLoadProfile profile = FragmentLoadProfile.read(new StringReader(
+        "# sessions\n"
+        + "1 3\n"
+        + "\n"
+        + "1, 2,3\n"
+        + "0\n"));
+    assertEquals(3, profile.getSessionCount());
+    // Every session loads the initial fragment.
+    assertEquals(3, profile.getLoadCount(0));
+    assertEquals(2, profile.getLoadCount(1));
+    assertEquals(1, profile.getLoadCount(2));
+    assertEquals(2, profile.getLoadCount(3));
+    assertEquals(0, profile.getLoadCount(17));
+    assertTrue(profile.getSessions().get(1).get(2));
+  }
+
+  public void testMalformed() throws Exception {
+    try {
+      FragmentLoadProfile.read(new StringReader("1 two\n"));
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException expected) {
+    }
+    try {
+      FragmentLoadProfile.read(new StringReader("-1\n"));
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException expected) {
+    }
+  }
+}
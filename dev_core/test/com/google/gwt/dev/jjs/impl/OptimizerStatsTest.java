@@ -75,4 +75,12 @@ public class OptimizerStatsTest extends TestCase {
     childStats.recordModified();
     assertTrue(stats.didChange());
   }
+
+  public void testParallelTime() {
+    OptimizerStats stats = new OptimizerStats("foo");
+    assertEquals(0.0, stats.getParallelSpeedup());
+    stats.recordParallelTime(100, 300);
+    assertEquals(3.0, stats.getParallelSpeedup());
+    assertTrue(stats.prettyPrint().contains("parallel"));
+  }
 }
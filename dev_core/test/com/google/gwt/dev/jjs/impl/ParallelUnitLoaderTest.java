@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JProgram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link ParallelUnitLoader}.
+ */
+public class ParallelUnitLoaderTest extends JJSTestBase {
+
+  private static final String CODE = "A a = new B(); return a.foo() + C.bar(new int[] {1});";
+
+  @Override
+  public void setUp() throws Exception {
+    addSnippetClassDecl("interface A { int foo(); }");
+    addSnippetClassDecl("static class B implements A { public int foo() { return C.K; } }");
+    addSnippetClassDecl("static class C {",
+        "  static final int K = 3;",
+        "  static int bar(int[] x) { return x.length + K; }",
+        "}");
+  }
+
+  public void testSameProgramAsSequential() throws Exception {
+    List<String> sequential = getTypeSources(compileSnippet("int", CODE));
+    List<String> parallel;
+    System.setProperty(ParallelOptimizer.THREADS_PROPERTY, "4");
+    try {
+      parallel = getTypeSources(compileSnippet("int", CODE));
+    } finally {
+      System.clearProperty(ParallelOptimizer.THREADS_PROPERTY);
+    }
+    assertEquals(sequential, parallel);
+  }
+
+  /**
+   * Returns the source of every type, in program order.
+   */
+  private List<String> getTypeSources(JProgram program) {
+    List<String> sources = new ArrayList<String>();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      sources.add(type.toSource());
+    }
+    return sources;
+  }
+}
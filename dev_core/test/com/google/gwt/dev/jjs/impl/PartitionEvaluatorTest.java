@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+
+/**
+ * Tests {@link PartitionEvaluator}.
+ */
+public class PartitionEvaluatorTest extends TestCase {
+
+  private static PartitionEvaluator evaluator(String trace) throws Exception {
+    return new PartitionEvaluator(FragmentLoadProfile.read(new StringReader(trace)));
+  }
+
+  public void testMergedFragment() throws Exception {
+    PartitionEvaluator evaluator = evaluator("1 2\n1 2\n3\n");
+    // Split points 1 and 2 share fragment 1; split point 3 has fragment 3.
+    PartitionEvaluator.Score score =
+        evaluator.score(new int[] {0, 1, 1, 3}, new long[] {0, 100, 0, 10}, 1000);
+    assertEquals(3, score.getSessionCount());
+    // Two sessions load leftovers and fragment 1, one loads leftovers and 3.
+    assertEquals(6, score.getRoundTrips());
+    assertEquals(2 * 1100 + 1010, score.getBytes());
+    assertEquals(2.0, score.getExpectedRoundTrips(), 0.001);
+    assertEquals(2.0 * 50 + 3210 / 3.0, score.getCost(50), 0.001);
+  }
+
+  public void testInitialSplitPoints() throws Exception {
+    // Split point 2 is initial, and 4 is unknown to the partition.
+    PartitionEvaluator evaluator = evaluator("2\n2 4\n1 2\n");
+    PartitionEvaluator.Score score =
+        evaluator.score(new int[] {0, 1, 0}, new long[] {0, 100}, 1000);
+    assertEquals(3, score.getSessionCount());
+    assertEquals(2, score.getRoundTrips());
+    assertEquals(1100, score.getBytes());
+  }
+
+  public void testPartitionFile() throws Exception {
+    PartitionEvaluator evaluator = evaluator("1 2\n3\n");
+    PartitionEvaluator.Score score = evaluator.score(new StringReader(
+        "# fragment size split points\n"
+        + "leftovers 1000\n"
+        + "1 100 1 2\n"
+        + "2 10 3\n"));
+    assertEquals(4, score.getRoundTrips());
+    assertEquals(1100 + 1010, score.getBytes());
+  }
+
+  public void testMalformedPartitionFile() throws Exception {
+    PartitionEvaluator evaluator = evaluator("1\n");
+    try {
+      evaluator.score(new StringReader("leftovers\n"));
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException expected) {
+    }
+    try {
+      evaluator.score(new StringReader("0 100 1\n"));
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException expected) {
+    }
+  }
+}
@@ -4,7 +4,9 @@ import com.google.gwt.dev.jjs.ast.JMethod;
 import com.google.gwt.dev.jjs.ast.JProgram;
 import com.google.gwt.dev.jjs.impl.DeadCodeElimination;
 import com.google.gwt.dev.jjs.impl.MethodInliner;
+import com.google.gwt.dev.jjs.impl.OptimizerStats;
 import com.google.gwt.dev.jjs.impl.OptimizerTestBase;
+import com.google.gwt.dev.jjs.impl.ParallelOptimizer;
 
 public class DataflowOptimizerTest extends OptimizerTestBase {
   @Override
@@ -111,6 +113,39 @@ public class DataflowOptimizerTest extends OptimizerTestBase {
         "boolean b;");
   }
 
+  public void testOverBudget() throws Exception {
+    // Every pass that transforms anything needs more than one step per node.
+    System.setProperty(DataflowOptimizer.BUDGET_PROPERTY, "1");
+    try {
+      optimize("int", "int i = 1; int j = i; return j;").noChange();
+    } finally {
+      System.clearProperty(DataflowOptimizer.BUDGET_PROPERTY);
+    }
+  }
+
+  public void testParallel() throws Exception {
+    addSnippetClassDecl("static int twice(int i) { int j = i; int k = 2; return j * k; }");
+    String code = "int i = 1; int j = i; if (j != 1) { foo(2); } return twice(j);";
+
+    JProgram sequential = compileSnippet("int", code);
+    OptimizerStats sequentialStats = DataflowOptimizer.exec(sequential);
+
+    JProgram parallel = compileSnippet("int", code);
+    OptimizerStats parallelStats;
+    System.setProperty(ParallelOptimizer.THREADS_PROPERTY, "4");
+    try {
+      parallelStats = DataflowOptimizer.exec(parallel);
+    } finally {
+      System.clearProperty(ParallelOptimizer.THREADS_PROPERTY);
+    }
+
+    assertTrue(sequentialStats.didChange());
+    assertEquals(sequentialStats.getNumMods(), parallelStats.getNumMods());
+    assertEquals(getMainMethodSource(sequential), getMainMethodSource(parallel));
+    assertEquals(findMethod(sequential, "twice").getBody().toSource(),
+        findMethod(parallel, "twice").getBody().toSource());
+  }
+
   public void testNoChange() throws Exception {
     optimize("void",
         "try {",
@@ -15,12 +15,17 @@
  */
 package com.google.gwt.dev.js;
 
+import com.google.gwt.dev.jjs.SourceOrigin;
 import com.google.gwt.dev.js.ast.JsContext;
 import com.google.gwt.dev.js.ast.JsFunction;
 import com.google.gwt.dev.js.ast.JsModVisitor;
 import com.google.gwt.dev.js.ast.JsName;
 import com.google.gwt.dev.js.ast.JsProgram;
 
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Safety checks for JsInliner.
  */
@@ -221,6 +226,33 @@ public class JsInlinerTest extends OptimizerTestBase {
     verifyNoChange(code.toString());
   }
 
+  /**
+   * Inlining <code>g</code> into <code>b</code> makes <code>b</code> cheap
+   * enough to inline into <code>a</code>, which the first sweep has already
+   * passed. Only <code>a</code> is visited again.
+   */
+  public void testRevisitsOnlyAffectedCallers() throws Exception {
+    String input = "function a() { $wnd.x = b() + b(); }"
+        + "function b() { return g(1, 2, 3); }"
+        + "function g(p, q, r) { return p; }"
+        + "function other() { $wnd.y = 2; }"
+        + "a(); other();";
+    String expected = "function a() { $wnd.x = 1 + 1; }"
+        + "function other() { $wnd.y = 2; }"
+        + "a(); other();";
+    verifyOptimized(expected, input);
+
+    JsProgram program = new JsProgram();
+    program.getGlobalBlock().getStatements().addAll(JsParser.parse(SourceOrigin.UNKNOWN,
+        program.getScope(), new StringReader(input)));
+    JsSymbolResolver.exec(program);
+    FixStaticRefsVisitor.exec(program);
+    List<JsFunction> revisited = new ArrayList<JsFunction>();
+    JsInliner.execImpl(program, revisited);
+    assertEquals(1, revisited.size());
+    assertEquals("a", revisited.get(0).getName().getIdent());
+  }
+
   public void testSelfRecursion() throws Exception {
     String input = "function a1() { return blah && b1() }"
         + "function b1() { return bar && a1()}" + "function c() { a1() } c()";
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.js;
+
+import com.google.gwt.dev.jjs.SourceOrigin;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.ast.JRunAsync;
+import com.google.gwt.dev.jjs.impl.CodeSplitter;
+import com.google.gwt.dev.jjs.impl.FragmentLoadProfile;
+import com.google.gwt.dev.js.ast.JsProgram;
+import com.google.gwt.dev.js.ast.JsVisitor;
+import com.google.gwt.dev.util.DefaultTextOutput;
+import com.google.gwt.dev.util.TextOutput;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Tests {@link JsStringInterner}.
+ */
+public class JsStringInternerTest extends TestCase {
+
+  private static final int LEFTOVERS = CodeSplitter.getLeftoversFragmentNumber(2);
+
+  private JProgram jprogram;
+  private JsProgram program;
+
+  /**
+   * When most sessions load the leftovers but few load either exclusive
+   * fragment, the String is cheaper to download once per exclusive fragment.
+   */
+  public void testSharedStringDuplicated() throws Exception {
+    FragmentLoadProfile profile = FragmentLoadProfile.read(new StringReader(
+        "3\n3\n3\n3\n1\n2\n"));
+    JsStringInterner.exec(jprogram, program, true, profile);
+    assertDeclaredIn(1, 2);
+  }
+
+  /**
+   * Without a profile, a String used by two exclusive fragments is declared
+   * once, in the leftovers fragment that loads before both.
+   */
+  public void testSharedStringHoisted() throws Exception {
+    JsStringInterner.exec(jprogram, program, true);
+    assertDeclaredIn(LEFTOVERS);
+  }
+
+  /**
+   * When the sessions that load the leftovers also load both exclusive
+   * fragments, one declaration in the leftovers stays cheaper.
+   */
+  public void testSharedStringHoistedByProfile() throws Exception {
+    FragmentLoadProfile profile = FragmentLoadProfile.read(new StringReader(
+        "1 2 3\n1 2 3\n1 2 3\n"));
+    JsStringInterner.exec(jprogram, program, true, profile);
+    assertDeclaredIn(LEFTOVERS);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    jprogram = new JProgram();
+    jprogram.setRunAsyncs(Arrays.asList(
+        new JRunAsync(SourceOrigin.UNKNOWN, 1, "sp1", null, null),
+        new JRunAsync(SourceOrigin.UNKNOWN, 2, "sp2", null, null)));
+
+    // The initial fragment, two exclusive fragments and the leftovers.
+    program = new JsProgram();
+    program.setFragmentCount(LEFTOVERS + 1);
+    parseInto(1, "$wnd.a = 'shared';");
+    parseInto(2, "$wnd.b = 'shared';");
+  }
+
+  /**
+   * Checks that exactly <code>fragments</code> declare the interned String.
+   */
+  private void assertDeclaredIn(int... fragments) {
+    for (int i = 0; i < program.getFragmentCount(); ++i) {
+      boolean expected = Arrays.binarySearch(fragments, i) >= 0;
+      String js = toJs(i);
+      assertEquals("Fragment " + i + ": " + js, expected,
+          js.contains(JsStringInterner.PREFIX + "0='shared'"));
+    }
+  }
+
+  private void parseInto(int fragment, String js) throws Exception {
+    program.getFragmentBlock(fragment).getStatements().addAll(JsParser.parse(
+        SourceOrigin.UNKNOWN, program.getScope(), new StringReader(js)));
+  }
+
+  private String toJs(int fragment) {
+    TextOutput text = new DefaultTextOutput(true);
+    JsVisitor generator = new JsSourceGenerationVisitor(text);
+    generator.accept(program.getFragmentBlock(fragment));
+    return text.toString();
+  }
+}
@@ -17,6 +17,7 @@ package com.google.gwt.dev.util;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
 import java.util.Arrays;
 
 /**
@@ -49,6 +50,32 @@ public class DiskCacheTest extends TestCase {
     }
   }
 
+  public void testFree() {
+    byte[] a = new byte[] {1, 2, 3, 4, 5, 6};
+    byte[] b = new byte[] {7, 8};
+    byte[] c = new byte[] {9};
+    long tokenA = diskCache.writeByteArray(a);
+    long tokenB = diskCache.writeByteArray(b);
+    long tokenC = diskCache.writeByteArray(c);
+
+    // Freed space in the middle of the file is reused by data that fits.
+    diskCache.free(tokenA);
+    assertEquals(tokenA, diskCache.writeByteArray(c));
+    long tokenD = diskCache.transferFromStream(new ByteArrayInputStream(new byte[] {10}));
+    assertEquals(tokenA + 4 + c.length, tokenD);
+    assertTrue(Arrays.equals(c, diskCache.readByteArray(tokenA)));
+    assertTrue(Arrays.equals(new byte[] {10}, diskCache.readByteArray(tokenD)));
+    assertTrue(Arrays.equals(b, diskCache.readByteArray(tokenB)));
+    assertTrue(Arrays.equals(c, diskCache.readByteArray(tokenC)));
+
+    // Freed space at the end of the file is trimmed, along with free
+    // neighbors.
+    diskCache.free(tokenB);
+    diskCache.free(tokenC);
+    assertEquals(tokenB, diskCache.writeByteArray(a));
+    assertEquals(tokenB + 4 + a.length, diskCache.writeByteArray(b));
+  }
+
   public void testStrings() {
     String a = "";
     String b = "abjdsfkl;jasdf";
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util.log.metrics;
+
+import com.google.gwt.dev.json.JsonObject;
+import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link CompilerMetrics} and {@link JsonLinesMetricsSink}.
+ */
+public class CompilerMetricsTest extends TestCase {
+
+  private static class RecordingSink implements MetricsSink {
+    final List<PhaseMetrics> records = new ArrayList<PhaseMetrics>();
+
+    public synchronized void record(PhaseMetrics metrics) {
+      records.add(metrics);
+    }
+  }
+
+  public void testDisabled() {
+    assertFalse(CompilerMetrics.isEnabled());
+    assertNull(CompilerMetrics.start("phase"));
+    assertTrue(CompilerMetrics.getPermutationPhases().isEmpty());
+  }
+
+  public void testJsonLines() throws Exception {
+    StringWriter writer = new StringWriter();
+    CompilerMetrics.setSink(new JsonLinesMetricsSink(writer));
+    CompilerMetrics.beginPermutation(3, false);
+    CompilerMetrics.start("first").end();
+    CompilerMetrics.start("second").end();
+    CompilerMetrics.endPermutation();
+
+    String[] lines = writer.toString().split("\n");
+    assertEquals(2, lines.length);
+    JsonObject json = JsonObject.parse(new StringReader(lines[1]));
+    assertEquals("second", json.get("phase").asString().getString());
+    assertEquals(3, json.get("permutation").asNumber().getInteger());
+    assertTrue(json.get("wallNanos").asNumber().getInteger() >= 0);
+  }
+
+  public void testPermutationPhases() {
+    CompilerMetrics.beginPermutation(7, true);
+    assertTrue(CompilerMetrics.isEnabled());
+    CompilerMetrics.Measurement outer = CompilerMetrics.start("outer");
+    CompilerMetrics.Measurement inner = CompilerMetrics.start("inner");
+    inner.end();
+    outer.end();
+    // Ending twice records nothing more.
+    outer.end();
+
+    List<PhaseMetrics> phases = CompilerMetrics.getPermutationPhases();
+    CompilerMetrics.endPermutation();
+    assertEquals(2, phases.size());
+    assertEquals("inner", phases.get(0).getPhase());
+    assertEquals(1, phases.get(0).getDepth());
+    assertEquals("outer", phases.get(1).getPhase());
+    assertEquals(0, phases.get(1).getDepth());
+    assertEquals(7, phases.get(1).getPermutationId());
+    assertTrue(phases.get(1).getWallNanos() >= phases.get(0).getWallNanos());
+
+    assertFalse(CompilerMetrics.isEnabled());
+  }
+
+  public void testPhaseName() {
+    assertEquals("Optimize", CompilerMetrics.getPhaseName(CompilerEventType.OPTIMIZE));
+    assertEquals("Optimize:Pruner", CompilerMetrics.getPhaseName(CompilerEventType.OPTIMIZE,
+        "optimizer", "Pruner"));
+    assertEquals("CodeSplitter:finish", CompilerMetrics.getPhaseName(
+        CompilerEventType.CODE_SPLITTER, "name", "x", "phase", "finish"));
+  }
+
+  public void testSpeedTracerEvents() {
+    RecordingSink sink = new RecordingSink();
+    CompilerMetrics.setSink(sink);
+    Event event =
+        SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", "DeadCodeElimination");
+    event.end();
+
+    assertEquals(1, sink.records.size());
+    PhaseMetrics metrics = sink.records.get(0);
+    assertEquals("Optimize:DeadCodeElimination", metrics.getPhase());
+    assertEquals(-1, metrics.getPermutationId());
+  }
+
+  @Override
+  protected void tearDown() {
+    CompilerMetrics.setSink(null);
+    CompilerMetrics.endPermutation();
+  }
+}
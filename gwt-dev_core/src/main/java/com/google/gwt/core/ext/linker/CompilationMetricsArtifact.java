@@ -19,6 +19,11 @@ package com.google.gwt.core.ext.linker;
 import com.google.gwt.core.ext.Linker;
 import com.google.gwt.core.linker.SoycReportLinker;
 import com.google.gwt.dev.js.SizeBreakdown;
+import com.google.gwt.dev.util.log.metrics.PhaseMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Captures some metrics from the compile permutations step of the build.
@@ -31,6 +36,7 @@ public class CompilationMetricsArtifact extends Artifact<CompilationMetricsArtif
   private final int permutationId;
   private String permutationDescription;
   private int[] jsSize;
+  private List<PhaseMetrics> phaseMetrics = Collections.emptyList();
 
   public CompilationMetricsArtifact(int permutationId) { 
     this(SoycReportLinker.class, permutationId);
@@ -77,6 +83,14 @@ public class CompilationMetricsArtifact extends Artifact<CompilationMetricsArtif
     return permutationDescription;
   }
 
+  /**
+   * @return the metrics of each compiler phase and optimizer pass run for this
+   *         permutation, in the order they finished
+   */
+  public List<PhaseMetrics> getPhaseMetrics() {
+    return phaseMetrics;
+  }
+
   @Override
   public int hashCode() {
     return getName().hashCode();
@@ -117,6 +131,14 @@ public class CompilationMetricsArtifact extends Artifact<CompilationMetricsArtif
     return this;
   }
 
+  /**
+   * @param phaseMetrics the metrics of each compiler phase and optimizer pass
+   */
+  public CompilationMetricsArtifact setPhaseMetrics(List<PhaseMetrics> phaseMetrics) {
+    this.phaseMetrics = new ArrayList<PhaseMetrics>(phaseMetrics);
+    return this;
+  }
+
   @Override
   protected int compareToComparableArtifact(CompilationMetricsArtifact o) {
     return getName().compareTo(o.getName());
@@ -16,17 +16,10 @@
 package com.google.gwt.core.ext.soyc;
 
 import com.google.gwt.core.ext.linker.SyntheticArtifact;
+import com.google.gwt.core.ext.soyc.impl.SourceMapBuilder;
 import com.google.gwt.core.linker.SymbolMapsLinker;
-import com.google.gwt.dev.jjs.InternalCompilerException;
 import com.google.gwt.dev.jjs.SourceInfo;
-import com.google.gwt.thirdparty.debugging.sourcemap.FilePosition;
-import com.google.gwt.thirdparty.debugging.sourcemap.SourceMapFormat;
-import com.google.gwt.thirdparty.debugging.sourcemap.SourceMapGenerator;
-import com.google.gwt.thirdparty.debugging.sourcemap.SourceMapGeneratorFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -38,6 +31,27 @@ import java.util.Set;
  */
 public class SourceMapRecorder {
 
+  /**
+   * Returns the name the source map of a fragment records as its file.
+   */
+  public static String fileNameForFragment(int fragment) {
+    return "sourceMap" + fragment;
+  }
+
+  /**
+   * Makes artifacts of source maps already encoded, one per fragment, as by a
+   * {@link SourceMapBuilder}.
+   */
+  public static List<SyntheticArtifact> makeSourceMapArtifacts(byte[][] sourceMaps,
+      int permutationId) {
+    List<SyntheticArtifact> toReturn = new ArrayList<SyntheticArtifact>();
+    for (int fragment = 0; fragment < sourceMaps.length; fragment++) {
+      toReturn.add(new SymbolMapsLinker.SourceMapArtifact(permutationId, fragment,
+          sourceMaps[fragment]));
+    }
+    return toReturn;
+  }
+
   public static List<SyntheticArtifact> makeSourceMapArtifacts(
       List<Map<Range, SourceInfo>> sourceInfoMaps,
       int permutationId) {
@@ -48,47 +62,38 @@ public class SourceMapRecorder {
 
   public static void recordSourceMap(List<Map<Range, SourceInfo>> sourceInfoMaps,
        List<SyntheticArtifact> artifacts, int permutationId) {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-    SourceMapGenerator generator = SourceMapGeneratorFactory.getInstance(SourceMapFormat.V3);
-    OutputStreamWriter out = new OutputStreamWriter(baos);
     int fragment = 0;
-    if (!sourceInfoMaps.isEmpty()) {
-      for (Map<Range, SourceInfo> sourceMap : sourceInfoMaps) {
-        generator.reset();
-        Set<Range> rangeSet = sourceMap.keySet();
-        Range[] ranges = rangeSet.toArray(new Range[rangeSet.size()]);
-        Arrays.sort(ranges, Range.DEPENDENCY_ORDER_COMPARATOR);
-        for (Range r : ranges) {
-          SourceInfo si = sourceMap.get(r);
-          if (si.getFileName() == null || si.getStartLine() < 0) {
-            // skip over synthetics with no Java source
-            continue;
-          }
-          if (r.getStartLine() == 0 || r.getEndLine() == 0) {
-            // or other bogus entries that appear
-            continue;
-          }
+    for (Map<Range, SourceInfo> sourceMap : sourceInfoMaps) {
+      artifacts.add(new SymbolMapsLinker.SourceMapArtifact(permutationId, fragment,
+          encodeSourceMap(sourceMap, fileNameForFragment(fragment))));
+      fragment++;
+    }
+  }
 
-          // Starting with V3, SourceMap line numbers are zero-based.
-          // GWT's line numbers for Java files originally came from the JDT, which is 1-based,
-          // so adjust them here to avoid an off-by-one error in debuggers.
-          generator.addMapping(si.getFileName(), null,
-              new FilePosition(si.getStartLine() - 1, 0),
-              new FilePosition(r.getStartLine(), r.getStartColumn()),
-              new FilePosition(r.getEndLine(), r.getEndColumn()));
-        }
-        try {
-          baos.reset();
-          generator.appendTo(out, "sourceMap" + fragment);
-          out.flush();
-          artifacts.add(new SymbolMapsLinker.SourceMapArtifact(permutationId, fragment,
-              baos.toByteArray()));
-          fragment++;
-        } catch (IOException e) {
-          throw new InternalCompilerException(e.toString(), e);
-        }
+  /**
+   * Encodes the ranges recorded for one fragment as a source map.
+   */
+  private static byte[] encodeSourceMap(Map<Range, SourceInfo> sourceMap, String file) {
+    Set<Range> rangeSet = sourceMap.keySet();
+    Range[] ranges = rangeSet.toArray(new Range[rangeSet.size()]);
+    Arrays.sort(ranges, Range.DEPENDENCY_ORDER_COMPARATOR);
+
+    // Replay the ranges as the nested enters and exits seen while printing.
+    SourceMapBuilder builder = new SourceMapBuilder();
+    List<Range> open = new ArrayList<Range>();
+    for (Range r : ranges) {
+      while (!open.isEmpty() && open.get(open.size() - 1).getEnd() <= r.getStart()) {
+        Range closed = open.remove(open.size() - 1);
+        builder.exit(closed.getEndLine(), closed.getEndColumn());
+      }
+      if (builder.enter(sourceMap.get(r), r.getStartLine(), r.getStartColumn())) {
+        open.add(r);
       }
     }
+    while (!open.isEmpty()) {
+      Range closed = open.remove(open.size() - 1);
+      builder.exit(closed.getEndLine(), closed.getEndColumn());
+    }
+    return builder.toByteArray(file);
   }
 }
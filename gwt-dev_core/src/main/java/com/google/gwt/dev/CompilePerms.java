@@ -202,10 +202,44 @@ public class CompilePerms {
       Permutation[] perms, int localWorkers,
       List<FileBackedObject<PermutationResult>> resultFiles)
       throws UnableToCompleteException {
+    compile(logger, precompilation, perms, localWorkers, resultFiles, null);
+  }
+
+  /**
+   * Compile multiple permutations, reusing any results found in a cache.
+   *
+   * @param cache the cache to read and update, or <code>null</code>
+   */
+  public static void compile(TreeLogger logger, Precompilation precompilation,
+      Permutation[] perms, int localWorkers,
+      List<FileBackedObject<PermutationResult>> resultFiles,
+      PermutationResultCache cache) throws UnableToCompleteException {
     final TreeLogger branch = logger.branch(TreeLogger.INFO, "Compiling "
         + perms.length + " permutation" + (perms.length > 1 ? "s" : ""));
-    PermutationWorkerFactory.compilePermutations(branch, precompilation, perms,
-        localWorkers, resultFiles);
+    if (cache == null) {
+      PermutationWorkerFactory.compilePermutations(branch, precompilation, perms,
+          localWorkers, resultFiles);
+    } else {
+      UnifiedAst unifiedAst = precompilation.getUnifiedAst();
+      List<Permutation> misses = new ArrayList<Permutation>();
+      List<FileBackedObject<PermutationResult>> missFiles =
+          new ArrayList<FileBackedObject<PermutationResult>>();
+      for (int i = 0; i < perms.length; ++i) {
+        if (!cache.restore(branch, unifiedAst, perms[i], resultFiles.get(i))) {
+          misses.add(perms[i]);
+          missFiles.add(resultFiles.get(i));
+        }
+      }
+      if (!misses.isEmpty()) {
+        PermutationWorkerFactory.compilePermutations(branch, precompilation,
+            misses.toArray(new Permutation[misses.size()]), localWorkers, missFiles);
+        for (int i = 0; i < misses.size(); ++i) {
+          cache.store(branch, unifiedAst, misses.get(i), missFiles.get(i));
+        }
+      }
+      cache.evict(branch);
+      cache.logStats(branch);
+    }
     logger.log(TreeLogger.INFO, "Compile of permutations succeeded");
   }
 
@@ -326,7 +360,7 @@ public class CompilePerms {
         List<FileBackedObject<PermutationResult>> resultFiles = makeResultFiles(
             compilerWorkDir, subPerms);
         compile(logger, precompilation, subPerms, options.getLocalWorkers(),
-            resultFiles);
+            resultFiles, PermutationResultCache.create());
       }
     }
 
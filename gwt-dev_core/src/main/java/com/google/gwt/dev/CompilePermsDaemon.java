@@ -0,0 +1,718 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.TreeLogger.Type;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.jjs.PermutationResult;
+import com.google.gwt.dev.jjs.UnifiedAst;
+import com.google.gwt.dev.util.FileBackedObject;
+import com.google.gwt.dev.util.PerfCounter;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.dev.util.arg.ArgHandlerLogLevel;
+import com.google.gwt.dev.util.arg.OptionLogLevel;
+import com.google.gwt.dev.util.log.PrintWriterTreeLogger;
+import com.google.gwt.util.tools.ArgHandlerFile;
+import com.google.gwt.util.tools.ArgHandlerInt;
+import com.google.gwt.util.tools.shared.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A long-lived local process that compiles permutations for
+ * {@link DaemonPermutationWorkerFactory}. Unlike {@link CompilePermsServer},
+ * which is launched for each worker of each compile, the daemon keeps its JIT
+ * warm and keeps recently used unified ASTs loaded, so later compiles of the
+ * same precompilation skip loading them again.
+ *
+ * <p>
+ * The daemon listens on the loopback interface. On startup it writes its port
+ * and a random cookie to the state file; only clients that can read that file
+ * can submit work. The daemon keeps the heap it uses under
+ * <code>-heapLimit</code> by evicting idle ASTs and holding back permutations
+ * until running ones finish.
+ */
+public class CompilePermsDaemon {
+
+  /**
+   * Options for the daemon.
+   */
+  public interface DaemonOptions extends OptionLogLevel {
+    int getHeapLimit();
+
+    int getMaxAsts();
+
+    int getPort();
+
+    File getStateFile();
+
+    int getWorkers();
+
+    void setHeapLimit(int megabytes);
+
+    void setMaxAsts(int maxAsts);
+
+    void setPort(int port);
+
+    void setStateFile(File stateFile);
+
+    void setWorkers(int workers);
+  }
+
+  /**
+   * A bounded, least recently used set of loaded ASTs. An AST that is in use by
+   * a connection is never evicted.
+   */
+  static class AstCache {
+
+    /**
+     * One loaded AST and the number of connections using it.
+     */
+    static class Entry {
+      private UnifiedAst ast;
+      private final String key;
+      private int users;
+
+      Entry(String key) {
+        this.key = key;
+      }
+
+      /**
+       * Drops the AST and frees the disk space it uses.
+       */
+      synchronized void dispose() {
+        if (ast != null) {
+          ast.dispose();
+          ast = null;
+        }
+      }
+
+      synchronized UnifiedAst getAst() {
+        return ast;
+      }
+
+      synchronized boolean isLoaded() {
+        return ast != null;
+      }
+
+      /**
+       * Loads the AST from a file written by the client, unless another
+       * connection already did.
+       */
+      synchronized void load(TreeLogger logger, File astFile) throws IOException,
+          ClassNotFoundException {
+        if (ast != null) {
+          return;
+        }
+        long start = System.currentTimeMillis();
+        ObjectInputStream astIn = new ObjectInputStream(new FileInputStream(astFile));
+        try {
+          UnifiedAst loaded = (UnifiedAst) astIn.readObject();
+          loaded.prepare();
+          ast = loaded;
+        } finally {
+          astIn.close();
+        }
+        if (logger.isLoggable(TreeLogger.INFO)) {
+          logger.log(TreeLogger.INFO, "Loaded AST " + (key == null ? "(uncached)" : key) + " in "
+              + (System.currentTimeMillis() - start) + " ms");
+        }
+      }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final int maxAsts;
+
+    AstCache(int maxAsts) {
+      this.maxAsts = maxAsts;
+    }
+
+    /**
+     * Returns the entry for <code>key</code>, creating it if necessary. An
+     * entry for a <code>null</code> key is never shared.
+     */
+    synchronized Entry acquire(String key) {
+      Entry entry = key == null ? null : entries.get(key);
+      if (entry == null) {
+        entry = new Entry(key);
+        if (key != null) {
+          entries.put(key, entry);
+        }
+      }
+      ++entry.users;
+      return entry;
+    }
+
+    /**
+     * Drops every AST not currently in use.
+     */
+    synchronized void clear() {
+      for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+        Entry entry = it.next();
+        if (entry.users == 0) {
+          it.remove();
+          entry.dispose();
+        }
+      }
+    }
+
+    synchronized boolean contains(String key) {
+      return entries.containsKey(key);
+    }
+
+    synchronized void release(Entry entry) {
+      assert entry.users > 0;
+      --entry.users;
+      if (!entry.isLoaded() && entry.users == 0 && entry.key != null) {
+        // Loading failed; let the next client try again.
+        entries.remove(entry.key);
+      }
+      int excess = entries.size() - maxAsts;
+      for (Iterator<Entry> it = entries.values().iterator(); excess > 0 && it.hasNext();) {
+        Entry next = it.next();
+        if (next.users == 0) {
+          it.remove();
+          next.dispose();
+          --excess;
+        }
+      }
+    }
+
+    synchronized int size() {
+      return entries.size();
+    }
+  }
+
+  static final class ArgHandlerHeapLimit extends ArgHandlerInt {
+    private final DaemonOptions options;
+
+    public ArgHandlerHeapLimit(DaemonOptions options) {
+      this.options = options;
+    }
+
+    @Override
+    public String[] getDefaultArgs() {
+      return new String[] {getTag(), "0"};
+    }
+
+    @Override
+    public String getPurpose() {
+      return "The heap to keep loaded ASTs and running compiles under; 0 means three "
+          + "quarters of the maximum heap";
+    }
+
+    @Override
+    public String getTag() {
+      return "-heapLimit";
+    }
+
+    @Override
+    public String[] getTagArgs() {
+      return new String[] {"megabytes"};
+    }
+
+    @Override
+    public void setInt(int value) {
+      options.setHeapLimit(value);
+    }
+  }
+
+  static final class ArgHandlerMaxAsts extends ArgHandlerInt {
+    private final DaemonOptions options;
+
+    public ArgHandlerMaxAsts(DaemonOptions options) {
+      this.options = options;
+    }
+
+    @Override
+    public String[] getDefaultArgs() {
+      return new String[] {getTag(), "2"};
+    }
+
+    @Override
+    public String getPurpose() {
+      return "The number of unified ASTs to keep loaded between compiles";
+    }
+
+    @Override
+    public String getTag() {
+      return "-maxAsts";
+    }
+
+    @Override
+    public String[] getTagArgs() {
+      return new String[] {"count"};
+    }
+
+    @Override
+    public void setInt(int value) {
+      options.setMaxAsts(value);
+    }
+  }
+
+  static final class ArgHandlerPort extends ArgHandlerInt {
+    private final DaemonOptions options;
+
+    public ArgHandlerPort(DaemonOptions options) {
+      this.options = options;
+    }
+
+    @Override
+    public String[] getDefaultArgs() {
+      return new String[] {getTag(), "0"};
+    }
+
+    @Override
+    public String getPurpose() {
+      return "The local port to listen on; 0 picks a free port";
+    }
+
+    @Override
+    public String getTag() {
+      return "-port";
+    }
+
+    @Override
+    public String[] getTagArgs() {
+      return new String[] {"port"};
+    }
+
+    @Override
+    public void setInt(int value) {
+      options.setPort(value);
+    }
+  }
+
+  static final class ArgHandlerStateFile extends ArgHandlerFile {
+    private final DaemonOptions options;
+
+    public ArgHandlerStateFile(DaemonOptions options) {
+      this.options = options;
+    }
+
+    @Override
+    public String getPurpose() {
+      return "The file to write the daemon's port and cookie to; pass the same file to "
+          + "compiles with -D" + DaemonPermutationWorkerFactory.STATE_FILE_PROPERTY;
+    }
+
+    @Override
+    public String getTag() {
+      return "-stateFile";
+    }
+
+    @Override
+    public boolean isRequired() {
+      return true;
+    }
+
+    @Override
+    public void setFile(File file) {
+      options.setStateFile(file);
+    }
+  }
+
+  static final class ArgHandlerWorkers extends ArgHandlerInt {
+    private final DaemonOptions options;
+
+    public ArgHandlerWorkers(DaemonOptions options) {
+      this.options = options;
+    }
+
+    @Override
+    public String[] getDefaultArgs() {
+      return new String[] {getTag(), String.valueOf(Runtime.getRuntime().availableProcessors())};
+    }
+
+    @Override
+    public String getPurpose() {
+      return "The number of permutations to compile at the same time";
+    }
+
+    @Override
+    public String getTag() {
+      return "-workers";
+    }
+
+    @Override
+    public String[] getTagArgs() {
+      return new String[] {"count"};
+    }
+
+    @Override
+    public void setInt(int value) {
+      options.setWorkers(value);
+    }
+  }
+
+  static class ArgProcessor extends ArgProcessorBase {
+    public ArgProcessor(DaemonOptions options) {
+      registerHandler(new ArgHandlerHeapLimit(options));
+      registerHandler(new ArgHandlerLogLevel(options));
+      registerHandler(new ArgHandlerMaxAsts(options));
+      registerHandler(new ArgHandlerPort(options));
+      registerHandler(new ArgHandlerStateFile(options));
+      registerHandler(new ArgHandlerWorkers(options));
+    }
+
+    @Override
+    protected String getName() {
+      return CompilePermsDaemon.class.getName();
+    }
+  }
+
+  static class DaemonOptionsImpl implements DaemonOptions {
+    private int heapLimit;
+    private Type logLevel;
+    private int maxAsts;
+    private int port;
+    private File stateFile;
+    private int workers;
+
+    public int getHeapLimit() {
+      return heapLimit;
+    }
+
+    public Type getLogLevel() {
+      return logLevel;
+    }
+
+    public int getMaxAsts() {
+      return maxAsts;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public File getStateFile() {
+      return stateFile;
+    }
+
+    public int getWorkers() {
+      return workers;
+    }
+
+    public void setHeapLimit(int megabytes) {
+      this.heapLimit = megabytes;
+    }
+
+    public void setLogLevel(Type logLevel) {
+      this.logLevel = logLevel;
+    }
+
+    public void setMaxAsts(int maxAsts) {
+      this.maxAsts = maxAsts;
+    }
+
+    public void setPort(int port) {
+      this.port = port;
+    }
+
+    public void setStateFile(File stateFile) {
+      this.stateFile = stateFile;
+    }
+
+    public void setWorkers(int workers) {
+      this.workers = workers;
+    }
+  }
+
+  /**
+   * Keeps the heap used by the daemon under a limit. Idle ASTs are evicted
+   * first; if that is not enough, permutations wait for running ones to
+   * finish. One permutation may always run, so that a compile that needs more
+   * than the limit still makes progress.
+   */
+  static class HeapLimit {
+    private final AstCache asts;
+    private final long maxBytes;
+    private int running;
+
+    HeapLimit(long maxBytes, AstCache asts) {
+      this.maxBytes = maxBytes;
+      this.asts = asts;
+    }
+
+    /**
+     * Waits until a permutation can start.
+     */
+    synchronized void acquire() throws InterruptedException {
+      while (!makeRoom() && running > 0) {
+        wait();
+      }
+      ++running;
+    }
+
+    /**
+     * Evicts idle ASTs if the heap is over the limit, returning
+     * <code>true</code> if it is under the limit afterwards.
+     */
+    boolean makeRoom() {
+      if (usedBytes() <= maxBytes) {
+        return true;
+      }
+      asts.clear();
+      System.gc();
+      return usedBytes() <= maxBytes;
+    }
+
+    synchronized void release() {
+      assert running > 0;
+      --running;
+      notifyAll();
+    }
+
+    long usedBytes() {
+      Runtime runtime = Runtime.getRuntime();
+      return runtime.totalMemory() - runtime.freeMemory();
+    }
+  }
+
+  /**
+   * Serves one client worker: a handshake, then permutations until the client
+   * says it is done.
+   */
+  private class Connection implements Runnable {
+    private final Socket socket;
+
+    public Connection(Socket socket) {
+      this.socket = socket;
+    }
+
+    public void run() {
+      AstCache.Entry entry = null;
+      try {
+        ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+        ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+
+        if (!MessageDigest.isEqual(Util.getBytes(cookie), Util.getBytes(in.readUTF()))) {
+          logger.log(TreeLogger.WARN, "Rejected a connection with an unknown cookie");
+          return;
+        }
+        String clientVersion = in.readUTF();
+        if (!About.getGwtVersionNum().equals(clientVersion)) {
+          out.writeObject("Daemon runs GWT " + About.getGwtVersionNum() + ", not " + clientVersion);
+          out.flush();
+          return;
+        }
+        out.writeObject(null);
+
+        entry = asts.acquire((String) in.readObject());
+        boolean needAst = !entry.isLoaded();
+        out.writeBoolean(needAst);
+        out.flush();
+        if (needAst) {
+          File astFile = (File) in.readObject();
+          heapLimit.makeRoom();
+          entry.load(logger, astFile);
+        }
+        out.writeBoolean(true);
+        out.flush();
+
+        while (in.readBoolean()) {
+          compilePermutation(entry.getAst(), in, out);
+        }
+      } catch (IOException e) {
+        logger.log(TreeLogger.WARN, "Lost communication with client", e);
+      } catch (ClassNotFoundException e) {
+        logger.log(TreeLogger.ERROR, "Probable client/daemon mismatch", e);
+      } catch (InterruptedException e) {
+        logger.log(TreeLogger.WARN, "Interrupted while waiting for a worker", e);
+      } finally {
+        if (entry != null) {
+          asts.release(entry);
+        }
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Nothing to do
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compilePermutation(UnifiedAst ast, ObjectInputStream in, ObjectOutputStream out)
+        throws ClassNotFoundException, IOException, InterruptedException {
+      FileBackedObject<PermutationResult> resultFile =
+          (FileBackedObject<PermutationResult>) in.readObject();
+      Permutation p = (Permutation) in.readObject();
+
+      long queued = System.currentTimeMillis();
+      workers.acquire();
+      try {
+        heapLimit.acquire();
+      } catch (InterruptedException e) {
+        workers.release();
+        throw e;
+      }
+      long started = System.currentTimeMillis();
+      Throwable caught = null;
+      try {
+        PermutationResult result = CompilePerms.compile(logger.branch(TreeLogger.DEBUG,
+            "Compiling permutation " + p.getId()), p, ast);
+        resultFile.set(logger, result);
+      } catch (UnableToCompleteException e) {
+        caught = e;
+      } catch (OutOfMemoryError e) {
+        // Give the heap back to the permutations that are still running.
+        asts.clear();
+        logger.log(TreeLogger.ERROR, "OutOfMemoryError: Lower -heapLimit or -workers, or "
+            + "increase the daemon's -Xmx", e);
+        caught = e;
+      } catch (Throwable e) {
+        logger.log(TreeLogger.ERROR, "Compile failed", e);
+        caught = e;
+      } finally {
+        heapLimit.release();
+        workers.release();
+      }
+      long finished = System.currentTimeMillis();
+      if (logger.isLoggable(TreeLogger.INFO)) {
+        logger.log(TreeLogger.INFO, "Permutation " + p.getId() + (caught == null ? " compiled"
+            : " failed") + " in " + (finished - started) + " ms (queued "
+            + (started - queued) + " ms)");
+      }
+
+      // Might send a placeholder null indicating no Throwable.
+      out.writeObject(caught);
+      out.writeLong(started - queued);
+      out.writeLong(finished - started);
+      out.flush();
+    }
+  }
+
+  public static void main(String[] args) {
+    int exitCode = -1;
+    DaemonOptions options = new DaemonOptionsImpl();
+    if (new ArgProcessor(options).processArgs(args)) {
+      PrintWriterTreeLogger logger = new PrintWriterTreeLogger();
+      logger.setMaxDetail(options.getLogLevel());
+      if (new CompilePermsDaemon(options, logger).run()) {
+        exitCode = 0;
+      }
+    }
+
+    PerfCounter.print();
+    System.exit(exitCode);
+  }
+
+  private final AstCache asts;
+  private final String cookie;
+  private final HeapLimit heapLimit;
+  private final TreeLogger logger;
+  private final DaemonOptions options;
+  private volatile ServerSocket serverSocket;
+  private final Semaphore workers;
+
+  CompilePermsDaemon(DaemonOptions options, TreeLogger logger) {
+    this.options = options;
+    this.logger = logger;
+    this.asts = new AstCache(Math.max(1, options.getMaxAsts()));
+    long maxHeap = Runtime.getRuntime().maxMemory();
+    long limit = options.getHeapLimit() > 0 ? Math.min(maxHeap,
+        options.getHeapLimit() * 1024L * 1024L) : maxHeap / 4 * 3;
+    this.heapLimit = new HeapLimit(limit, asts);
+    this.workers = new Semaphore(Math.max(1, options.getWorkers()), true);
+    byte[] cookieBytes = new byte[16];
+    new SecureRandom().nextBytes(cookieBytes);
+    this.cookie = StringUtils.toHexString(cookieBytes);
+  }
+
+  /**
+   * Accepts clients until the process is killed or {@link #stop()} is called.
+   */
+  boolean run() {
+    ServerSocket sock;
+    try {
+      sock = new ServerSocket(options.getPort(), 50, InetAddress.getByName("localhost"));
+    } catch (IOException e) {
+      logger.log(TreeLogger.ERROR, "Unable to create socket", e);
+      return false;
+    }
+    serverSocket = sock;
+    if (!writeStateFile(sock.getLocalPort())) {
+      return false;
+    }
+    logger.log(TreeLogger.INFO, "Listening on port " + sock.getLocalPort() + " with "
+        + options.getWorkers() + " workers");
+
+    try {
+      for (int i = 0; true; ++i) {
+        Thread thread = new Thread(new Connection(sock.accept()), "CompilePermsDaemon client " + i);
+        thread.setDaemon(true);
+        thread.start();
+      }
+    } catch (IOException e) {
+      if (sock.isClosed()) {
+        return true;
+      }
+      logger.log(TreeLogger.ERROR, "Unable to accept connections", e);
+      return false;
+    }
+  }
+
+  /**
+   * Stops accepting clients, making {@link #run()} return. Connections that
+   * are already open are not affected.
+   */
+  void stop() {
+    ServerSocket sock = serverSocket;
+    if (sock != null) {
+      try {
+        sock.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+    }
+  }
+
+  /**
+   * Writes the port and cookie where only the current user can read them.
+   */
+  private boolean writeStateFile(int port) {
+    File stateFile = options.getStateFile();
+    try {
+      stateFile.delete();
+      if (!stateFile.createNewFile()) {
+        throw new IOException("Unable to create " + stateFile);
+      }
+    } catch (IOException e) {
+      logger.log(TreeLogger.ERROR, "Unable to write state file", e);
+      return false;
+    }
+    stateFile.setReadable(false, false);
+    stateFile.setReadable(true, true);
+    stateFile.setWritable(false, false);
+    stateFile.setWritable(true, true);
+    stateFile.deleteOnExit();
+    return Util.writeStringAsFile(stateFile, port + "\n" + cookie + "\n");
+  }
+}
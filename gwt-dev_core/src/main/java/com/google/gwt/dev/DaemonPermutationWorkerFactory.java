@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.jjs.PermutationResult;
+import com.google.gwt.dev.jjs.UnifiedAst;
+import com.google.gwt.dev.util.FileBackedObject;
+import com.google.gwt.dev.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A PermutationWorkerFactory that hands permutations to an already running
+ * {@link CompilePermsDaemon}. The system property
+ * {@value #STATE_FILE_PROPERTY} names the daemon's state file. If the daemon
+ * cannot be reached, this factory creates no workers and the compile falls
+ * back to the other factories.
+ */
+public class DaemonPermutationWorkerFactory extends PermutationWorkerFactory {
+
+  /**
+   * Writes the unified AST to a file at most once, the first time the daemon
+   * asks for it.
+   */
+  private static class AstFile {
+    private File file;
+    private final UnifiedAst unifiedAst;
+
+    public AstFile(UnifiedAst unifiedAst) {
+      this.unifiedAst = unifiedAst;
+    }
+
+    public synchronized File get(TreeLogger logger) throws UnableToCompleteException {
+      if (file == null) {
+        try {
+          file = File.createTempFile("daemonPermutationWorkerFactory", ".ser");
+          file.deleteOnExit();
+        } catch (IOException e) {
+          logger.log(TreeLogger.ERROR, "Unable to create temporary file", e);
+          throw new UnableToCompleteException();
+        }
+        Util.writeObjectAsFile(logger, file, unifiedAst);
+      }
+      return file;
+    }
+  }
+
+  private static class DaemonPermutationWorker implements PermutationWorker {
+    private final ObjectInputStream in;
+    private final ObjectOutputStream out;
+    private final Socket socket;
+
+    public DaemonPermutationWorker(Socket socket, ObjectInputStream in, ObjectOutputStream out) {
+      this.socket = socket;
+      this.in = in;
+      this.out = out;
+    }
+
+    public void compile(TreeLogger logger, Permutation permutation,
+        FileBackedObject<PermutationResult> resultFile)
+        throws TransientWorkerException, UnableToCompleteException {
+      try {
+        out.writeBoolean(true);
+        out.writeObject(resultFile);
+        out.writeObject(permutation);
+        out.flush();
+
+        Throwable t = (Throwable) in.readObject();
+        long queuedMillis = in.readLong();
+        long compileMillis = in.readLong();
+        if (t instanceof OutOfMemoryError) {
+          throw new TransientWorkerException("Daemon ran out of memory", t);
+        } else if (t != null) {
+          logger.log(TreeLogger.ERROR, "Error from compile daemon", t);
+          throw new UnableToCompleteException();
+        }
+        if (logger.isLoggable(TreeLogger.INFO)) {
+          logger.log(TreeLogger.INFO, "Permutation " + permutation.getId()
+              + " compiled by daemon in " + compileMillis + " ms (queued " + queuedMillis
+              + " ms)");
+        }
+      } catch (IOException e) {
+        logger.log(TreeLogger.WARN, "Lost communication with compile daemon", e);
+        throw new TransientWorkerException("Lost communication with compile daemon", e);
+      } catch (ClassNotFoundException e) {
+        logger.log(TreeLogger.ERROR, "Unable to receive response", e);
+        throw new UnableToCompleteException();
+      }
+    }
+
+    public String getName() {
+      return "Daemon worker " + socket.getLocalSocketAddress();
+    }
+
+    public void shutdown() {
+      try {
+        out.writeBoolean(false);
+        out.flush();
+      } catch (IOException e) {
+        // Not much to do here
+      }
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+    }
+  }
+
+  /**
+   * A system property naming the state file written by a running
+   * {@link CompilePermsDaemon}.
+   */
+  public static final String STATE_FILE_PROPERTY = "gwt.jjs.compileDaemon";
+
+  private String cookie;
+  private int port = -1;
+
+  @Override
+  public Collection<PermutationWorker> getWorkers(TreeLogger logger, UnifiedAst unifiedAst,
+      int numWorkers) throws UnableToCompleteException {
+    if (port < 0) {
+      return Collections.emptyList();
+    }
+
+    AstFile astFile = new AstFile(unifiedAst);
+    List<PermutationWorker> toReturn = new ArrayList<PermutationWorker>(numWorkers);
+    for (int i = 0; i < numWorkers; i++) {
+      PermutationWorker worker = connect(logger, unifiedAst.getStrongName(), astFile);
+      if (worker == null) {
+        break;
+      }
+      toReturn.add(worker);
+    }
+    return toReturn;
+  }
+
+  @Override
+  public void init(TreeLogger logger) throws UnableToCompleteException {
+    String stateFileName = System.getProperty(STATE_FILE_PROPERTY);
+    if (stateFileName == null) {
+      logger.log(TreeLogger.WARN, "No compile daemon configured; set -D" + STATE_FILE_PROPERTY);
+      return;
+    }
+    String state = Util.readFileAsString(new File(stateFileName));
+    String[] parts = state == null ? new String[0] : state.trim().split("\n");
+    if (parts.length != 2) {
+      logger.log(TreeLogger.WARN, "Compile daemon is not running; no state in " + stateFileName);
+      return;
+    }
+    try {
+      port = Integer.parseInt(parts[0].trim());
+      cookie = parts[1].trim();
+    } catch (NumberFormatException e) {
+      logger.log(TreeLogger.WARN, "Ignoring malformed compile daemon state in " + stateFileName);
+    }
+  }
+
+  @Override
+  public boolean isLocal() {
+    return true;
+  }
+
+  /**
+   * Opens one connection to the daemon and makes sure it has the AST loaded.
+   * Returns <code>null</code> if the daemon cannot take work.
+   */
+  private PermutationWorker connect(TreeLogger logger, String astKey, AstFile astFile)
+      throws UnableToCompleteException {
+    Socket socket = null;
+    try {
+      socket = new Socket(InetAddress.getByName("localhost"), port);
+      ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+      ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+
+      out.writeUTF(cookie);
+      out.writeUTF(About.getGwtVersionNum());
+      out.flush();
+      String error = (String) in.readObject();
+      if (error != null) {
+        logger.log(TreeLogger.WARN, "Compile daemon refused work: " + error);
+        socket.close();
+        return null;
+      }
+
+      out.writeObject(astKey);
+      out.flush();
+      if (in.readBoolean()) {
+        out.writeObject(astFile.get(logger));
+        out.flush();
+      }
+      // Blocks until the daemon has loaded the AST.
+      in.readBoolean();
+      return new DaemonPermutationWorker(socket, in, out);
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to use compile daemon on port " + port, e);
+    } catch (ClassNotFoundException e) {
+      logger.log(TreeLogger.WARN, "Probable client/daemon mismatch", e);
+    }
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+    }
+    return null;
+  }
+}
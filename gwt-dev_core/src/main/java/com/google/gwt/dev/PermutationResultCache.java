@@ -0,0 +1,316 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+import com.google.gwt.dev.jjs.PermutationResult;
+import com.google.gwt.dev.jjs.UnifiedAst;
+import com.google.gwt.dev.util.FileBackedObject;
+import com.google.gwt.dev.util.Util;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * An on-disk cache of compiled permutations. Each entry is a serialized
+ * {@link PermutationResult}, named by a hash of the strong name of the
+ * {@link UnifiedAst} and everything that distinguishes the permutation: its
+ * id, its binding and configuration property values, and its rebind answers.
+ * The serialized result is preceded by its MD5 digest, so that a corrupt entry
+ * is found when it is read and compiled again instead.
+ *
+ * The cache is only used when {@value #DIR_PROPERTY} is set. It is bounded in
+ * size. Entries are touched whenever they are read and the least recently used
+ * ones are deleted by {@link #evict(TreeLogger)}.
+ */
+public class PermutationResultCache {
+
+  /**
+   * A Java system property that sets the cache directory. If it is not set,
+   * compiled permutations are not cached.
+   */
+  public static final String DIR_PROPERTY = "gwt.jjs.permutationCacheDir";
+
+  /**
+   * A Java system property that sets the maximum size of the cache, in bytes.
+   * A value of zero disables the cache.
+   */
+  public static final String MAX_SIZE_PROPERTY = "gwt.jjs.permutationCacheMaxBytes";
+
+  private static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+  private static final int DIGEST_LENGTH = 16;
+
+  private static final String SUFFIX = ".perm";
+
+  /**
+   * Returns the cache configured by system properties, or <code>null</code> if
+   * caching is disabled.
+   */
+  public static PermutationResultCache create() {
+    String dirName = System.getProperty(DIR_PROPERTY);
+    long maxSize = Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+    if (dirName == null || maxSize <= 0) {
+      return null;
+    }
+    return new PermutationResultCache(new File(dirName), maxSize);
+  }
+
+  /**
+   * Computes the cache key of a permutation, or returns <code>null</code> if
+   * the AST has no strong name.
+   */
+  static String computeKey(UnifiedAst unifiedAst, Permutation perm) {
+    String astStrongName = unifiedAst.getStrongName();
+    if (astStrongName == null) {
+      return null;
+    }
+    List<String> parts = new ArrayList<String>();
+    parts.add(astStrongName);
+    parts.add(String.valueOf(perm.getId()));
+    for (StaticPropertyOracle oracle : perm.getPropertyOracles()) {
+      BindingProperty[] props = oracle.getOrderedProps();
+      String[] values = oracle.getOrderedPropValues();
+      for (int i = 0; i < props.length; i++) {
+        parts.add(props[i].getName());
+        parts.add(values[i]);
+      }
+      for (ConfigurationProperty prop : oracle.getConfigurationProperties()) {
+        parts.add(prop.getName());
+        parts.add(prop.getValues().toString());
+      }
+      parts.add("");
+    }
+    for (SortedMap<String, String> answers : perm.getOrderedRebindAnswers()) {
+      for (Map.Entry<String, String> entry : answers.entrySet()) {
+        parts.add(entry.getKey());
+        parts.add(entry.getValue());
+      }
+      parts.add("");
+    }
+    return Util.computeStrongName(Util.getBytes(parts.toArray(new String[parts.size()])));
+  }
+
+  /**
+   * Copies a result file into a new entry, preceded by the digest of its
+   * contents.
+   */
+  private static void copyToEntry(File from, File entry) throws IOException {
+    // No need to check the mkdirs result because the copy will fail anyway.
+    entry.getParentFile().mkdirs();
+    MessageDigest md5 = newDigest();
+    InputStream in = new DigestInputStream(new FileInputStream(from), md5);
+    try {
+      OutputStream out = new FileOutputStream(entry);
+      try {
+        // Reserve room for the digest, which is known once the copy is done.
+        out.write(new byte[DIGEST_LENGTH]);
+        Util.copy(in, out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+    RandomAccessFile file = new RandomAccessFile(entry, "rw");
+    try {
+      file.write(md5.digest());
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Copies the contents of an entry into a result file.
+   *
+   * @return <code>false</code> if the contents do not match their digest
+   */
+  private static boolean copyFromEntry(File entry, File to) throws IOException {
+    // No need to check the mkdirs result because the copy will fail anyway.
+    to.getParentFile().mkdirs();
+    MessageDigest md5 = newDigest();
+    byte[] expected = new byte[DIGEST_LENGTH];
+    InputStream in = new FileInputStream(entry);
+    try {
+      new DataInputStream(in).readFully(expected);
+      OutputStream out = new DigestOutputStream(new FileOutputStream(to), md5);
+      try {
+        Util.copy(in, out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+    return MessageDigest.isEqual(expected, md5.digest());
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Error initializing MD5", e);
+    }
+  }
+
+  private final File cacheDir;
+
+  private int hits;
+
+  private final long maxSize;
+
+  private int misses;
+
+  PermutationResultCache(File cacheDir, long maxSize) {
+    this.cacheDir = cacheDir;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits in its
+   * maximum size.
+   */
+  public void evict(TreeLogger logger) {
+    File[] entries = cacheDir.listFiles(new FileFilter() {
+      public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith(SUFFIX);
+      }
+    });
+    if (entries == null) {
+      return;
+    }
+    // Most recently used first.
+    Arrays.sort(entries, new Comparator<File>() {
+      public int compare(File a, File b) {
+        long aTime = a.lastModified();
+        long bTime = b.lastModified();
+        return aTime > bTime ? -1 : (aTime == bTime ? a.compareTo(b) : 1);
+      }
+    });
+    long size = 0;
+    for (File entry : entries) {
+      size += entry.length();
+      if (size > maxSize) {
+        if (entry.delete() && logger.isLoggable(TreeLogger.DEBUG)) {
+          logger.log(TreeLogger.DEBUG, "Evicted cached permutation " + entry.getName());
+        }
+      }
+    }
+  }
+
+  public int getHitCount() {
+    return hits;
+  }
+
+  public int getMissCount() {
+    return misses;
+  }
+
+  /**
+   * Logs the number of hits and misses since this cache was created.
+   */
+  public void logStats(TreeLogger logger) {
+    if (logger.isLoggable(TreeLogger.INFO)) {
+      logger.log(TreeLogger.INFO, "Permutation cache: " + hits + " hit" + (hits == 1 ? "" : "s")
+          + ", " + misses + " miss" + (misses == 1 ? "" : "es") + " in " + cacheDir);
+    }
+  }
+
+  /**
+   * Copies the cached result of a permutation into a result file. An entry
+   * that cannot be copied, or is corrupt, is logged and treated as a miss, so
+   * that the permutation is compiled instead.
+   *
+   * @return <code>true</code> if the result was found in the cache
+   */
+  public boolean restore(TreeLogger logger, UnifiedAst unifiedAst, Permutation perm,
+      FileBackedObject<PermutationResult> resultFile) {
+    String key = computeKey(unifiedAst, perm);
+    File entry = key == null ? null : new File(cacheDir, key + SUFFIX);
+    if (entry == null || !entry.isFile()) {
+      misses++;
+      return false;
+    }
+    try {
+      if (!copyFromEntry(entry, resultFile.getFile())) {
+        logger.log(TreeLogger.WARN, "Cached permutation " + perm.getId()
+            + " is corrupt; compiling it instead");
+        entry.delete();
+        misses++;
+        return false;
+      }
+    } catch (IOException e) {
+      // Unless it was evicted by a concurrent compile.
+      if (entry.isFile()) {
+        logger.log(TreeLogger.WARN, "Unable to read cached permutation " + perm.getId()
+            + "; compiling it instead", e);
+      }
+      misses++;
+      return false;
+    }
+    entry.setLastModified(System.currentTimeMillis());
+    hits++;
+    if (logger.isLoggable(TreeLogger.DEBUG)) {
+      logger.log(TreeLogger.DEBUG, "Reusing cached permutation " + perm.getId());
+    }
+    return true;
+  }
+
+  /**
+   * Adds the compiled result of a permutation to the cache. Failures are
+   * logged and otherwise ignored, since the cache is only an optimization.
+   */
+  public void store(TreeLogger logger, UnifiedAst unifiedAst, Permutation perm,
+      FileBackedObject<PermutationResult> resultFile) {
+    String key = computeKey(unifiedAst, perm);
+    if (key == null) {
+      return;
+    }
+    File entry = new File(cacheDir, key + SUFFIX);
+    // Write to a temporary file so that readers never see a partial entry.
+    File temp = new File(cacheDir, key + "." + System.nanoTime() + ".tmp");
+    try {
+      copyToEntry(resultFile.getFile(), temp);
+      entry.delete();
+      if (!temp.renameTo(entry)) {
+        temp.delete();
+      }
+    } catch (IOException e) {
+      temp.delete();
+      logger.log(TreeLogger.WARN, "Unable to cache permutation " + perm.getId(), e);
+    }
+  }
+}
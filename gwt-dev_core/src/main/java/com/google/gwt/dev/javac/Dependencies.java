@@ -20,6 +20,9 @@ import com.google.gwt.dev.util.StringInterner;
 import com.google.gwt.dev.util.collect.HashMap;
 import com.google.gwt.dev.util.collect.Lists;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +59,41 @@ class Dependencies implements Serializable {
     }
   }
 
+  /**
+   * Reads dependencies written by {@link #writeTo(DataOutput)}.
+   */
+  static Dependencies readFrom(DataInput in) throws IOException {
+    String myPackage = StringInterner.get().intern(in.readUTF());
+    List<String> apiRefs = Lists.create();
+    for (int i = in.readInt(); i > 0; --i) {
+      apiRefs = Lists.add(apiRefs, in.readUTF());
+    }
+    Dependencies result = new Dependencies(myPackage, apiRefs);
+    readRefs(in, result.qualified);
+    readRefs(in, result.simple);
+    return result;
+  }
+
+  private static void readRefs(DataInput in, Map<String, Ref> refs) throws IOException {
+    for (int i = in.readInt(); i > 0; --i) {
+      String name = in.readUTF();
+      refs.put(name, in.readBoolean() ? new Ref(in.readUTF(), in.readUTF()) : null);
+    }
+  }
+
+  private static void writeRefs(DataOutput out, Map<String, Ref> refs) throws IOException {
+    out.writeInt(refs.size());
+    for (Entry<String, Ref> entry : refs.entrySet()) {
+      out.writeUTF(entry.getKey());
+      Ref ref = entry.getValue();
+      out.writeBoolean(ref != null);
+      if (ref != null) {
+        out.writeUTF(ref.getInternalName());
+        out.writeUTF(ref.getSignatureHash());
+      }
+    }
+  }
+
   Map<String, Ref> qualified = new HashMap<String, Ref>(true);
   Map<String, Ref> simple = new HashMap<String, Ref>(true);
   private final List<String> apiRefs;
@@ -66,6 +104,11 @@ class Dependencies implements Serializable {
     this.apiRefs = Lists.create();
   }
 
+  private Dependencies(String myPackage, List<String> apiRefs) {
+    this.myPackage = myPackage;
+    this.apiRefs = apiRefs;
+  }
+
   /**
    * Initializes the set of simple and qualified dependency names, but does not
    * resolve them.
@@ -90,6 +133,20 @@ class Dependencies implements Serializable {
     return apiRefs;
   }
 
+  /**
+   * Writes these dependencies in a compact form that can be read back without
+   * Java serialization.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeUTF(myPackage);
+    out.writeInt(apiRefs.size());
+    for (String apiRef : apiRefs) {
+      out.writeUTF(apiRef);
+    }
+    writeRefs(out, qualified);
+    writeRefs(out, simple);
+  }
+
   /**
    * Returns the list of deps that cannot be resolved at all.
    */
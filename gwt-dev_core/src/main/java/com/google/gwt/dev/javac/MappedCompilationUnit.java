@@ -0,0 +1,280 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.javac;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.jjs.InternalCompilerException;
+
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link CompilationUnit} read from a {@link MappedUnitCache} log. The
+ * header fields needed to validate the unit are decoded eagerly; the class
+ * files, JSNI methods and serialized AST are only deserialized from the mapped
+ * payload when the cache finds the unit, see {@link #tryLoad(TreeLogger)}.
+ */
+class MappedCompilationUnit extends CompilationUnit {
+
+  /**
+   * Reads the remaining bytes of a buffer.
+   */
+  static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+  }
+
+  /**
+   * Writes the header fields of a unit, in the order the constructor reads
+   * them.
+   */
+  @SuppressWarnings("deprecation")
+  static void writeHeader(CachedCompilationUnit unit, DataOutput out) throws IOException {
+    out.writeLong(unit.getTypesSerializedVersion());
+    out.writeUTF(unit.getResourcePath());
+    out.writeUTF(unit.getResourceLocation());
+    out.writeUTF(unit.getTypeName());
+    out.writeUTF(unit.getContentId().get());
+    out.writeLong(unit.getLastModified());
+    out.writeBoolean(unit.isError());
+    out.writeBoolean(unit.isGenerated());
+    out.writeBoolean(unit.isSuperSource());
+    Dependencies dependencies = unit.getDependencies();
+    out.writeBoolean(dependencies != null);
+    if (dependencies != null) {
+      dependencies.writeTo(out);
+    }
+  }
+
+  private static final long serialVersionUID = 3146287521079235602L;
+
+  private final long astVersion;
+  private Collection<CompiledClass> compiledClasses;
+  private final ContentId contentId;
+  private final Dependencies dependencies;
+  private final boolean isError;
+  private final boolean isGenerated;
+  private final boolean isSuperSource;
+  private final long lastModified;
+
+  /**
+   * The deserialized payload, or <code>null</code> if it has not been needed
+   * yet.
+   */
+  private CachedCompilationUnit loaded;
+
+  /**
+   * The serialized {@link CachedCompilationUnit}, backed by the mapped log.
+   */
+  private final ByteBuffer payload;
+
+  private final String resourceLocation;
+  private final String resourcePath;
+  private final String typeName;
+
+  /**
+   * Reads a unit header written by
+   * {@link #writeHeader(CachedCompilationUnit, DataOutput)}.
+   *
+   * @param payload the serialized unit; not read until it is needed
+   */
+  MappedCompilationUnit(DataInput header, ByteBuffer payload) throws IOException {
+    this.astVersion = header.readLong();
+    this.resourcePath = header.readUTF();
+    this.resourceLocation = header.readUTF();
+    this.typeName = header.readUTF();
+    String id = header.readUTF();
+    int colon = id.lastIndexOf(':');
+    if (colon < 0) {
+      throw new IOException("Malformed content id " + id);
+    }
+    this.contentId = new ContentId(id.substring(0, colon), id.substring(colon + 1));
+    this.lastModified = header.readLong();
+    this.isError = header.readBoolean();
+    this.isGenerated = header.readBoolean();
+    this.isSuperSource = header.readBoolean();
+    this.dependencies = header.readBoolean() ? Dependencies.readFrom(header) : null;
+    this.payload = payload;
+  }
+
+  @Override
+  public CachedCompilationUnit asCachedCompilationUnit() {
+    return load();
+  }
+
+  @Override
+  public synchronized Collection<CompiledClass> getCompiledClasses() {
+    load();
+    return compiledClasses;
+  }
+
+  @Override
+  public List<JsniMethod> getJsniMethods() {
+    return load().getJsniMethods();
+  }
+
+  @Override
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  @Override
+  public MethodArgNamesLookup getMethodArgs() {
+    return load().getMethodArgs();
+  }
+
+  @Override
+  public String getResourceLocation() {
+    return resourceLocation;
+  }
+
+  @Override
+  public String getResourcePath() {
+    return resourcePath;
+  }
+
+  @Override
+  public String getTypeName() {
+    return typeName;
+  }
+
+  @Override
+  public byte[] getTypesSerialized() {
+    return load().getTypesSerialized();
+  }
+
+  @Override
+  public boolean isError() {
+    return isError;
+  }
+
+  @Override
+  @Deprecated
+  public boolean isGenerated() {
+    return isGenerated;
+  }
+
+  @Override
+  @Deprecated
+  public boolean isSuperSource() {
+    return isSuperSource;
+  }
+
+  @Override
+  ContentId getContentId() {
+    return contentId;
+  }
+
+  @Override
+  Dependencies getDependencies() {
+    return dependencies;
+  }
+
+  @Override
+  CategorizedProblem[] getProblems() {
+    return load().getProblems();
+  }
+
+  long getTypesSerializedVersion() {
+    return astVersion;
+  }
+
+  /**
+   * Returns <code>true</code> if the payload has been deserialized.
+   */
+  synchronized boolean isLoaded() {
+    return loaded != null;
+  }
+
+  /**
+   * Deserializes the payload if that has not been done yet.
+   *
+   * @return <code>false</code> if the payload cannot be read, in which case
+   *         the unit must not be used
+   */
+  synchronized boolean tryLoad(TreeLogger logger) {
+    if (loaded == null) {
+      try {
+        loaded = readPayload();
+      } catch (IOException e) {
+        logger.log(TreeLogger.TRACE, "Unable to read cached unit " + resourcePath, e);
+        return false;
+      } catch (ClassNotFoundException e) {
+        logger.log(TreeLogger.TRACE, "Unable to read cached unit " + resourcePath, e);
+        return false;
+      }
+      compiledClasses = CompiledClass.copyForUnit(loaded.getCompiledClasses(), this);
+    }
+    return true;
+  }
+
+  private synchronized CachedCompilationUnit load() {
+    if (loaded == null) {
+      try {
+        loaded = readPayload();
+      } catch (IOException e) {
+        throw new InternalCompilerException("Unable to read cached unit " + resourcePath, e);
+      } catch (ClassNotFoundException e) {
+        throw new InternalCompilerException("Unable to read cached unit " + resourcePath, e);
+      }
+      compiledClasses = CompiledClass.copyForUnit(loaded.getCompiledClasses(), this);
+    }
+    return loaded;
+  }
+
+  private CachedCompilationUnit readPayload() throws IOException, ClassNotFoundException {
+    ObjectInputStream in = new ObjectInputStream(new ByteBufferInputStream(payload.duplicate()));
+    Object unit = in.readObject();
+    if (!(unit instanceof CachedCompilationUnit)) {
+      throw new IOException("Not a cached unit: " + unit);
+    }
+    return (CachedCompilationUnit) unit;
+  }
+}
@@ -64,6 +64,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * number of files in the directory is reached
  * {@link PersistentUnitCache#CACHE_FILE_THRESHOLD} , the cache files are
  * consolidated back into a single file.
+ * <p>
+ * This cache has been superseded by {@link MappedUnitCache}, which avoids
+ * deserializing every unit at startup. It is only used when the
+ * gwt.persistentunitcache.legacy system property is set.
  * 
  * <p>
  * System Properties (see {@link UnitCacheFactory}).
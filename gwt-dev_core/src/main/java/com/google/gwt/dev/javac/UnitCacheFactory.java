@@ -32,6 +32,12 @@ public class UnitCacheFactory {
       "true");
   private static final boolean usePersistent = configPropertyValue.length() == 0
       || Boolean.parseBoolean(configPropertyValue);
+
+  /**
+   * Selects the older cache that replays serialized log files at startup
+   * instead of the memory-mapped log.
+   */
+  private static final boolean useLegacy = Boolean.getBoolean("gwt.persistentunitcache.legacy");
   private static UnitCache instance = null;
 
   /**
@@ -56,7 +62,8 @@ public class UnitCacheFactory {
         }
         if (cacheDir != null) {
           try {
-            instance = new PersistentUnitCache(logger, cacheDir);
+            instance = useLegacy ? new PersistentUnitCache(logger, cacheDir)
+                : new MappedUnitCache(logger, cacheDir);
             return instance;
           } catch (UnableToCompleteException ignored) {
           }
@@ -120,10 +120,12 @@ public class JConstructor extends JMethod {
   @Override
   public void traverse(JVisitor visitor, Context ctx) {
     String before = traceBefore(visitor);
+    int modsBefore = JModVisitor.getNumMods(visitor);
     if (visitor.visit(this, ctx)) {
       visitChildren(visitor);
     }
     visitor.endVisit(this, ctx);
+    recordModifications(visitor, modsBefore);
     traceAfter(visitor, before);
   }
 
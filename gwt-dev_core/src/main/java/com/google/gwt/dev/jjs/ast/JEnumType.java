@@ -71,5 +71,6 @@ public class JEnumType extends JClassType {
   
   public void setOrdinalized() {
     isOrdinalized = true;
+    markModified();
   }
 }
@@ -68,11 +68,15 @@ public class JInterfaceType extends JDeclaredType {
   }
 
   public void traverse(JVisitor visitor, Context ctx) {
+    int modsBefore = JModVisitor.getNumMods(visitor);
     if (visitor.visit(this, ctx)) {
+      recordModifications(visitor, modsBefore);
       fields = visitor.acceptWithInsertRemoveImmutable(fields);
       methods = visitor.acceptWithInsertRemoveImmutable(methods);
+      modsBefore = JModVisitor.getNumMods(visitor);
     }
     visitor.endVisit(this, ctx);
+    recordModifications(visitor, modsBefore);
   }
 
   @Override
@@ -44,4 +44,12 @@ public class JLocal extends JVariable implements HasEnclosingMethod {
     visitor.endVisit(this, ctx);
   }
 
+  @Override
+  void markModified() {
+    // The body may not belong to a method yet.
+    JMethod method = getEnclosingMethod();
+    if (method != null) {
+      method.markModified();
+    }
+  }
 }
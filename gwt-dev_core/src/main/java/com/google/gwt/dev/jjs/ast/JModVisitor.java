@@ -249,6 +249,18 @@ public class JModVisitor extends JVisitor {
     }
   }
 
+  /**
+   * Returns the number of changes made so far by <code>visitor</code>, or 0 if
+   * it cannot modify the tree. Used by nodes to detect that a traversal
+   * modified them.
+   */
+  static int getNumMods(JVisitor visitor) {
+    if (visitor instanceof JModVisitor) {
+      return ((JModVisitor) visitor).getNumMods();
+    }
+    return 0;
+  }
+
   protected static void checkReplacement(JNode origNode, JNode newNode) {
     if (newNode == null) {
       throw new InternalCompilerException("Cannot replace with null");
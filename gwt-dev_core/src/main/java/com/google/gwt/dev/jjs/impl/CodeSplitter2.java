@@ -250,6 +250,16 @@ public class CodeSplitter2 {
         }
       }
     }
+
+    private static <T> void setLive(Map<T, BitSet> map, T atom, BitSet splitPoints) {
+      BitSet liveSet = map.get(atom);
+      if (liveSet == null) {
+        map.put(atom, (BitSet) splitPoints.clone());
+      } else {
+        liveSet.or(splitPoints);
+      }
+    }
+
     public Map<JField, BitSet> fields = new HashMap<JField, BitSet>();
     public Map<JMethod, BitSet> methods = new HashMap<JMethod, BitSet>();
     public Map<String, BitSet> strings = new HashMap<String, BitSet>();
@@ -273,6 +283,20 @@ public class CodeSplitter2 {
     }
   }
   
+  /**
+   * A Java system property naming a file of recorded split point traces in
+   * {@link FragmentLoadProfile} format, one session per line. When set,
+   * fragments are merged to lower the round trips and bytes those sessions
+   * would have needed, rather than by the shared code heuristic alone.
+   * 
+   * The traces are the <code>fragment</code> fields of the
+   * <code>download</code> begin events that AsyncFragmentLoader sends to the
+   * lightweight metrics system, grouped by session, from a build compiled
+   * without fragment merging or an initial load sequence. Fragment numbers
+   * equal split point numbers in such a build.
+   */
+  public static final String PROFILE_PROPERTY = "gwt.jjs.splitPointProfile";
+
   /**
    * The property key for a list of initially loaded split points.
    */
@@ -474,6 +498,17 @@ public class CodeSplitter2 {
     return 0;
   }
   
+  /**
+   * Writes to <code>result</code> the fragment map with fragment
+   * <code>j</code> merged into fragment <code>i</code>, where
+   * <code>i &lt; j</code>.
+   */
+  private static void mergeFragments(int[] fragmentMap, int i, int j, int[] result) {
+    for (int sp = 0; sp < fragmentMap.length; sp++) {
+      result[sp] = fragmentMap[sp] == j ? i : fragmentMap[sp];
+    }
+  }
+
   /**
    * Installs the initial load sequence into AsyncFragmentLoader.BROWSER_LOADER.
    * The initializer looks like this:
@@ -504,30 +539,65 @@ public class CodeSplitter2 {
   }
   
   private static ControlFlowAnalyzer recordLiveSet(
-      ControlFlowAnalyzer cfa, LiveSplitPointMap liveness, int idx) {       
-    for (JNode node : cfa.getLiveFieldsAndMethods()) {
+      ControlFlowAnalyzer cfa, LiveSplitPointMap liveness, int idx) {
+    BitSet splitPoints = new BitSet();
+    splitPoints.set(idx);
+    recordLiveSet(cfa.getLiveFieldsAndMethods(), cfa.getFieldsWritten(), cfa.getLiveStrings(),
+        cfa.getInstantiatedTypes(), liveness, splitPoints);
+    return cfa;
+  }
+
+  /**
+   * Records the atoms in the given sets as live in all of
+   * <code>splitPoints</code>.
+   */
+  private static void recordLiveSet(Set<? extends JNode> fieldsAndMethods,
+      Set<JField> fieldsWritten, Set<String> strings, Set<? extends JReferenceType> types,
+      LiveSplitPointMap liveness, BitSet splitPoints) {
+    for (JNode node : fieldsAndMethods) {
       if (node instanceof JField) {
-        liveness.setLive((JField) node, idx);
+        LiveSplitPointMap.setLive(liveness.fields, (JField) node, splitPoints);
       }
       if (node instanceof JMethod) {
-        liveness.setLive((JMethod) node, idx);
-      }      
+        LiveSplitPointMap.setLive(liveness.methods, (JMethod) node, splitPoints);
+      }
     }
-    
-    for (JField node : cfa.getFieldsWritten()) {
-      liveness.setLive(node, idx);
+
+    for (JField node : fieldsWritten) {
+      LiveSplitPointMap.setLive(liveness.fields, node, splitPoints);
     }
-    
-    for (String s : cfa.getLiveStrings()) {
-      liveness.setLive(s, idx);
+
+    for (String s : strings) {
+      LiveSplitPointMap.setLive(liveness.strings, s, splitPoints);
     }
-    
-    for (JReferenceType t : cfa.getInstantiatedTypes()) {
+
+    for (JReferenceType t : types) {
       if (t instanceof JDeclaredType) {
-        liveness.setLive((JDeclaredType) t, idx);
+        LiveSplitPointMap.setLive(liveness.types, (JDeclaredType) t, splitPoints);
       }
     }
-    return cfa;
+  }
+
+  /**
+   * Like {@link #recordLiveSet(ControlFlowAnalyzer, LiveSplitPointMap, int)},
+   * but only records what <code>cfa</code> found live beyond
+   * <code>base</code>, the CFA it was copied from. This touches only the atoms
+   * the split point adds, rather than the whole program.
+   */
+  private static void recordNewlyLiveSet(ControlFlowAnalyzer cfa, ControlFlowAnalyzer base,
+      LiveSplitPointMap liveness, int idx) {
+    Set<JNode> fieldsAndMethods = IndexedSet.copyOf(cfa.getLiveFieldsAndMethods());
+    fieldsAndMethods.removeAll(base.getLiveFieldsAndMethods());
+    Set<JField> fieldsWritten = IndexedSet.copyOf(cfa.getFieldsWritten());
+    fieldsWritten.removeAll(base.getFieldsWritten());
+    Set<String> strings = IndexedSet.copyOf(cfa.getLiveStrings());
+    strings.removeAll(base.getLiveStrings());
+    Set<JReferenceType> types = IndexedSet.copyOf(cfa.getInstantiatedTypes());
+    types.removeAll(base.getInstantiatedTypes());
+
+    BitSet splitPoints = new BitSet();
+    splitPoints.set(idx);
+    recordLiveSet(fieldsAndMethods, fieldsWritten, strings, types, liveness, splitPoints);
   }
   
   private static Map<String, List<Integer>> reverseByName(List<JRunAsync> runAsyncs) {
@@ -583,8 +653,7 @@ public class CodeSplitter2 {
   }
 
   private static <T> Set<T> union(Set<? extends T> set1, Set<? extends T> set2) {
-    Set<T> union = new HashSet<T>();
-    union.addAll(set1);
+    Set<T> union = IndexedSet.copyOf(set1);
     union.addAll(set2);
     return union;
   }
@@ -600,22 +669,22 @@ public class CodeSplitter2 {
    * @param liveFromSplitPoint everything live from the split point, including leftovers
    * @param <T> the type of node (field, method, etc) in the map
    */
+  @SuppressWarnings("unchecked")
   private static <T> void updateReverseMap(int splitPoint, Map<T, Integer> map, Set<?> liveWithoutEntry,
-                                           Iterable<T> all, Set<?> liveFromSplitPoint) {
-    for (T each : all) {
-      if (!liveWithoutEntry.contains(each)) {
-        /*
-         * Note that it is fine to overwrite a preexisting entry in the map. If
-         * an atom is dead until split point i has been reached, and is also
-         * dead until entry j has been reached, then it is dead until both have
-         * been reached. Thus, it can be downloaded along with either i's or j's
-         * code.
-         */
-        if (!liveFromSplitPoint.contains(each)) {
-          // complement says it should be live, but it is not actually live within the splitpoint
-        } else {
-          map.put(each, splitPoint);
-        }
+                                           Set<T> all, Set<?> liveFromSplitPoint) {
+    // Walk the atoms the split point adds rather than the whole program.
+    Set<Object> exclusive = IndexedSet.copyOf(liveFromSplitPoint);
+    exclusive.removeAll(liveWithoutEntry);
+    for (Object each : exclusive) {
+      /*
+       * Note that it is fine to overwrite a preexisting entry in the map. If
+       * an atom is dead until split point i has been reached, and is also
+       * dead until entry j has been reached, then it is dead until both have
+       * been reached. Thus, it can be downloaded along with either i's or j's
+       * code.
+       */
+      if (all.contains(each)) {
+        map.put((T) each, splitPoint);
       }
     }
   }
@@ -623,6 +692,8 @@ public class CodeSplitter2 {
   ExclusivityMap fragmentMap = new ExclusivityMap();
  
   private final Map<JField, JClassLiteral> fieldToLiteralOfClass;
+
+  private final TreeLogger logger;
   
   private FragmentExtractor fragmentExtractor;
   
@@ -641,6 +712,12 @@ public class CodeSplitter2 {
   private final JsProgram jsprogram;
 
   private final LiveSplitPointMap liveness = new LiveSplitPointMap();
+
+  /**
+   * Everything live from each split point that is not initial, after the
+   * initial load sequence.
+   */
+  private final ControlFlowAnalyzer[] liveFromSplitPoint;
   
   private final Set<JMethod> methodsInJavaScript;
   
@@ -668,6 +745,7 @@ public class CodeSplitter2 {
   private CodeSplitter2(TreeLogger logger, JProgram jprogram, JsProgram jsprogram,
       JavaToJavaScriptMap map, int splitPointsMerge,
       MultipleDependencyGraphRecorder dependencyRecorder) {
+    this.logger = logger;
     this.jprogram = jprogram;
     this.jsprogram = jsprogram;
     this.splitPointsMerge = splitPointsMerge;
@@ -680,6 +758,7 @@ public class CodeSplitter2 {
       splitPointToFragmentMap[i] = i;
     }
     
+    this.liveFromSplitPoint = new ControlFlowAnalyzer[jprogram.getRunAsyncs().size() + 1];
     this.splitPointToCodeIndexMap = new int[jprogram.getRunAsyncs().size() + 1];
     for (int i = 0; i < splitPointToCodeIndexMap.length; i++) {
       splitPointToCodeIndexMap[i] = 0;
@@ -714,20 +793,33 @@ public class CodeSplitter2 {
     fragmentStats.put(splitPoint, stats);
   }
   
-  private ControlFlowAnalyzer computeAllButNCfas(
-      ControlFlowAnalyzer liveAfterInitialSequence, List<Integer> sp) {
-    List<ControlFlowAnalyzer> allButOnes = new ArrayList<ControlFlowAnalyzer>();
-    ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(liveAfterInitialSequence);
-    for (JRunAsync otherRunAsync : jprogram.getRunAsyncs()) {
-      if (isInitial(otherRunAsync.getSplitPoint())) {
-        continue;
-      }
-      if (sp.contains(otherRunAsync.getSplitPoint())) {
-        continue;
-      }
-      cfa.traverseFromRunAsync(otherRunAsync);
+  /**
+   * Computes, for each fragment, everything live once every other fragment
+   * has been loaded, by halving the range of fragments left out at each step.
+   * Each fragment's code is traversed O(log n) times rather than n times.
+   * 
+   * @param cfa everything live from all fragments outside <code>[lo, hi)</code>;
+   *          modified by this method
+   * @param fragments the split points of each fragment
+   * @param result receives the CFA that leaves out fragment <code>f</code> at
+   *          index <code>f</code>
+   */
+  private void computeAllButOneCfas(ControlFlowAnalyzer cfa, List<List<Integer>> fragments,
+      int lo, int hi, ControlFlowAnalyzer[] result) {
+    if (hi - lo == 1) {
+      result[lo] = cfa;
+      return;
     }
-    return cfa;
+    int mid = (lo + hi) >>> 1;
+    ControlFlowAnalyzer withUpperHalf = new ControlFlowAnalyzer(cfa);
+    for (List<Integer> splitPoints : fragments.subList(mid, hi)) {
+      traverseFromSplitPoints(withUpperHalf, splitPoints);
+    }
+    computeAllButOneCfas(withUpperHalf, fragments, lo, mid, result);
+    for (List<Integer> splitPoints : fragments.subList(lo, mid)) {
+      traverseFromSplitPoints(cfa, splitPoints);
+    }
+    computeAllButOneCfas(cfa, fragments, mid, hi, result);
   }
 
   /**
@@ -738,18 +830,10 @@ public class CodeSplitter2 {
    */
   private ControlFlowAnalyzer computeAllLiveFromSplitPoints(
       ControlFlowAnalyzer liveAfterInitialSequence, List<Integer> splitPoints) {
-     ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(liveAfterInitialSequence);
-     for (JRunAsync otherRunAsync : jprogram.getRunAsyncs()) {
-       if (isInitial(otherRunAsync.getSplitPoint())) {
-         continue;
-       }
-       if (!splitPoints.contains(otherRunAsync.getSplitPoint())) {
-         continue;
-       }
-       cfa.traverseFromRunAsync(otherRunAsync);
-     }
-     return cfa;
-   }
+    ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(liveAfterInitialSequence);
+    traverseFromSplitPoints(cfa, splitPoints);
+    return cfa;
+  }
 
   /**
    * Compute a CFA that covers the entire live code of the program.
@@ -776,7 +860,8 @@ public class CodeSplitter2 {
     
     // Step #1: Compute all the initially live atoms that are part of entry points
     // class inits..etc.
-    initiallyLive = computeInitiallyLive(jprogram, CodeSplitter.NULL_RECORDER);
+    ControlFlowAnalyzer entryLive = computeInitiallyLive(jprogram, CodeSplitter.NULL_RECORDER);
+    initiallyLive = entryLive;
     recordLiveSet(initiallyLive, liveness, 0);
  
     // Step #2: Incrementally add each split point that are classified as initial load sequence.
@@ -788,12 +873,24 @@ public class CodeSplitter2 {
     }
     
     // Step #3: Similar to #2 but this time, we independently compute the live set of each
-    // split point that is not part of the initial load.
+    // split point that is not part of the initial load. Everything initially live is live
+    // in all of them, so record that once rather than per split point.
+    BitSet nonInitialSplitPoints = new BitSet();
     for (JRunAsync runAsync : jprogram.getRunAsyncs()) {
-      if (!initialLoadSequence.contains(runAsync.getSplitPoint())) {
-        computeLiveSet(initiallyLive, liveness, runAsync);
+      int splitPoint = runAsync.getSplitPoint();
+      if (!initialLoadSequence.contains(splitPoint)) {
+        ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(initiallyLive);
+        cfa.traverseFromRunAsync(runAsync);
+        recordNewlyLiveSet(cfa, initiallyLive, liveness, splitPoint);
+        liveFromSplitPoint[splitPoint] = cfa;
+        nonInitialSplitPoints.set(splitPoint);
       }
     }
+    if (!nonInitialSplitPoints.isEmpty()) {
+      recordLiveSet(initiallyLive.getLiveFieldsAndMethods(), initiallyLive.getFieldsWritten(),
+          initiallyLive.getLiveStrings(), initiallyLive.getInstantiatedTypes(), liveness,
+          nonInitialSplitPoints);
+    }
     
     // Step #4: Fix up the rare load order dependencies.
     fixUpLoadOrderDependencies(liveness, -1);
@@ -803,8 +900,9 @@ public class CodeSplitter2 {
     // leftover fragment download as small as possible.
     partitionFragments();
     
-    // Step #6: Extract fragments using the partition algorithm.
-    extractStatements(computeInitiallyLive(jprogram, CodeSplitter.NULL_RECORDER));
+    // Step #6: Extract fragments using the partition algorithm. Reusing the CFAs from above
+    // lets them share one numbering of the program's atoms.
+    extractStatements(entryLive);
     
     // Step #7: Replaces the splitpoint number with the new fragment number.
     replaceFragmentId();
@@ -868,11 +966,11 @@ public class CodeSplitter2 {
     }
     allFields.addAll(everything.getFieldsWritten());
     
-    // Search for all the atoms that are exclusively needed in each split point.
+    Set<JDeclaredType> allTypes = declaredTypesIn(everything.getInstantiatedTypes());
+
+    // Group the split points that are not initial by the fragment they were merged into.
+    List<List<Integer>> fragments = new ArrayList<List<Integer>>();
     for (int i = 1; i < splitPointToFragmentMap.length; i++) {
-      
-      ArrayList<Integer> splitPoints = new ArrayList<Integer>();
-      
       // This mean split point [i] has been merged with another split point, ignore it.
       if (splitPointToFragmentMap[i] != i) {
         continue;
@@ -882,23 +980,54 @@ public class CodeSplitter2 {
       if (initialLoadSequence.contains(i)) {
         continue;
       }
-      
+
+      List<Integer> splitPoints = new ArrayList<Integer>();
       splitPoints.add(i);
-      splitPointToCodeIndexMap[i] = cacheIndex;
-      
-      
       for (int j = i + 1; j < splitPointToFragmentMap.length; j++) {
         if (initialLoadSequence.contains(j)) {
           continue;
         }
         if (splitPointToFragmentMap[j] == i) {
-          splitPointToCodeIndexMap[j] = cacheIndex;
           splitPoints.add(j);
         }
       }
+      fragments.add(splitPoints);
+    }
+
+    /*
+     * A split point merged into a higher-numbered one is left out of the groups
+     * above, but its code is still live once every other fragment is loaded.
+     */
+    BitSet grouped = new BitSet();
+    for (List<Integer> splitPoints : fragments) {
+      for (int sp : splitPoints) {
+        grouped.set(sp);
+      }
+    }
+    ControlFlowAnalyzer liveFromUngrouped = new ControlFlowAnalyzer(liveAfterInitialSequence);
+    for (int i = 1; i < splitPointToFragmentMap.length; i++) {
+      if (!grouped.get(i) && !initialLoadSequence.contains(i)) {
+        liveFromUngrouped.traverseFromRunAsync(jprogram.getRunAsyncs().get(i - 1));
+      }
+    }
 
-      ControlFlowAnalyzer allButOne = computeAllButNCfas(liveAfterInitialSequence, splitPoints);
-      ControlFlowAnalyzer allFromSplitPoints = computeAllLiveFromSplitPoints(liveAfterInitialSequence, splitPoints);
+    ControlFlowAnalyzer[] allButOnes = new ControlFlowAnalyzer[fragments.size()];
+    if (!fragments.isEmpty()) {
+      computeAllButOneCfas(liveFromUngrouped, fragments, 0, fragments.size(), allButOnes);
+    }
+
+    // Search for all the atoms that are exclusively needed in each fragment.
+    for (int f = 0; f < fragments.size(); f++) {
+      List<Integer> splitPoints = fragments.get(f);
+      int i = splitPoints.get(0);
+      for (int sp : splitPoints) {
+        splitPointToCodeIndexMap[sp] = cacheIndex;
+      }
+
+      ControlFlowAnalyzer allButOne = allButOnes[f];
+      allButOnes[f] = null;
+      ControlFlowAnalyzer allFromSplitPoints = splitPoints.size() == 1 ? liveFromSplitPoint[i]
+          : computeAllLiveFromSplitPoints(liveAfterInitialSequence, splitPoints);
 
       Set<JNode> allLiveNodes =
           union(allButOne.getLiveFieldsAndMethods(), allButOne.getFieldsWritten());
@@ -909,19 +1038,8 @@ public class CodeSplitter2 {
           allFromSplitPoints.getLiveFieldsAndMethods());
       updateReverseMap(i, fragmentMap.strings, allButOne.getLiveStrings(), everything
           .getLiveStrings(), allFromSplitPoints.getLiveStrings());
-      updateReverseMap(i, fragmentMap.types, declaredTypesIn(allButOne.getInstantiatedTypes()),
-          declaredTypesIn(everything.getInstantiatedTypes()),
-          declaredTypesIn(allFromSplitPoints.getInstantiatedTypes()));
-
-      // This mean split point [i] has been merged with another split point, ignore it.
-      if (splitPointToFragmentMap[i] != i) {
-        continue;
-      }
-      
-      // This was needed in the initial load sequence, ignore it.
-      if (initialLoadSequence.contains(i)) {
-        continue;
-      }
+      updateReverseMap(i, fragmentMap.types, allButOne.getInstantiatedTypes(), allTypes,
+          allFromSplitPoints.getInstantiatedTypes());
 
       LivenessPredicate alreadyLoaded = new ExclusivityMapLivenessPredicate(fragmentMap, 0);
       LivenessPredicate liveNow = new ExclusivityMapLivenessPredicate(fragmentMap, i);
@@ -1056,8 +1174,10 @@ public class CodeSplitter2 {
    * weight graph partitioning.
    */
   private void partitionFragments() {
-    // TODO(acleung): Currently this only use the Edge Greedy heuristics.
-    if (true) {
+    FragmentLoadProfile profile = FragmentLoadProfile.fromProperty(logger, PROFILE_PROPERTY);
+    if (profile != null && profile.getSessionCount() > 0) {
+      partitionFragmentUsingProfile(profile);
+    } else {
       partitionFragmentUsingEdgeGreedy();
     }
   }
@@ -1112,6 +1232,130 @@ public class CodeSplitter2 {
     }
   }
 
+  /**
+   * Merges the fragments of split points that recorded sessions tend to fire
+   * together. Each merge saves a round trip for sessions firing both and costs
+   * extra bytes for sessions firing only one, and code shared only by the
+   * merged split points moves out of the leftovers fragment. Greedily takes
+   * the merge that lowers the expected cost per session the most, until none
+   * does or {@link #splitPointsMerge} merges are done. Sizes are counted in
+   * atoms, and a round trip costs as much as an average exclusive fragment.
+   */
+  private void partitionFragmentUsingProfile(FragmentLoadProfile profile) {
+    // Atoms that are not initially live, keyed by the split points needing them.
+    Map<BitSet, Integer> atomCounts = new LinkedHashMap<BitSet, Integer>();
+    countAtomsBySplitPoints(liveness.fields, atomCounts);
+    countAtomsBySplitPoints(liveness.methods, atomCounts);
+    countAtomsBySplitPoints(liveness.strings, atomCounts);
+    countAtomsBySplitPoints(liveness.types, atomCounts);
+
+    int numExclusive = 0;
+    for (int i = 1; i < splitPointToFragmentMap.length; i++) {
+      if (!isInitial(i)) {
+        numExclusive++;
+      }
+    }
+    if (numExclusive < 2) {
+      return;
+    }
+    long exclusiveAtoms = 0;
+    for (Entry<BitSet, Integer> entry : atomCounts.entrySet()) {
+      if (entry.getKey().cardinality() == 1) {
+        exclusiveAtoms += entry.getValue();
+      }
+    }
+    double roundTripCost = Math.max(1.0, (double) exclusiveAtoms / numExclusive);
+
+    PartitionEvaluator evaluator = new PartitionEvaluator(profile);
+    PartitionEvaluator.Score score = scorePartition(evaluator, splitPointToFragmentMap, atomCounts);
+    double cost = score.getCost(roundTripCost);
+    logger.log(TreeLogger.DEBUG, "Unmerged split points: " + score);
+
+    int[] candidate = new int[splitPointToFragmentMap.length];
+    for (int c = 0; c < splitPointsMerge; c++) {
+      int bestI = 0, bestJ = 0;
+      double bestCost = cost;
+      for (int i = 1; i < splitPointToFragmentMap.length; i++) {
+        if (isInitial(i) || splitPointToFragmentMap[i] != i) {
+          continue;
+        }
+        for (int j = i + 1; j < splitPointToFragmentMap.length; j++) {
+          if (isInitial(j) || splitPointToFragmentMap[j] != j) {
+            continue;
+          }
+          mergeFragments(splitPointToFragmentMap, i, j, candidate);
+          double candidateCost =
+              scorePartition(evaluator, candidate, atomCounts).getCost(roundTripCost);
+          if (candidateCost < bestCost) {
+            bestI = i;
+            bestJ = j;
+            bestCost = candidateCost;
+          }
+        }
+      }
+
+      if (bestI == 0) {
+        break;
+      }
+      mergeFragments(splitPointToFragmentMap, bestI, bestJ, splitPointToFragmentMap);
+      cost = bestCost;
+      logger.log(TreeLogger.DEBUG, "Merging split points " + bestJ + " into " + bestI);
+    }
+    logger.log(TreeLogger.DEBUG, "Merged split points: "
+        + scorePartition(evaluator, splitPointToFragmentMap, atomCounts));
+  }
+
+  /**
+   * Adds up the atoms of <code>map</code> that are not initially live by the
+   * set of split points that need them.
+   */
+  private <T> void countAtomsBySplitPoints(Map<T, BitSet> map, Map<BitSet, Integer> counts) {
+    for (BitSet liveSet : map.values()) {
+      if (liveSet.get(0)) {
+        continue;
+      }
+      boolean initial = false;
+      for (int sp : initialLoadSequence) {
+        initial |= liveSet.get(sp);
+      }
+      if (initial) {
+        continue;
+      }
+      Integer count = counts.get(liveSet);
+      counts.put(liveSet, count == null ? 1 : count + 1);
+    }
+  }
+
+  /**
+   * Scores a fragment map, where every atom goes to the fragment of the split
+   * points needing it if they all share one, and to the leftovers otherwise.
+   */
+  private PartitionEvaluator.Score scorePartition(PartitionEvaluator evaluator,
+      int[] fragmentMap, Map<BitSet, Integer> atomCounts) {
+    int[] fragmentOf = new int[fragmentMap.length];
+    for (int sp = 1; sp < fragmentMap.length; sp++) {
+      fragmentOf[sp] = isInitial(sp) ? 0 : fragmentMap[sp];
+    }
+    long[] fragmentSizes = new long[fragmentMap.length];
+    long leftoversSize = 0;
+    for (Entry<BitSet, Integer> entry : atomCounts.entrySet()) {
+      BitSet liveSet = entry.getKey();
+      int fragment = fragmentOf[liveSet.nextSetBit(0)];
+      for (int sp = liveSet.nextSetBit(0); sp >= 0; sp = liveSet.nextSetBit(sp + 1)) {
+        if (fragmentOf[sp] != fragment) {
+          fragment = 0;
+          break;
+        }
+      }
+      if (fragment == 0) {
+        leftoversSize += entry.getValue();
+      } else {
+        fragmentSizes[fragment] += entry.getValue();
+      }
+    }
+    return evaluator.score(fragmentOf, fragmentSizes, leftoversSize);
+  }
+
   private void replaceFragmentId() {
     (new JsModVisitor() {
       @Override
@@ -1140,4 +1384,10 @@ public class CodeSplitter2 {
     (new StringFinder()).accept(exp);
     return strings;
   }
+
+  private void traverseFromSplitPoints(ControlFlowAnalyzer cfa, List<Integer> splitPoints) {
+    for (int sp : splitPoints) {
+      cfa.traverseFromRunAsync(jprogram.getRunAsyncs().get(sp - 1));
+    }
+  }
 }
@@ -60,7 +60,6 @@ import com.google.gwt.dev.util.collect.Lists;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -843,13 +842,13 @@ public class ControlFlowAnalyzer {
    * Schrodinger set of classLiterals to be rescued if type is instantiated AND getClass()
    * is live.
    */
-  private Set<JReferenceType> classLiteralsToBeRescuedIfGetClassIsLive = new HashSet<JReferenceType>();
+  private Set<JReferenceType> classLiteralsToBeRescuedIfGetClassIsLive;
 
   private DependencyRecorder dependencyRecorder;
-  private Set<JField> fieldsWritten = new HashSet<JField>();
-  private Set<JReferenceType> instantiatedTypes = new HashSet<JReferenceType>();
-  private Set<JNode> liveFieldsAndMethods = new HashSet<JNode>();
-  private Set<String> liveStrings = new HashSet<String>();
+  private final IndexedSet<JField> fieldsWritten;
+  private final IndexedSet<JReferenceType> instantiatedTypes;
+  private final IndexedSet<JNode> liveFieldsAndMethods;
+  private final IndexedSet<String> liveStrings;
 
   /**
    * Schrodinger's members... aka "limbo". :) These are instance methods and
@@ -857,7 +856,7 @@ public class ControlFlowAnalyzer {
    * uninstantiable. We place these methods into purgatory until/unless the
    * enclosing type is found to be instantiable.
    */
-  private Set<JNode> membersToRescueIfTypeIsInstantiated = new HashSet<JNode>();
+  private final IndexedSet<JNode> membersToRescueIfTypeIsInstantiated;
 
   /**
    * A precomputed map of all instance methods onto a set of methods that
@@ -867,25 +866,35 @@ public class ControlFlowAnalyzer {
 
   private final JField getClassField;
   private final JMethod getClassMethod;
+
+  /**
+   * Numbers the fields, methods, types and strings this analyzer and its
+   * copies have seen, so that their live sets can be bit sets.
+   */
+  private final IndexedSet.Index<JNode> nodeIndex;
   private final JProgram program;
-  private Set<JReferenceType> referencedTypes = new HashSet<JReferenceType>();
+  private final IndexedSet<JReferenceType> referencedTypes;
   private final RescueVisitor rescuer = new RescueVisitor();
   private final JMethod runAsyncOnsuccess;
   private JMethod stringValueOfChar = null;
+  private final IndexedSet.Index<String> stringIndex;
 
   public ControlFlowAnalyzer(ControlFlowAnalyzer cfa) {
     program = cfa.program;
     asyncFragmentOnLoad = cfa.asyncFragmentOnLoad;
     runAsyncOnsuccess = cfa.runAsyncOnsuccess;
     baseArrayType = cfa.baseArrayType;
-    fieldsWritten = new HashSet<JField>(cfa.fieldsWritten);
-    instantiatedTypes = new HashSet<JReferenceType>(cfa.instantiatedTypes);
-    liveFieldsAndMethods = new HashSet<JNode>(cfa.liveFieldsAndMethods);
-    referencedTypes = new HashSet<JReferenceType>(cfa.referencedTypes);
+    nodeIndex = cfa.nodeIndex;
+    stringIndex = cfa.stringIndex;
+    classLiteralsToBeRescuedIfGetClassIsLive = new IndexedSet<JReferenceType>(nodeIndex);
+    fieldsWritten = new IndexedSet<JField>(cfa.fieldsWritten);
+    instantiatedTypes = new IndexedSet<JReferenceType>(cfa.instantiatedTypes);
+    liveFieldsAndMethods = new IndexedSet<JNode>(cfa.liveFieldsAndMethods);
+    referencedTypes = new IndexedSet<JReferenceType>(cfa.referencedTypes);
     stringValueOfChar = cfa.stringValueOfChar;
-    liveStrings = new HashSet<String>(cfa.liveStrings);
+    liveStrings = new IndexedSet<String>(cfa.liveStrings);
     membersToRescueIfTypeIsInstantiated =
-        new HashSet<JNode>(cfa.membersToRescueIfTypeIsInstantiated);
+        new IndexedSet<JNode>(cfa.membersToRescueIfTypeIsInstantiated);
     if (cfa.argsToRescueIfParameterRead != null) {
       argsToRescueIfParameterRead =
           new HashMap<JParameter, List<JExpression>>(cfa.argsToRescueIfParameterRead);
@@ -902,6 +911,15 @@ public class ControlFlowAnalyzer {
     baseArrayType = program.getIndexedType("Array");
     getClassField = program.getIndexedField("Object.___clazz");
     getClassMethod = program.getIndexedMethod("Object.getClass");
+    nodeIndex = new IndexedSet.Index<JNode>();
+    stringIndex = new IndexedSet.Index<String>();
+    classLiteralsToBeRescuedIfGetClassIsLive = new IndexedSet<JReferenceType>(nodeIndex);
+    fieldsWritten = new IndexedSet<JField>(nodeIndex);
+    instantiatedTypes = new IndexedSet<JReferenceType>(nodeIndex);
+    liveFieldsAndMethods = new IndexedSet<JNode>(nodeIndex);
+    referencedTypes = new IndexedSet<JReferenceType>(nodeIndex);
+    liveStrings = new IndexedSet<String>(stringIndex);
+    membersToRescueIfTypeIsInstantiated = new IndexedSet<JNode>(nodeIndex);
     buildMethodsOverriding();
   }
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.core.ext.TreeLogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records which code fragments real sessions loaded together, so that
+ * optimizers can place shared code and data by how often it is downloaded.
+ *
+ * A profile is a text file with one line per session, listing the fragment
+ * numbers that session loaded as reported by the <code>fragment</code> field
+ * of AsyncFragmentLoader's events. Numbers are separated by spaces or commas.
+ * Blank lines and lines starting with <code>#</code> are ignored. Every
+ * session is assumed to have loaded the initial fragment.
+ *
+ * The same format also records split points rather than fragments; see
+ * {@link CodeSplitter2#PROFILE_PROPERTY}.
+ */
+public class FragmentLoadProfile {
+
+  /**
+   * A Java system property naming the profile file to use, if any.
+   */
+  public static final String PROFILE_PROPERTY = "gwt.jjs.fragmentProfile";
+
+  /**
+   * Reads the profile named by {@link #PROFILE_PROPERTY}. Returns
+   * <code>null</code> if none is configured or it cannot be read, in which
+   * case a warning is logged and compilation proceeds without it.
+   */
+  public static FragmentLoadProfile fromProperty(TreeLogger logger) {
+    return fromProperty(logger, PROFILE_PROPERTY);
+  }
+
+  /**
+   * Reads the profile named by the system property <code>property</code>,
+   * with the same fallback as {@link #fromProperty(TreeLogger)}.
+   */
+  public static FragmentLoadProfile fromProperty(TreeLogger logger, String property) {
+    String fileName = System.getProperty(property);
+    if (fileName == null) {
+      return null;
+    }
+    Reader reader = null;
+    try {
+      reader = new InputStreamReader(new FileInputStream(new File(fileName)), "UTF-8");
+      return read(reader);
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to read fragment load profile " + fileName, e);
+    } catch (NumberFormatException e) {
+      logger.log(TreeLogger.WARN, "Ignoring malformed fragment load profile " + fileName, e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          // Nothing to do
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Parses a profile.
+   * 
+   * @throws NumberFormatException if a line holds something other than
+   *           fragment numbers
+   */
+  public static FragmentLoadProfile read(Reader reader) throws IOException {
+    BufferedReader in = new BufferedReader(reader);
+    List<BitSet> sessions = new ArrayList<BitSet>();
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+      BitSet session = new BitSet();
+      session.set(0);
+      for (String token : line.split("[\\s,]+")) {
+        int fragment = Integer.parseInt(token);
+        if (fragment < 0) {
+          throw new NumberFormatException("Negative fragment number " + fragment);
+        }
+        session.set(fragment);
+      }
+      sessions.add(session);
+    }
+    return new FragmentLoadProfile(sessions);
+  }
+
+  private final int[] loadCounts;
+
+  private final List<BitSet> sessions;
+
+  public FragmentLoadProfile(List<BitSet> sessions) {
+    this.sessions = Collections.unmodifiableList(new ArrayList<BitSet>(sessions));
+    int numFragments = 0;
+    for (BitSet session : sessions) {
+      numFragments = Math.max(numFragments, session.length());
+    }
+    loadCounts = new int[numFragments];
+    for (BitSet session : sessions) {
+      for (int i = session.nextSetBit(0); i >= 0; i = session.nextSetBit(i + 1)) {
+        loadCounts[i]++;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of sessions that loaded <code>fragment</code>.
+   */
+  public int getLoadCount(int fragment) {
+    return fragment < loadCounts.length ? loadCounts[fragment] : 0;
+  }
+
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  /**
+   * Returns the fragments loaded by each session. Don't modify the sets.
+   */
+  public List<BitSet> getSessions() {
+    return sessions;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A set stored as a bit set over an {@link Index} that numbers its possible
+ * elements. Copying a set, and combining it with another set over the same
+ * index, costs one bit per indexed element rather than a hash operation per
+ * member.
+ * 
+ * @param <T> the element type
+ */
+final class IndexedSet<T> extends AbstractSet<T> {
+
+  /**
+   * Numbers elements in the order they are first added. Shared by all the sets
+   * that are copies of one another.
+   * 
+   * @param <T> the element type
+   */
+  static final class Index<T> {
+    private final List<T> elements = new ArrayList<T>();
+    private final Map<T, Integer> ids = new HashMap<T, Integer>();
+
+    int add(T element) {
+      Integer id = ids.get(element);
+      if (id == null) {
+        id = elements.size();
+        ids.put(element, id);
+        elements.add(element);
+      }
+      return id;
+    }
+
+    T get(int id) {
+      return elements.get(id);
+    }
+
+    /**
+     * Returns the number of <code>element</code>, or -1 if it has none yet.
+     */
+    int indexOf(Object element) {
+      Integer id = ids.get(element);
+      return id == null ? -1 : id;
+    }
+  }
+
+  /**
+   * Returns a modifiable copy of <code>set</code>, which is cheap if it is an
+   * IndexedSet.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> Set<T> copyOf(Set<? extends T> set) {
+    if (set instanceof IndexedSet<?>) {
+      // The copy shares the index, whose elements are all Ts or supertypes.
+      return new IndexedSet<T>((IndexedSet<T>) set);
+    }
+    return new HashSet<T>(set);
+  }
+
+  private final BitSet bits;
+  private final Index<? super T> index;
+
+  IndexedSet(Index<? super T> index) {
+    this.index = index;
+    this.bits = new BitSet();
+  }
+
+  IndexedSet(IndexedSet<T> toCopy) {
+    this.index = toCopy.index;
+    this.bits = (BitSet) toCopy.bits.clone();
+  }
+
+  @Override
+  public boolean add(T element) {
+    int id = index.add(element);
+    if (bits.get(id)) {
+      return false;
+    }
+    bits.set(id);
+    return true;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends T> c) {
+    if (!sharesIndexWith(c)) {
+      return super.addAll(c);
+    }
+    int oldSize = bits.cardinality();
+    bits.or(((IndexedSet<?>) c).bits);
+    return bits.cardinality() != oldSize;
+  }
+
+  @Override
+  public void clear() {
+    bits.clear();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    int id = index.indexOf(o);
+    return id >= 0 && bits.get(id);
+  }
+
+  @Override
+  public boolean containsAll(Collection<?> c) {
+    if (!sharesIndexWith(c)) {
+      return super.containsAll(c);
+    }
+    BitSet missing = (BitSet) ((IndexedSet<?>) c).bits.clone();
+    missing.andNot(bits);
+    return missing.isEmpty();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return bits.isEmpty();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int last = -1;
+      private int next = bits.nextSetBit(0);
+
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        last = next;
+        next = bits.nextSetBit(next + 1);
+        // Only elements of type T are ever set in this set's bits.
+        return (T) index.get(last);
+      }
+
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        bits.clear(last);
+        last = -1;
+      }
+    };
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    int id = index.indexOf(o);
+    if (id < 0 || !bits.get(id)) {
+      return false;
+    }
+    bits.clear(id);
+    return true;
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    if (!sharesIndexWith(c)) {
+      return super.removeAll(c);
+    }
+    int oldSize = bits.cardinality();
+    bits.andNot(((IndexedSet<?>) c).bits);
+    return bits.cardinality() != oldSize;
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    if (!sharesIndexWith(c)) {
+      return super.retainAll(c);
+    }
+    int oldSize = bits.cardinality();
+    bits.and(((IndexedSet<?>) c).bits);
+    return bits.cardinality() != oldSize;
+  }
+
+  @Override
+  public int size() {
+    return bits.cardinality();
+  }
+
+  private boolean sharesIndexWith(Collection<?> c) {
+    return c instanceof IndexedSet<?> && ((IndexedSet<?>) c).index == index;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.InternalCompilerException;
+import com.google.gwt.dev.jjs.ast.JConstructor;
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JField;
+import com.google.gwt.dev.jjs.ast.JLiteral;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs intraprocedural optimizers concurrently, using each
+ * {@link JDeclaredType} as a shard. Whole-program optimizers such as
+ * {@link Pruner}, {@link TypeTightener} and {@link MethodInliner} read and
+ * rewrite arbitrary types, so they remain sequential and act as barriers
+ * between parallel passes.
+ *
+ * A shard may only modify its own type. Anything it needs to know about other
+ * types is captured in a snapshot before the shards start, which makes the
+ * result independent of the number of threads and of scheduling order. It is
+ * not always the result of one sequential pass, though: a simplification that
+ * depends on a change to another type in the same pass is left for the next
+ * pass. So parallel {@link DeadCodeElimination} has its own switch,
+ * {@link #DEAD_CODE_ELIMINATION_PROPERTY}, and the compiler only uses it when
+ * it optimizes to a fixed point, where the extra pass is run anyway.
+ */
+public class ParallelOptimizer {
+
+  private static class ShardResult {
+    final long nanos;
+    final OptimizerStats stats;
+
+    ShardResult(OptimizerStats stats, long nanos) {
+      this.stats = stats;
+      this.nanos = nanos;
+    }
+  }
+
+  /**
+   * A Java system property that sets the number of threads used to run
+   * optimizers, and the other compiler passes that share their pool: loading
+   * units for {@link UnifyAst}, naming scopes and generating fragments. Values
+   * less than 2 run all of them on the calling thread.
+   */
+  public static final String THREADS_PROPERTY = "gwt.jjs.optimizerThreads";
+
+  /**
+   * A Java system property that, when <code>true</code> and
+   * {@link #THREADS_PROPERTY} enables the pool, runs
+   * {@link DeadCodeElimination} over types in parallel.
+   */
+  public static final String DEAD_CODE_ELIMINATION_PROPERTY =
+      "gwt.jjs.parallelDeadCodeElimination";
+
+  private static ExecutorService executor;
+
+  /**
+   * Runs {@link DeadCodeElimination} over every type of the program
+   * concurrently.
+   */
+  public static OptimizerStats execDeadCodeElimination(final JProgram program) {
+    Event optimizeEvent =
+        SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", DeadCodeElimination.NAME,
+            "parallel", "true");
+    long start = System.nanoTime();
+
+    /*
+     * Shards never call JConstructor.isEmpty(), which reads super constructors
+     * in other types and caches its answer without synchronization; every
+     * constructor is checked here, on this thread, before the shards start.
+     */
+    final Set<JConstructor> emptyConstructors =
+        Collections.newSetFromMap(new IdentityHashMap<JConstructor, Boolean>());
+    final Map<JField, JLiteral> constFields = new IdentityHashMap<JField, JLiteral>();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      for (JMethod method : type.getMethods()) {
+        if (method instanceof JConstructor && ((JConstructor) method).isEmpty()) {
+          emptyConstructors.add((JConstructor) method);
+        }
+      }
+      for (JField field : type.getFields()) {
+        JLiteral lit = field.getConstInitializer();
+        if (lit != null) {
+          constFields.put(field, lit);
+        }
+      }
+    }
+
+    List<Future<ShardResult>> futures = new ArrayList<Future<ShardResult>>();
+    ExecutorService service = getExecutor();
+    for (final JDeclaredType type : program.getDeclaredTypes()) {
+      futures.add(service.submit(new Callable<ShardResult>() {
+        public ShardResult call() {
+          long shardStart = System.nanoTime();
+          OptimizerStats shardStats =
+              DeadCodeElimination.execShard(program, type, emptyConstructors, constFields);
+          return new ShardResult(shardStats, System.nanoTime() - shardStart);
+        }
+      }));
+    }
+
+    OptimizerStats stats = new OptimizerStats(DeadCodeElimination.NAME);
+    long workerNanos = 0;
+    for (ShardResult result : awaitAll(futures)) {
+      stats.recordModified(result.stats.getNumMods());
+      workerNanos += result.nanos;
+    }
+    stats.recordParallelTime(System.nanoTime() - start, workerNanos);
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  /**
+   * Returns the number of threads configured by {@link #THREADS_PROPERTY}.
+   */
+  public static int getThreadCount() {
+    return Integer.getInteger(THREADS_PROPERTY, 1);
+  }
+
+  /**
+   * Returns <code>true</code> if {@link DeadCodeElimination} should be run in
+   * parallel when optimizing to a fixed point.
+   */
+  public static boolean isDeadCodeEliminationEnabled() {
+    return isEnabled() && Boolean.getBoolean(DEAD_CODE_ELIMINATION_PROPERTY);
+  }
+
+  /**
+   * Returns <code>true</code> if optimizers should be run in parallel.
+   */
+  public static boolean isEnabled() {
+    return getThreadCount() > 1;
+  }
+
+  /**
+   * Runs independent tasks on the shared pool and returns their results in
+   * the order given. Passes outside this package use this to shard their own
+   * work.
+   */
+  public static <T> List<T> runAll(List<? extends Callable<T>> tasks) {
+    List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+    ExecutorService service = getExecutor();
+    for (Callable<T> task : tasks) {
+      futures.add(service.submit(task));
+    }
+    return awaitAll(futures);
+  }
+
+  /**
+   * Waits for every future, in submission order, so that results are merged
+   * deterministically.
+   */
+  static <T> List<T> awaitAll(List<Future<T>> futures) {
+    List<T> results = new ArrayList<T>(futures.size());
+    try {
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      throw new InternalCompilerException("Interrupted while running parallel optimizer", e);
+    } catch (ExecutionException e) {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new InternalCompilerException("Parallel optimizer failed", cause);
+    }
+    return results;
+  }
+
+  /**
+   * Returns the shared pool used by parallel passes. The pool is shared by all
+   * permutations compiled in this JVM and uses daemon threads so that it
+   * never prevents exit. Tasks run on it must not wait for other tasks run on
+   * it.
+   */
+  static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "ParallelOptimizer-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.javac.CompilationUnit;
+import com.google.gwt.dev.javac.CompiledClass;
+import com.google.gwt.dev.jjs.ast.Context;
+import com.google.gwt.dev.jjs.ast.JArrayType;
+import com.google.gwt.dev.jjs.ast.JClassLiteral;
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JField;
+import com.google.gwt.dev.jjs.ast.JFieldRef;
+import com.google.gwt.dev.jjs.ast.JInterfaceType;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JMethodCall;
+import com.google.gwt.dev.jjs.ast.JParameter;
+import com.google.gwt.dev.jjs.ast.JType;
+import com.google.gwt.dev.jjs.ast.JVisitor;
+import com.google.gwt.dev.util.Name.BinaryName;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Deserializes the ASTs of compilation units on a thread pool ahead of
+ * {@link UnifyAst}. Each unit is loaded and scanned for the external types it
+ * references on a worker thread; the units defining those types are then
+ * scheduled in turn, so that loading runs ahead of the single-threaded
+ * traversal.
+ *
+ * Only loading is concurrent. {@link UnifyAst} still links the loaded types
+ * into the program on its own thread and in its own order, so the unified
+ * program does not depend on the number of threads.
+ */
+class ParallelUnitLoader {
+
+  /**
+   * The types of a unit along with the binary names of the external types they
+   * reference.
+   */
+  private static class LoadedUnit {
+    final Set<String> references;
+    final List<JDeclaredType> types;
+
+    LoadedUnit(List<JDeclaredType> types, Set<String> references) {
+      this.types = types;
+      this.references = references;
+    }
+  }
+
+  /**
+   * Collects the names of the external types referenced by a unit.
+   */
+  private static class ReferenceCollector extends JVisitor {
+    final Set<String> references = new LinkedHashSet<String>();
+
+    @Override
+    public void endVisit(JClassLiteral x, Context ctx) {
+      addReference(x.getRefType());
+    }
+
+    @Override
+    public void endVisit(JField x, Context ctx) {
+      addReference(x.getType());
+    }
+
+    @Override
+    public void endVisit(JFieldRef x, Context ctx) {
+      addReference(x.getField().getEnclosingType());
+    }
+
+    @Override
+    public void endVisit(JMethodCall x, Context ctx) {
+      addReference(x.getTarget().getEnclosingType());
+    }
+
+    @Override
+    public void endVisit(JParameter x, Context ctx) {
+      addReference(x.getType());
+    }
+
+    @Override
+    public boolean visit(JDeclaredType x, Context ctx) {
+      addReference(x.getSuperClass());
+      for (JInterfaceType intf : x.getImplements()) {
+        addReference(intf);
+      }
+      return true;
+    }
+
+    @Override
+    public boolean visit(JMethod x, Context ctx) {
+      addReference(x.getType());
+      return true;
+    }
+
+    private void addReference(JType type) {
+      if (type instanceof JArrayType) {
+        type = ((JArrayType) type).getLeafType();
+      }
+      if (type instanceof JDeclaredType && ((JDeclaredType) type).isExternal()) {
+        references.add(type.getName());
+      }
+    }
+  }
+
+  /**
+   * Returns a loader that uses the pool of {@link ParallelOptimizer}, or
+   * <code>null</code> if units should be loaded on demand.
+   */
+  static ParallelUnitLoader create(Map<String, CompiledClass> classFileMap) {
+    return ParallelOptimizer.isEnabled() ? new ParallelUnitLoader(classFileMap) : null;
+  }
+
+  private final Map<String, CompiledClass> classFileMap;
+
+  private final Map<CompilationUnit, Future<LoadedUnit>> pending =
+      new IdentityHashMap<CompilationUnit, Future<LoadedUnit>>();
+
+  private ParallelUnitLoader(Map<String, CompiledClass> classFileMap) {
+    this.classFileMap = classFileMap;
+  }
+
+  /**
+   * Returns the types of a unit, waiting for it to be loaded if necessary, and
+   * schedules the units it references.
+   */
+  List<JDeclaredType> getTypes(CompilationUnit unit) {
+    prefetch(unit);
+    Future<LoadedUnit> future = pending.get(unit);
+    if (future == null) {
+      // Already handed out once; load a fresh copy, as on-demand loading would.
+      return unit.getTypes();
+    }
+    LoadedUnit loaded = ParallelOptimizer.awaitAll(Collections.singletonList(future)).get(0);
+    for (String typeName : loaded.references) {
+      CompiledClass cc = classFileMap.get(BinaryName.toInternalName(typeName));
+      if (cc != null) {
+        prefetch(cc.getUnit());
+      }
+    }
+    // Keep the entry, so the unit is never scheduled again, but drop the AST.
+    pending.put(unit, null);
+    return loaded.types;
+  }
+
+  /**
+   * Schedules a unit to be loaded, unless it already has been.
+   */
+  void prefetch(final CompilationUnit unit) {
+    if (unit.isError() || pending.containsKey(unit)) {
+      return;
+    }
+    pending.put(unit, ParallelOptimizer.getExecutor().submit(new Callable<LoadedUnit>() {
+      public LoadedUnit call() {
+        List<JDeclaredType> types = unit.getTypes();
+        ReferenceCollector collector = new ReferenceCollector();
+        collector.accept(types);
+        return new LoadedUnit(types, collector.references);
+      }
+    }));
+  }
+
+  /**
+   * Cancels the loads still pending and drops any units that were loaded but
+   * never needed. The shared pool keeps running.
+   */
+  void shutdown() {
+    for (Future<LoadedUnit> future : pending.values()) {
+      if (future != null) {
+        future.cancel(true);
+      }
+    }
+    pending.clear();
+  }
+}
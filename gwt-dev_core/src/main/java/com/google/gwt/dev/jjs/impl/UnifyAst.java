@@ -498,6 +498,12 @@ public class UnifyAst {
    */
   private final Set<JNode> liveFieldsAndMethods = new IdentityHashSet<JNode>();
 
+  /**
+   * Loads units ahead of the traversal, or <code>null</code> if units are
+   * loaded on demand.
+   */
+  private final ParallelUnitLoader loader;
+
   private TreeLogger logger;
   private Set<JMethod> magicMethodCalls = new IdentityHashSet<JMethod>();
   private final Map<String, JMethod> methodMap = new HashMap<String, JMethod>();
@@ -523,6 +529,7 @@ public class UnifyAst {
     this.rpo = rpo;
     this.classFileMap = rpo.getCompilationState().getClassFileMap();
     this.classFileMapBySource = rpo.getCompilationState().getClassFileMapBySource();
+    this.loader = ParallelUnitLoader.create(classFileMap);
   }
 
   public void addRootTypes(Collection<String> sourceTypeNames) throws UnableToCompleteException {
@@ -540,10 +547,16 @@ public class UnifyAst {
    */
   public void buildEverything(TreeLogger logger) throws UnableToCompleteException {
     this.logger = logger;
+    if (loader != null) {
+      for (CompiledClass cc : classFileMap.values()) {
+        loader.prefetch(cc.getUnit());
+      }
+    }
     for (String internalName : classFileMap.keySet()) {
       String typeName = InternalName.toBinaryName(internalName);
       searchForTypeByBinary(typeName);
     }
+    shutdownLoader();
 
     for (JDeclaredType type : program.getDeclaredTypes()) {
       instantiate(type);
@@ -625,6 +638,7 @@ public class UnifyAst {
     }
 
     mainLoop();
+    shutdownLoader();
 
     // Post-stitching clean-ups.
 
@@ -669,7 +683,7 @@ public class UnifyAst {
       return;
     }
     // TODO(zundel): ask for a recompile if deserialization fails?
-    List<JDeclaredType> types = unit.getTypes();
+    List<JDeclaredType> types = (loader == null) ? unit.getTypes() : loader.getTypes(unit);
     assert containsAllTypes(unit, types);
     for (JDeclaredType t : types) {
       program.addType(t);
@@ -989,6 +1003,16 @@ public class UnifyAst {
     return type;
   }
 
+  /**
+   * Stops loading units ahead of the traversal, once every unit that will be
+   * needed has been assimilated.
+   */
+  private void shutdownLoader() {
+    if (loader != null) {
+      loader.shutdown();
+    }
+  }
+
   private void staticInitialize(JDeclaredType type) {
     if (type.isExternal()) {
       assert errorsFound;
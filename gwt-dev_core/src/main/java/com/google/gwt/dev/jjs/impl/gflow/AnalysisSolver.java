@@ -19,10 +19,10 @@ import com.google.gwt.dev.jjs.impl.gflow.TransformationFunction.Transformation;
 import com.google.gwt.dev.util.Preconditions;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -35,6 +35,11 @@ import java.util.Map;
  * forward analysis benefits from forward direction, backwards - from the 
  * opposite.
  *
+ * An integrated analysis may be given a budget of flow function
+ * interpretations per graph node. A solver that runs out throws
+ * {@link BudgetExceededException} before applying any transformation, so the
+ * graph is left as it was.
+ *
  * @param <N> graph node type.
  * @param <E> graph edge type.
  * @param <T> graph transformer type.
@@ -43,6 +48,15 @@ import java.util.Map;
  */
 public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>, 
                             A extends Assumption<A>> {
+  /**
+   * Thrown when an analysis does not reach a fixed point within its budget.
+   */
+  public static class BudgetExceededException extends RuntimeException {
+    public BudgetExceededException(String message) {
+      super(message);
+    }
+  }
+
   /**
    * Adapter from IntegratedFlowFunction to FlowFunction. If integrated function
    * decides to perform transformation, replacement graph is recursively 
@@ -131,6 +145,52 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
     }
   }
   
+  /**
+   * Nodes waiting to be interpreted. Nodes are numbered in the solver's
+   * direction, and each pass takes them in that order, so a node is usually
+   * interpreted after all of its predecessors.
+   */
+  private static final class Worklist<N> {
+    private int cursor = 0;
+    private final Map<N, Integer> indices;
+    private final ArrayList<N> nodes;
+    private final BitSet pending;
+
+    private Worklist(ArrayList<N> nodes) {
+      this.nodes = nodes;
+      this.indices = new IdentityHashMap<N, Integer>(nodes.size());
+      for (int i = 0; i < nodes.size(); ++i) {
+        indices.put(nodes.get(i), i);
+      }
+      this.pending = new BitSet(nodes.size());
+      pending.set(0, nodes.size());
+    }
+
+    public void add(N node) {
+      Integer index = indices.get(node);
+      if (index == null) {
+        index = nodes.size();
+        indices.put(node, index);
+        nodes.add(node);
+      }
+      pending.set(index);
+    }
+
+    public boolean isEmpty() {
+      return pending.isEmpty();
+    }
+
+    public N remove() {
+      int index = pending.nextSetBit(cursor);
+      if (index < 0) {
+        index = pending.nextSetBit(0);
+      }
+      pending.clear(index);
+      cursor = index + 1;
+      return nodes.get(index);
+    }
+  }
+
   public static boolean debug = false;
 
   /**
@@ -162,6 +222,21 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
     return new AnalysisSolver<N, E, T, G, A>(forward).solveIntegrated(g, 
         analysis);
   }
+
+  /**
+   * Solve a integrated analysis, giving up once the flow function has been
+   * interpreted <code>stepsPerNode</code> times per node of <code>g</code>.
+   * 
+   * @throws BudgetExceededException if no fixed point was found within the
+   *           budget; <code>g</code> is unchanged in that case
+   */
+  public static <N, E, T, G extends Graph<N, E, T>, A extends Assumption<A>> 
+  boolean solveIntegrated(G g, IntegratedAnalysis<N, E, T, G, A> analysis, 
+      boolean forward, int stepsPerNode) {
+    AnalysisSolver<N, E, T, G, A> solver = new AnalysisSolver<N, E, T, G, A>(forward);
+    solver.remainingSteps = (long) stepsPerNode * Math.max(1, g.getNodes().size());
+    return solver.solveIntegrated(g, analysis);
+  }
   
   /**
    * If <code>true</code>, then we are moving forward. Moving backwards 
@@ -169,6 +244,12 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
    */
   private final boolean forward;
 
+  /**
+   * Flow function interpretations left before giving up, or <code>-1</code>
+   * for no limit. Shared by nested solutions of replacement subgraphs.
+   */
+  private long remainingSteps = -1;
+
   /**
    * @param forward <code>true</code> if solvers moves forward.
    */
@@ -237,14 +318,12 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
     return didChange;
   }
 
-  private LinkedHashSet<N> buildInitialWorklist(G g) {
+  private Worklist<N> buildInitialWorklist(G g) {
     ArrayList<N> nodes = new ArrayList<N>(g.getNodes());
-    LinkedHashSet<N> worklist = new LinkedHashSet<N>(nodes.size());
     if (!forward) {
       Collections.reverse(nodes);
     } 
-    worklist.addAll(nodes);
-    return worklist;
+    return new Worklist<N>(nodes);
   }
 
   @SuppressWarnings("unchecked")
@@ -347,14 +426,15 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
   private void solveImpl(final G graph, Analysis<N, E, G, A> analysis) {
     FlowFunction<N, E, G, A> flowFunction = analysis.getFlowFunction();
 
-    final LinkedHashSet<N> worklist = buildInitialWorklist(graph);
+    final Worklist<N> worklist = buildInitialWorklist(graph);
     resetEdgeData(graph);
     initGraphAssumptions(analysis, graph);
 
     while (!worklist.isEmpty()) {
-      Iterator<N> iterator = worklist.iterator();
-      final N node = iterator.next();
-      iterator.remove();
+      if (remainingSteps >= 0 && remainingSteps-- == 0) {
+        throw new BudgetExceededException("No fixed point within budget");
+      }
+      final N node = worklist.remove();
 
       flowFunction.interpret(node, graph, new AssumptionMap<E, A>() {
         public A getAssumption(E edge) {
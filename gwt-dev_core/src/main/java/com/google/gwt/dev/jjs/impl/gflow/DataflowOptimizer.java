@@ -24,6 +24,9 @@ import com.google.gwt.dev.jjs.ast.JNode;
 import com.google.gwt.dev.jjs.ast.JProgram;
 import com.google.gwt.dev.jjs.impl.DeadCodeElimination;
 import com.google.gwt.dev.jjs.impl.OptimizerStats;
+import com.google.gwt.dev.jjs.impl.ParallelOptimizer;
+import com.google.gwt.dev.jjs.impl.gflow.AnalysisSolver.BudgetExceededException;
+import com.google.gwt.dev.jjs.impl.gflow.TransformationFunction.Transformation;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.Cfg;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgBuilder;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgEdge;
@@ -38,83 +41,305 @@ import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 /**
+ * Runs the analyses of this package over each method body: unreachable code,
+ * constants and copy propagation forwards, then liveness backwards. Methods
+ * are analyzed independently, so they run concurrently when
+ * {@link ParallelOptimizer#isEnabled()}.
+ *
+ * Each pass may interpret the flow function a fixed number of times per CFG
+ * node, 100 unless {@value #BUDGET_PROPERTY} says otherwise. A method that
+ * needs more is left unchanged by that pass. The budget counts steps rather
+ * than time so that output does not depend on machine load.
  */
 public class DataflowOptimizer {
+  /**
+   * Wraps an analysis to count the transformations that changed the AST.
+   */
+  private static class CountingAnalysis<A extends Assumption<A>> implements
+      IntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, A> {
+    private int applied = 0;
+    private final IntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, A> analysis;
+    private final int slot;
+
+    public CountingAnalysis(int slot,
+        IntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, A> analysis) {
+      this.slot = slot;
+      this.analysis = analysis;
+    }
+
+    public IntegratedFlowFunction<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, A>
+    getIntegratedFlowFunction() {
+      final IntegratedFlowFunction<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, A> function =
+          analysis.getIntegratedFlowFunction();
+      return new IntegratedFlowFunction<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, A>() {
+        public Transformation<CfgTransformer, Cfg> interpretOrReplace(CfgNode<?> node,
+            Cfg graph, AssumptionMap<CfgEdge, A> assumptionMap) {
+          Transformation<CfgTransformer, Cfg> transformation =
+              function.interpretOrReplace(node, graph, assumptionMap);
+          return transformation == null ? null : count(transformation);
+        }
+      };
+    }
+
+    public void setInitialGraphAssumptions(Cfg graph, AssumptionMap<CfgEdge, A> assumptionMap) {
+      analysis.setInitialGraphAssumptions(graph, assumptionMap);
+    }
+
+    private Transformation<CfgTransformer, Cfg> count(
+        final Transformation<CfgTransformer, Cfg> transformation) {
+      return new Transformation<CfgTransformer, Cfg>() {
+        public CfgTransformer getGraphTransformer() {
+          final CfgTransformer actualizer = transformation.getGraphTransformer();
+          if (actualizer == null) {
+            return null;
+          }
+          return new CfgTransformer() {
+            public boolean transform(CfgNode<?> node, Cfg cfgGraph) {
+              boolean didChange = actualizer.transform(node, cfgGraph);
+              if (didChange) {
+                ++applied;
+              }
+              return didChange;
+            }
+          };
+        }
+
+        public Cfg getNewSubgraph() {
+          return transformation.getNewSubgraph();
+        }
+
+        @Override
+        public String toString() {
+          return transformation.toString();
+        }
+      };
+    }
+  }
+
+  /**
+   * What the analyses did to a single method.
+   */
+  private static class MethodResult {
+    final int[] applied = new int[ANALYSES.length];
+    final JMethod method;
+    long nanos;
+    int overBudget = 0;
+
+    MethodResult(JMethod method) {
+      this.method = method;
+    }
+
+    boolean didChange() {
+      for (int count : applied) {
+        if (count > 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * A Java system property giving the number of flow function
+   * interpretations each pass may spend per CFG node of a method. Values less
+   * than 1 remove the limit.
+   */
+  public static final String BUDGET_PROPERTY = "gwt.jjs.dataflowBudget";
+
   public static String NAME = DataflowOptimizer.class.getSimpleName();
-  
+
+  /**
+   * Names of the analyses, in the order they run.
+   */
+  private static final String[] ANALYSES = {
+      "Unreachable", "Constants", "Copy", "Liveness"};
+
+  private static final int CONSTANTS = 1;
+  private static final int COPY = 2;
+  private static final int DEFAULT_BUDGET = 100;
+  private static final int LIVENESS = 3;
+  private static final int UNREACHABLE = 0;
+
   public static OptimizerStats exec(JProgram jprogram, JNode node) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
-    OptimizerStats stats = new DataflowOptimizer(jprogram).execImpl(node);
-    optimizeEvent.end();
+    DataflowOptimizer optimizer = new DataflowOptimizer(jprogram);
+    OptimizerStats stats = optimizer.execImpl(node);
+    optimizeEvent.end("didChange", "" + stats.didChange(), "overBudget", ""
+        + optimizer.overBudget);
     return stats;
   }
 
   public static OptimizerStats exec(JProgram jprogram) {
+    if (ParallelOptimizer.isEnabled()) {
+      Event optimizeEvent =
+          SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME, "parallel",
+              "true");
+      DataflowOptimizer optimizer = new DataflowOptimizer(jprogram);
+      OptimizerStats stats = optimizer.execParallel();
+      optimizeEvent.end("didChange", "" + stats.didChange(), "overBudget", ""
+          + optimizer.overBudget);
+      return stats;
+    }
     return exec(jprogram, jprogram);
   }
 
+  private static <A extends Assumption<A>> CountingAnalysis<A> counting(int slot,
+      IntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, A> analysis) {
+    return new CountingAnalysis<A>(slot, analysis);
+  }
+
+  private final int budget;
+
+  private int overBudget = 0;
+
   private final JProgram program;
 
   public DataflowOptimizer(JProgram program) {
     this.program = program;
+    this.budget = Integer.getInteger(BUDGET_PROPERTY, DEFAULT_BUDGET);
   }
 
   private class DataflowOptimizerVisitor extends JModVisitor {
-    
+    private final List<MethodResult> results = new ArrayList<MethodResult>();
+
     @Override
     public boolean visit(JMethodBody methodBody, Context ctx) {
-      Cfg cfg = CfgBuilder.build(program, methodBody.getBlock());
-
-      JMethod method = methodBody.getMethod();
-      JDeclaredType enclosingType = method.getEnclosingType();
-      String methodName = enclosingType.getName() + "." + method.getName();
+      MethodResult result = optimize(methodBody);
+      results.add(result);
+      if (result.didChange()) {
+        madeChanges();
 
-      // AnalysisSolver.debug = methodName.equals("<some method>");
+        DeadCodeElimination.exec(program, methodBody);
+      }
+      return true;
+    }
+  }
 
-      Preconditions.checkNotNull(cfg, "Can't build flow for %s", methodName);
+  private OptimizerStats execImpl(JNode node) {
+    DataflowOptimizerVisitor visitor = new DataflowOptimizerVisitor();
+    visitor.accept(node);
+    return makeStats(visitor.results);
+  }
 
-      try {
-        CombinedIntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg>
-        fwdAnalysis = CombinedIntegratedAnalysis.createAnalysis();
+  /**
+   * Analyzes every method on the shared optimizer pool. A task only rewrites
+   * the body of its own method, so the result does not depend on scheduling.
+   */
+  private OptimizerStats execParallel() {
+    long start = System.nanoTime();
+    List<Callable<MethodResult>> tasks = new ArrayList<Callable<MethodResult>>();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      for (JMethod method : type.getMethods()) {
+        if (method.getBody() instanceof JMethodBody) {
+          final JMethodBody methodBody = (JMethodBody) method.getBody();
+          tasks.add(new Callable<MethodResult>() {
+            public MethodResult call() {
+              return optimize(methodBody);
+            }
+          });
+        }
+      }
+    }
 
-        fwdAnalysis.addAnalysis(new UnreachableAnalysis());
-        fwdAnalysis.addAnalysis(new ConstantsAnalysis());
-        fwdAnalysis.addAnalysis(new CopyAnalysis());
-        // fwdAnalysis.addAnalysis(new InlineVarAnalysis(program));
+    List<MethodResult> results = ParallelOptimizer.runAll(tasks);
+    List<JMethod> changedMethods = new ArrayList<JMethod>();
+    long workerNanos = 0;
+    for (MethodResult result : results) {
+      if (result.didChange()) {
+        changedMethods.add(result.method);
+      }
+      workerNanos += result.nanos;
+    }
+    // Clean up after the analyses once every method is done.
+    if (!changedMethods.isEmpty()) {
+      DeadCodeElimination.exec(program, changedMethods);
+    }
+    return makeStats(results).recordParallelTime(System.nanoTime() - start, workerNanos);
+  }
 
-        boolean madeChanges = false;
+  /**
+   * Reports each analysis as a child of the returned stats, so that its
+   * contribution shows up separately.
+   */
+  private OptimizerStats makeStats(List<MethodResult> results) {
+    int[] applied = new int[ANALYSES.length];
+    for (MethodResult result : results) {
+      for (int i = 0; i < applied.length; ++i) {
+        applied[i] += result.applied[i];
+      }
+      overBudget += result.overBudget;
+    }
+    OptimizerStats stats = new OptimizerStats(NAME);
+    for (int i = 0; i < applied.length; ++i) {
+      stats.add(new OptimizerStats(ANALYSES[i]).recordModified(applied[i]).recordVisits(
+          results.size()));
+    }
+    return stats;
+  }
 
-        madeChanges = AnalysisSolver.solveIntegrated(cfg, fwdAnalysis, true)
-            || madeChanges;
+  private MethodResult optimize(JMethodBody methodBody) {
+    long start = System.nanoTime();
+    JMethod method = methodBody.getMethod();
+    MethodResult result = new MethodResult(method);
 
-        cfg = CfgBuilder.build(program, methodBody.getBlock());
-        Preconditions.checkNotNull(cfg);
+    Cfg cfg = CfgBuilder.build(program, methodBody.getBlock());
 
-        CombinedIntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg>
-        bkwAnalysis = CombinedIntegratedAnalysis.createAnalysis();
+    JDeclaredType enclosingType = method.getEnclosingType();
+    String methodName = enclosingType.getName() + "." + method.getName();
 
-        bkwAnalysis.addAnalysis(new LivenessAnalysis());
+    // AnalysisSolver.debug = methodName.equals("<some method>");
 
-        madeChanges = AnalysisSolver.solveIntegrated(cfg, bkwAnalysis, false)
-            || madeChanges;
+    Preconditions.checkNotNull(cfg, "Can't build flow for %s", methodName);
 
-        if (madeChanges) {
-          madeChanges();
+    try {
+      // InlineVarAnalysis(program) is not enabled.
+      solve(cfg, true, result,
+          counting(UNREACHABLE, new UnreachableAnalysis()),
+          counting(CONSTANTS, new ConstantsAnalysis()),
+          counting(COPY, new CopyAnalysis()));
 
-          DeadCodeElimination.exec(program, methodBody);
-        }
-      } catch (Throwable t) {
-        throw new RuntimeException("Error optimizing: " + methodName, t);
-      }
+      cfg = CfgBuilder.build(program, methodBody.getBlock());
+      Preconditions.checkNotNull(cfg);
 
-      return true;
+      solve(cfg, false, result, counting(LIVENESS, new LivenessAnalysis()));
+    } catch (Throwable t) {
+      throw new RuntimeException("Error optimizing: " + methodName, t);
     }
+
+    result.nanos = System.nanoTime() - start;
+    return result;
   }
 
-  private OptimizerStats execImpl(JNode node) {
-    DataflowOptimizerVisitor visitor = new DataflowOptimizerVisitor();
-    visitor.accept(node);
-    return new OptimizerStats(NAME).recordModified(visitor.getNumMods());
+  /**
+   * Solves the given analyses together and records what each of them changed.
+   */
+  private void solve(Cfg cfg, boolean forward, MethodResult result,
+      CountingAnalysis<?>... analyses) {
+    CombinedIntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg>
+    combinedAnalysis = CombinedIntegratedAnalysis.createAnalysis();
+    for (CountingAnalysis<?> analysis : analyses) {
+      combinedAnalysis.addAnalysis(analysis);
+    }
+
+    try {
+      if (budget > 0) {
+        AnalysisSolver.solveIntegrated(cfg, combinedAnalysis, forward, budget);
+      } else {
+        AnalysisSolver.solveIntegrated(cfg, combinedAnalysis, forward);
+      }
+    } catch (BudgetExceededException e) {
+      // Nothing was transformed; leave this pass out for this method.
+      ++result.overBudget;
+      return;
+    }
+
+    for (CountingAnalysis<?> analysis : analyses) {
+      result.applied[analysis.slot] += analysis.applied;
+    }
   }
 }
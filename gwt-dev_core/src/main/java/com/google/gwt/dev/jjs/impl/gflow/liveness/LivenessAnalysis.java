@@ -24,6 +24,7 @@ import com.google.gwt.dev.jjs.impl.gflow.cfg.Cfg;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgEdge;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgNode;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgTransformer;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.LivenessAssumption.VariableIndex;
 
 /**
  * Analysis which detects when variable is not used after the assignment,
@@ -32,19 +33,23 @@ import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgTransformer;
 public class LivenessAnalysis implements Analysis<CfgNode<?>, CfgEdge, Cfg, 
     LivenessAssumption>, IntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, 
     Cfg, LivenessAssumption> {
-  private static final LivenessFlowFunction FLOW_FUNCTION = 
-    new LivenessFlowFunction();
-  private static final LivenessIntegratedFlowFunction INTEGRATED_FLOW_FUNCTION = 
-    new LivenessIntegratedFlowFunction();
+  /**
+   * Numbers the variables seen by this analysis. Each analysis is used for a
+   * single method, so its flow functions are not shared between threads.
+   */
+  private final VariableIndex index = new VariableIndex();
+  private final LivenessFlowFunction flowFunction = new LivenessFlowFunction(index);
+  private final LivenessIntegratedFlowFunction integratedFlowFunction = 
+    new LivenessIntegratedFlowFunction(flowFunction);
   
   public FlowFunction<CfgNode<?>, CfgEdge, Cfg, LivenessAssumption> getFlowFunction() {
-    return FLOW_FUNCTION;
+    return flowFunction;
   }
 
   public IntegratedFlowFunction<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, 
                                 LivenessAssumption> 
   getIntegratedFlowFunction() {
-    return INTEGRATED_FLOW_FUNCTION;
+    return integratedFlowFunction;
   }
 
   public void setInitialGraphAssumptions(Cfg graph,
@@ -17,17 +17,19 @@ package com.google.gwt.dev.jjs.impl.gflow.liveness;
 
 import com.google.gwt.dev.jjs.ast.JVariable;
 import com.google.gwt.dev.jjs.impl.gflow.Assumption;
-import com.google.gwt.dev.util.collect.IdentityHashSet;
+import com.google.gwt.dev.util.Preconditions;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 /**
  * Assumption for LivenessAnalysis. Contains set of all live (=used after) 
- * variables.
+ * variables, as a bit set over the variables of one {@link VariableIndex}.
  */
 public class LivenessAssumption implements Assumption<LivenessAssumption> {
   /**
@@ -36,9 +38,11 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
   public static class Updater {
     private LivenessAssumption assumption;
     private boolean copied = false;
+    private final VariableIndex index;
     
-    public Updater(LivenessAssumption assumption) {
+    public Updater(LivenessAssumption assumption, VariableIndex index) {
       this.assumption = assumption;
+      this.index = index;
     }
 
     public void kill(JVariable target) {
@@ -63,24 +67,66 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
 
     private void copyIfNeeded() {
       if (!copied) {
-        assumption = new LivenessAssumption(assumption);
+        assumption = new LivenessAssumption(index, assumption);
         copied = true;
       }
     }
   }
+
+  /**
+   * Numbers the variables of one analysis so that assumptions can be kept as
+   * bit sets. Every assumption joined together must share the same index.
+   */
+  public static class VariableIndex {
+    private final Map<JVariable, Integer> indices = new IdentityHashMap<JVariable, Integer>();
+    private final List<JVariable> variables = new ArrayList<JVariable>();
+
+    /**
+     * Returns the index of <code>variable</code>, or <code>-1</code> if it
+     * has never been used.
+     */
+    public int find(JVariable variable) {
+      Integer index = indices.get(variable);
+      return index == null ? -1 : index;
+    }
+
+    public JVariable get(int index) {
+      return variables.get(index);
+    }
+
+    /**
+     * Returns the index of <code>variable</code>, numbering it if needed.
+     */
+    public int indexOf(JVariable variable) {
+      Integer index = indices.get(variable);
+      if (index == null) {
+        index = variables.size();
+        indices.put(variable, index);
+        variables.add(variable);
+      }
+      return index;
+    }
+  }
   
+  private final VariableIndex index;
+
   /**
    * Set of all live variables.
    */
-  private final Set<JVariable> liveVariables = new IdentityHashSet<JVariable>();
+  private final BitSet liveVariables;
   
-  public LivenessAssumption() {
-    super();
+  public LivenessAssumption(VariableIndex index) {
+    this.index = index;
+    this.liveVariables = new BitSet();
   }
 
-  public LivenessAssumption(LivenessAssumption assumptions) {
+  public LivenessAssumption(VariableIndex index, LivenessAssumption assumptions) {
+    this.index = index;
     if (assumptions != null) {
-      this.liveVariables.addAll(assumptions.liveVariables);
+      Preconditions.checkArgument(assumptions.index == index);
+      this.liveVariables = (BitSet) assumptions.liveVariables.clone();
+    } else {
+      this.liveVariables = new BitSet();
     }
   }
 
@@ -105,7 +151,8 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
   }
 
   public boolean isLive(JVariable variable) {
-    return liveVariables.contains(variable);
+    int i = index.find(variable);
+    return i >= 0 && liveVariables.get(i);
   }
 
   /**
@@ -118,8 +165,9 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
     if (liveVariables.isEmpty()) {
       return value;
     }
-    LivenessAssumption result = new LivenessAssumption(this);
-    result.liveVariables.addAll(value.liveVariables);
+    LivenessAssumption result = new LivenessAssumption(index, this);
+    Preconditions.checkArgument(value.index == index);
+    result.liveVariables.or(value.liveVariables);
     return result;
   }
 
@@ -127,7 +175,10 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
     StringBuffer result = new StringBuffer();
     
     result.append("{");
-    List<JVariable> vars = new ArrayList<JVariable>(liveVariables);
+    List<JVariable> vars = new ArrayList<JVariable>();
+    for (int i = liveVariables.nextSetBit(0); i >= 0; i = liveVariables.nextSetBit(i + 1)) {
+      vars.add(index.get(i));
+    }
     Collections.sort(vars, new Comparator<JVariable>() {
       public int compare(JVariable o1, JVariable o2) {
         return o1.getName().compareTo(o2.getName());
@@ -150,10 +201,13 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
   }
 
   private void kill(JVariable variable) {
-    liveVariables.remove(variable);
+    int i = index.find(variable);
+    if (i >= 0) {
+      liveVariables.clear(i);
+    }
   }
 
   private void use(JVariable variable) {
-    liveVariables.add(variable);
+    liveVariables.set(index.indexOf(variable));
   }
 }
@@ -71,6 +71,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -147,6 +148,145 @@ public class JsInliner {
     }
   }
 
+  /**
+   * Indexes the whole program in a single pass. Besides the invocation counts,
+   * it records which outermost functions ("units") call each function, which
+   * functions are self-recursive, and which are redefined during program
+   * execution. The inliner keeps the counts and callers current as it rewrites
+   * call sites, which lets it revisit only the units affected by an inlining
+   * instead of sweeping the whole program again.
+   */
+  private static class CallGraphIndex extends InvocationCountingVisitor {
+    private final Map<JsFunction, Set<JsFunction>> callers =
+        new IdentityHashMap<JsFunction, Set<JsFunction>>();
+
+    /**
+     * The unit that code indexed outside of a full traversal belongs to.
+     */
+    private JsFunction currentUnit;
+    private final Stack<JsFunction> functionStack = new Stack<JsFunction>();
+    private final Map<JsName, JsFunction> nameMap = new IdentityHashMap<JsName, JsFunction>();
+    private final Set<JsFunction> recursive = new HashSet<JsFunction>();
+    private final Set<JsFunction> redefined = new HashSet<JsFunction>();
+    private int unitCount;
+
+    /**
+     * Look for assignments to JsNames whose static references are JsFunctions.
+     */
+    @Override
+    public void endVisit(JsBinaryOperation x, JsContext ctx) {
+      if (!x.getOperator().equals(JsBinaryOperator.ASG)) {
+        return;
+      }
+
+      JsFunction f = isFunction(x.getArg1());
+      if (f != null) {
+        redefined.add(f);
+      }
+    }
+
+    /**
+     * Look for the case where a function is declared with the same name as an
+     * existing function.
+     */
+    @Override
+    public void endVisit(JsFunction x, JsContext ctx) {
+      if (!functionStack.pop().equals(x)) {
+        throw new InternalCompilerException("Unexpected function popped");
+      }
+
+      JsName name = x.getName();
+      if (name == null) {
+        // Ignore anonymous functions
+        return;
+      } else if (nameMap.containsKey(name)) {
+        /*
+         * We have to add the current function as well as the original
+         * JsFunction that was declared to use that name.
+         */
+        redefined.add(nameMap.get(name));
+        redefined.add(x);
+      } else {
+        nameMap.put(name, x);
+      }
+    }
+
+    @Override
+    public void endVisit(JsInvocation x, JsContext ctx) {
+      super.endVisit(x, ctx);
+      JsFunction f = isFunction(x.getQualifier());
+      if (f == null) {
+        return;
+      }
+
+      /*
+       * Because functions can encapsulate other functions, we look at the
+       * entire stack and not just the top element. This would prevent inlining
+       * 
+       * function a() { function b() { a(); } b(); }
+       * 
+       * in the case that we generally allow nested functions to be inlinable.
+       * Mutually-recursive functions are not collected because inlining one of
+       * them into the other makes the result self-recursive.
+       */
+      if (functionStack.contains(f)) {
+        recursive.add(f);
+      }
+
+      // Stale callers are harmless; they only cause an extra revisit.
+      JsFunction unit = currentUnit;
+      if (unit == null && !functionStack.isEmpty()) {
+        unit = functionStack.get(0);
+      }
+      if (unit != null && !removingCounts) {
+        Set<JsFunction> unitCallers = callers.get(f);
+        if (unitCallers == null) {
+          // Insertion order keeps revisits deterministic.
+          unitCallers = new LinkedHashSet<JsFunction>();
+          callers.put(f, unitCallers);
+        }
+        unitCallers.add(unit);
+      }
+    }
+
+    /**
+     * Returns the units containing calls to <code>f</code>.
+     */
+    public Set<JsFunction> getCallers(JsFunction f) {
+      Set<JsFunction> unitCallers = callers.get(f);
+      return unitCallers == null ? Collections.<JsFunction> emptySet() : unitCallers;
+    }
+
+    public Collection<JsFunction> getRecursive() {
+      return recursive;
+    }
+
+    public Collection<JsFunction> getRedefined() {
+      return redefined;
+    }
+
+    public int getUnitCount() {
+      return unitCount;
+    }
+
+    /**
+     * Sets the unit that calls found by subsequent calls to {@link #accept}
+     * on detached code are attributed to.
+     */
+    public void setCurrentUnit(JsFunction unit) {
+      currentUnit = unit;
+    }
+
+    @Override
+    public boolean visit(JsFunction x, JsContext ctx) {
+      if (functionStack.isEmpty()) {
+        unitCount++;
+      }
+      functionStack.push(x);
+      return true;
+    }
+  }
+
   /**
    * Make comma binary operations left-nested since commas are naturally
    * left-associative. We will define the comma-normal form such that a comma
@@ -842,6 +982,11 @@ public class JsInliner {
    * statements if the context of the invocation would allow this.
    */
   private static class InliningVisitor extends JsModVisitor {
+    /**
+     * Units that may have new inlining opportunities because of inlinings done
+     * since the last call to {@link #takeAffectedUnits()}.
+     */
+    private final Set<JsFunction> affectedUnits = new LinkedHashSet<JsFunction>();
     private final Set<JsFunction> blacklist = new HashSet<JsFunction>();
     /**
      * This reflects the functions that are currently being inlined to prevent
@@ -852,7 +997,7 @@ public class JsInliner {
      * This reflects which function the visitor is currently visiting.
      */
     private final Stack<JsFunction> functionStack = new Stack<JsFunction>();
-    private final InvocationCountingVisitor invocationCountingVisitor = new InvocationCountingVisitor();
+    private final CallGraphIndex index;
     private final Stack<List<JsName>> newLocalVariableStack = new Stack<List<JsName>>();
 
     /**
@@ -866,8 +1011,8 @@ public class JsInliner {
      */
     private JsFunction programFunction;
 
-    public InliningVisitor(JsProgram program) {
-      invocationCountingVisitor.accept(program);
+    public InliningVisitor(CallGraphIndex index) {
+      this.index = index;
     }
 
     /**
@@ -1113,11 +1258,59 @@ public class JsInliner {
       }
     }
 
+    /**
+     * Visits a single unit again, after {@link #accept} has visited the whole
+     * program.
+     */
+    public void revisit(JsFunction unit) {
+      assert programFunction != null;
+      functionStack.push(programFunction);
+      newLocalVariableStack.push(new ArrayList<JsName>());
+      accept(unit);
+      newLocalVariableStack.pop();
+      functionStack.pop();
+    }
+
+    /**
+     * Returns and forgets the units affected by inlinings done so far.
+     */
+    public List<JsFunction> takeAffectedUnits() {
+      List<JsFunction> toReturn = new ArrayList<JsFunction>(affectedUnits);
+      affectedUnits.clear();
+      return toReturn;
+    }
+
+    /**
+     * Returns the outermost function being visited, or <code>null</code> for
+     * top-level code.
+     */
+    private JsFunction currentUnit() {
+      return functionStack.size() > 1 ? functionStack.get(1) : null;
+    }
+
     private boolean isInvokedMoreThanOnce(JsFunction f) {
-      Integer count = invocationCountingVisitor.invocationCount(f);
+      Integer count = index.invocationCount(f);
       return count == null || count > 1;
     }
 
+    /**
+     * Records the units that should be revisited after
+     * <code>invokedFunction</code> was inlined into the current unit.
+     */
+    private void recordAffectedUnits(JsFunction invokedFunction) {
+      JsFunction unit = currentUnit();
+      if (unit != null) {
+        // Callers that declined to inline this unit now see a different body.
+        affectedUnits.addAll(index.getCallers(unit));
+      }
+      Integer count = index.invocationCount(invokedFunction);
+      if (count != null && count == 1) {
+        // The remaining call site is inlined regardless of complexity.
+        affectedUnits.addAll(index.getCallers(invokedFunction));
+      }
+      affectedUnits.remove(unit);
+    }
+
     /**
      * Determine if <code>invokedFunction</code> can be inlined into
      * <code>callerFunction</code> at callsite <code>x</code>.
@@ -1286,8 +1479,11 @@ public class JsInliner {
       newLocalVariableStack.peek().addAll(hoistedNames);
 
       // update invocation counts according to this inlining
-      invocationCountingVisitor.removeCountsFor(x);
-      invocationCountingVisitor.accept(op);
+      index.setCurrentUnit(currentUnit());
+      index.removeCountsFor(x);
+      index.accept(op);
+      index.setCurrentUnit(null);
+      recordAffectedUnits(invokedFunction);
       return op;
     }
   }
@@ -1298,7 +1494,7 @@ public class JsInliner {
    * complexity.
    */
   private static class InvocationCountingVisitor extends JsVisitor {
-    private boolean removingCounts = false;
+    protected boolean removingCounts = false;
     private final Map<JsFunction, Integer> invocationCount = new IdentityHashMap<JsFunction, Integer>();
 
     @Override
@@ -1505,105 +1701,6 @@ public class JsInliner {
     }
   }
 
-  /**
-   * Collect self-recursive functions. This visitor does not look for
-   * mutually-recursive functions because inlining one of the functions into the
-   * other would make the single resultant function self-recursive and not
-   * eligible for inlining in a subsequent pass.
-   */
-  private static class RecursionCollector extends JsVisitor {
-    private final Stack<JsFunction> functionStack = new Stack<JsFunction>();
-    private final Set<JsFunction> recursive = new HashSet<JsFunction>();
-
-    @Override
-    public void endVisit(JsFunction x, JsContext ctx) {
-      if (!functionStack.pop().equals(x)) {
-        throw new InternalCompilerException("Unexpected function popped");
-      }
-    }
-
-    @Override
-    public void endVisit(JsInvocation x, JsContext ctx) {
-      /*
-       * Because functions can encapsulate other functions, we look at the
-       * entire stack and not just the top element. This would prevent inlining
-       * 
-       * function a() { function b() { a(); } b(); }
-       * 
-       * in the case that we generally allow nested functions to be inlinable.
-       */
-      JsFunction f = isFunction(x.getQualifier());
-      if (functionStack.contains(f)) {
-        recursive.add(f);
-      }
-    }
-
-    public Set<JsFunction> getRecursive() {
-      return recursive;
-    }
-
-    @Override
-    public boolean visit(JsFunction x, JsContext ctx) {
-      functionStack.push(x);
-      return true;
-    }
-  }
-
-  /**
-   * Determine which functions should not be inlined because they are redefined
-   * during program execution. This would violate the assumption that the
-   * statements to be executed by any given function invocation are stable over
-   * the lifetime of the program.
-   */
-  private static class RedefinedFunctionCollector extends JsVisitor {
-    private final Map<JsName, JsFunction> nameMap = new IdentityHashMap<JsName, JsFunction>();
-    private final Set<JsFunction> redefined = new HashSet<JsFunction>();
-
-    /**
-     * Look for assignments to JsNames whose static references are JsFunctions.
-     */
-    @Override
-    public void endVisit(JsBinaryOperation x, JsContext ctx) {
-
-      if (!x.getOperator().equals(JsBinaryOperator.ASG)) {
-        return;
-      }
-
-      JsFunction f = isFunction(x.getArg1());
-      if (f != null) {
-        redefined.add(f);
-      }
-    }
-
-    /**
-     * Look for the case where a function is declared with the same name as an
-     * existing function.
-     */
-    @Override
-    public void endVisit(JsFunction x, JsContext ctx) {
-      JsName name = x.getName();
-
-      if (name == null) {
-        // Ignore anonymous functions
-        return;
-
-      } else if (nameMap.containsKey(name)) {
-        /*
-         * We have to add the current function as well as the original
-         * JsFunction that was declared to use that name.
-         */
-        redefined.add(nameMap.get(name));
-        redefined.add(x);
-      } else {
-        nameMap.put(name, x);
-      }
-    }
-
-    public Collection<JsFunction> getRedefined() {
-      return redefined;
-    }
-  }
-
   /**
    * Given a collection of JsNames, determine if an AST node refers to any of
    * those names.
@@ -1702,7 +1799,7 @@ public class JsInliner {
   public static OptimizerStats exec(JsProgram program) {
     Event optimizeJsEvent = SpeedTracerLogger.start(
         CompilerEventType.OPTIMIZE_JS, "optimizer", NAME);
-    OptimizerStats stats = execImpl(program);
+    OptimizerStats stats = execImpl(program, null);
     optimizeJsEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
@@ -1747,20 +1844,40 @@ public class JsInliner {
 
   /**
    * @param program
+   * @param revisited if not <code>null</code>, receives each unit visited
+   *          again after the first sweep, in order
    * @return stats
    */
-  private static OptimizerStats execImpl(JsProgram program) {
+  static OptimizerStats execImpl(JsProgram program, List<JsFunction> revisited) {
     OptimizerStats stats = new OptimizerStats(NAME);
-    RedefinedFunctionCollector d = new RedefinedFunctionCollector();
-    d.accept(program);
+    CallGraphIndex index = new CallGraphIndex();
+    index.accept(program);
 
-    RecursionCollector rc = new RecursionCollector();
-    rc.accept(program);
-
-    InliningVisitor v = new InliningVisitor(program);
-    v.blacklist(d.getRedefined());
-    v.blacklist(rc.getRecursive());
+    InliningVisitor v = new InliningVisitor(index);
+    v.blacklist(index.getRedefined());
+    v.blacklist(index.getRecursive());
     v.accept(program);
+
+    /*
+     * An inlining can make other call sites inlinable, for example by leaving
+     * a function with a single caller. Rather than leaving those to another
+     * sweep of the whole program, revisit just the units that call into what
+     * changed. The budget bounds the extra work to about one more sweep.
+     */
+    int budget = index.getUnitCount();
+    List<JsFunction> worklist = v.takeAffectedUnits();
+    while (!worklist.isEmpty() && budget > 0) {
+      for (JsFunction unit : worklist) {
+        if (budget-- == 0) {
+          break;
+        }
+        v.revisit(unit);
+        if (revisited != null) {
+          revisited.add(unit);
+        }
+      }
+      worklist = v.takeAffectedUnits();
+    }
     if (v.didChange()) {
       stats.recordModified();
     }
@@ -28,7 +28,8 @@ import com.google.gwt.dev.js.ast.JsScope;
 import com.google.gwt.dev.js.ast.JsVars;
 import com.google.gwt.dev.js.ast.JsVisitor;
 
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -36,8 +37,12 @@ import java.util.Set;
  */
 public abstract class JsNamer {
 
-  private static Set<JsName> collectReferencedNames(JsProgram program) {
-    final Set<JsName> referenced = new HashSet<JsName>();
+  /**
+   * Counts every occurrence of each name across the whole program, including
+   * all fragments.
+   */
+  private static Map<JsName, Integer> countReferences(JsProgram program) {
+    final Map<JsName, Integer> counts = new HashMap<JsName, Integer>();
     new JsVisitor() {
       @Override
       public void endVisit(JsForIn x, JsContext ctx) {
@@ -76,20 +81,24 @@ public abstract class JsNamer {
 
       private void reference(JsName name) {
         if (name != null) {
-          referenced.add(name);
+          Integer count = counts.get(name);
+          counts.put(name, count == null ? 1 : count + 1);
         }
       }
     }.accept(program);
-    return referenced;
+    return counts;
   }
 
   protected final JsProgram program;
 
   protected final Set<JsName> referenced;
 
+  private final Map<JsName, Integer> referenceCounts;
+
   public JsNamer(JsProgram program) {
     this.program = program;
-    referenced = collectReferencedNames(program);
+    referenceCounts = countReferences(program);
+    referenced = referenceCounts.keySet();
   }
 
   protected final void execImpl() {
@@ -99,6 +108,14 @@ public abstract class JsNamer {
     visit(program.getObjectScope());
   }
 
+  /**
+   * Returns how many times <code>name</code> occurs in the program.
+   */
+  protected final int getReferenceCount(JsName name) {
+    Integer count = referenceCounts.get(name);
+    return count == null ? 0 : count;
+  }
+
   protected abstract void reset();
 
   protected abstract void visit(JsScope scope);
@@ -15,18 +15,40 @@
  */
 package com.google.gwt.dev.js;
 
+import com.google.gwt.dev.jjs.impl.ParallelOptimizer;
 import com.google.gwt.dev.js.ast.JsName;
 import com.google.gwt.dev.js.ast.JsProgram;
 import com.google.gwt.dev.js.ast.JsScope;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * A namer that uses short, unrecognizable idents to minimize generated code
  * size.
+ *
+ * <p>
+ * Each scope hands out ids starting above the largest id used by any of its
+ * children, so a name can never be shadowed by one declared in a nested scope.
+ * When {@value #FREQUENCY_PROPERTY} is set, the names of each scope are handed
+ * out in order of how often they occur in the whole program, so the hottest
+ * names get the shortest idents. Since sibling scopes do not affect one
+ * another, the function scopes directly under a top-level scope are named in
+ * parallel when {@link ParallelOptimizer#isEnabled()}.
+ * </p>
  */
 public class JsObfuscateNamer extends JsNamer {
 
+  /**
+   * A system property that, when <code>true</code>, gives the most-referenced
+   * names of each scope the shortest idents.
+   */
+  public static final String FREQUENCY_PROPERTY = "gwt.jjs.obfuscateByFrequency";
+
   /**
    * A lookup table of base-64 chars we use to encode idents.
    */
@@ -38,45 +60,109 @@ public class JsObfuscateNamer extends JsNamer {
       '2', '3', '4', '5', '6', '7', '8', '9'};
 
   public static void exec(JsProgram program) {
-    new JsObfuscateNamer(program).execImpl();
+    new JsObfuscateNamer(program, Boolean.getBoolean(FREQUENCY_PROPERTY),
+        ParallelOptimizer.isEnabled()).execImpl();
   }
 
-  /**
-   * Communicates to a parent scope the maximum id used by any of its children.
-   */
-  private int maxChildId = 0;
+  private static boolean isLegal(JsScope scope, String newIdent) {
+    if (JsKeywords.isKeyword(newIdent)) {
+      return false;
+    }
+    /*
+     * Never obfuscate a name into an identifier that conflicts with an existing
+     * unobfuscatable name! It's okay if it conflicts with an existing
+     * obfuscatable name, since that name will get obfuscated to something else
+     * anyway.
+     */
+    return (scope.findExistingUnobfuscatableName(newIdent) == null);
+  }
+
+  private static String makeObfuscatedIdent(int id) {
+    // A buffer big enough to hold at least 32 bits worth of base-64 chars.
+    char[] identBuf = new char[6];
+
+    // Use base-54 for the first character of the identifier,
+    // so that we don't use any numbers (which are illegal at
+    // the beginning of an identifier).
+    //
+    int i = 0;
+    identBuf[i++] = sBase64Chars[id % 54];
+    id /= 54;
+
+    // Use base-64 for the rest of the identifier.
+    //
+    while (id != 0) {
+      identBuf[i++] = sBase64Chars[id & 0x3f];
+      id >>= 6;
+    }
+
+    return new String(identBuf, 0, i);
+  }
+
+  private final boolean byFrequency;
 
   /**
-   * A temp buffer big enough to hold at least 32 bits worth of base-64 chars.
+   * Orders names by descending reference count.
    */
-  private final char[] sIdentBuf = new char[6];
+  private final Comparator<JsName> mostReferencedFirst = new Comparator<JsName>() {
+    public int compare(JsName a, JsName b) {
+      int countA = getReferenceCount(a);
+      int countB = getReferenceCount(b);
+      return countA > countB ? -1 : (countA == countB ? 0 : 1);
+    }
+  };
+
+  private final boolean parallel;
 
   public JsObfuscateNamer(JsProgram program) {
+    this(program, false, false);
+  }
+
+  public JsObfuscateNamer(JsProgram program, boolean byFrequency, boolean parallel) {
     super(program);
+    this.byFrequency = byFrequency;
+    this.parallel = parallel;
   }
 
   @Override
   protected void reset() {
-    maxChildId = 0;
   }
 
   @Override
   protected void visit(JsScope scope) {
-    // Save off the maxChildId which is currently being computed for my parent.
-    int mySiblingsMaxId = maxChildId;
+    int maxChildId;
+    List<JsScope> children = scope.getChildren();
+    if (parallel && children.size() > 1) {
+      maxChildId = nameInParallel(children);
+    } else {
+      maxChildId = nameChildren(children);
+    }
+    nameIdents(scope, maxChildId);
+  }
 
-    /*
-     * Visit my children first. Reset maxChildId so that my children will get a
-     * clean slate: I do not communicate to my children.
-     */
-    maxChildId = 0;
-    for (JsScope child : scope.getChildren()) {
-      visit(child);
+  /**
+   * Names the idents of the given scopes and all of their descendants, and
+   * returns the maximum id used by any of them.
+   */
+  private int nameChildren(List<JsScope> children) {
+    int maxChildId = 0;
+    for (JsScope child : children) {
+      /*
+       * Visit my children first. Each child gets a clean slate: I do not
+       * communicate to my children.
+       */
+      int childMaxId = nameIdents(child, nameChildren(child.getChildren()));
+      maxChildId = Math.max(maxChildId, childMaxId);
     }
-    // maxChildId is now the max of all of my children's ids
+    return maxChildId;
+  }
 
-    // Visit my idents.
-    int curId = maxChildId;
+  /**
+   * Names the idents declared directly in <code>scope</code> using ids above
+   * <code>firstId</code>, and returns the next unused id.
+   */
+  private int nameIdents(JsScope scope, int firstId) {
+    List<JsName> names = new ArrayList<JsName>();
     for (Iterator<JsName> it = scope.getAllNames(); it.hasNext();) {
       JsName name = it.next();
       if (!referenced.contains(name)) {
@@ -89,7 +175,16 @@ public class JsObfuscateNamer extends JsNamer {
         name.setShortIdent(name.getIdent());
         continue;
       }
+      names.add(name);
+    }
 
+    if (byFrequency) {
+      // Stable, so equally common names keep their declaration order.
+      Collections.sort(names, mostReferencedFirst);
+    }
+
+    int curId = firstId;
+    for (JsName name : names) {
       String newIdent;
       while (true) {
         // Get the next possible obfuscated name
@@ -100,39 +195,28 @@ public class JsObfuscateNamer extends JsNamer {
       }
       name.setShortIdent(newIdent);
     }
-
-    maxChildId = Math.max(mySiblingsMaxId, curId);
+    return curId;
   }
 
-  private boolean isLegal(JsScope scope, String newIdent) {
-    if (JsKeywords.isKeyword(newIdent)) {
-      return false;
+  /**
+   * Like {@link #nameChildren(List)}, but names each child subtree on the
+   * shared pool. Sibling subtrees only read their enclosing scopes and write
+   * the names they declare, so the result does not depend on scheduling.
+   */
+  private int nameInParallel(List<JsScope> children) {
+    List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(children.size());
+    for (final JsScope child : children) {
+      tasks.add(new Callable<Integer>() {
+        public Integer call() {
+          return nameChildren(Collections.singletonList(child));
+        }
+      });
     }
-    /*
-     * Never obfuscate a name into an identifier that conflicts with an existing
-     * unobfuscatable name! It's okay if it conflicts with an existing
-     * obfuscatable name, since that name will get obfuscated to something else
-     * anyway.
-     */
-    return (scope.findExistingUnobfuscatableName(newIdent) == null);
-  }
-
-  private String makeObfuscatedIdent(int id) {
-    // Use base-54 for the first character of the identifier,
-    // so that we don't use any numbers (which are illegal at
-    // the beginning of an identifier).
-    //
-    int i = 0;
-    sIdentBuf[i++] = sBase64Chars[id % 54];
-    id /= 54;
 
-    // Use base-64 for the rest of the identifier.
-    //
-    while (id != 0) {
-      sIdentBuf[i++] = sBase64Chars[id & 0x3f];
-      id >>= 6;
+    int maxChildId = 0;
+    for (int childMaxId : ParallelOptimizer.runAll(tasks)) {
+      maxChildId = Math.max(maxChildId, childMaxId);
     }
-
-    return new String(sIdentBuf, 0, i);
+    return maxChildId;
   }
 }
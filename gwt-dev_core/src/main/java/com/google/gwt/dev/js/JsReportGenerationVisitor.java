@@ -16,6 +16,7 @@
 package com.google.gwt.dev.js;
 
 import com.google.gwt.core.ext.soyc.Range;
+import com.google.gwt.core.ext.soyc.impl.SourceMapBuilder;
 import com.google.gwt.dev.jjs.HasSourceInfo;
 import com.google.gwt.dev.jjs.SourceInfo;
 import com.google.gwt.dev.jjs.impl.JavaToJavaScriptMap;
@@ -30,16 +31,31 @@ import java.util.Map;
 
 /**
  * A variation on the standard source generation visitor that records the
- * locations of SourceInfo objects in the output.
+ * locations of SourceInfo objects in the output. The locations may be kept as
+ * a map of ranges, streamed into a source map as they are found, or both.
  */
 public class JsReportGenerationVisitor extends
     JsSourceGenerationVisitorWithSizeBreakdown {
-  private final Map<Range, SourceInfo> sourceInfoMap = new HashMap<Range, SourceInfo>();
+  private final Map<Range, SourceInfo> sourceInfoMap;
+  private final SourceMapBuilder sourceMapBuilder;
   private final TextOutput out;
 
   public JsReportGenerationVisitor(TextOutput out, JavaToJavaScriptMap map) {
+    this(out, map, true, null);
+  }
+
+  /**
+   * @param recordRanges whether to keep the map returned by
+   *          {@link #getSourceInfoMap()}
+   * @param sourceMapBuilder receives the mappings as the output is generated,
+   *          or <code>null</code>
+   */
+  public JsReportGenerationVisitor(TextOutput out, JavaToJavaScriptMap map,
+      boolean recordRanges, SourceMapBuilder sourceMapBuilder) {
     super(out, map);
     this.out = out;
+    this.sourceInfoMap = recordRanges ? new HashMap<Range, SourceInfo>() : null;
+    this.sourceMapBuilder = sourceMapBuilder;
   }
 
   @Override
@@ -54,20 +70,31 @@ public class JsReportGenerationVisitor extends
     int beforeLine = out.getLine();
     int beforeColumn = out.getColumn();
 
+    SourceInfo target = ((HasSourceInfo) node).getSourceInfo();
+    boolean mapped = sourceMapBuilder != null
+        && sourceMapBuilder.enter(target, beforeLine, beforeColumn);
+
     // Write some JavaScript (changing the position).
     T toReturn = super.generateAndBill(node, nameToBillTo);
 
-    Range javaScriptRange = new Range(beforePosition, out.getPosition(),
-        beforeLine, beforeColumn, out.getLine(), out.getColumn());
+    if (mapped) {
+      sourceMapBuilder.exit(out.getLine(), out.getColumn());
+    }
 
-    SourceInfo target = ((HasSourceInfo) node).getSourceInfo();
-    sourceInfoMap.put(javaScriptRange, target);
+    if (sourceInfoMap != null) {
+      Range javaScriptRange = new Range(beforePosition, out.getPosition(),
+          beforeLine, beforeColumn, out.getLine(), out.getColumn());
+      sourceInfoMap.put(javaScriptRange, target);
+    }
 
     return toReturn;
   }
 
   @Override
   public Map<Range, SourceInfo> getSourceInfoMap() {
+    if (sourceInfoMap == null) {
+      return null;
+    }
     return Collections.unmodifiableMap(sourceInfoMap);
   }
 
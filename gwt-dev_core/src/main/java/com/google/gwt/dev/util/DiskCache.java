@@ -25,6 +25,8 @@ import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A nifty class that lets you squirrel away data on the file system. Write
@@ -32,8 +34,9 @@ import java.util.List;
  * synchronization.
  * 
  * Note that in the current implementation, the backing temp file will get
- * arbitrarily large as you continue adding things to it. There is no internal
- * GC or compaction.
+ * arbitrarily large as you continue adding things to it, unless callers
+ * {@link #free(long) free} data they no longer need. Freed space is reused by
+ * later writes and trimmed from the end of the file; there is no compaction.
  */
 public class DiskCache {
   /**
@@ -71,6 +74,12 @@ public class DiskCache {
   private boolean atEnd = true;
   private RandomAccessFile file;
 
+  /**
+   * Freed regions of the file that are not at its end, as lengths keyed by
+   * offset. Adjacent regions are always merged.
+   */
+  private final TreeMap<Long, Long> freeRegions = new TreeMap<Long, Long>();
+
   DiskCache() {
     try {
       File temp = File.createTempFile("gwt", "byte-cache");
@@ -87,6 +96,23 @@ public class DiskCache {
     }
   }
 
+  /**
+   * Releases the space used by previously written data. The token must not be
+   * used again.
+   * 
+   * @param token a previously returned token
+   */
+  public synchronized void free(long token) {
+    try {
+      atEnd = false;
+      file.seek(token);
+      int length = file.readInt();
+      release(token, 4L + length);
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to free space in byte cache", e);
+    }
+  }
+
   /**
    * Retrieve the underlying bytes.
    * 
@@ -166,7 +192,7 @@ public class DiskCache {
       file.writeInt(length);
       // Don't eagerly seek the end, the next operation might be a read.
       atEnd = false;
-      return position;
+      return moveIntoFreeRegion(position, 4L + length, buf);
     } catch (IOException e) {
       throw new RuntimeException("Unable to read from byte cache", e);
     } finally {
@@ -211,7 +237,7 @@ public class DiskCache {
    */
   public synchronized long writeByteArray(byte[] bytes) {
     try {
-      long position = moveToEndPosition();
+      long position = allocate(4L + bytes.length);
       file.writeInt(bytes.length);
       file.write(bytes);
       return position;
@@ -257,6 +283,88 @@ public class DiskCache {
     }
   }
 
+  /**
+   * Seeks to the start of a free region that fits <code>size</code> bytes,
+   * or to the end of the file if there is none, and returns its offset. Caller
+   * must synchronize.
+   */
+  private long allocate(long size) throws IOException {
+    Long position = takeFreeRegion(size);
+    if (position == null) {
+      return moveToEndPosition();
+    }
+    atEnd = false;
+    file.seek(position);
+    return position;
+  }
+
+  /**
+   * Copies data that was just appended at <code>position</code> into an
+   * earlier free region that fits it, if there is one, and returns the data's
+   * final offset. Caller must synchronize.
+   */
+  private long moveIntoFreeRegion(long position, long size, byte[] buf) throws IOException {
+    Long target = takeFreeRegion(size);
+    if (target == null) {
+      return position;
+    }
+    for (long copied = 0; copied < size;) {
+      int chunk = (int) Math.min(buf.length, size - copied);
+      file.seek(position + copied);
+      file.readFully(buf, 0, chunk);
+      file.seek(target + copied);
+      file.write(buf, 0, chunk);
+      copied += chunk;
+    }
+    atEnd = false;
+    release(position, size);
+    return target;
+  }
+
+  /**
+   * Marks a region of the file as free, merging it with its free neighbors,
+   * and truncates the file if the region ends up at its end. Caller must
+   * synchronize.
+   */
+  private void release(long position, long size) throws IOException {
+    Map.Entry<Long, Long> before = freeRegions.floorEntry(position);
+    if (before != null && before.getKey() + before.getValue() == position) {
+      freeRegions.remove(before.getKey());
+      position = before.getKey();
+      size += before.getValue();
+    }
+    Long after = freeRegions.remove(position + size);
+    if (after != null) {
+      size += after;
+    }
+    if (position + size == file.length()) {
+      file.setLength(position);
+      atEnd = false;
+    } else {
+      freeRegions.put(position, size);
+    }
+  }
+
+  /**
+   * Removes the first free region that fits <code>size</code> bytes, keeping
+   * any remainder free, and returns its offset, or <code>null</code> if none
+   * fits. Caller must synchronize.
+   */
+  private Long takeFreeRegion(long size) {
+    for (Map.Entry<Long, Long> region : freeRegions.entrySet()) {
+      if (region.getValue() >= size) {
+        long position = region.getKey();
+        long remainder = region.getValue() - size;
+        freeRegions.remove(position);
+        if (remainder > 0) {
+          freeRegions.put(position + size, remainder);
+        }
+        return position;
+      }
+    }
+    return null;
+  }
+
   /**
    * Moves to the end of the file if necessary and returns the offset position.
    * Caller must synchronize.
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+/**
+ * An {@link ObjectInputStream} that passes every String it reads through
+ * {@link StringInterner}. Several copies of the same object graph read this
+ * way share their names and literals instead of each holding their own.
+ */
+public class InterningObjectInputStream extends ObjectInputStream {
+
+  /**
+   * Deserializes an object from <code>bytes</code>, interning its Strings.
+   */
+  public static <T> T readObject(byte[] bytes, Class<T> type) throws IOException,
+      ClassNotFoundException {
+    InterningObjectInputStream in = new InterningObjectInputStream(new ByteArrayInputStream(bytes));
+    try {
+      return type.cast(in.readObject());
+    } finally {
+      in.close();
+    }
+  }
+
+  private final StringInterner interner = StringInterner.get();
+
+  public InterningObjectInputStream(InputStream in) throws IOException {
+    super(in);
+    enableResolveObject(true);
+  }
+
+  @Override
+  protected Object resolveObject(Object obj) throws IOException {
+    if (obj instanceof String) {
+      return interner.intern((String) obj);
+    }
+    return obj;
+  }
+}
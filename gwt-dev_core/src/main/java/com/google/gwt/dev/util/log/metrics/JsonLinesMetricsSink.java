@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util.log.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes each {@link PhaseMetrics} record as a single line of JSON. Every line
+ * is flushed as soon as it is written so that several compiler processes can
+ * append to the same file.
+ */
+public class JsonLinesMetricsSink implements MetricsSink {
+
+  private static final Logger log = Logger.getLogger(JsonLinesMetricsSink.class.getName());
+
+  private boolean failed;
+  private final Writer writer;
+
+  public JsonLinesMetricsSink(Writer writer) {
+    this.writer = writer;
+  }
+
+  public synchronized void record(PhaseMetrics metrics) {
+    if (failed) {
+      return;
+    }
+    try {
+      // Build the whole line first so that it reaches the file in one write.
+      StringWriter line = new StringWriter();
+      metrics.toJson().write(line);
+      line.write('\n');
+      writer.write(line.toString());
+      writer.flush();
+    } catch (IOException e) {
+      log.log(Level.SEVERE, "Unable to write compiler metrics; no further metrics will be written",
+          e);
+      failed = true;
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util.log.metrics;
+
+/**
+ * Receives a {@link PhaseMetrics} record each time a measured compiler phase
+ * ends. Implementations must be thread safe, since permutations may be
+ * compiled concurrently. A sink class named by
+ * {@value CompilerMetrics#SINK_CLASS_PROPERTY} must have a public no-argument
+ * constructor.
+ */
+public interface MetricsSink {
+
+  /**
+   * Records the metrics of a phase that just ended.
+   */
+  void record(PhaseMetrics metrics);
+}
@@ -66,6 +66,7 @@ public enum CompilerEventType implements EventType {
   ASSERTION_NORMALIZER("AssertionNormalizer", "LightPink"), //
   ASSERTION_REMOVER("AssertionRemover", "LightSalmon"), //
   REPLACE_REBINDS("ReplaceRebinds", "Snow"), //
+  RESOLVE_SHARED_REBINDS("ResolveSharedRebinds", "Sienna"), //
   CREATE_UNIFIED_AST("CreateUnifiedAST", "BlueViolet"), //
   CHECK_FOR_ERRORS("CheckForErrors", "DimGrey"), //
   GRAPHICS_INIT("Graphics2D.createGraphics()", "Blue"), //
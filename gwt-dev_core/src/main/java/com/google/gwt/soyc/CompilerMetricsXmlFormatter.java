@@ -22,6 +22,7 @@ import com.google.gwt.core.ext.linker.ModuleMetricsArtifact;
 import com.google.gwt.core.ext.linker.PrecompilationMetricsArtifact;
 import com.google.gwt.dev.util.collect.Lists;
 import com.google.gwt.dev.util.collect.Sets;
+import com.google.gwt.dev.util.log.metrics.PhaseMetrics;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
@@ -64,6 +65,10 @@ import java.util.Set;
  *       &lt;javascript fragments="1" size="123">
  *         &lt;fragment size="123" initial="true" />
  *       &lt;/javascript>
+ *       &lt;phases>
+ *         &lt;phase name="Optimize:Pruner" depth="1" wall="12" cpu="11"
+ *                allocated="4096" gcCount="0" gcTime="0" />
+ *       &lt;/phases>
  *     &lt;/compilation>
  *   &lt;/compilations>
  * 
@@ -148,6 +153,25 @@ public class CompilerMetricsXmlFormatter {
         }
         pw.append("   </javascript>\n");
       }
+
+      List<PhaseMetrics> phases = metrics.getPhaseMetrics();
+      if (!phases.isEmpty()) {
+        pw.append("   <phases>\n");
+        for (PhaseMetrics phase : phases) {
+          pw.append("    <phase name=\"" + escapeXmlAttributeContent(phase.getPhase()) + "\" ");
+          pw.append("depth=\"" + phase.getDepth() + "\" ");
+          pw.append("wall=\"" + phase.getWallNanos() / 1000000 + "\" ");
+          if (phase.getCpuNanos() >= 0) {
+            pw.append("cpu=\"" + phase.getCpuNanos() / 1000000 + "\" ");
+          }
+          if (phase.getAllocatedBytes() >= 0) {
+            pw.append("allocated=\"" + phase.getAllocatedBytes() + "\" ");
+          }
+          pw.append("gcCount=\"" + phase.getGcCount() + "\" ");
+          pw.append("gcTime=\"" + phase.getGcMillis() + "\" />\n");
+        }
+        pw.append("   </phases>\n");
+      }
       pw.append("  </compilation>\n");
     }
 
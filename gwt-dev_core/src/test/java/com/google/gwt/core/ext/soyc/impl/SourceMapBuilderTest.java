@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.core.ext.soyc.impl;
+
+import com.google.gwt.dev.jjs.SourceOrigin;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link SourceMapBuilder}.
+ */
+public class SourceMapBuilderTest extends TestCase {
+
+  public void testMappingsSpanningLines() {
+    SourceMapBuilder builder = new SourceMapBuilder();
+    assertTrue(builder.enter(SourceOrigin.create(10, "A.java"), 1, 2));
+    assertTrue(builder.enter(SourceOrigin.create(5, "B.java"), 2, 4));
+    builder.exit(3, 1);
+    builder.exit(3, 4);
+
+    // Each line a mapping continues onto starts with a segment for it: line 2
+    // maps A:10, then B:5; line 3 maps B:5, back to A:10, then nothing.
+    assertEquals("{\n\"version\":3,\n\"file\":\"f\",\n\"lineCount\":4,\n"
+        + "\"mappings\":\";EASA;AAAA,ICLA;AAAA,CDKA,G\",\n"
+        + "\"sources\":[\"A.java\",\"B.java\"],\n\"names\":[]\n}\n",
+        Util.toString(builder.toByteArray("f")));
+  }
+
+  public void testNestedMappings() {
+    SourceMapBuilder builder = new SourceMapBuilder();
+    assertTrue(builder.enter(SourceOrigin.create(10, "A.java"), 1, 0));
+    assertTrue(builder.enter(SourceOrigin.create(5, "B.java"), 1, 4));
+    builder.exit(1, 8);
+    builder.exit(1, 12);
+    assertTrue(builder.enter(SourceOrigin.create(20, "A.java"), 3, 2));
+    builder.exit(3, 5);
+
+    // Line 1 maps A:10, then B:5, back to A:10, then nothing; line 3 maps A:20.
+    assertEquals("{\n\"version\":3,\n\"file\":\"sourceMap0\",\n\"lineCount\":4,\n"
+        + "\"mappings\":\";AASA,ICLA,IDKA,I;;EAUA,G\",\n"
+        + "\"sources\":[\"A.java\",\"B.java\"],\n\"names\":[]\n}\n",
+        Util.toString(builder.toByteArray("sourceMap0")));
+  }
+
+  public void testUnmappableSourceInfo() {
+    SourceMapBuilder builder = new SourceMapBuilder();
+    assertFalse(builder.enter(SourceOrigin.create(10, "A.java"), 0, 0));
+    assertFalse(builder.enter(SourceOrigin.create(-1, "A.java"), 1, 0));
+    // A mapping entered where another starts replaces it there.
+    assertTrue(builder.enter(SourceOrigin.create(1, "A.java"), 1, 0));
+    assertTrue(builder.enter(SourceOrigin.create(2, "\"B\".java"), 1, 0));
+    builder.exit(1, 3);
+    builder.exit(1, 3);
+    assertEquals("{\n\"version\":3,\n\"file\":\"f\",\n\"lineCount\":2,\n"
+        + "\"mappings\":\";ACCA,G\",\n"
+        + "\"sources\":[\"A.java\",\"\\\"B\\\".java\"],\n\"names\":[]\n}\n",
+        Util.toString(builder.toByteArray("f")));
+  }
+}
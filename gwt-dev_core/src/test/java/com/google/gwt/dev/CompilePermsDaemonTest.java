@@ -0,0 +1,285 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.CompilePermsDaemon.AstCache;
+import com.google.gwt.dev.CompilePermsDaemon.DaemonOptionsImpl;
+import com.google.gwt.dev.CompilePermsDaemon.HeapLimit;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+import com.google.gwt.dev.jjs.JJSOptionsImpl;
+import com.google.gwt.dev.jjs.PermutationResult;
+import com.google.gwt.dev.jjs.UnifiedAst;
+import com.google.gwt.dev.jjs.UnifiedAst.AST;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.js.ast.JsProgram;
+import com.google.gwt.dev.util.FileBackedObject;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.dev.util.log.PrintWriterTreeLogger;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link CompilePermsDaemon}.
+ */
+public class CompilePermsDaemonTest extends TestCase {
+
+  /**
+   * A heap limit that sees a fixed amount of heap in use.
+   */
+  private static class FixedHeapLimit extends HeapLimit {
+    private final long usedBytes;
+
+    FixedHeapLimit(long maxBytes, long usedBytes, AstCache asts) {
+      super(maxBytes, asts);
+      this.usedBytes = usedBytes;
+    }
+
+    @Override
+    long usedBytes() {
+      return usedBytes;
+    }
+  }
+
+  private File dir;
+
+  @Override
+  public void setUp() throws Exception {
+    dir = File.createTempFile("CompilePermsDaemonTest", "");
+    assertTrue(dir.delete());
+    assertTrue(dir.mkdirs());
+  }
+
+  @Override
+  public void tearDown() {
+    Util.recursiveDelete(dir, false);
+  }
+
+  public void testAcquireSharesEntries() {
+    AstCache cache = new AstCache(2);
+    AstCache.Entry first = cache.acquire("a");
+    AstCache.Entry second = cache.acquire("a");
+    assertSame(first, second);
+    assertNotSame(cache.acquire(null), cache.acquire(null));
+    assertEquals(1, cache.size());
+  }
+
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    File astFile = writeAstFile("ast");
+    AstCache cache = new AstCache(2);
+    AstCache.Entry b = null;
+    for (String key : new String[] {"a", "b", "a", "c"}) {
+      AstCache.Entry entry = cache.acquire(key);
+      entry.load(TreeLogger.NULL, astFile);
+      assertTrue(entry.isLoaded());
+      cache.release(entry);
+      if (key.equals("b")) {
+        b = entry;
+      }
+    }
+    assertEquals(2, cache.size());
+    assertTrue(cache.contains("a"));
+    assertFalse(cache.contains("b"));
+    assertTrue(cache.contains("c"));
+    assertFalse(b.isLoaded());
+  }
+
+  public void testHeapLimitEvictsIdleAsts() throws Exception {
+    File astFile = writeAstFile("ast");
+    AstCache cache = new AstCache(2);
+    AstCache.Entry entry = cache.acquire("a");
+    entry.load(TreeLogger.NULL, astFile);
+    cache.release(entry);
+
+    new FixedHeapLimit(100, 50, cache).acquire();
+    assertTrue(cache.contains("a"));
+    new FixedHeapLimit(100, 150, cache).acquire();
+    assertFalse(cache.contains("a"));
+    assertFalse(entry.isLoaded());
+  }
+
+  public void testHeapLimitHoldsBackPermutations() throws Exception {
+    final HeapLimit limit = new FixedHeapLimit(100, 150, new AstCache(1));
+    // One permutation may always run.
+    limit.acquire();
+
+    final CountDownLatch started = new CountDownLatch(1);
+    Thread second = new Thread() {
+      @Override
+      public void run() {
+        try {
+          limit.acquire();
+          started.countDown();
+        } catch (InterruptedException e) {
+          // Fails the test below
+        }
+      }
+    };
+    second.start();
+    assertFalse(started.await(100, TimeUnit.MILLISECONDS));
+    limit.release();
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    second.join();
+  }
+
+  public void testCompilesForClients() throws Exception {
+    StringWriter log = new StringWriter();
+    File stateFile = new File(dir, "state");
+    CompilePermsDaemon daemon = startDaemon(stateFile, log);
+    String oldValue = System.setProperty(DaemonPermutationWorkerFactory.STATE_FILE_PROPERTY,
+        stateFile.getPath());
+    List<PermutationWorker> workers = new ArrayList<PermutationWorker>();
+    try {
+      DaemonPermutationWorkerFactory factory = new DaemonPermutationWorkerFactory();
+      factory.init(TreeLogger.NULL);
+      workers.addAll(factory.getWorkers(TreeLogger.NULL, makeAst("a"), 2));
+      assertEquals(2, workers.size());
+
+      // A later compile of the same AST does not send it again.
+      workers.addAll(factory.getWorkers(TreeLogger.NULL, makeAst("a"), 1));
+      assertEquals(3, workers.size());
+      assertEquals(1, log.toString().split("Loaded AST a ").length - 1);
+
+      // An empty program cannot be compiled; the daemon sends the failure back
+      // and the connection stays usable.
+      PermutationWorker worker = workers.get(0);
+      for (int i = 0; i < 2; ++i) {
+        try {
+          worker.compile(TreeLogger.NULL, makePermutation(i),
+              new FileBackedObject<PermutationResult>(PermutationResult.class, new File(dir,
+                  "result" + i)));
+          fail("Expected UnableToCompleteException");
+        } catch (UnableToCompleteException expected) {
+        }
+      }
+    } finally {
+      for (PermutationWorker worker : workers) {
+        worker.shutdown();
+      }
+      restoreProperty(DaemonPermutationWorkerFactory.STATE_FILE_PROPERTY, oldValue);
+      daemon.stop();
+    }
+  }
+
+  public void testRejectsUnknownCookie() throws Exception {
+    StringWriter log = new StringWriter();
+    File stateFile = new File(dir, "state");
+    CompilePermsDaemon daemon = startDaemon(stateFile, log);
+    File forgedStateFile = new File(dir, "forged");
+    String port = Util.readFileAsString(stateFile).split("\n")[0];
+    assertTrue(Util.writeStringAsFile(forgedStateFile, port + "\n0123456789abcdef\n"));
+    String oldValue = System.setProperty(DaemonPermutationWorkerFactory.STATE_FILE_PROPERTY,
+        forgedStateFile.getPath());
+    try {
+      DaemonPermutationWorkerFactory factory = new DaemonPermutationWorkerFactory();
+      factory.init(TreeLogger.NULL);
+      assertTrue(factory.getWorkers(TreeLogger.NULL, makeAst("a"), 1).isEmpty());
+      assertTrue(log.toString().contains("Rejected a connection with an unknown cookie"));
+      assertFalse(log.toString().contains("Loaded AST"));
+    } finally {
+      restoreProperty(DaemonPermutationWorkerFactory.STATE_FILE_PROPERTY, oldValue);
+      daemon.stop();
+    }
+  }
+
+  public void testInUseEntriesAreNotEvicted() {
+    AstCache cache = new AstCache(1);
+    AstCache.Entry a = cache.acquire("a");
+    AstCache.Entry b = cache.acquire("b");
+    AstCache.Entry c = cache.acquire("c");
+
+    // Nothing was loaded, so releasing drops the entries once unused.
+    cache.release(b);
+    assertFalse(cache.contains("b"));
+    assertTrue(cache.contains("a"));
+    assertTrue(cache.contains("c"));
+
+    cache.clear();
+    assertEquals(2, cache.size());
+    cache.release(a);
+    cache.release(c);
+    assertEquals(0, cache.size());
+  }
+
+  private UnifiedAst makeAst(String strongName) {
+    UnifiedAst ast = new UnifiedAst(new JJSOptionsImpl(), new AST(new JProgram(),
+        new JsProgram()), true, Collections.<String> emptySet());
+    ast.setStrongName(strongName);
+    return ast;
+  }
+
+  private Permutation makePermutation(int id) {
+    return new Permutation(id, new StaticPropertyOracle(new BindingProperty[0], new String[0],
+        new ConfigurationProperty[0]));
+  }
+
+  private void restoreProperty(String name, String oldValue) {
+    if (oldValue == null) {
+      System.clearProperty(name);
+    } else {
+      System.setProperty(name, oldValue);
+    }
+  }
+
+  /**
+   * Starts a daemon on a free port, logging to <code>log</code>, and waits
+   * until it has written its state file.
+   */
+  private CompilePermsDaemon startDaemon(File stateFile, StringWriter log) throws Exception {
+    DaemonOptionsImpl options = new DaemonOptionsImpl();
+    options.setMaxAsts(2);
+    options.setStateFile(stateFile);
+    options.setWorkers(2);
+    PrintWriterTreeLogger logger = new PrintWriterTreeLogger(new PrintWriter(log, true));
+    logger.setMaxDetail(TreeLogger.INFO);
+    final CompilePermsDaemon daemon = new CompilePermsDaemon(options, logger);
+    Thread thread = new Thread("CompilePermsDaemonTest daemon") {
+      @Override
+      public void run() {
+        daemon.run();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+    for (int i = 0; i < 100; ++i) {
+      String state = Util.readFileAsString(stateFile);
+      if (state != null && state.split("\n").length == 2) {
+        return daemon;
+      }
+      Thread.sleep(100);
+    }
+    fail("The daemon did not start");
+    return null;
+  }
+
+  private File writeAstFile(String name) throws UnableToCompleteException {
+    File astFile = new File(dir, name);
+    Util.writeObjectAsFile(TreeLogger.NULL, astFile, makeAst(null));
+    return astFile;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.javac;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit test for {@link MappedUnitCache}.
+ */
+public class MappedUnitCacheTest extends TestCase {
+
+  private File cacheDir;
+
+  @Override
+  public void setUp() throws Exception {
+    cacheDir = File.createTempFile("MappedUnitCacheTest", "");
+    assertTrue(cacheDir.delete());
+  }
+
+  @Override
+  public void tearDown() {
+    Util.recursiveDelete(cacheDir, false);
+  }
+
+  /**
+   * Replaced units should be dropped from the log by compaction.
+   */
+  public void testCompaction() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    MappedUnitCache cache = new MappedUnitCache(logger, cacheDir, 0);
+    MockCompilationUnit bar = new MockCompilationUnit("com.example.Bar", "Bar: source");
+    cache.add(bar);
+    MockCompilationUnit lastFoo = null;
+    for (int i = 0; i < 10; i++) {
+      lastFoo = new MockCompilationUnit("com.example.Foo", "Foo: source" + i);
+      cache.add(lastFoo);
+    }
+    long uncompactedSize = cache.getLogSize();
+    cache.cleanup(logger);
+    assertTrue(cache.getLogSize() < uncompactedSize);
+    cache.shutdown();
+
+    cache = new MappedUnitCache(logger, cacheDir, 0);
+    assertEquals(lastFoo.getContentId(), cache.find("com/example/Foo.java").getContentId());
+    assertEquals(bar.getContentId(), cache.find("com/example/Bar.java").getContentId());
+    cache.shutdown();
+  }
+
+  /**
+   * A unit whose payload cannot be deserialized should be a miss.
+   */
+  public void testCorruptPayload() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    MappedUnitCache cache = new MappedUnitCache(logger, cacheDir);
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source");
+    cache.add(foo);
+    cache.shutdown();
+
+    // Overwrite the start of the only record's payload.
+    RandomAccessFile log = new RandomAccessFile(getLogFile(), "rw");
+    log.seek(8);
+    int headerLength = log.readInt();
+    log.seek(8 + 8 + headerLength);
+    log.writeInt(0);
+    log.close();
+
+    cache = new MappedUnitCache(logger, cacheDir);
+    assertNull(cache.find("com/example/Foo.java"));
+    assertNull(cache.find(foo.getContentId()));
+    cache.shutdown();
+  }
+
+  /**
+   * Units should be found after a restart, without deserializing their
+   * payloads until they are found.
+   */
+  public void testPersistentCache() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    MappedUnitCache cache = new MappedUnitCache(logger, cacheDir);
+    MockCompilationUnit foo1 = new MockCompilationUnit("com.example.Foo", "Foo: source1");
+    cache.add(foo1);
+    MockCompilationUnit bar1 = new MockCompilationUnit("com.example.Bar", "Bar: source1");
+    cache.add(bar1);
+    MockCompilationUnit foo2 = new MockCompilationUnit("com.example.Foo", "Foo: source2");
+    cache.add(foo2);
+    cache.cleanup(logger);
+    cache.shutdown();
+
+    cache = new MappedUnitCache(logger, cacheDir);
+    assertNull(cache.find(foo1.getContentId()));
+    CompilationUnit result = cache.find(foo2.getContentId());
+    assertNotNull(result);
+    assertEquals("com.example.Foo", result.getTypeName());
+    assertEquals(foo2.getLastModified(), result.getLastModified());
+    result = cache.find("com/example/Bar.java");
+    assertNotNull(result);
+    assertEquals(bar1.getContentId(), result.getContentId());
+
+    MappedCompilationUnit mapped = (MappedCompilationUnit) result;
+    assertTrue(mapped.isLoaded());
+    assertEquals("Dummy AST data", Util.toString(mapped.getTypesSerialized()));
+    cache.shutdown();
+  }
+
+  /**
+   * Caches sharing a directory, as separate processes do, should not
+   * overwrite each other's records, including after one compacts the log.
+   */
+  public void testSharedLog() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    MappedUnitCache first = new MappedUnitCache(logger, cacheDir, 0);
+    MappedUnitCache second = new MappedUnitCache(logger, cacheDir, 0);
+    MockCompilationUnit foo = null;
+    for (int i = 0; i < 10; i++) {
+      foo = new MockCompilationUnit("com.example.Foo", "Foo: source" + i);
+      first.add(foo);
+    }
+    MockCompilationUnit bar = new MockCompilationUnit("com.example.Bar", "Bar: source");
+    second.add(bar);
+    second.getLogSize();
+    first.cleanup(logger);
+    long compactedSize = first.getLogSize();
+    MockCompilationUnit baz = new MockCompilationUnit("com.example.Baz", "Baz: source");
+    second.add(baz);
+    assertTrue(second.getLogSize() > compactedSize);
+    first.shutdown();
+    second.shutdown();
+
+    MappedUnitCache cache = new MappedUnitCache(logger, cacheDir);
+    assertEquals(foo.getContentId(), cache.find("com/example/Foo.java").getContentId());
+    assertEquals(bar.getContentId(), cache.find("com/example/Bar.java").getContentId());
+    assertEquals(baz.getContentId(), cache.find("com/example/Baz.java").getContentId());
+    cache.shutdown();
+  }
+
+  /**
+   * A partial record left by an interrupted write should be discarded.
+   */
+  public void testTruncatedLog() throws Exception {
+    TreeLogger logger = TreeLogger.NULL;
+    MappedUnitCache cache = new MappedUnitCache(logger, cacheDir);
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source");
+    cache.add(foo);
+    long size = cache.getLogSize();
+    cache.shutdown();
+
+    File logFile = getLogFile();
+    FileOutputStream out = new FileOutputStream(logFile, true);
+    out.write(new byte[] {0, 0, 0, 100, 0, 0});
+    out.close();
+
+    cache = new MappedUnitCache(logger, cacheDir);
+    assertEquals(foo.getContentId(), cache.find("com/example/Foo.java").getContentId());
+    assertEquals(size, cache.getLogSize());
+    cache.shutdown();
+    assertEquals(size, logFile.length());
+  }
+
+  private File getLogFile() {
+    return new File(new File(cacheDir, PersistentUnitCache.UNIT_CACHE_PREFIX),
+        MappedUnitCache.LOG_FILE_NAME);
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Tests {@link IndexedSet}.
+ */
+public class IndexedSetTest extends TestCase {
+
+  public void testAddAndContains() {
+    IndexedSet<String> set = new IndexedSet<String>(new IndexedSet.Index<String>());
+    assertTrue(set.add("a"));
+    assertTrue(set.add("b"));
+    assertFalse(set.add("a"));
+    assertEquals(2, set.size());
+    assertTrue(set.contains("a"));
+    assertFalse(set.contains("c"));
+    assertFalse(set.contains(3));
+    // Iterates in the order the index first saw the elements.
+    assertEquals(Arrays.asList("a", "b"), Arrays.asList(set.toArray()));
+  }
+
+  public void testCopiesAreIndependent() {
+    IndexedSet<String> set = new IndexedSet<String>(new IndexedSet.Index<String>());
+    set.add("a");
+    IndexedSet<String> copy = new IndexedSet<String>(set);
+    copy.add("b");
+    assertEquals(1, set.size());
+    assertFalse(set.contains("b"));
+    assertTrue(copy.contains("a"));
+    assertTrue(copy.contains("b"));
+  }
+
+  public void testSetOperationsOnSharedIndex() {
+    IndexedSet.Index<String> index = new IndexedSet.Index<String>();
+    IndexedSet<String> ab = new IndexedSet<String>(index);
+    ab.addAll(Arrays.asList("a", "b"));
+    IndexedSet<String> bc = new IndexedSet<String>(index);
+    bc.addAll(Arrays.asList("b", "c"));
+
+    Set<String> union = IndexedSet.copyOf(ab);
+    assertTrue(union.addAll(bc));
+    assertFalse(union.addAll(bc));
+    assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), union);
+    assertTrue(union.containsAll(ab));
+    assertFalse(ab.containsAll(union));
+
+    Set<String> difference = IndexedSet.copyOf(ab);
+    assertTrue(difference.removeAll(bc));
+    assertEquals(new HashSet<String>(Arrays.asList("a")), difference);
+
+    Set<String> intersection = IndexedSet.copyOf(ab);
+    assertTrue(intersection.retainAll(bc));
+    assertEquals(new HashSet<String>(Arrays.asList("b")), intersection);
+  }
+
+  public void testSetOperationsOnOtherCollections() {
+    IndexedSet<String> set = new IndexedSet<String>(new IndexedSet.Index<String>());
+    set.addAll(Arrays.asList("a", "b", "c"));
+    assertTrue(set.removeAll(new HashSet<String>(Arrays.asList("a", "d"))));
+    assertEquals(new HashSet<String>(Arrays.asList("b", "c")), set);
+    assertTrue(set.retainAll(Arrays.asList("c")));
+    assertEquals(new HashSet<String>(Arrays.asList("c")), set);
+  }
+
+  public void testIteratorRemove() {
+    IndexedSet<String> set = new IndexedSet<String>(new IndexedSet.Index<String>());
+    set.addAll(Arrays.asList("a", "b"));
+    Iterator<String> it = set.iterator();
+    assertEquals("a", it.next());
+    it.remove();
+    try {
+      it.remove();
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals("b", it.next());
+    assertFalse(it.hasNext());
+    assertEquals(new HashSet<String>(Arrays.asList("b")), set);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JProgram;
+
+import java.util.List;
+
+/**
+ * Tests {@link MethodDependencyIndex}.
+ */
+public class MethodDependencyIndexTest extends JJSTestBase {
+
+  @Override
+  public void setUp() throws Exception {
+    addSnippetClassDecl("static volatile int i;");
+    addSnippetClassDecl("static class A {",
+        "  static int foo() { if (true) { return 1; } return 2; }",
+        "}");
+    addSnippetClassDecl("static class B { static int bar() { return A.foo(); } }");
+    addSnippetClassDecl("static class C { int baz() { return i; } }");
+  }
+
+  public void testFirstPassVisitsEverything() throws Exception {
+    JProgram program = compileSnippet("void", "i = B.bar();");
+    int methodCount = 0;
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      methodCount += type.getMethods().size();
+    }
+    MethodDependencyIndex index = new MethodDependencyIndex(program);
+    assertEquals(methodCount, index.takeDirtyMethods().size());
+    assertTrue(index.takeDirtyMethods().isEmpty());
+  }
+
+  public void testChangePropagatesToReferrers() throws Exception {
+    JProgram program = compileSnippet("void", "i = B.bar();");
+    MethodDependencyIndex index = new MethodDependencyIndex(program);
+    index.takeDirtyMethods();
+
+    JMethod foo = findQualifiedMethod(program, "test.EntryPoint$A.foo");
+    JMethod bar = findQualifiedMethod(program, "test.EntryPoint$B.bar");
+    JMethod main = findMainMethod(program);
+    assertTrue(DeadCodeElimination.exec(program, foo).didChange());
+
+    List<JMethod> dirty = index.takeDirtyMethods();
+    assertTrue(dirty.contains(foo));
+    assertTrue(dirty.contains(bar));
+    assertFalse(dirty.contains(main));
+  }
+
+  public void testSetterChangesAreDirty() throws Exception {
+    JProgram program = compileSnippet("void", "i = new C().baz();");
+    MethodDependencyIndex index = new MethodDependencyIndex(program);
+    index.takeDirtyMethods();
+
+    // Moves the body of baz() with setBody(), outside of any JModVisitor.
+    JMethod baz = findQualifiedMethod(program, "test.EntryPoint$C.baz");
+    assertTrue(MakeCallsStatic.exec(program).didChange());
+    assertTrue(index.takeDirtyMethods().contains(baz));
+
+    baz.setType(program.getTypeNull());
+    assertTrue(index.takeDirtyMethods().contains(baz));
+  }
+
+  public void testUnchangedMethodsAreSkipped() throws Exception {
+    JProgram program = compileSnippet("void", "i = B.bar();");
+    MethodDependencyIndex index = new MethodDependencyIndex(program);
+    index.takeDirtyMethods();
+    assertFalse(DeadCodeElimination.exec(program, index.takeDirtyMethods()).didChange());
+  }
+}
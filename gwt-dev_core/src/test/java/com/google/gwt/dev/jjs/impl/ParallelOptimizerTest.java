@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JProgram;
+
+/**
+ * Tests {@link ParallelOptimizer}.
+ */
+public class ParallelOptimizerTest extends JJSTestBase {
+
+  private static final String CODE =
+      "int x = C.K + 1; if (true) { b = !!b; } else { i = 2; } new F(); return b ? x : 4;";
+
+  private String oldThreads;
+
+  @Override
+  public void setUp() throws Exception {
+    // Has no effect if the shared pool has been created already
+    oldThreads = System.setProperty(ParallelOptimizer.THREADS_PROPERTY, "4");
+    addSnippetClassDecl("static volatile boolean b;");
+    addSnippetClassDecl("static volatile int i;");
+    addSnippetClassDecl("static class C { static final int K = 3; }");
+    // Empty constructors that call empty constructors in other types
+    addSnippetClassDecl("static class D { D() { } }");
+    addSnippetClassDecl("static class E extends D { E() { super(); } }");
+    addSnippetClassDecl("static class F extends E { F() { super(); } }");
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    if (oldThreads == null) {
+      System.clearProperty(ParallelOptimizer.THREADS_PROPERTY);
+    } else {
+      System.setProperty(ParallelOptimizer.THREADS_PROPERTY, oldThreads);
+    }
+  }
+
+  public void testSameResultAsSequential() throws Exception {
+    JProgram sequential = compileSnippet("int", CODE);
+    while (DeadCodeElimination.exec(sequential).didChange()) {
+      // Run to a fixed point
+    }
+
+    JProgram parallel = compileSnippet("int", CODE);
+    while (ParallelOptimizer.execDeadCodeElimination(parallel).didChange()) {
+      // Run to a fixed point
+    }
+
+    assertEquals(getProgramSource(sequential), getProgramSource(parallel));
+  }
+
+  public void testConverges() throws Exception {
+    JProgram program = compileSnippet("int", CODE);
+    ParallelOptimizer.execDeadCodeElimination(program);
+    assertFalse(ParallelOptimizer.execDeadCodeElimination(program).didChange());
+  }
+
+  private static String getProgramSource(JProgram program) {
+    StringBuilder sb = new StringBuilder();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      sb.append(type.toSource());
+    }
+    return sb.toString();
+  }
+}
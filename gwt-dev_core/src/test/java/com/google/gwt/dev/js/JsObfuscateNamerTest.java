@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.js;
+
+import com.google.gwt.dev.jjs.SourceOrigin;
+import com.google.gwt.dev.js.ast.JsProgram;
+import com.google.gwt.dev.js.ast.JsStatement;
+import com.google.gwt.dev.js.ast.JsVisitor;
+import com.google.gwt.dev.util.DefaultTextOutput;
+import com.google.gwt.dev.util.TextOutput;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Tests {@link JsObfuscateNamer}.
+ */
+public class JsObfuscateNamerTest extends TestCase {
+
+  private static final String MANY_FUNCTIONS = "var g1 = 1, g2 = 2;"
+      + "function f1(p, q) { var r = p + q; return r + g2; }"
+      + "function f2(p) { function inner(s) { return s + p + g2; } return inner(g1); }"
+      + "function f3() { var t = g2; return t + g2 + f1(t, t); }"
+      + "function f4(a, b, c, d) { return a + b + c + d + f2(g2) + f3(); }";
+
+  public void testDeclarationOrder() throws Exception {
+    JsProgram program = parse("var a1 = 1, b1 = 2, f = function() { return b1 + b1 + b1; };");
+    new JsObfuscateNamer(program, false, false).execImpl();
+    assertEquals("a", shortIdent(program, "a1"));
+    assertEquals("b", shortIdent(program, "b1"));
+    assertEquals("c", shortIdent(program, "f"));
+  }
+
+  public void testMostReferencedFirst() throws Exception {
+    JsProgram program = parse("var a1 = 1, b1 = 2, f = function() { return b1 + b1 + b1; };");
+    new JsObfuscateNamer(program, true, false).execImpl();
+    assertEquals("a", shortIdent(program, "b1"));
+    // Equally common names keep their declaration order.
+    assertEquals("b", shortIdent(program, "a1"));
+    assertEquals("c", shortIdent(program, "f"));
+  }
+
+  public void testNoShadowing() throws Exception {
+    JsProgram program = parse("var g1, f = function(x) { return x + g1 + g1 + g1; };");
+    new JsObfuscateNamer(program, true, false).execImpl();
+    // The parameter takes the first id, so the hot global must not reuse it.
+    assertEquals("b", shortIdent(program, "g1"));
+    assertEquals("c", shortIdent(program, "f"));
+  }
+
+  public void testParallelMatchesSerial() throws Exception {
+    for (boolean byFrequency : new boolean[] {false, true}) {
+      JsProgram serial = parse(MANY_FUNCTIONS);
+      new JsObfuscateNamer(serial, byFrequency, false).execImpl();
+      JsProgram parallel = parse(MANY_FUNCTIONS);
+      new JsObfuscateNamer(parallel, byFrequency, true).execImpl();
+      assertEquals(generate(serial), generate(parallel));
+    }
+  }
+
+  private String generate(JsProgram program) {
+    TextOutput text = new DefaultTextOutput(true);
+    JsVisitor generator = new JsSourceGenerationVisitor(text);
+    generator.accept(program);
+    return text.toString();
+  }
+
+  private JsProgram parse(String js) throws Exception {
+    JsProgram program = new JsProgram();
+    List<JsStatement> statements = JsParser.parse(SourceOrigin.UNKNOWN,
+        program.getScope(), new StringReader(js));
+    program.getGlobalBlock().getStatements().addAll(statements);
+    // Names are counted through resolved references, as in a compile.
+    JsSymbolResolver.exec(program);
+    return program;
+  }
+
+  private String shortIdent(JsProgram program, String ident) {
+    return program.getScope().findExistingName(ident).getShortIdent();
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests {@link InterningObjectInputStream}.
+ */
+public class InterningObjectInputStreamTest extends TestCase {
+
+  public void testCopiesShareStrings() throws Exception {
+    byte[] bytes = serialize(new ArrayList<String>(Arrays.asList(new String("interned123"),
+        new String("interned123"))));
+
+    ArrayList<?> first = InterningObjectInputStream.readObject(bytes, ArrayList.class);
+    ArrayList<?> second = InterningObjectInputStream.readObject(bytes, ArrayList.class);
+    assertEquals(Arrays.asList("interned123", "interned123"), first);
+    assertSame(first.get(0), first.get(1));
+    assertSame(first.get(0), second.get(0));
+  }
+
+  public void testOtherObjectsAreCopied() throws Exception {
+    byte[] bytes = serialize(new ArrayList<String>(Arrays.asList("a")));
+
+    ArrayList<?> first = InterningObjectInputStream.readObject(bytes, ArrayList.class);
+    ArrayList<?> second = InterningObjectInputStream.readObject(bytes, ArrayList.class);
+    assertEquals(first, second);
+    assertNotSame(first, second);
+  }
+
+  private byte[] serialize(Object object) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Util.writeObjectToStream(out, object);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link Utf8TextOutput}.
+ */
+public class Utf8TextOutputTest extends TestCase {
+
+  public void testMatchesDefaultTextOutput() {
+    Utf8TextOutput utf8 = new Utf8TextOutput(false);
+    DefaultTextOutput expected = new DefaultTextOutput(false);
+    for (TextOutput out : new TextOutput[] {utf8, expected}) {
+      out.print("function f(){");
+      out.newline();
+      out.indentIn();
+      out.print("return '\u00e9\u4e2d\ud83d\ude00';");
+      out.indentOut();
+      out.newlineOpt();
+      out.print('}');
+    }
+    assertEquals(expected.toString(), utf8.toString());
+    assertEquals(expected.getPosition(), utf8.getPosition());
+    assertEquals(expected.getLine(), utf8.getLine());
+    assertEquals(expected.getColumn(), utf8.getColumn());
+    assertEquals(Util.getBytes(expected.toString()).length, utf8.getByteCount());
+  }
+
+  public void testToDiskCache() {
+    Utf8TextOutput out = new Utf8TextOutput(true);
+    StringBuilder expected = new StringBuilder();
+    // Enough text to span several chunks, with multi-byte characters across
+    // chunk boundaries.
+    for (int i = 0; i < 50000; i++) {
+      String s = "a" + i + "\u00e9;";
+      out.print(s);
+      expected.append(s);
+    }
+    DiskCacheToken token = out.toDiskCache();
+    assertEquals(expected.toString(), token.readString());
+    assertEquals(expected.length(), out.getPosition());
+  }
+}
@@ -33,6 +33,7 @@ import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.SerializationStreamReader;
 import com.google.gwt.user.client.rpc.SerializationStreamWriter;
 import com.google.gwt.user.client.rpc.core.java.lang.Object_Array_CustomFieldSerializer;
+import com.google.gwt.user.client.rpc.impl.PackedPrimitiveArrays;
 import com.google.gwt.user.client.rpc.impl.ReflectionHelper;
 import com.google.gwt.user.client.rpc.impl.TypeHandler;
 import com.google.gwt.user.rebind.ClassSourceFileComposerFactory;
@@ -487,16 +488,34 @@ public class FieldSerializerCreator {
       // Optimize and use the default object custom serializer...
       sourceWriter.println(Object_Array_CustomFieldSerializer.class.getName()
           + ".deserialize(streamReader, instance);");
+    } else if (componentType == JPrimitiveType.DOUBLE
+        || componentType == JPrimitiveType.FLOAT) {
+      writeArrayElementDeserializationLoop(readMethodName);
     } else {
-      sourceWriter.println("for (int i = 0, n = instance.length; i < n; ++i) {");
+      // The server may pack the elements into one string
+      sourceWriter.println("if (" + PackedPrimitiveArrays.class.getName()
+          + ".isPacked(streamReader)) {");
+      sourceWriter.indent();
+      sourceWriter.println(PackedPrimitiveArrays.class.getName()
+          + ".decode(streamReader.readString(), instance);");
+      sourceWriter.outdent();
+      sourceWriter.println("} else {");
       sourceWriter.indent();
-      sourceWriter.print("instance[i] = streamReader.");
-      sourceWriter.println(readMethodName + "();");
+      writeArrayElementDeserializationLoop(readMethodName);
       sourceWriter.outdent();
       sourceWriter.println("}");
     }
   }
 
+  private void writeArrayElementDeserializationLoop(String readMethodName) {
+    sourceWriter.println("for (int i = 0, n = instance.length; i < n; ++i) {");
+    sourceWriter.indent();
+    sourceWriter.print("instance[i] = streamReader.");
+    sourceWriter.println(readMethodName + "();");
+    sourceWriter.outdent();
+    sourceWriter.println("}");
+  }
+
   private void writeArraySerializationStatements(JArrayType isArray) {
     JType componentType = isArray.getComponentType();
     String writeMethodName = Shared.getStreamWriteMethodNameFor(componentType);
@@ -18,6 +18,11 @@ package com.google.gwt.user.server.rpc;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 import java.util.concurrent.ConcurrentHashMap;
@@ -33,7 +38,70 @@ import javax.servlet.http.HttpServletResponse;
  * the RPC system.
  */
 public class RPCServletUtils {
-  
+
+  /**
+   * Writes a response as it is encoded. The headers are only set and the
+   * output stream only opened once something is written, so a response that
+   * fails before then can still be reset.
+   */
+  private static final class ResponseWriter extends Writer {
+    private final boolean gzipResponse;
+    private Writer out;
+    private final HttpServletResponse response;
+
+    ResponseWriter(HttpServletResponse response, boolean gzipResponse) {
+      this.response = response;
+      this.gzipResponse = gzipResponse;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (out != null) {
+        out.close();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out != null) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      open().write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      open().write(c);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      open().write(str, off, len);
+    }
+
+    private Writer open() throws IOException {
+      if (out == null) {
+        if (gzipResponse) {
+          setGzipEncodingHeader(response);
+        }
+        response.setContentType(CONTENT_TYPE_APPLICATION_JSON_UTF8);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader(CONTENT_DISPOSITION, ATTACHMENT);
+
+        OutputStream stream = response.getOutputStream();
+        if (gzipResponse) {
+          stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        out = new OutputStreamWriter(stream, CHARSET_UTF8);
+      }
+      return out;
+    }
+  }
+
   public static final String CHARSET_UTF8_NAME = "UTF-8";
   
   /**
@@ -178,6 +246,78 @@ public class RPCServletUtils {
     return false;
   }
 
+  /**
+   * Returns a {@link Reader} over the content of an {@link HttpServletRequest}
+   * that decodes it using <code>expectedCharSet</code>, or <code>UTF-8</code>
+   * if <code>expectedCharSet</code> is <code>null</code>. Unlike
+   * {@link #readContent}, this lets the content be processed while it arrives,
+   * without holding all of it in memory.
+   *
+   * @param request the servlet request whose content we want to read
+   * @param expectedContentType the expected content (i.e. 'type/subtype' only)
+   *          in the Content-Type request header, or <code>null</code> if no
+   *          validation is to be performed, and you are willing to allow for
+   *          some types of cross type security attacks
+   * @param expectedCharSet the expected request charset, or <code>null</code>
+   *          if no charset validation is to be performed and <code>UTF-8</code>
+   *          should be assumed
+   * @return a reader over the content, which the caller must close
+   * @throws IOException if the request's input stream cannot be accessed
+   * @throws ServletException if the request's content type does not
+   *         equal the supplied <code>expectedContentType</code> or
+   *         <code>expectedCharSet</code>
+   */
+  public static Reader openContent(HttpServletRequest request,
+      String expectedContentType, String expectedCharSet)
+      throws IOException, ServletException {
+    if (expectedContentType != null) {
+      checkContentTypeIgnoreCase(request, expectedContentType);
+    }
+    if (expectedCharSet != null) {
+      checkCharacterEncodingIgnoreCase(request, expectedCharSet);
+    }
+
+    return new InputStreamReader(request.getInputStream(), getCharset(expectedCharSet));
+  }
+
+  /**
+   * Returns a {@link Reader} over the content of an
+   * {@link HttpServletRequest}, after verifying a
+   * <code>gwt/x-gwt-rpc; charset=utf-8</code> content type.
+   *
+   * @param request the servlet request whose content we want to read
+   * @return a reader over the content, which the caller must close
+   * @throws IOException if the request's input stream cannot be accessed
+   * @throws ServletException if the request's content type is not
+   *         <code>gwt/x-gwt-rpc; charset=utf-8</code>, ignoring case
+   */
+  public static Reader openContentAsGwtRpc(HttpServletRequest request)
+      throws IOException, ServletException {
+    return openContent(request, GWT_RPC_CONTENT_TYPE, CHARSET_UTF8_NAME);
+  }
+
+  /**
+   * Returns a {@link Writer} that writes a response into the
+   * {@link HttpServletResponse} as UTF-8 while it is encoded, instead of
+   * building the whole response first. If <code>gzipResponse</code> is
+   * <code>true</code>, the response is gzipped on the way. The response has no
+   * content length, so it is sent chunked.
+   *
+   * <p>
+   * Nothing is sent until the first character is written, so the response can
+   * still be reset until then. The caller must close the writer to finish the
+   * response.
+   * </p>
+   *
+   * @param response response instance
+   * @param gzipResponse if <code>true</code> the response content will be gzip
+   *          encoded as it is written
+   * @return a writer for the response content
+   */
+  public static Writer openResponse(HttpServletResponse response, boolean gzipResponse) {
+    return new ResponseWriter(response, gzipResponse);
+  }
+
   /**
    * Returns the content of an {@link HttpServletRequest} by decoding it using
    * <code>expectedCharSet</code>, or <code>UTF-8</code> if
@@ -29,13 +29,13 @@ import com.google.gwt.user.server.rpc.ServerCustomFieldSerializer;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.Reader;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.util.ArrayList;
@@ -371,10 +371,22 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   private String[] stringTable;
 
+  /**
+   * When reading from a stream, where each string table entry ends in
+   * {@link RequestTokenizer#getSaved()}. The entries only become Strings when
+   * they are first used.
+   */
+  private int[] stringTableEnds;
+
   private final ArrayList<String> tokenList = new ArrayList<String>();
 
   private int tokenListIndex;
 
+  /**
+   * Reads the tokens when reading from a stream, otherwise <code>null</code>.
+   */
+  private RequestTokenizer tokenizer;
+
   {
     CLASS_TO_VECTOR_READER.put(boolean[].class, VectorReader.BOOLEAN_VECTOR);
     CLASS_TO_VECTOR_READER.put(byte[].class, VectorReader.BYTE_VECTOR);
@@ -426,8 +438,12 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     }
   }
 
+  /**
+   * Returns the number of tokens in the request, or -1 if it is being read
+   * from a stream and so the number is not known yet.
+   */
   public int getNumberOfTokens() {
-    return tokenList.size();
+    return tokenizer == null ? tokenList.size() : -1;
   }
 
   public SerializationPolicy getSerializationPolicy() {
@@ -439,6 +455,8 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     tokenList.clear();
     tokenListIndex = 0;
     stringTable = null;
+    stringTableEnds = null;
+    tokenizer = null;
 
     int idx = 0, nextIdx;
     while (-1 != (nextIdx = encodedTokens.indexOf(RPC_SEPARATOR_CHAR, idx))) {
@@ -447,54 +465,34 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
       idx = nextIdx + 1;
     }
     if (idx == 0) {
-      // Didn't find any separator, assume an older version with different
-      // separators and get the version as the sequence of digits at the
-      // beginning of the encoded string.
-      while (idx < encodedTokens.length() && Character.isDigit(encodedTokens.charAt(idx))) {
-        ++idx;
-      }
-      if (idx == 0) {
-        throw new IncompatibleRemoteServiceException(
-            "Malformed or old RPC message received - expecting version between "
-                + SERIALIZATION_STREAM_MIN_VERSION + " and " + SERIALIZATION_STREAM_VERSION);
-      } else {
-        int version = Integer.valueOf(encodedTokens.substring(0, idx));
-        throw new IncompatibleRemoteServiceException("Expecting version between "
-            + SERIALIZATION_STREAM_MIN_VERSION + " and " + SERIALIZATION_STREAM_VERSION
-            + " from client, got " + version + ".");
-      }
+      throw getMissingSeparatorException(encodedTokens);
     }
 
     super.prepareToRead(encodedTokens);
+    readHeader();
+  }
 
-    // Check the RPC version number sent by the client
-    if (getVersion() < SERIALIZATION_STREAM_MIN_VERSION
-        || getVersion() > SERIALIZATION_STREAM_VERSION) {
-      throw new IncompatibleRemoteServiceException("Expecting version between "
-          + SERIALIZATION_STREAM_MIN_VERSION + " and " + SERIALIZATION_STREAM_VERSION
-          + " from client, got " + getVersion() + ".");
-    }
+  /**
+   * Prepares to read a request from <code>in</code>. Unlike
+   * {@link #prepareToRead(String)}, this only reads as far as the end of the
+   * header, and reads the rest as it is deserialized, so the request is never
+   * held in memory as a whole. A failure to read from <code>in</code> is
+   * thrown as a {@link SerializationException} caused by the
+   * {@link java.io.IOException}.
+   */
+  public void prepareToRead(Reader in) throws SerializationException {
+    tokenList.clear();
+    tokenListIndex = 0;
+    stringTable = null;
+    stringTableEnds = null;
+    tokenizer = new RequestTokenizer(in);
 
-    // Check the flags
-    if (!areFlagsValid()) {
-      throw new IncompatibleRemoteServiceException("Got an unknown flag from " + "client: "
-          + getFlags());
+    if (!tokenizer.hasNext()) {
+      throw getMissingSeparatorException(tokenizer.getUnread());
     }
 
-    // Read the type name table
-    deserializeStringTable();
-
-    // Write the serialization policy info
-    String moduleBaseURL = readString();
-    String strongName = readString();
-    if (serializationPolicyProvider != null) {
-      serializationPolicy =
-          serializationPolicyProvider.getSerializationPolicy(moduleBaseURL, strongName);
-
-      if (serializationPolicy == null) {
-        throw new NullPointerException("serializationPolicyProvider.getSerializationPolicy()");
-      }
-    }
+    super.prepareToRead(null);
+    readHeader();
   }
 
   @Override
@@ -504,12 +502,7 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public byte readByte() throws SerializationException {
-    String value = extract();
-    try {
-      return Byte.parseByte(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "byte", Byte.MIN_VALUE, Byte.MAX_VALUE);
-    }
+    return (byte) extractInt("byte", Byte.MIN_VALUE, Byte.MAX_VALUE);
   }
 
   @Override
@@ -530,12 +523,7 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public int readInt() throws SerializationException {
-    String value = extract();
-    try {
-      return Integer.parseInt(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "int", Integer.MIN_VALUE, Integer.MAX_VALUE);
-    }
+    return extractInt("int", Integer.MIN_VALUE, Integer.MAX_VALUE);
   }
 
   @Override
@@ -569,12 +557,7 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public short readShort() throws SerializationException {
-    String value = extract();
-    try {
-      return Short.parseShort(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "short", Short.MIN_VALUE, Short.MAX_VALUE);
-    }
+    return (short) extractInt("short", Short.MIN_VALUE, Short.MAX_VALUE);
   }
 
   @Override
@@ -702,7 +685,14 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     // index is 1-based
     assert (index > 0);
     assert (index <= stringTable.length);
-    return stringTable[index - 1];
+    String str = stringTable[index - 1];
+    if (str == null) {
+      // Read from a stream and not used before.
+      int start = index == 1 ? 0 : stringTableEnds[index - 2];
+      str = new String(tokenizer.getSaved(), start, stringTableEnds[index - 1] - start);
+      stringTable[index - 1] = str;
+    }
+    return str;
   }
 
   /**
@@ -796,16 +786,14 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
       setters = getSetters(instanceClass);
     }
 
-    Field[] serializableFields = SerializabilityUtil.applyFieldSerializationPolicy(instanceClass);
-    for (Field declField : serializableFields) {
+    FieldSerializationPlan.PlannedField[] serializableFields =
+        FieldSerializationPlan.get(instanceClass).getFields();
+    for (FieldSerializationPlan.PlannedField declField : serializableFields) {
       assert (declField != null);
       if ((clientFieldNames != null) && !clientFieldNames.contains(declField.getName())) {
         continue;
       }
 
-      Type declGenericType = declField.getGenericType();
-      Object value = deserializeValue(declField.getType(), declGenericType, resolvedTypes);
-
       String fieldName = declField.getName();
       Method setter;
       /*
@@ -816,16 +804,11 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
        * to update the object state properly.
        */
       if ((setters != null) && ((setter = setters.get(fieldName)) != null)) {
+        Object value = deserializeValue(declField.getField().getType(),
+            declField.getGenericType(), resolvedTypes);
         setter.invoke(instance, value);
       } else {
-        boolean isAccessible = declField.isAccessible();
-        boolean needsAccessOverride = !isAccessible && !Modifier.isPublic(declField.getModifiers());
-        if (needsAccessOverride) {
-          // Override access restrictions
-          declField.setAccessible(true);
-        }
-
-        declField.set(instance, value);
+        declField.read(this, instance, resolvedTypes);
       }
     }
 
@@ -884,6 +867,10 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   private void deserializeStringTable() throws SerializationException {
     int typeNameCount = readInt();
+    if (tokenizer != null) {
+      deserializeStringTableFromStream(typeNameCount);
+      return;
+    }
     BoundedList<String> buffer = new BoundedList<String>(String.class, typeNameCount);
     for (int typeNameIndex = 0; typeNameIndex < typeNameCount; ++typeNameIndex) {
       String str = extract();
@@ -939,6 +926,33 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     stringTable = buffer.toArray(new String[buffer.getExpectedSize()]);
   }
 
+  /**
+   * Reads the string table from the stream, leaving its entries as characters
+   * until they are used.
+   */
+  private void deserializeStringTableFromStream(int typeNameCount)
+      throws SerializationException {
+    if (typeNameCount < 0) {
+      throw new SerializationException("Invalid string table size " + typeNameCount);
+    }
+    // Like BoundedList, don't trust the count until the entries arrive.
+    int[] ends = new int[Math.min(typeNameCount, 1024)];
+    for (int typeNameIndex = 0; typeNameIndex < typeNameCount; ++typeNameIndex) {
+      if (!tokenizer.nextStringTableEntry()) {
+        throw new SerializationException("Expected " + typeNameCount
+            + " string table elements; received " + typeNameIndex);
+      }
+      if (typeNameIndex == ends.length) {
+        int[] newEnds = new int[Math.min(typeNameCount, ends.length * 2)];
+        System.arraycopy(ends, 0, newEnds, 0, typeNameIndex);
+        ends = newEnds;
+      }
+      ends[typeNameIndex] = tokenizer.getSavedSize();
+    }
+    stringTableEnds = ends;
+    stringTable = new String[typeNameCount];
+  }
+
   private void deserializeWithCustomFieldDeserializer(Class<?> customSerializer,
       Class<?> instanceClass, Object instance, Type[] expectedParameterTypes,
       DequeMap<TypeVariable<?>, Type> resolvedTypes)
@@ -963,6 +977,13 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
   }
 
   private String extract() throws SerializationException {
+    if (tokenizer != null) {
+      String token = tokenizer.next();
+      if (token == null) {
+        throw new SerializationException("Too few tokens in RPC request");
+      }
+      return token;
+    }
     try {
       return tokenList.get(tokenListIndex++);
     } catch (IndexOutOfBoundsException e) {
@@ -970,6 +991,57 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     }
   }
 
+  /**
+   * Reads an int token, which must be between <code>minValue</code> and
+   * <code>maxValue</code>. When reading from a stream, small ints are parsed
+   * without making a String of them.
+   */
+  private int extractInt(String type, int minValue, int maxValue)
+      throws SerializationException {
+    if (tokenizer != null) {
+      int value = tokenizer.nextSmallInt();
+      if (value != RequestTokenizer.NOT_A_SMALL_INT) {
+        if (value < minValue || value > maxValue) {
+          throw getNumberFormatException(Integer.toString(value), type, minValue, maxValue);
+        }
+        return value;
+      }
+    }
+    String value = extract();
+    try {
+      int intValue = Integer.parseInt(value);
+      if (intValue < minValue || intValue > maxValue) {
+        throw new NumberFormatException();
+      }
+      return intValue;
+    } catch (NumberFormatException e) {
+      throw getNumberFormatException(value, type, minValue, maxValue);
+    }
+  }
+
+  /**
+   * Returns the exception for a request with no separators, which is either
+   * malformed or from a client using an older version of the protocol with
+   * different separators. In the latter case the version is the sequence of
+   * digits at the beginning.
+   */
+  private IncompatibleRemoteServiceException getMissingSeparatorException(String encodedTokens) {
+    int idx = 0;
+    while (idx < encodedTokens.length() && Character.isDigit(encodedTokens.charAt(idx))) {
+      ++idx;
+    }
+    if (idx == 0) {
+      return new IncompatibleRemoteServiceException(
+          "Malformed or old RPC message received - expecting version between "
+              + SERIALIZATION_STREAM_MIN_VERSION + " and " + SERIALIZATION_STREAM_VERSION);
+    } else {
+      int version = Integer.valueOf(encodedTokens.substring(0, idx));
+      return new IncompatibleRemoteServiceException("Expecting version between "
+          + SERIALIZATION_STREAM_MIN_VERSION + " and " + SERIALIZATION_STREAM_VERSION
+          + " from client, got " + version + ".");
+    }
+  }
+
   /**
    * Returns a suitable NumberFormatException with an explanatory message when a
    * numerical value cannot be parsed according to its expected type.
@@ -1102,6 +1174,42 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     return null;
   }
 
+  /**
+   * Checks the version and flags, then reads the string table and looks up
+   * the serialization policy.
+   */
+  private void readHeader() throws SerializationException {
+    // Check the RPC version number sent by the client
+    if (getVersion() < SERIALIZATION_STREAM_MIN_VERSION
+        || getVersion() > SERIALIZATION_STREAM_VERSION) {
+      throw new IncompatibleRemoteServiceException("Expecting version between "
+          + SERIALIZATION_STREAM_MIN_VERSION + " and " + SERIALIZATION_STREAM_VERSION
+          + " from client, got " + getVersion() + ".");
+    }
+
+    // Check the flags. Clients never pack the arrays in a request, and reading
+    // them would allocate arrays of whatever length the request claims.
+    if (!areFlagsValid() || hasFlags(FLAG_PACKED_PRIMITIVE_ARRAYS)) {
+      throw new IncompatibleRemoteServiceException("Got an unknown flag from " + "client: "
+          + getFlags());
+    }
+
+    // Read the type name table
+    deserializeStringTable();
+
+    // Write the serialization policy info
+    String moduleBaseURL = readString();
+    String strongName = readString();
+    if (serializationPolicyProvider != null) {
+      serializationPolicy =
+          serializationPolicyProvider.getSerializationPolicy(moduleBaseURL, strongName);
+
+      if (serializationPolicy == null) {
+        throw new NullPointerException("serializationPolicyProvider.getSerializationPolicy()");
+      }
+    }
+  }
+
   private void validateTypeVersions(Class<?> instanceClass,
       SerializedInstanceReference serializedInstRef) throws SerializationException {
     String clientTypeSignature = serializedInstRef.getSignature();
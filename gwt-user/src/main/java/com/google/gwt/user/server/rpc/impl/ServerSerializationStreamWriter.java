@@ -18,16 +18,17 @@ package com.google.gwt.user.server.rpc.impl;
 import com.google.gwt.user.client.rpc.CustomFieldSerializer;
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.impl.AbstractSerializationStreamWriter;
+import com.google.gwt.user.client.rpc.impl.PackedPrimitiveArrays;
 import com.google.gwt.user.server.Base64Utils;
 import com.google.gwt.user.server.rpc.SerializationPolicy;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.List;
@@ -52,50 +53,94 @@ public final class ServerSerializationStreamWriter extends
     private static final String POSTLUDE = "])";
     private static final String PRELUDE = "].concat([";
 
+    /**
+     * The tokens written so far, or <code>null</code> when writing to another
+     * {@link Appendable}.
+     */
     private final StringBuffer buffer;
+    private final Appendable out;
     private int count = 0;
     private boolean needsComma = false;
     private int total = 0;
 
     public LengthConstrainedArray() {
-      buffer = new StringBuffer();
+      this(new StringBuffer());
     }
 
     public LengthConstrainedArray(int capacityGuess) {
-      buffer = new StringBuffer(capacityGuess);
+      this(new StringBuffer(capacityGuess));
+    }
+
+    /**
+     * Writes the array to <code>out</code> as the tokens are added, instead of
+     * building a String. Call {@link #close()} after the last token.
+     */
+    private LengthConstrainedArray(Appendable out) throws IOException {
+      this.buffer = null;
+      this.out = out;
+      out.append('[');
+    }
+
+    private LengthConstrainedArray(StringBuffer buffer) {
+      this.buffer = buffer;
+      this.out = buffer;
     }
 
     public void addToken(CharSequence token) {
+      try {
+        appendToken(token);
+      } catch (IOException e) {
+        // Can't happen; appending to a StringBuffer doesn't throw
+        throw new AssertionError(e);
+      }
+    }
+
+    public void addToken(int i) {
+      addToken(String.valueOf(i));
+    }
+
+    @Override
+    public String toString() {
+      assert buffer != null : "Written to an Appendable";
+      if (total > MAXIMUM_ARRAY_LENGTH) {
+        return "[" + buffer.toString() + POSTLUDE;
+      } else {
+        return "[" + buffer.toString() + "]";
+      }
+    }
+
+    private void appendToken(CharSequence token) throws IOException {
+      beginToken();
+      out.append(token);
+    }
+
+    /**
+     * Writes what goes before the next token. The caller writes the token.
+     */
+    private void beginToken() throws IOException {
       total++;
       if (count++ == MAXIMUM_ARRAY_LENGTH) {
         if (total == MAXIMUM_ARRAY_LENGTH + 1) {
-          buffer.append(PRELUDE);
+          out.append(PRELUDE);
         } else {
-          buffer.append("],[");
+          out.append("],[");
         }
         count = 0;
         needsComma = false;
       }
 
       if (needsComma) {
-        buffer.append(",");
+        out.append(",");
       } else {
         needsComma = true;
       }
-
-      buffer.append(token);
     }
 
-    public void addToken(int i) {
-      addToken(String.valueOf(i));
-    }
-
-    @Override
-    public String toString() {
+    private void close() throws IOException {
       if (total > MAXIMUM_ARRAY_LENGTH) {
-        return "[" + buffer.toString() + POSTLUDE;
+        out.append(POSTLUDE);
       } else {
-        return "[" + buffer.toString() + "]";
+        out.append("]");
       }
     }
   }
@@ -179,8 +224,12 @@ public final class ServerSerializationStreamWriter extends
       void write(ServerSerializationStreamWriter stream, Object instance) {
         boolean[] vector = (boolean[]) instance;
         stream.writeInt(vector.length);
-        for (int i = 0, n = vector.length; i < n; ++i) {
-          stream.writeBoolean(vector[i]);
+        if (stream.hasFlags(FLAG_PACKED_PRIMITIVE_ARRAYS)) {
+          stream.writeString(PackedPrimitiveArrays.encode(vector));
+        } else {
+          for (int i = 0, n = vector.length; i < n; ++i) {
+            stream.writeBoolean(vector[i]);
+          }
         }
       }
     },
@@ -189,8 +238,12 @@ public final class ServerSerializationStreamWriter extends
       void write(ServerSerializationStreamWriter stream, Object instance) {
         byte[] vector = (byte[]) instance;
         stream.writeInt(vector.length);
-        for (int i = 0, n = vector.length; i < n; ++i) {
-          stream.writeByte(vector[i]);
+        if (stream.hasFlags(FLAG_PACKED_PRIMITIVE_ARRAYS)) {
+          stream.writeString(PackedPrimitiveArrays.encode(vector));
+        } else {
+          for (int i = 0, n = vector.length; i < n; ++i) {
+            stream.writeByte(vector[i]);
+          }
         }
       }
     },
@@ -199,8 +252,12 @@ public final class ServerSerializationStreamWriter extends
       void write(ServerSerializationStreamWriter stream, Object instance) {
         char[] vector = (char[]) instance;
         stream.writeInt(vector.length);
-        for (int i = 0, n = vector.length; i < n; ++i) {
-          stream.writeChar(vector[i]);
+        if (stream.hasFlags(FLAG_PACKED_PRIMITIVE_ARRAYS)) {
+          stream.writeString(PackedPrimitiveArrays.encode(vector));
+        } else {
+          for (int i = 0, n = vector.length; i < n; ++i) {
+            stream.writeChar(vector[i]);
+          }
         }
       }
     },
@@ -229,8 +286,12 @@ public final class ServerSerializationStreamWriter extends
       void write(ServerSerializationStreamWriter stream, Object instance) {
         int[] vector = (int[]) instance;
         stream.writeInt(vector.length);
-        for (int i = 0, n = vector.length; i < n; ++i) {
-          stream.writeInt(vector[i]);
+        if (stream.hasFlags(FLAG_PACKED_PRIMITIVE_ARRAYS)) {
+          stream.writeString(PackedPrimitiveArrays.encode(vector));
+        } else {
+          for (int i = 0, n = vector.length; i < n; ++i) {
+            stream.writeInt(vector[i]);
+          }
         }
       }
     },
@@ -239,8 +300,12 @@ public final class ServerSerializationStreamWriter extends
       void write(ServerSerializationStreamWriter stream, Object instance) {
         long[] vector = (long[]) instance;
         stream.writeInt(vector.length);
-        for (int i = 0, n = vector.length; i < n; ++i) {
-          stream.writeLong(vector[i]);
+        if (stream.hasFlags(FLAG_PACKED_PRIMITIVE_ARRAYS)) {
+          stream.writeString(PackedPrimitiveArrays.encode(vector));
+        } else {
+          for (int i = 0, n = vector.length; i < n; ++i) {
+            stream.writeLong(vector[i]);
+          }
         }
       }
     },
@@ -260,8 +325,12 @@ public final class ServerSerializationStreamWriter extends
       void write(ServerSerializationStreamWriter stream, Object instance) {
         short[] vector = (short[]) instance;
         stream.writeInt(vector.length);
-        for (int i = 0, n = vector.length; i < n; ++i) {
-          stream.writeShort(vector[i]);
+        if (stream.hasFlags(FLAG_PACKED_PRIMITIVE_ARRAYS)) {
+          stream.writeString(PackedPrimitiveArrays.encode(vector));
+        } else {
+          for (int i = 0, n = vector.length; i < n; ++i) {
+            stream.writeShort(vector[i]);
+          }
         }
       }
     },
@@ -608,6 +677,33 @@ public final class ServerSerializationStreamWriter extends
 
     return stream.toString();
   }
+
+  /**
+   * Writes the same text as {@link #toString()} to <code>out</code>, without
+   * building it in memory first.
+   */
+  public void writeTo(Writer out) throws IOException {
+    LengthConstrainedArray stream = new LengthConstrainedArray(out);
+
+    // The payload, in reverse.
+    ListIterator<String> tokenIterator = tokenList.listIterator(tokenList.size());
+    while (tokenIterator.hasPrevious()) {
+      stream.appendToken(tokenIterator.previous());
+    }
+
+    // The string table, as a single nested array.
+    stream.beginToken();
+    LengthConstrainedArray tableStream = new LengthConstrainedArray(out);
+    for (String s : getStringTable()) {
+      tableStream.appendToken(escapeStringSplitNodes(s));
+    }
+    tableStream.close();
+
+    // The header, in reverse.
+    stream.appendToken(String.valueOf(getFlags()));
+    stream.appendToken(String.valueOf(getVersion()));
+    stream.close();
+  }
   
   @Override
   public void writeLong(long value) {
@@ -693,7 +789,8 @@ public final class ServerSerializationStreamWriter extends
   private void serializeClass(Object instance, Class<?> instanceClass)
       throws SerializationException {
     assert (instance != null);
-    Field[] serializableFields = SerializabilityUtil.applyFieldSerializationPolicy(instanceClass);
+    FieldSerializationPlan.PlannedField[] serializableFields =
+        FieldSerializationPlan.get(instanceClass).getFields();
 
     /**
      * If clientFieldNames is non-null, identify any additional server-only fields and serialize
@@ -703,12 +800,12 @@ public final class ServerSerializationStreamWriter extends
     Set<String> clientFieldNames = serializationPolicy.getClientFieldNamesForEnhancedClass(instanceClass);
     if (clientFieldNames != null) {
       List<Field> serverFields = new ArrayList<Field>();
-      for (Field declField : serializableFields) {
+      for (FieldSerializationPlan.PlannedField declField : serializableFields) {
         assert (declField != null);
         
         // Identify server-only fields
         if (!clientFieldNames.contains(declField.getName())) {
-          serverFields.add(declField);
+          serverFields.add(declField.getField());
           continue;
         }
       }
@@ -737,24 +834,14 @@ public final class ServerSerializationStreamWriter extends
     }
     
     // Write the client-visible field data
-    for (Field declField : serializableFields) {
+    for (FieldSerializationPlan.PlannedField declField : serializableFields) {
       if ((clientFieldNames != null) && !clientFieldNames.contains(declField.getName())) {
         // Skip server-only fields
         continue;
       }
 
-      boolean isAccessible = declField.isAccessible();
-      boolean needsAccessOverride = !isAccessible
-          && !Modifier.isPublic(declField.getModifiers());
-      if (needsAccessOverride) {
-        // Override the access restrictions
-        declField.setAccessible(true);
-      }
-
-      Object value;
       try {
-        value = declField.get(instance);
-        serializeValue(value, declField.getType());
+        declField.write(this, instance);
 
       } catch (IllegalArgumentException e) {
         throw new SerializationException(e);
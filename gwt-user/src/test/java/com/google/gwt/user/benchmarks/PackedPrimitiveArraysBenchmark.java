@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.benchmarks;
+
+import com.google.gwt.benchmarks.client.Benchmark;
+import com.google.gwt.benchmarks.client.IntRange;
+import com.google.gwt.benchmarks.client.Operator;
+import com.google.gwt.benchmarks.client.RangeField;
+import com.google.gwt.benchmarks.client.Setup;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.client.rpc.impl.ClientSerializationStreamReader;
+import com.google.gwt.user.client.rpc.impl.PackedPrimitiveArrays;
+
+/**
+ * Compares reading an <code>int[]</code> from a GWT-RPC response in the
+ * classic encoding, one token per element, with reading it from a response
+ * with {@link AbstractSerializationStream#FLAG_PACKED_PRIMITIVE_ARRAYS} set,
+ * where the elements are packed into one string by
+ * {@link PackedPrimitiveArrays}. Both include evaluating the response.
+ */
+public class PackedPrimitiveArraysBenchmark extends Benchmark {
+
+  protected final IntRange sizeRange = new IntRange(10, 10000, Operator.MULTIPLY, 10);
+
+  private String classicResponse;
+
+  private String packedResponse;
+
+  @Override
+  public String getModuleName() {
+    return "com.google.gwt.user.UserBenchmarks";
+  }
+
+  // Required by JUnit
+  public void testClassic() {
+  }
+
+  @Setup("encode")
+  public void testClassic(@RangeField("sizeRange") Integer size) throws SerializationException {
+    ClientSerializationStreamReader reader = new ClientSerializationStreamReader(null);
+    reader.prepareToRead(classicResponse);
+    int[] values = new int[reader.readInt()];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = reader.readInt();
+    }
+  }
+
+  // Required by JUnit
+  public void testPacked() {
+  }
+
+  @Setup("encode")
+  public void testPacked(@RangeField("sizeRange") Integer size) throws SerializationException {
+    ClientSerializationStreamReader reader = new ClientSerializationStreamReader(null);
+    reader.prepareToRead(packedResponse);
+    int[] values = new int[reader.readInt()];
+    PackedPrimitiveArrays.decode(reader.readString(), values);
+  }
+
+  /**
+   * Builds both responses for an array of <code>size</code> mostly small
+   * values. A response is read from the end, so the elements are written in
+   * reverse.
+   */
+  void encode(Integer size) {
+    int[] values = new int[size];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = (i * 37) % 1000 - 500;
+    }
+
+    StringBuilder classic = new StringBuilder("[");
+    for (int i = values.length - 1; i >= 0; --i) {
+      classic.append(values[i]).append(',');
+    }
+    classic.append(values.length).append(",[],0,");
+    classic.append(AbstractSerializationStream.SERIALIZATION_STREAM_VERSION).append(']');
+    classicResponse = classic.toString();
+
+    packedResponse = "[1," + values.length + ",[\"" + PackedPrimitiveArrays.encode(values)
+        + "\"]," + AbstractSerializationStream.FLAG_PACKED_PRIMITIVE_ARRAYS + ","
+        + AbstractSerializationStream.SERIALIZATION_STREAM_VERSION + "]";
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A dummy class for testing methods that require an HttpServletResponse. It
+ * records the headers, content type, status and content that are set.
+ */
+public class MockHttpServletResponse implements HttpServletResponse {
+
+  private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+  private String contentType;
+  private final Map<String, String> headers = new HashMap<String, String>();
+  private boolean outputStreamOpened;
+  private int status;
+
+  public void addCookie(Cookie arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void addDateHeader(String arg0, long arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void addHeader(String arg0, String arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void addIntHeader(String arg0, int arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public boolean containsHeader(String name) {
+    return headers.containsKey(name);
+  }
+
+  public String encodeRedirectUrl(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public String encodeRedirectURL(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public String encodeUrl(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public String encodeURL(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void flushBuffer() throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public int getBufferSize() {
+    throw new UnsupportedOperationException();
+  }
+
+  public String getCharacterEncoding() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Returns the bytes written to the output stream.
+   */
+  public byte[] getContent() {
+    return content.toByteArray();
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Returns the value of a header set by {@link #setHeader}, or
+   * <code>null</code>.
+   */
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  public Locale getLocale() {
+    throw new UnsupportedOperationException();
+  }
+
+  public ServletOutputStream getOutputStream() {
+    outputStreamOpened = true;
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        content.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        content.write(b, off, len);
+      }
+    };
+  }
+
+  /**
+   * Returns the status set by {@link #setStatus(int)}, or 0.
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  public PrintWriter getWriter() throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public boolean isCommitted() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Returns true once {@link #getOutputStream()} has been called.
+   */
+  public boolean isOutputStreamOpened() {
+    return outputStreamOpened;
+  }
+
+  public void reset() {
+    throw new UnsupportedOperationException();
+  }
+
+  public void resetBuffer() {
+    throw new UnsupportedOperationException();
+  }
+
+  public void sendError(int arg0) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public void sendError(int arg0, String arg1) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public void sendRedirect(String arg0) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setBufferSize(int arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setCharacterEncoding(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setContentLength(int arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setContentType(String type) {
+    contentType = type;
+  }
+
+  public void setDateHeader(String arg0, long arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setHeader(String name, String value) {
+    headers.put(name, value);
+  }
+
+  public void setIntHeader(String arg0, int arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setLocale(Locale arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setStatus(int sc) {
+    status = sc;
+  }
+
+  public void setStatus(int arg0, String arg1) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -21,13 +21,18 @@ import com.google.gwt.user.client.rpc.UnicodeEscapingTest;
 import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Tests some of the methods in {@link RPCServletUtils}.
@@ -213,6 +218,50 @@ public class RPCServletUtilsTest extends TestCase {
     RPCServletUtils.readContent(m, null, null);
   }
 
+  /**
+   * Nothing should be sent until the first write, since a failure before then
+   * may still need to set an error status.
+   */
+  public void testOpenResponse() throws IOException {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    Writer out = RPCServletUtils.openResponse(response, false);
+    assertNull(response.getContentType());
+    assertEquals(0, response.getStatus());
+    assertFalse(response.isOutputStreamOpened());
+
+    out.write("//OK[1,[],0,7]");
+    out.close();
+    assertEquals("application/json; charset=utf-8", response.getContentType());
+    assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+    assertNotNull(response.getHeader("Content-Disposition"));
+    assertFalse(response.containsHeader("Content-Encoding"));
+    assertEquals("//OK[1,[],0,7]", new String(response.getContent(), "UTF-8"));
+  }
+
+  /**
+   * A gzipped response should decompress to what was written.
+   */
+  public void testOpenResponseGzip() throws IOException {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    Writer out = RPCServletUtils.openResponse(response, true);
+    assertFalse(response.containsHeader("Content-Encoding"));
+
+    String content = "//OK[" + UnicodeEscapingTest.getStringContainingCharacterRange(0, 0x800)
+        + "]";
+    out.write(content);
+    out.close();
+    assertEquals("gzip", response.getHeader("Content-Encoding"));
+
+    InputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getContent()));
+    ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      decompressed.write(buffer, 0, count);
+    }
+    assertEquals(content, new String(decompressed.toByteArray(), "UTF-8"));
+  }
+
   /**
    * A non UTF-8 character encoding should be rejected.
    */
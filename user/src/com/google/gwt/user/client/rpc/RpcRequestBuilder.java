@@ -40,6 +40,15 @@ public class RpcRequestBuilder {
    */
   public static final String MODULE_BASE_HEADER = "X-GWT-Module-Base";
 
+  /**
+   * Used by {@link #doFinish}. Tells the server that the client can read
+   * responses whose primitive arrays are packed.
+   */
+  /*
+   * NB: Also used by RemoteServiceServlet.
+   */
+  public static final String PACKED_ARRAYS_HEADER = "X-GWT-Packed-Arrays";
+
   /**
    * Used by {@link #doFinish}.
    */
@@ -159,13 +168,17 @@ public class RpcRequestBuilder {
    * caller.
    * <p>
    * The default implementation sets the {@value #STRONG_NAME_HEADER} header to
-   * the value returned by {@link GWT#getPermutationStrongName()}.
+   * the value returned by {@link GWT#getPermutationStrongName()}, the
+   * {@value #MODULE_BASE_HEADER} header to the value returned by
+   * {@link GWT#getModuleBaseURL()} and the {@value #PACKED_ARRAYS_HEADER}
+   * header to <code>1</code>.
    * 
    * @param rb The RequestBuilder that is currently being configured
    */
   protected void doFinish(RequestBuilder rb) {
     rb.setHeader(STRONG_NAME_HEADER, GWT.getPermutationStrongName());
     rb.setHeader(MODULE_BASE_HEADER, GWT.getModuleBaseURL());
+    rb.setHeader(PACKED_ARRAYS_HEADER, "1");
   }
 
   /**
@@ -59,11 +59,19 @@ public abstract class AbstractSerializationStream {
    * Indicates that RPC token is included in the RPC payload.
    */
   public static final int FLAG_RPC_TOKEN_INCLUDED = 0x2;
+
+  /**
+   * Indicates that the elements of primitive arrays, other than arrays of
+   * doubles and floats, are packed into one string per array. See
+   * {@link PackedPrimitiveArrays}. Only responses are packed; the server
+   * rejects requests with this flag.
+   */
+  public static final int FLAG_PACKED_PRIMITIVE_ARRAYS = 0x4;
   
   /**
    * Bit mask representing all valid flags.
    */
-  public static final int VALID_FLAGS_MASK = 0x3;
+  public static final int VALID_FLAGS_MASK = 0x7;
 
   private int flags = DEFAULT_FLAGS;
   private int version = SERIALIZATION_STREAM_VERSION;
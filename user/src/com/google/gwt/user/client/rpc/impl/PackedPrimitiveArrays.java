@@ -0,0 +1,264 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.client.rpc.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.SerializationStreamReader;
+
+/**
+ * Encodes the elements of primitive arrays into a single string, used in place
+ * of one token per element when a stream has the
+ * {@link AbstractSerializationStream#FLAG_PACKED_PRIMITIVE_ARRAYS} flag. The
+ * length of the array is written before the string, as it is for the unpacked
+ * form, so the array can be instantiated before its elements are read.
+ * <p>
+ * Every character is one of the 64 digits <code>A-Z a-z 0-9 $ _</code>, none
+ * of which need escaping in a JavaScript string or an RPC payload.
+ * <ul>
+ * <li>Booleans are packed six to a digit, first element in the lowest bit.
+ * <li>Bytes, shorts, ints and longs are zigzag encoded, so that small negative
+ * numbers stay small, and written as varints of five bits per digit, lowest
+ * bits first, with the sixth bit set on every digit but the last.
+ * <li>Chars are written as varints without zigzag encoding.
+ * </ul>
+ * Arrays of doubles and floats are never packed.
+ */
+public final class PackedPrimitiveArrays {
+
+  /**
+   * Reads varints from a packed string, one after the other.
+   */
+  private static final class Decoder {
+    private final String packed;
+    private int pos;
+
+    Decoder(String packed) {
+      this.packed = packed;
+    }
+
+    /**
+     * Checks that every digit has been read.
+     */
+    void finish() throws SerializationException {
+      if (pos != packed.length()) {
+        throw malformed(packed);
+      }
+    }
+
+    int nextInt() throws SerializationException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += VARINT_PAYLOAD_BITS) {
+        int digit = nextDigit();
+        value |= (digit & VARINT_PAYLOAD_MASK) << shift;
+        if ((digit & VARINT_CONTINUATION) == 0) {
+          return value;
+        }
+      }
+      throw malformed(packed);
+    }
+
+    int nextZigzagInt() throws SerializationException {
+      int zigzag = nextInt();
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    long nextZigzagLong() throws SerializationException {
+      long zigzag = 0;
+      for (int shift = 0; shift < 64; shift += VARINT_PAYLOAD_BITS) {
+        int digit = nextDigit();
+        zigzag |= (long) (digit & VARINT_PAYLOAD_MASK) << shift;
+        if ((digit & VARINT_CONTINUATION) == 0) {
+          return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+      }
+      throw malformed(packed);
+    }
+
+    private int nextDigit() throws SerializationException {
+      if (pos == packed.length()) {
+        throw malformed(packed);
+      }
+      return digit(packed, pos++);
+    }
+  }
+
+  private static final String DIGITS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789$_";
+
+  private static final int BOOLEANS_PER_DIGIT = 6;
+  private static final int VARINT_CONTINUATION = 0x20;
+  private static final int VARINT_PAYLOAD_BITS = 5;
+  private static final int VARINT_PAYLOAD_MASK = 0x1f;
+
+  public static void decode(String packed, boolean[] into) throws SerializationException {
+    int digitCount = (into.length + BOOLEANS_PER_DIGIT - 1) / BOOLEANS_PER_DIGIT;
+    if (packed.length() != digitCount) {
+      throw malformed(packed);
+    }
+    for (int i = 0; i < digitCount; ++i) {
+      int bits = digit(packed, i);
+      for (int j = 0, k = i * BOOLEANS_PER_DIGIT; j < BOOLEANS_PER_DIGIT
+          && k < into.length; ++j, ++k) {
+        into[k] = (bits & (1 << j)) != 0;
+      }
+    }
+  }
+
+  public static void decode(String packed, byte[] into) throws SerializationException {
+    Decoder decoder = new Decoder(packed);
+    for (int i = 0, n = into.length; i < n; ++i) {
+      into[i] = (byte) decoder.nextZigzagInt();
+    }
+    decoder.finish();
+  }
+
+  public static void decode(String packed, char[] into) throws SerializationException {
+    Decoder decoder = new Decoder(packed);
+    for (int i = 0, n = into.length; i < n; ++i) {
+      into[i] = (char) decoder.nextInt();
+    }
+    decoder.finish();
+  }
+
+  public static void decode(String packed, int[] into) throws SerializationException {
+    Decoder decoder = new Decoder(packed);
+    for (int i = 0, n = into.length; i < n; ++i) {
+      into[i] = decoder.nextZigzagInt();
+    }
+    decoder.finish();
+  }
+
+  public static void decode(String packed, long[] into) throws SerializationException {
+    Decoder decoder = new Decoder(packed);
+    for (int i = 0, n = into.length; i < n; ++i) {
+      into[i] = decoder.nextZigzagLong();
+    }
+    decoder.finish();
+  }
+
+  public static void decode(String packed, short[] into) throws SerializationException {
+    Decoder decoder = new Decoder(packed);
+    for (int i = 0, n = into.length; i < n; ++i) {
+      into[i] = (short) decoder.nextZigzagInt();
+    }
+    decoder.finish();
+  }
+
+  public static String encode(boolean[] values) {
+    StringBuilder sb = new StringBuilder(
+        (values.length + BOOLEANS_PER_DIGIT - 1) / BOOLEANS_PER_DIGIT);
+    for (int i = 0, n = values.length; i < n; i += BOOLEANS_PER_DIGIT) {
+      int bits = 0;
+      for (int j = 0, k = i; j < BOOLEANS_PER_DIGIT && k < n; ++j, ++k) {
+        if (values[k]) {
+          bits |= 1 << j;
+        }
+      }
+      sb.append(DIGITS.charAt(bits));
+    }
+    return sb.toString();
+  }
+
+  public static String encode(byte[] values) {
+    StringBuilder sb = new StringBuilder(values.length * 2);
+    for (int i = 0, n = values.length; i < n; ++i) {
+      appendZigzagInt(sb, values[i]);
+    }
+    return sb.toString();
+  }
+
+  public static String encode(char[] values) {
+    StringBuilder sb = new StringBuilder(values.length * 2);
+    for (int i = 0, n = values.length; i < n; ++i) {
+      appendInt(sb, values[i]);
+    }
+    return sb.toString();
+  }
+
+  public static String encode(int[] values) {
+    StringBuilder sb = new StringBuilder(values.length * 2);
+    for (int i = 0, n = values.length; i < n; ++i) {
+      appendZigzagInt(sb, values[i]);
+    }
+    return sb.toString();
+  }
+
+  public static String encode(long[] values) {
+    StringBuilder sb = new StringBuilder(values.length * 2);
+    for (int i = 0, n = values.length; i < n; ++i) {
+      long value = values[i];
+      long zigzag = (value << 1) ^ (value >> 63);
+      while ((zigzag & ~VARINT_PAYLOAD_MASK) != 0) {
+        sb.append(DIGITS.charAt(((int) zigzag & VARINT_PAYLOAD_MASK) | VARINT_CONTINUATION));
+        zigzag >>>= VARINT_PAYLOAD_BITS;
+      }
+      sb.append(DIGITS.charAt((int) zigzag));
+    }
+    return sb.toString();
+  }
+
+  public static String encode(short[] values) {
+    StringBuilder sb = new StringBuilder(values.length * 2);
+    for (int i = 0, n = values.length; i < n; ++i) {
+      appendZigzagInt(sb, values[i]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns true if the arrays read from <code>streamReader</code> are packed.
+   */
+  public static boolean isPacked(SerializationStreamReader streamReader) {
+    return streamReader instanceof AbstractSerializationStream
+        && ((AbstractSerializationStream) streamReader).hasFlags(
+            AbstractSerializationStream.FLAG_PACKED_PRIMITIVE_ARRAYS);
+  }
+
+  private static void appendInt(StringBuilder sb, int value) {
+    while ((value & ~VARINT_PAYLOAD_MASK) != 0) {
+      sb.append(DIGITS.charAt((value & VARINT_PAYLOAD_MASK) | VARINT_CONTINUATION));
+      value >>>= VARINT_PAYLOAD_BITS;
+    }
+    sb.append(DIGITS.charAt(value));
+  }
+
+  private static void appendZigzagInt(StringBuilder sb, int value) {
+    appendInt(sb, (value << 1) ^ (value >> 31));
+  }
+
+  private static int digit(String packed, int index) throws SerializationException {
+    char c = packed.charAt(index);
+    if (c >= 'A' && c <= 'Z') {
+      return c - 'A';
+    } else if (c >= 'a' && c <= 'z') {
+      return c - 'a' + 26;
+    } else if (c >= '0' && c <= '9') {
+      return c - '0' + 52;
+    } else if (c == '$') {
+      return 62;
+    } else if (c == '_') {
+      return 63;
+    }
+    throw malformed(packed);
+  }
+
+  private static SerializationException malformed(String packed) {
+    return new SerializationException("Malformed packed array: " + packed);
+  }
+
+  private PackedPrimitiveArrays() {
+  }
+}
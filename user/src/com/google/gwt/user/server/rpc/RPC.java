@@ -27,6 +27,9 @@ import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamReader;
 import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter;
 import com.google.gwt.user.server.rpc.impl.TypeNameObfuscator;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
@@ -56,6 +59,40 @@ import java.util.Set;
  */
 public final class RPC {
 
+  /**
+   * A response that has been serialized but not yet encoded as text.
+   */
+  private static final class SerializedResponse {
+    private final ServerSerializationStreamWriter stream;
+    private final boolean wasThrown;
+
+    SerializedResponse(ServerSerializationStreamWriter stream, boolean wasThrown) {
+      this.stream = stream;
+      this.wasThrown = wasThrown;
+    }
+
+    @Override
+    public String toString() {
+      return getPrefix() + stream.toString();
+    }
+
+    void writeTo(Writer out) throws IOException {
+      out.write(getPrefix());
+      stream.writeTo(out);
+    }
+
+    private String getPrefix() {
+      return wasThrown ? "//EX" : "//OK";
+    }
+  }
+
+  /**
+   * The most parameters a Java method can declare. The tokens in a request
+   * read from a stream aren't counted up front, so this bounds the parameter
+   * count instead.
+   */
+  private static final int MAX_PARAMETER_COUNT = 255;
+
   /**
    * Maps primitive wrapper classes to their corresponding primitive class.
    */
@@ -238,88 +275,55 @@ public final class RPC {
       ServerSerializationStreamReader streamReader =
           new ServerSerializationStreamReader(classLoader, serializationPolicyProvider);
       streamReader.prepareToRead(encodedRequest);
+      return decodeRequest(streamReader, type, classLoader);
+    } catch (SerializationException ex) {
+      throw new IncompatibleRemoteServiceException(ex.getMessage(), ex);
+    }
+  }
 
-      RpcToken rpcToken = null;
-      if (streamReader.hasFlags(AbstractSerializationStream.FLAG_RPC_TOKEN_INCLUDED)) {
-        // Read the RPC token
-        rpcToken = (RpcToken) streamReader.deserializeValue(RpcToken.class);
-      }
-
-      // Read the name of the RemoteService interface
-      String serviceIntfName = maybeDeobfuscate(streamReader, streamReader.readString());
-
-      if (type != null) {
-        if (!implementsInterface(type, serviceIntfName)) {
-          // The service does not implement the requested interface
-          throw new IncompatibleRemoteServiceException("Blocked attempt to access interface '"
-              + serviceIntfName + "', which is not implemented by '" + printTypeName(type)
-              + "'; this is either misconfiguration or a hack attempt");
-        }
-      }
-
-      SerializationPolicy serializationPolicy = streamReader.getSerializationPolicy();
-      Class<?> serviceIntf;
-      try {
-        serviceIntf = getClassFromSerializedName(serviceIntfName, classLoader);
-        if (!RemoteService.class.isAssignableFrom(serviceIntf)) {
-          // The requested interface is not a RemoteService interface
-          throw new IncompatibleRemoteServiceException(
-              "Blocked attempt to access interface '"
-                  + printTypeName(serviceIntf)
-                  + "', which doesn't extend RemoteService; this is either "
-                  + "misconfiguration or a hack attempt");
-        }
-      } catch (ClassNotFoundException e) {
-        throw new IncompatibleRemoteServiceException("Could not locate requested interface '"
-            + serviceIntfName + "' in default classloader", e);
-      }
-
-      String serviceMethodName = streamReader.readString();
-
-      int paramCount = streamReader.readInt();
-      if (paramCount > streamReader.getNumberOfTokens()) {
-        throw new IncompatibleRemoteServiceException("Invalid number of parameters");
-      }
-      Class<?>[] parameterTypes = new Class[paramCount];
-
-      for (int i = 0; i < parameterTypes.length; i++) {
-        String paramClassName = maybeDeobfuscate(streamReader, streamReader.readString());
-
-        try {
-          parameterTypes[i] = getClassFromSerializedName(paramClassName, classLoader);
-        } catch (ClassNotFoundException e) {
-          throw new IncompatibleRemoteServiceException("Parameter " + i
-              + " of is of an unknown type '" + paramClassName + "'", e);
-        }
-      }
-
-      try {
-        Method method = serviceIntf.getMethod(serviceMethodName, parameterTypes);
-
-        // The parameter types we have are the non-parameterized versions in the
-        // RPC stream. For stronger message verification, get the parameterized
-        // types from the method declaration.
-        Type[] methodParameterTypes = method.getGenericParameterTypes();
-        DequeMap<TypeVariable<?>, Type> resolvedTypes = new DequeMap<TypeVariable<?>, Type>();
+  /**
+   * Returns an {@link RPCRequest} that is built by decoding an encoded RPC
+   * request while it is read from <code>encodedRequest</code>. The request is
+   * never held in memory as a whole, which makes this the better choice for
+   * large requests. Apart from that, this is the same as
+   * {@link #decodeRequest(String, Class, SerializationPolicyProvider)}.
+   *
+   * @param encodedRequest the encoded request, which is read up to the end of
+   *          its last token but not closed
+   * @param type if not <code>null</code>, the implementation checks that the
+   *          type is assignable to the {@link RemoteService} interface encoded
+   *          in the encoded request.
+   * @param serializationPolicyProvider if not <code>null</code>, the
+   *          implementation asks this provider for a
+   *          {@link SerializationPolicy} which will be used to restrict the set
+   *          of types that can be decoded from this request
+   * @return an {@link RPCRequest} instance
+   *
+   * @throws NullPointerException if the encodedRequest is <code>null</code>
+   * @throws IncompatibleRemoteServiceException in the same cases as
+   *           {@link #decodeRequest(String, Class, SerializationPolicyProvider)}
+   * @throws IOException if reading from encodedRequest fails
+   */
+  public static RPCRequest decodeRequest(Reader encodedRequest, Class<?> type,
+      SerializationPolicyProvider serializationPolicyProvider) throws IOException {
+    if (encodedRequest == null) {
+      throw new NullPointerException("encodedRequest cannot be null");
+    }
 
-        TypeVariable<Method>[] methodTypes = method.getTypeParameters();
-        for (TypeVariable<Method> methodType : methodTypes) {
-          SerializabilityUtil.resolveTypes(methodType, resolvedTypes);
-        }
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
-        Object[] parameterValues = new Object[parameterTypes.length];
-        for (int i = 0; i < parameterValues.length; i++) {
-          parameterValues[i] = streamReader.deserializeValue(parameterTypes[i],
-              methodParameterTypes[i], resolvedTypes);
+    try {
+      ServerSerializationStreamReader streamReader =
+          new ServerSerializationStreamReader(classLoader, serializationPolicyProvider);
+      streamReader.prepareToRead(encodedRequest);
+      return decodeRequest(streamReader, type, classLoader);
+    } catch (SerializationException ex) {
+      // Failing to read the request is not the client's fault.
+      for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
         }
-
-        return new RPCRequest(method, parameterValues, rpcToken, serializationPolicy, streamReader
-            .getFlags());
-      } catch (NoSuchMethodException e) {
-        throw new IncompatibleRemoteServiceException(formatMethodNotFoundErrorMessage(serviceIntf,
-            serviceMethodName, parameterTypes));
       }
-    } catch (SerializationException ex) {
       throw new IncompatibleRemoteServiceException(ex.getMessage(), ex);
     }
   }
@@ -377,20 +381,8 @@ public final class RPC {
 
   public static String encodeResponseForFailure(Method serviceMethod, Throwable cause,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
-    if (cause == null) {
-      throw new NullPointerException("cause cannot be null");
-    }
-
-    if (serializationPolicy == null) {
-      throw new NullPointerException("serializationPolicy");
-    }
-
-    if (serviceMethod != null && !RPCServletUtils.isExpectedException(serviceMethod, cause)) {
-      throw new UnexpectedException("Service method '" + getSourceRepresentation(serviceMethod)
-          + "' threw an unexpected exception: " + cause.toString(), cause);
-    }
-
-    return encodeResponse(cause.getClass(), cause, true, flags, serializationPolicy);
+    return serializeResponseForFailure(serviceMethod, cause, serializationPolicy, flags)
+        .toString();
   }
 
   /**
@@ -444,31 +436,8 @@ public final class RPC {
 
   public static String encodeResponseForSuccess(Method serviceMethod, Object object,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
-    if (serviceMethod == null) {
-      throw new NullPointerException("serviceMethod cannot be null");
-    }
-
-    if (serializationPolicy == null) {
-      throw new NullPointerException("serializationPolicy");
-    }
-
-    Class<?> methodReturnType = serviceMethod.getReturnType();
-    if (methodReturnType != void.class && object != null) {
-      Class<?> actualReturnType;
-      if (methodReturnType.isPrimitive()) {
-        actualReturnType = getPrimitiveClassFromWrapper(object.getClass());
-      } else {
-        actualReturnType = object.getClass();
-      }
-
-      if (actualReturnType == null || !methodReturnType.isAssignableFrom(actualReturnType)) {
-        throw new IllegalArgumentException("Type '" + printTypeName(object.getClass())
-            + "' does not match the return type in the method's signature: '"
-            + getSourceRepresentation(serviceMethod) + "'");
-      }
-    }
-
-    return encodeResponse(methodReturnType, object, false, flags, serializationPolicy);
+    return serializeResponseForSuccess(serviceMethod, object, serializationPolicy, flags)
+        .toString();
   }
 
   /**
@@ -548,65 +517,129 @@ public final class RPC {
 
   public static String invokeAndEncodeResponse(Object target, Method serviceMethod, Object[] args,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
-    if (serviceMethod == null) {
-      throw new NullPointerException("serviceMethod");
+    return invokeAndSerializeResponse(target, serviceMethod, args, serializationPolicy, flags)
+        .toString();
+  }
+
+  /**
+   * Writes the encoded result of calling a service method to <code>out</code>,
+   * which could be the value returned by the method or an exception thrown by
+   * it. The text written is the same as that returned by
+   * {@link #invokeAndEncodeResponse(Object, Method, Object[], SerializationPolicy, int)},
+   * but it is never built as a single String. Nothing is written if the result
+   * cannot be serialized.
+   * 
+   * @param target instance on which to invoke the serviceMethod
+   * @param serviceMethod the method to invoke
+   * @param args arguments used for the method invocation
+   * @param serializationPolicy determines the serialization policy to be used
+   * @param flags the flags of the request
+   * @param out where to write the encoded result
+   * 
+   * @throws IOException if writing to <code>out</code> fails
+   * @throws NullPointerException if the serviceMethod or the
+   *           serializationPolicy are <code>null</code>
+   * @throws SecurityException if the method cannot be accessed or if the number
+   *           or type of actual and formal arguments differ
+   * @throws SerializationException if an object could not be serialized by the
+   *           stream
+   * @throws UnexpectedException if the serviceMethod throws a checked exception
+   *           that is not declared in its signature
+   */
+  public static void invokeAndEncodeResponse(Object target, Method serviceMethod, Object[] args,
+      SerializationPolicy serializationPolicy, int flags, Writer out)
+      throws SerializationException, IOException {
+    invokeAndSerializeResponse(target, serviceMethod, args, serializationPolicy, flags)
+        .writeTo(out);
+  }
+
+  /**
+   * Decodes the rest of a request once its header has been read.
+   */
+  private static RPCRequest decodeRequest(ServerSerializationStreamReader streamReader,
+      Class<?> type, ClassLoader classLoader) throws SerializationException {
+    RpcToken rpcToken = null;
+    if (streamReader.hasFlags(AbstractSerializationStream.FLAG_RPC_TOKEN_INCLUDED)) {
+      // Read the RPC token
+      rpcToken = (RpcToken) streamReader.deserializeValue(RpcToken.class);
     }
 
-    if (serializationPolicy == null) {
-      throw new NullPointerException("serializationPolicy");
+    // Read the name of the RemoteService interface
+    String serviceIntfName = maybeDeobfuscate(streamReader, streamReader.readString());
+
+    if (type != null) {
+      if (!implementsInterface(type, serviceIntfName)) {
+        // The service does not implement the requested interface
+        throw new IncompatibleRemoteServiceException("Blocked attempt to access interface '"
+            + serviceIntfName + "', which is not implemented by '" + printTypeName(type)
+            + "'; this is either misconfiguration or a hack attempt");
+      }
     }
 
-    String responsePayload;
+    SerializationPolicy serializationPolicy = streamReader.getSerializationPolicy();
+    Class<?> serviceIntf;
     try {
-      Object result = serviceMethod.invoke(target, args);
+      serviceIntf = getClassFromSerializedName(serviceIntfName, classLoader);
+      if (!RemoteService.class.isAssignableFrom(serviceIntf)) {
+        // The requested interface is not a RemoteService interface
+        throw new IncompatibleRemoteServiceException(
+            "Blocked attempt to access interface '"
+                + printTypeName(serviceIntf)
+                + "', which doesn't extend RemoteService; this is either "
+                + "misconfiguration or a hack attempt");
+      }
+    } catch (ClassNotFoundException e) {
+      throw new IncompatibleRemoteServiceException("Could not locate requested interface '"
+          + serviceIntfName + "' in default classloader", e);
+    }
 
-      responsePayload = encodeResponseForSuccess(serviceMethod, result, serializationPolicy, flags);
-    } catch (IllegalAccessException e) {
-      SecurityException securityException =
-          new SecurityException(formatIllegalAccessErrorMessage(target, serviceMethod));
-      securityException.initCause(e);
-      throw securityException;
-    } catch (IllegalArgumentException e) {
-      SecurityException securityException =
-          new SecurityException(formatIllegalArgumentErrorMessage(target, serviceMethod, args));
-      securityException.initCause(e);
-      throw securityException;
-    } catch (InvocationTargetException e) {
-      // Try to encode the caught exception
-      //
-      Throwable cause = e.getCause();
+    String serviceMethodName = streamReader.readString();
 
-      responsePayload = encodeResponseForFailure(serviceMethod, cause, serializationPolicy, flags);
+    int paramCount = streamReader.readInt();
+    int tokenCount = streamReader.getNumberOfTokens();
+    if (paramCount < 0 || paramCount > MAX_PARAMETER_COUNT
+        || (tokenCount >= 0 && paramCount > tokenCount)) {
+      throw new IncompatibleRemoteServiceException("Invalid number of parameters");
     }
+    Class<?>[] parameterTypes = new Class[paramCount];
 
-    return responsePayload;
-  }
+    for (int i = 0; i < parameterTypes.length; i++) {
+      String paramClassName = maybeDeobfuscate(streamReader, streamReader.readString());
 
-  /**
-   * Returns a string that encodes the results of an RPC call. Private overload
-   * that takes a flag signaling the preamble of the response payload.
-   * 
-   * @param object the object that we wish to send back to the client
-   * @param wasThrown if true, the object being returned was an exception thrown
-   *          by the service method; if false, it was the result of the service
-   *          method's invocation
-   * @return a string that encodes the response from a service method
-   * @throws SerializationException if the object cannot be serialized
-   */
-  private static String encodeResponse(Class<?> responseClass, Object object, boolean wasThrown,
-      int flags, SerializationPolicy serializationPolicy) throws SerializationException {
+      try {
+        parameterTypes[i] = getClassFromSerializedName(paramClassName, classLoader);
+      } catch (ClassNotFoundException e) {
+        throw new IncompatibleRemoteServiceException("Parameter " + i
+            + " of is of an unknown type '" + paramClassName + "'", e);
+      }
+    }
 
-    ServerSerializationStreamWriter stream =
-        new ServerSerializationStreamWriter(serializationPolicy);
-    stream.setFlags(flags);
+    try {
+      Method method = serviceIntf.getMethod(serviceMethodName, parameterTypes);
 
-    stream.prepareToWrite();
-    if (responseClass != void.class) {
-      stream.serializeValue(object, responseClass);
-    }
+      // The parameter types we have are the non-parameterized versions in the
+      // RPC stream. For stronger message verification, get the parameterized
+      // types from the method declaration.
+      Type[] methodParameterTypes = method.getGenericParameterTypes();
+      DequeMap<TypeVariable<?>, Type> resolvedTypes = new DequeMap<TypeVariable<?>, Type>();
 
-    String bufferStr = (wasThrown ? "//EX" : "//OK") + stream.toString();
-    return bufferStr;
+      TypeVariable<Method>[] methodTypes = method.getTypeParameters();
+      for (TypeVariable<Method> methodType : methodTypes) {
+        SerializabilityUtil.resolveTypes(methodType, resolvedTypes);
+      }
+
+      Object[] parameterValues = new Object[parameterTypes.length];
+      for (int i = 0; i < parameterValues.length; i++) {
+        parameterValues[i] = streamReader.deserializeValue(parameterTypes[i],
+            methodParameterTypes[i], resolvedTypes);
+      }
+
+      return new RPCRequest(method, parameterValues, rpcToken, serializationPolicy, streamReader
+          .getFlags());
+    } catch (NoSuchMethodException e) {
+      throw new IncompatibleRemoteServiceException(formatMethodNotFoundErrorMessage(serviceIntf,
+          serviceMethodName, parameterTypes));
+    }
   }
 
   private static String formatIllegalAccessErrorMessage(Object target, Method serviceMethod) {
@@ -774,6 +807,43 @@ public final class RPC {
     return false;
   }
 
+  private static SerializedResponse invokeAndSerializeResponse(Object target,
+      Method serviceMethod, Object[] args, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
+    if (serviceMethod == null) {
+      throw new NullPointerException("serviceMethod");
+    }
+
+    if (serializationPolicy == null) {
+      throw new NullPointerException("serializationPolicy");
+    }
+
+    SerializedResponse response;
+    try {
+      Object result = serviceMethod.invoke(target, args);
+
+      response = serializeResponseForSuccess(serviceMethod, result, serializationPolicy, flags);
+    } catch (IllegalAccessException e) {
+      SecurityException securityException =
+          new SecurityException(formatIllegalAccessErrorMessage(target, serviceMethod));
+      securityException.initCause(e);
+      throw securityException;
+    } catch (IllegalArgumentException e) {
+      SecurityException securityException =
+          new SecurityException(formatIllegalArgumentErrorMessage(target, serviceMethod, args));
+      securityException.initCause(e);
+      throw securityException;
+    } catch (InvocationTargetException e) {
+      // Try to encode the caught exception
+      //
+      Throwable cause = e.getCause();
+
+      response = serializeResponseForFailure(serviceMethod, cause, serializationPolicy, flags);
+    }
+
+    return response;
+  }
+
   /**
    * Given a type identifier in the stream, attempt to deobfuscate it. Retuns
    * the original identifier if deobfuscation is unnecessary or no mapping is
@@ -839,6 +909,81 @@ public final class RPC {
     return type.getName().replace('$', '.');
   }
 
+  /**
+   * Serializes the results of an RPC call.
+   * 
+   * @param object the object that we wish to send back to the client
+   * @param wasThrown if true, the object being returned was an exception thrown
+   *          by the service method; if false, it was the result of the service
+   *          method's invocation
+   * @return the serialized response from a service method
+   * @throws SerializationException if the object cannot be serialized
+   */
+  private static SerializedResponse serializeResponse(Class<?> responseClass, Object object,
+      boolean wasThrown, int flags, SerializationPolicy serializationPolicy)
+      throws SerializationException {
+
+    ServerSerializationStreamWriter stream =
+        new ServerSerializationStreamWriter(serializationPolicy);
+    stream.setFlags(flags);
+
+    stream.prepareToWrite();
+    if (responseClass != void.class) {
+      stream.serializeValue(object, responseClass);
+    }
+
+    return new SerializedResponse(stream, wasThrown);
+  }
+
+  private static SerializedResponse serializeResponseForFailure(Method serviceMethod,
+      Throwable cause, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
+    if (cause == null) {
+      throw new NullPointerException("cause cannot be null");
+    }
+
+    if (serializationPolicy == null) {
+      throw new NullPointerException("serializationPolicy");
+    }
+
+    if (serviceMethod != null && !RPCServletUtils.isExpectedException(serviceMethod, cause)) {
+      throw new UnexpectedException("Service method '" + getSourceRepresentation(serviceMethod)
+          + "' threw an unexpected exception: " + cause.toString(), cause);
+    }
+
+    return serializeResponse(cause.getClass(), cause, true, flags, serializationPolicy);
+  }
+
+  private static SerializedResponse serializeResponseForSuccess(Method serviceMethod,
+      Object object, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
+    if (serviceMethod == null) {
+      throw new NullPointerException("serviceMethod cannot be null");
+    }
+
+    if (serializationPolicy == null) {
+      throw new NullPointerException("serializationPolicy");
+    }
+
+    Class<?> methodReturnType = serviceMethod.getReturnType();
+    if (methodReturnType != void.class && object != null) {
+      Class<?> actualReturnType;
+      if (methodReturnType.isPrimitive()) {
+        actualReturnType = getPrimitiveClassFromWrapper(object.getClass());
+      } else {
+        actualReturnType = object.getClass();
+      }
+
+      if (actualReturnType == null || !methodReturnType.isAssignableFrom(actualReturnType)) {
+        throw new IllegalArgumentException("Type '" + printTypeName(object.getClass())
+            + "' does not match the return type in the method's signature: '"
+            + getSourceRepresentation(serviceMethod) + "'");
+      }
+    }
+
+    return serializeResponse(methodReturnType, object, false, flags, serializationPolicy);
+  }
+
   /**
    * Static classes have no constructability.
    */
@@ -16,16 +16,19 @@
 package com.google.gwt.user.server.rpc;
 
 import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
+import com.google.gwt.user.client.rpc.RpcRequestBuilder;
 import com.google.gwt.user.client.rpc.RpcTokenException;
 import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -45,6 +48,21 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
    */
   static SerializationPolicy loadSerializationPolicy(HttpServlet servlet,
       HttpServletRequest request, String moduleBaseURL, String strongName) {
+    String serializationPolicyFilePath = getSerializationPolicyFilePath(servlet,
+        request, moduleBaseURL, strongName);
+    if (serializationPolicyFilePath == null) {
+      return null;
+    }
+    return loadSerializationPolicyFile(servlet, serializationPolicyFilePath);
+  }
+
+  /**
+   * Returns the context-relative path of the policy file for a module base URL
+   * and strong name, or <code>null</code> if the module is not in the same web
+   * application as the servlet.
+   */
+  private static String getSerializationPolicyFilePath(HttpServlet servlet,
+      HttpServletRequest request, String moduleBaseURL, String strongName) {
     // The request can tell you the path of the web app relative to the
     // container root.
     String contextPath = request.getContextPath();
@@ -59,8 +77,6 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
       }
     }
 
-    SerializationPolicy serializationPolicy = null;
-
     /*
      * Check that the module path must be in the same web app as the servlet
      * itself. If you need to implement a scheme different than this, override
@@ -73,42 +89,51 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
           + contextPath
           + ".  Your module may not be properly configured or your client and server code maybe out of date.";
       servlet.log(message);
-    } else {
-      // Strip off the context path from the module base URL. It should be a
-      // strict prefix.
-      String contextRelativePath = modulePath.substring(contextPath.length());
+      return null;
+    }
 
-      String serializationPolicyFilePath = SerializationPolicyLoader.getSerializationPolicyFileName(contextRelativePath
-          + strongName);
+    // Strip off the context path from the module base URL. It should be a
+    // strict prefix.
+    String contextRelativePath = modulePath.substring(contextPath.length());
 
-      // Open the RPC resource file and read its contents.
-      InputStream is = servlet.getServletContext().getResourceAsStream(
-          serializationPolicyFilePath);
-      try {
-        if (is != null) {
-          try {
-            serializationPolicy = SerializationPolicyLoader.loadFromStream(is,
-                null);
-          } catch (ParseException e) {
-            servlet.log("ERROR: Failed to parse the policy file '"
-                + serializationPolicyFilePath + "'", e);
-          } catch (IOException e) {
-            servlet.log("ERROR: Could not read the policy file '"
-                + serializationPolicyFilePath + "'", e);
-          }
-        } else {
-          String message = "ERROR: The serialization policy file '"
-              + serializationPolicyFilePath
-              + "' was not found; did you forget to include it in this deployment?";
-          servlet.log(message);
+    return SerializationPolicyLoader.getSerializationPolicyFileName(contextRelativePath
+        + strongName);
+  }
+
+  /**
+   * Reads a policy file, or returns <code>null</code> if it cannot be read.
+   */
+  private static SerializationPolicy loadSerializationPolicyFile(HttpServlet servlet,
+      String serializationPolicyFilePath) {
+    SerializationPolicy serializationPolicy = null;
+
+    // Open the RPC resource file and read its contents.
+    InputStream is = servlet.getServletContext().getResourceAsStream(
+        serializationPolicyFilePath);
+    try {
+      if (is != null) {
+        try {
+          serializationPolicy = SerializationPolicyLoader.loadFromStream(is,
+              null);
+        } catch (ParseException e) {
+          servlet.log("ERROR: Failed to parse the policy file '"
+              + serializationPolicyFilePath + "'", e);
+        } catch (IOException e) {
+          servlet.log("ERROR: Could not read the policy file '"
+              + serializationPolicyFilePath + "'", e);
         }
-      } finally {
-        if (is != null) {
-          try {
-            is.close();
-          } catch (IOException e) {
-            // Ignore this error
-          }
+      } else {
+        String message = "ERROR: The serialization policy file '"
+            + serializationPolicyFilePath
+            + "' was not found; did you forget to include it in this deployment?";
+        servlet.log(message);
+      }
+    } finally {
+      if (is != null) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // Ignore this error
         }
       }
     }
@@ -116,11 +141,27 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     return serializationPolicy;
   }
 
+  /**
+   * The most serialization policies cached at once. Each deployment of a
+   * module adds one per permutation that clients still use.
+   */
+  private static final int SERIALIZATION_POLICY_CACHE_SIZE = 64;
+
+  /**
+   * Policies read by {@link #preloadSerializationPolicies()}, by policy file
+   * path. Each moves to {@link #serializationPolicyCache} when it is first
+   * requested. Bounded like that cache, since a policy that no client requests,
+   * or that a request loaded before the preloader reached it, is never taken.
+   */
+  private final SerializationPolicyCache preloadedSerializationPolicies =
+      new SerializationPolicyCache(SERIALIZATION_POLICY_CACHE_SIZE);
+
   /**
    * A cache of moduleBaseURL and serialization policy strong name to
    * {@link SerializationPolicy}.
    */
-  private final Map<String, SerializationPolicy> serializationPolicyCache = new HashMap<String, SerializationPolicy>();
+  private final SerializationPolicyCache serializationPolicyCache =
+      new SerializationPolicyCache(SERIALIZATION_POLICY_CACHE_SIZE);
 
   /**
    * The implementation of the service.
@@ -175,6 +216,41 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     return serializationPolicy;
   }
 
+  /**
+   * Returns how many times a serialization policy was found in the cache.
+   */
+  public final long getSerializationPolicyCacheHitCount() {
+    return serializationPolicyCache.getHitCount();
+  }
+
+  /**
+   * Returns how many times a serialization policy was not in the cache and had
+   * to be loaded.
+   */
+  public final long getSerializationPolicyCacheMissCount() {
+    return serializationPolicyCache.getMissCount();
+  }
+
+  /**
+   * Starts loading every serialization policy file in the web application in
+   * the background if {@link #shouldPreloadSerializationPolicies()} says so.
+   * Subclasses that override this method must call it.
+   */
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    if (shouldPreloadSerializationPolicies()) {
+      Thread preloader = new Thread("Serialization policy preloader for " + getServletName()) {
+        @Override
+        public void run() {
+          preloadSerializationPolicies();
+        }
+      };
+      preloader.setDaemon(true);
+      preloader.start();
+    }
+  }
+
   /**
    * Process a call originating from the given request. Uses the
    * {@link RPC#invokeAndEncodeResponse(Object, java.lang.reflect.Method, Object[])}
@@ -202,12 +278,38 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     // First, check for possible XSRF situation
     checkPermutationStrongName();
 
+    RPCRequest rpcRequest;
+    try {
+      rpcRequest = RPC.decodeRequest(payload, delegate.getClass(), this);
+    } catch (IncompatibleRemoteServiceException ex) {
+      log(
+          "An IncompatibleRemoteServiceException was thrown while processing this call.",
+          ex);
+      return RPC.encodeResponseForFailure(null, ex);
+    }
+    return processCall(rpcRequest);
+  }
+
+  /**
+   * Process an already decoded call. Called by {@link #processCall(String)},
+   * and by {@link #processPost} instead of it when the request is streamed.
+   * 
+   * @param rpcRequest the decoded request
+   * @return a string which encodes either the method's return, a checked
+   *         exception thrown by the method, or an
+   *         {@link IncompatibleRemoteServiceException}
+   * @throws SerializationException if we cannot serialize the response
+   * @throws UnexpectedException if the invocation throws a checked exception
+   *           that is not declared in the service method's signature
+   * @throws RuntimeException if the service method throws an unchecked
+   *           exception (the exception will be the one thrown by the service)
+   */
+  public String processCall(RPCRequest rpcRequest) throws SerializationException {
     try {
-      RPCRequest rpcRequest = RPC.decodeRequest(payload, delegate.getClass(), this);
       onAfterRequestDeserialized(rpcRequest);
       return RPC.invokeAndEncodeResponse(delegate, rpcRequest.getMethod(),
           rpcRequest.getParameters(), rpcRequest.getSerializationPolicy(),
-          rpcRequest.getFlags());
+          getResponseFlags(rpcRequest, getThreadLocalRequest()));
     } catch (IncompatibleRemoteServiceException ex) {
       log(
           "An IncompatibleRemoteServiceException was thrown while processing this call.",
@@ -234,18 +336,32 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
   public final void processPost(HttpServletRequest request,
       HttpServletResponse response) throws IOException, ServletException,
       SerializationException {
-    // Read the request fully.
-    //
-    String requestPayload = readContent(request);
-
-    // Let subclasses see the serialized request.
-    //
-    onBeforeRequestDeserialized(requestPayload);
+    if (shouldStreamResponse(request)) {
+      // Write the response while it is encoded.
+      //
+      processCallAndStreamResponse(request, response);
+      return;
+    }
 
-    // Invoke the core dispatching logic, which returns the serialized
-    // result.
-    //
-    String responsePayload = processCall(requestPayload);
+    String responsePayload;
+    if (shouldStreamRequest(request)) {
+      // Decode the request while it is read.
+      //
+      responsePayload = processStreamedCall(request);
+    } else {
+      // Read the request fully.
+      //
+      String requestPayload = readContent(request);
+
+      // Let subclasses see the serialized request.
+      //
+      onBeforeRequestDeserialized(requestPayload);
+
+      // Invoke the core dispatching logic, which returns the serialized
+      // result.
+      //
+      responsePayload = processCall(requestPayload);
+    }
 
     // Let subclasses see the serialized response.
     //
@@ -290,7 +406,18 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
    */
   protected SerializationPolicy doGetSerializationPolicy(
       HttpServletRequest request, String moduleBaseURL, String strongName) {
-    return loadSerializationPolicy(this, request, moduleBaseURL, strongName);
+    String serializationPolicyFilePath = getSerializationPolicyFilePath(this,
+        request, moduleBaseURL, strongName);
+    if (serializationPolicyFilePath == null) {
+      return null;
+    }
+
+    SerializationPolicy serializationPolicy =
+        preloadedSerializationPolicies.remove(serializationPolicyFilePath);
+    if (serializationPolicy != null) {
+      return serializationPolicy;
+    }
+    return loadSerializationPolicyFile(this, serializationPolicyFilePath);
   }
 
   /**
@@ -313,6 +440,83 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
   protected void onBeforeRequestDeserialized(String serializedRequest) {
   }
 
+  /**
+   * Determines whether the primitive arrays in the response to a request are
+   * packed into one string each, which makes them much shorter to send and
+   * faster for the client to read. Arrays of doubles and floats are never
+   * packed. Only clients that send the
+   * {@value RpcRequestBuilder#PACKED_ARRAYS_HEADER} header can read packed
+   * arrays; others always get the classic format.
+   * <p>
+   * This implementation returns <code>true</code> if the client sent the
+   * header. Subclasses can override it to keep the classic format.
+   * </p>
+   * 
+   * @param request the request being served
+   * @return <code>true</code> if the primitive arrays in the response should
+   *         be packed
+   */
+  protected boolean shouldPackPrimitiveArrays(HttpServletRequest request) {
+    return "1".equals(request.getHeader(RpcRequestBuilder.PACKED_ARRAYS_HEADER));
+  }
+
+  /**
+   * Determines whether {@link #init()} starts loading every
+   * <code>.gwt.rpc</code> serialization policy file in the web application, so
+   * that the first requests after a deployment don't wait for them. Only the
+   * default {@link #doGetSerializationPolicy} uses the preloaded policies.
+   * <p>
+   * This implementation returns <code>false</code>. Subclasses can override it.
+   * </p>
+   * 
+   * @return <code>true</code> if serialization policies should be preloaded
+   */
+  protected boolean shouldPreloadSerializationPolicies() {
+    return false;
+  }
+
+  /**
+   * Determines whether a request is decoded while it is read, rather than
+   * read into a String first. Decoding large requests that way takes much
+   * less memory. Streamed requests bypass {@link #readContent},
+   * {@link #onBeforeRequestDeserialized(String)} and
+   * {@link #processCall(String)}; {@link #processCall(RPCRequest)} handles
+   * them once they are decoded.
+   * <p>
+   * This implementation returns <code>false</code>. Subclasses that don't
+   * rely on the bypassed methods can override it.
+   * </p>
+   * 
+   * @param request the request being served
+   * @return <code>true</code> if the request should be decoded while it is
+   *         read
+   */
+  protected boolean shouldStreamRequest(HttpServletRequest request) {
+    return false;
+  }
+
+  /**
+   * Determines whether a response is written to the client while it is
+   * encoded, rather than encoded into a String first. Writing large responses
+   * that way takes much less memory, since the response text, its bytes and
+   * their gzipped copy are never held in full. Streamed responses are gzipped
+   * whenever the client accepts it, and bypass {@link #processCall(String)},
+   * {@link #processCall(RPCRequest)}, {@link #onAfterResponseSerialized(String)}
+   * and {@link #shouldCompressResponse}. Requests are still read as
+   * {@link #shouldStreamRequest} says.
+   * <p>
+   * This implementation returns <code>false</code>. Subclasses that don't
+   * rely on the bypassed methods can override it.
+   * </p>
+   * 
+   * @param request the request being served
+   * @return <code>true</code> if the response should be written while it is
+   *         encoded
+   */
+  protected boolean shouldStreamResponse(HttpServletRequest request) {
+    return false;
+  }
+
   /**
    * Determines whether the response to a given servlet request should or should
    * not be GZIP compressed. This method is only called in cases where the
@@ -334,19 +538,127 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     return RPCServletUtils.exceedsUncompressedContentLengthLimit(responsePayload);
   }
 
+  /**
+   * Returns the flags to encode the response to a call with. They are those
+   * of the call, plus any the client can read and this servlet chooses.
+   */
+  int getResponseFlags(RPCRequest rpcRequest, HttpServletRequest request) {
+    int flags = rpcRequest.getFlags();
+    if (request != null && shouldPackPrimitiveArrays(request)) {
+      flags |= AbstractSerializationStream.FLAG_PACKED_PRIMITIVE_ARRAYS;
+    }
+    return flags;
+  }
+
+  /**
+   * Reads every serialization policy file in the web application outside
+   * <code>WEB-INF</code>. Called by {@link #init()} on a background thread.
+   */
+  void preloadSerializationPolicies() {
+    preloadSerializationPolicies("/");
+  }
+
   private SerializationPolicy getCachedSerializationPolicy(
       String moduleBaseURL, String strongName) {
-    synchronized (serializationPolicyCache) {
-      return serializationPolicyCache.get(moduleBaseURL + strongName);
+    return serializationPolicyCache.get(moduleBaseURL + strongName);
+  }
+
+  /**
+   * Decodes the call in a request while it is read.
+   */
+  private RPCRequest decodeStreamedRequest(HttpServletRequest request) throws IOException,
+      ServletException, SerializationException {
+    Reader in = RPCServletUtils.openContentAsGwtRpc(request);
+    try {
+      return RPC.decodeRequest(in, delegate.getClass(), this);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Decodes and invokes the call in a request, writing the response while it
+   * is encoded.
+   */
+  private void processCallAndStreamResponse(HttpServletRequest request,
+      HttpServletResponse response) throws IOException, ServletException,
+      SerializationException {
+    checkPermutationStrongName();
+
+    Writer out = RPCServletUtils.openResponse(response,
+        RPCServletUtils.acceptsGzipEncoding(request));
+    try {
+      RPCRequest rpcRequest;
+      if (shouldStreamRequest(request)) {
+        rpcRequest = decodeStreamedRequest(request);
+      } else {
+        String requestPayload = readContent(request);
+        onBeforeRequestDeserialized(requestPayload);
+        rpcRequest = RPC.decodeRequest(requestPayload, delegate.getClass(), this);
+      }
+
+      onAfterRequestDeserialized(rpcRequest);
+      RPC.invokeAndEncodeResponse(delegate, rpcRequest.getMethod(),
+          rpcRequest.getParameters(), rpcRequest.getSerializationPolicy(),
+          getResponseFlags(rpcRequest, request), out);
+    } catch (IncompatibleRemoteServiceException ex) {
+      log(
+          "An IncompatibleRemoteServiceException was thrown while processing this call.",
+          ex);
+      out.write(RPC.encodeResponseForFailure(null, ex));
+    } catch (RpcTokenException tokenException) {
+      log("An RpcTokenException was thrown while processing this call.",
+          tokenException);
+      out.write(RPC.encodeResponseForFailure(null, tokenException));
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Decodes the call in a request while it is read, then processes it.
+   */
+  private String processStreamedCall(HttpServletRequest request) throws IOException,
+      ServletException, SerializationException {
+    checkPermutationStrongName();
+
+    RPCRequest rpcRequest;
+    try {
+      rpcRequest = decodeStreamedRequest(request);
+    } catch (IncompatibleRemoteServiceException ex) {
+      log(
+          "An IncompatibleRemoteServiceException was thrown while processing this call.",
+          ex);
+      return RPC.encodeResponseForFailure(null, ex);
+    }
+    return processCall(rpcRequest);
+  }
+
+  private void preloadSerializationPolicies(String directory) {
+    Set<?> paths = getServletContext().getResourcePaths(directory);
+    if (paths == null) {
+      return;
+    }
+    String suffix = SerializationPolicyLoader.getSerializationPolicyFileName("");
+    for (Object path : paths) {
+      String pathString = (String) path;
+      if (pathString.endsWith("/")) {
+        if (!pathString.equals("/WEB-INF/")) {
+          preloadSerializationPolicies(pathString);
+        }
+      } else if (pathString.endsWith(suffix)) {
+        SerializationPolicy serializationPolicy = loadSerializationPolicyFile(this, pathString);
+        if (serializationPolicy != null) {
+          preloadedSerializationPolicies.put(pathString, serializationPolicy);
+        }
+      }
     }
   }
 
   private void putCachedSerializationPolicy(String moduleBaseURL,
       String strongName, SerializationPolicy serializationPolicy) {
-    synchronized (serializationPolicyCache) {
-      serializationPolicyCache.put(moduleBaseURL + strongName,
-          serializationPolicy);
-    }
+    serializationPolicyCache.put(moduleBaseURL + strongName,
+        serializationPolicy);
   }
 
   private void writeResponse(HttpServletRequest request,
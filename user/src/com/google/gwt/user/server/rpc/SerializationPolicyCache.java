@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of {@link SerializationPolicy} instances that can be read and
+ * written by many requests at once without locking. It holds at most a fixed
+ * number of policies; past that, the least recently used are evicted, which
+ * drops the strong names of earlier deployments once clients stop using them.
+ */
+final class SerializationPolicyCache {
+
+  private static final class Entry {
+    final SerializationPolicy policy;
+    volatile long lastUsed;
+
+    Entry(SerializationPolicy policy, long lastUsed) {
+      this.policy = policy;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+  /**
+   * Ticks once per lookup or insertion, to order entries by their last use.
+   */
+  private final AtomicLong clock = new AtomicLong();
+
+  private final ConcurrentHashMap<String, Entry> entries =
+      new ConcurrentHashMap<String, Entry>();
+  private final AtomicLong hits = new AtomicLong();
+  private final int maximumSize;
+  private final AtomicLong misses = new AtomicLong();
+
+  SerializationPolicyCache(int maximumSize) {
+    assert maximumSize > 0;
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Returns the policy cached for <code>key</code>, or <code>null</code> if
+   * there is none.
+   */
+  SerializationPolicy get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    entry.lastUsed = clock.incrementAndGet();
+    return entry.policy;
+  }
+
+  long getHitCount() {
+    return hits.get();
+  }
+
+  long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Caches <code>policy</code> for <code>key</code>, evicting the least
+   * recently used policies if the cache is then too large.
+   */
+  void put(String key, SerializationPolicy policy) {
+    entries.put(key, new Entry(policy, clock.incrementAndGet()));
+    while (entries.size() > maximumSize && evictLeastRecentlyUsed()) {
+      // Keep evicting
+    }
+  }
+
+  /**
+   * Removes the policy cached for <code>key</code> and returns it, or returns
+   * <code>null</code> if there is none.
+   */
+  SerializationPolicy remove(String key) {
+    Entry entry = entries.remove(key);
+    return entry == null ? null : entry.policy;
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Removes the least recently used entry. Returns false if there was none.
+   */
+  private boolean evictLeastRecentlyUsed() {
+    String oldestKey = null;
+    Entry oldest = null;
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if (oldest == null || entry.getValue().lastUsed < oldest.lastUsed) {
+        oldestKey = entry.getKey();
+        oldest = entry.getValue();
+      }
+    }
+    if (oldest == null) {
+      return false;
+    }
+    // Leave the entry alone if another request has just replaced it.
+    entries.remove(oldestKey, oldest);
+    return true;
+  }
+}
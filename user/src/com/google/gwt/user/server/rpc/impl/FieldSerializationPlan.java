@@ -0,0 +1,307 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How the fields declared by a class are read and written by the server-side
+ * streams. Everything that depends only on the class is worked out once: the
+ * fields in the order they are serialized, their access overrides, their
+ * generic types and a typed accessor for each, so primitive values are never
+ * boxed.
+ */
+final class FieldSerializationPlan {
+
+  /**
+   * One field of a plan.
+   */
+  static final class PlannedField {
+    private final Accessor accessor;
+    private final Field field;
+    private final Type genericType;
+    private final String name;
+
+    private PlannedField(Field field) {
+      this.field = field;
+      this.name = field.getName();
+      this.genericType = field.getGenericType();
+      this.accessor = Accessor.forType(field.getType());
+    }
+
+    Field getField() {
+      return field;
+    }
+
+    Type getGenericType() {
+      return genericType;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /**
+     * Reads the field's value from <code>stream</code> and sets it on
+     * <code>instance</code>.
+     */
+    void read(ServerSerializationStreamReader stream, Object instance,
+        DequeMap<TypeVariable<?>, Type> resolvedTypes) throws SerializationException,
+        IllegalAccessException {
+      accessor.read(stream, this, instance, resolvedTypes);
+    }
+
+    /**
+     * Writes the field's value on <code>instance</code> to <code>stream</code>.
+     */
+    void write(ServerSerializationStreamWriter stream, Object instance)
+        throws SerializationException, IllegalAccessException {
+      accessor.write(stream, field, instance);
+    }
+  }
+
+  /**
+   * Enumeration used to provide typed field accessors. Each constant reads and
+   * writes values the way the streams' value readers and writers do for the
+   * same type.
+   */
+  private enum Accessor {
+    BOOLEAN {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.setBoolean(instance, stream.readBoolean());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeBoolean(field.getBoolean(instance));
+      }
+    },
+    BYTE {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.setByte(instance, stream.readByte());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeByte(field.getByte(instance));
+      }
+    },
+    CHAR {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.setChar(instance, stream.readChar());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeChar(field.getChar(instance));
+      }
+    },
+    DOUBLE {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.setDouble(instance, stream.readDouble());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeDouble(field.getDouble(instance));
+      }
+    },
+    FLOAT {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.setFloat(instance, stream.readFloat());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeFloat(field.getFloat(instance));
+      }
+    },
+    INT {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.setInt(instance, stream.readInt());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeInt(field.getInt(instance));
+      }
+    },
+    LONG {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.setLong(instance, stream.readLong());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeLong(field.getLong(instance));
+      }
+    },
+    OBJECT {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.set(instance,
+            stream.readObject(plannedField.genericType, resolvedTypes));
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws SerializationException, IllegalAccessException {
+        stream.writeObject(field.get(instance));
+      }
+    },
+    SHORT {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.setShort(instance, stream.readShort());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeShort(field.getShort(instance));
+      }
+    },
+    STRING {
+      @Override
+      void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+          Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+          throws SerializationException, IllegalAccessException {
+        plannedField.field.set(instance, stream.readString());
+      }
+
+      @Override
+      void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+          throws IllegalAccessException {
+        stream.writeString((String) field.get(instance));
+      }
+    };
+
+    static Accessor forType(Class<?> type) {
+      if (type == boolean.class) {
+        return BOOLEAN;
+      } else if (type == byte.class) {
+        return BYTE;
+      } else if (type == char.class) {
+        return CHAR;
+      } else if (type == double.class) {
+        return DOUBLE;
+      } else if (type == float.class) {
+        return FLOAT;
+      } else if (type == int.class) {
+        return INT;
+      } else if (type == long.class) {
+        return LONG;
+      } else if (type == short.class) {
+        return SHORT;
+      } else if (type == String.class) {
+        return STRING;
+      } else {
+        // Arrays of primitive or reference types need to go through readObject.
+        return OBJECT;
+      }
+    }
+
+    abstract void read(ServerSerializationStreamReader stream, PlannedField plannedField,
+        Object instance, DequeMap<TypeVariable<?>, Type> resolvedTypes)
+        throws SerializationException, IllegalAccessException;
+
+    abstract void write(ServerSerializationStreamWriter stream, Field field, Object instance)
+        throws SerializationException, IllegalAccessException;
+  }
+
+  /**
+   * A permanent cache of the plans of classes. This is safe to do because a
+   * Class is guaranteed not to change within the lifetime of a ClassLoader
+   * (and thus, this Map).
+   */
+  private static final Map<Class<?>, FieldSerializationPlan> classPlanCache =
+      new ConcurrentHashMap<Class<?>, FieldSerializationPlan>();
+
+  /**
+   * Returns the plan for the fields declared by <code>clazz</code>, building
+   * it the first time.
+   */
+  static FieldSerializationPlan get(Class<?> clazz) {
+    FieldSerializationPlan plan = classPlanCache.get(clazz);
+    if (plan == null) {
+      plan = new FieldSerializationPlan(clazz);
+      classPlanCache.put(clazz, plan);
+    }
+    return plan;
+  }
+
+  private final PlannedField[] fields;
+
+  private FieldSerializationPlan(Class<?> clazz) {
+    Field[] serializableFields = SerializabilityUtil.applyFieldSerializationPolicy(clazz);
+    fields = new PlannedField[serializableFields.length];
+    for (int i = 0; i < serializableFields.length; i++) {
+      Field field = serializableFields[i];
+      if (!field.isAccessible() && !Modifier.isPublic(field.getModifiers())) {
+        // Override the access restrictions
+        field.setAccessible(true);
+      }
+      fields[i] = new PlannedField(field);
+    }
+  }
+
+  /**
+   * Returns the fields in the order they are serialized. The array must not be
+   * modified.
+   */
+  PlannedField[] getFields() {
+    return fields;
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import static com.google.gwt.user.client.rpc.impl.AbstractSerializationStream.RPC_SEPARATOR_CHAR;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits an RPC request into tokens while it is read. Only a fixed-size window
+ * of the request is held at a time. Small ints are parsed straight out of the
+ * window and string table entries are unescaped into one shared array, so
+ * most tokens never become Strings.
+ */
+final class RequestTokenizer {
+
+  /**
+   * Returned by {@link #nextSmallInt()} when the next token is not a small
+   * int. No small int has this value, since it takes ten digits.
+   */
+  static final int NOT_A_SMALL_INT = Integer.MIN_VALUE;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader in;
+
+  /**
+   * The window. The characters not read yet are those from pos to limit.
+   */
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private boolean eof;
+
+  /**
+   * The unescaped string table entries, one after the other.
+   */
+  private char[] saved = new char[BUFFER_SIZE];
+  private int savedSize;
+
+  RequestTokenizer(Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Returns the unescaped string table entries read so far, one after the
+   * other. Only the first {@link #getSavedSize()} characters are used.
+   */
+  char[] getSaved() {
+    return saved;
+  }
+
+  int getSavedSize() {
+    return savedSize;
+  }
+
+  /**
+   * Returns the buffered characters not read yet, for error messages.
+   */
+  String getUnread() {
+    return new String(buffer, pos, limit - pos);
+  }
+
+  /**
+   * Returns true if another token can be read, or false if the request ends
+   * before the next separator. Fills the window as needed.
+   */
+  boolean hasNext() throws SerializationException {
+    int scanned = pos;
+    while (true) {
+      for (; scanned < limit; scanned++) {
+        if (buffer[scanned] == RPC_SEPARATOR_CHAR) {
+          return true;
+        }
+      }
+      scanned -= pos;
+      int read = fill();
+      if (read <= 0) {
+        // A full window holds the start of a long token.
+        return read == 0;
+      }
+    }
+  }
+
+  /**
+   * Returns the next token, or <code>null</code> if the request ends before
+   * the next separator.
+   */
+  String next() throws SerializationException {
+    StringBuilder longToken = null;
+    int scanned = pos;
+    while (true) {
+      for (; scanned < limit; scanned++) {
+        if (buffer[scanned] == RPC_SEPARATOR_CHAR) {
+          String token;
+          if (longToken == null) {
+            token = new String(buffer, pos, scanned - pos);
+          } else {
+            token = longToken.append(buffer, pos, scanned - pos).toString();
+          }
+          pos = scanned + 1;
+          return token;
+        }
+      }
+      if (pos == 0 && limit == buffer.length) {
+        // The token doesn't fit in the window.
+        if (longToken == null) {
+          longToken = new StringBuilder();
+        }
+        longToken.append(buffer, 0, limit);
+        pos = limit;
+      }
+      scanned -= pos;
+      if (fill() < 0) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Reads the next token if it is a decimal int of at most nine digits, which
+   * is what nearly every int in a request is. Otherwise reads nothing and
+   * returns {@link #NOT_A_SMALL_INT}, and {@link #next()} reads the token.
+   */
+  int nextSmallInt() throws SerializationException {
+    if (!hasNext()) {
+      return NOT_A_SMALL_INT;
+    }
+    int i = pos;
+    boolean negative = buffer[i] == '-';
+    if (negative) {
+      i++;
+    }
+    int start = i;
+    int value = 0;
+    for (; i < limit; i++) {
+      char c = buffer[i];
+      if (c == RPC_SEPARATOR_CHAR) {
+        break;
+      }
+      if (c < '0' || c > '9' || i - start == 9) {
+        return NOT_A_SMALL_INT;
+      }
+      value = value * 10 + (c - '0');
+    }
+    if (i == start || i == limit) {
+      return NOT_A_SMALL_INT;
+    }
+    pos = i + 1;
+    return negative ? -value : value;
+  }
+
+  /**
+   * Reads the next token as a string table entry and appends it to the saved
+   * characters with its escapes undone. Returns false if the request ends
+   * before the next separator.
+   */
+  boolean nextStringTableEntry() throws SerializationException {
+    int start = savedSize;
+    while (true) {
+      int c = nextChar();
+      if (c < 0) {
+        savedSize = start;
+        return false;
+      }
+      if (c == RPC_SEPARATOR_CHAR) {
+        return true;
+      }
+      if (c == '\\') {
+        c = nextChar();
+        switch (c) {
+          case '0':
+            c = '\u0000';
+            break;
+          case '!':
+            c = RPC_SEPARATOR_CHAR;
+            break;
+          case '\\':
+            break;
+          case 'u':
+            c = 0;
+            for (int i = 0; i < 4; i++) {
+              int digit = Character.digit(nextChar(), 16);
+              if (digit < 0) {
+                throw new SerializationException("Invalid Unicode escape sequence in string "
+                    + "table entry");
+              }
+              c = (c << 4) | digit;
+            }
+            break;
+          case -1:
+          case RPC_SEPARATOR_CHAR:
+            throw new SerializationException("Unmatched backslash in string table entry");
+          default:
+            throw new SerializationException("Unexpected escape character " + (char) c
+                + " after backslash in string table entry");
+        }
+      }
+      if (savedSize == saved.length) {
+        char[] newSaved = new char[saved.length * 2];
+        System.arraycopy(saved, 0, newSaved, 0, savedSize);
+        saved = newSaved;
+      }
+      saved[savedSize++] = (char) c;
+    }
+  }
+
+  /**
+   * Moves the unread characters to the start of the window and reads more
+   * after them. Returns how many were read, 0 if the window is full, or -1 at
+   * the end of the request.
+   */
+  private int fill() throws SerializationException {
+    if (pos > 0) {
+      System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+      limit -= pos;
+      pos = 0;
+    }
+    if (limit == buffer.length) {
+      return 0;
+    }
+    if (eof) {
+      return -1;
+    }
+    int read;
+    try {
+      read = in.read(buffer, limit, buffer.length - limit);
+    } catch (IOException e) {
+      throw new SerializationException("Unable to read the RPC request", e);
+    }
+    if (read < 0) {
+      eof = true;
+      return -1;
+    }
+    limit += read;
+    return read;
+  }
+
+  /**
+   * Returns the next character, or -1 at the end of the request.
+   */
+  private int nextChar() throws SerializationException {
+    if (pos == limit && fill() < 0) {
+      return -1;
+    }
+    return buffer[pos++];
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.client.rpc.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests {@link PackedPrimitiveArrays}.
+ */
+public class PackedPrimitiveArraysTest extends TestCase {
+
+  public void testBooleans() throws SerializationException {
+    boolean[] values = {true, false, true, false, false, false, true};
+    // 0b000101, then 0b000001
+    assertEquals("FB", PackedPrimitiveArrays.encode(values));
+
+    boolean[] decoded = new boolean[values.length];
+    PackedPrimitiveArrays.decode("FB", decoded);
+    assertTrue(Arrays.equals(values, decoded));
+  }
+
+  public void testBytes() throws SerializationException {
+    byte[] values = {0, -1, 1, Byte.MIN_VALUE, Byte.MAX_VALUE};
+    byte[] decoded = new byte[values.length];
+    PackedPrimitiveArrays.decode(PackedPrimitiveArrays.encode(values), decoded);
+    assertTrue(Arrays.equals(values, decoded));
+  }
+
+  public void testChars() throws SerializationException {
+    char[] values = {'a', '\u0000', 'ሴ', Character.MAX_VALUE};
+    char[] decoded = new char[values.length];
+    PackedPrimitiveArrays.decode(PackedPrimitiveArrays.encode(values), decoded);
+    assertTrue(Arrays.equals(values, decoded));
+  }
+
+  public void testInts() throws SerializationException {
+    // Zigzag encoded: 0, 1, 2, then 32 takes a second digit
+    assertEquals("ABCgB", PackedPrimitiveArrays.encode(new int[] {0, -1, 1, 16}));
+
+    int[] values = {0, -1, 1, 16, Integer.MIN_VALUE, Integer.MAX_VALUE, 123456789};
+    int[] decoded = new int[values.length];
+    PackedPrimitiveArrays.decode(PackedPrimitiveArrays.encode(values), decoded);
+    assertTrue(Arrays.equals(values, decoded));
+  }
+
+  public void testLongs() throws SerializationException {
+    long[] values = {0L, -1L, 1L << 40, Long.MIN_VALUE, Long.MAX_VALUE};
+    long[] decoded = new long[values.length];
+    PackedPrimitiveArrays.decode(PackedPrimitiveArrays.encode(values), decoded);
+    assertTrue(Arrays.equals(values, decoded));
+  }
+
+  public void testMalformed() {
+    assertMalformed("", new int[1]);
+    assertMalformed("AB", new int[1]);
+    assertMalformed("g", new int[1]);
+    assertMalformed("!", new int[1]);
+    assertMalformed("gggggggB", new int[1]);
+  }
+
+  public void testShorts() throws SerializationException {
+    short[] values = {0, -1, Short.MIN_VALUE, Short.MAX_VALUE};
+    short[] decoded = new short[values.length];
+    PackedPrimitiveArrays.decode(PackedPrimitiveArrays.encode(values), decoded);
+    assertTrue(Arrays.equals(values, decoded));
+  }
+
+  private static void assertMalformed(String packed, int[] into) {
+    try {
+      PackedPrimitiveArrays.decode(packed, into);
+      fail("Expected SerializationException for " + packed);
+    } catch (SerializationException expected) {
+    }
+  }
+}
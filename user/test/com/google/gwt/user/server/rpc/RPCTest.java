@@ -29,7 +29,12 @@ import com.google.gwt.user.server.rpc.impl.TypeNameObfuscator;
 
 import junit.framework.TestCase;
 
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.reflect.Method;
 import java.util.Set;
 
@@ -373,6 +378,19 @@ public class RPCTest extends TestCase {
     }
   }
 
+  public void testDecodePackedArraysFlag() {
+    // Clients never pack the arrays in a request.
+    String request = VALID_V6_ENCODED_REQUEST.replaceFirst("^(\\d+\\|)0\\|",
+        "$1" + AbstractSerializationStream.FLAG_PACKED_PRIMITIVE_ARRAYS + "|");
+    assertFalse(request.equals(VALID_V6_ENCODED_REQUEST));
+    try {
+      RPC.decodeRequest(request);
+      fail("Should have thrown an IncompatibleRemoteServiceException");
+    } catch (IncompatibleRemoteServiceException e) {
+      // Expected
+    }
+  }
+
   /**
    * Tests for method {@link RPC#decodeRequest(String)}.
    * 
@@ -469,6 +487,65 @@ public class RPCTest extends TestCase {
     }
   }
 
+  /**
+   * Tests for method
+   * {@link RPC#decodeRequest(Reader, Class, SerializationPolicyProvider)}.
+   */
+  public void testDecodeRequestReader() throws IOException, NoSuchMethodException {
+    RPCRequest request = RPC.decodeRequest(new StringReader(VALID_ENCODED_REQUEST), A.class,
+        null);
+    assertEquals(A.class.getMethod("method2"), request.getMethod());
+    assertEquals(0, request.getParameters().length);
+
+    request = RPC.decodeRequest(new OneCharReader(VALID_V6_ENCODED_REQUEST), D.class, null);
+    assertEquals(0xFEDCBA9876543210L, request.getParameters()[0]);
+
+    try {
+      RPC.decodeRequest(new StringReader(INVALID_METHOD_REQUEST), A.class, null);
+      fail("Expected IncompatibleRemoteServiceException");
+    } catch (IncompatibleRemoteServiceException e) {
+      // should get here
+    }
+
+    try {
+      RPC.decodeRequest(new StringReader(VALID_V4_ENCODED_REQUEST), A.class, null);
+      fail("Expected IncompatibleRemoteServiceException");
+    } catch (IncompatibleRemoteServiceException e) {
+      assertTrue(e.getMessage().contains("got 4"));
+    }
+
+    try {
+      RPC.decodeRequest(new StringReader(""), A.class, null);
+      fail("Expected IncompatibleRemoteServiceException");
+    } catch (IncompatibleRemoteServiceException e) {
+      // should get here
+    }
+
+    String truncated = VALID_ENCODED_REQUEST.substring(0, VALID_ENCODED_REQUEST.length() - 3);
+    try {
+      RPC.decodeRequest(new StringReader(truncated), A.class, null);
+      fail("Expected IncompatibleRemoteServiceException");
+    } catch (IncompatibleRemoteServiceException e) {
+      assertTrue(e.getMessage().contains("Too few tokens"));
+    }
+  }
+
+  public void testDecodeRequestReaderFailure() {
+    final IOException failure = new IOException("Connection reset");
+    Reader failing = new FilterReader(new StringReader(VALID_ENCODED_REQUEST)) {
+      @Override
+      public int read(char[] cbuf, int off, int len) throws IOException {
+        throw failure;
+      }
+    };
+    try {
+      RPC.decodeRequest(failing, A.class, null);
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertSame(failure, e);
+    }
+  }
+
   private static class TestRpcToken implements RpcToken {
     String tokenValue;
     public TestRpcToken() { }
@@ -836,6 +913,106 @@ public class RPCTest extends TestCase {
     }, A_method1, null);
   }
 
+  /**
+   * Tests that writing the response of a call gives the same text as encoding
+   * it, whether the method returns or throws.
+   */
+  public void testInvokeAndEncodeResponseToWriter() throws NoSuchMethodException,
+      IOException, SerializationException {
+    A a = new A() {
+      public void method1() throws SerializableException {
+        throw new SerializableException("thrown");
+      }
+
+      public int method2() {
+        return 42;
+      }
+
+      public int method3(int val) {
+        return val;
+      }
+    };
+    SerializationPolicy policy = RPC.getDefaultSerializationPolicy();
+
+    Method[] methods = {A.class.getMethod("method1"), A.class.getMethod("method2")};
+    for (Method method : methods) {
+      String expected = RPC.invokeAndEncodeResponse(a, method, null, policy,
+          AbstractSerializationStream.DEFAULT_FLAGS);
+      StringWriter out = new StringWriter();
+      RPC.invokeAndEncodeResponse(a, method, null, policy,
+          AbstractSerializationStream.DEFAULT_FLAGS, out);
+      assertEquals(expected, out.toString());
+    }
+
+    // Nothing is written when the result can't be encoded.
+    StringWriter out = new StringWriter();
+    try {
+      RPC.invokeAndEncodeResponse(new A() {
+        public void method1() {
+          throw new IllegalArgumentException();
+        }
+
+        public int method2() {
+          return 0;
+        }
+
+        public int method3(int val) {
+          return 0;
+        }
+      }, A.class.getMethod("method1"), null, policy,
+          AbstractSerializationStream.DEFAULT_FLAGS, out);
+      fail("Expected an UnexpectedException");
+    } catch (UnexpectedException e) {
+      // expected to get here
+    }
+    assertEquals("", out.toString());
+  }
+
+  public void testSerializationStreamDequoteFromReader() throws SerializationException {
+    ServerSerializationStreamReader reader = new ServerSerializationStreamReader(
+        null, null);
+    reader.prepareToRead(new OneCharReader(STRING_QUOTE_REQUEST));
+    assertEquals("Raw backslash \\", reader.readString());
+    assertEquals("Quoted separator " + RPC_SEPARATOR_CHAR, reader.readString());
+    assertEquals("\uffff\\!\\0\u0000", reader.readString());
+  }
+
+  /**
+   * Tests reading tokens and string table entries longer than the reader's
+   * buffer.
+   */
+  public void testSerializationStreamLongTokensFromReader() throws SerializationException {
+    StringBuilder longString = new StringBuilder();
+    StringBuilder longEscapedString = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      longString.append("ab" + RPC_SEPARATOR_CHAR);
+      longEscapedString.append("ab\\!");
+    }
+    String longNumber = "0000000000000000000000000000000000000000000000000000000000000000";
+    while (longNumber.length() < 20000) {
+      longNumber += longNumber;
+    }
+    String request = ""
+        + AbstractSerializationStream.SERIALIZATION_STREAM_VERSION
+        + RPC_SEPARATOR_CHAR + // version
+        "0" + RPC_SEPARATOR_CHAR + // flags
+        "3" + RPC_SEPARATOR_CHAR + // string table entry count
+        "moduleBaseURL" + RPC_SEPARATOR_CHAR + // string table entry #1
+        "whitelistHashcode" + RPC_SEPARATOR_CHAR + // string table entry #2
+        longEscapedString + RPC_SEPARATOR_CHAR + // string table entry #3
+        "1" + RPC_SEPARATOR_CHAR + // module base URL
+        "2" + RPC_SEPARATOR_CHAR + // whitelist hashcode
+        "3" + RPC_SEPARATOR_CHAR + // begin test data
+        longNumber + "42" + RPC_SEPARATOR_CHAR + "-7" + RPC_SEPARATOR_CHAR;
+
+    ServerSerializationStreamReader reader = new ServerSerializationStreamReader(
+        null, null);
+    reader.prepareToRead(new StringReader(request));
+    assertEquals(longString.toString(), reader.readString());
+    assertEquals(42, reader.readInt());
+    assertEquals(-7, reader.readInt());
+  }
+
   public void testSerializationStreamDequote() throws SerializationException {
     ServerSerializationStreamReader reader = new ServerSerializationStreamReader(
         null, null);
@@ -844,4 +1021,18 @@ public class RPCTest extends TestCase {
     assertEquals("Quoted separator " + RPC_SEPARATOR_CHAR, reader.readString());
     assertEquals("\uffff\\!\\0\u0000", reader.readString());
   }
+
+  /**
+   * Returns at most one character per read, like a slow network would.
+   */
+  private static class OneCharReader extends FilterReader {
+    OneCharReader(String content) {
+      super(new StringReader(content));
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      return super.read(cbuf, off, Math.min(len, 1));
+    }
+  }
 }
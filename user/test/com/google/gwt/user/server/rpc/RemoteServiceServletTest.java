@@ -16,17 +16,25 @@
 package com.google.gwt.user.server.rpc;
 
 import com.google.gwt.user.client.rpc.IsSerializable;
+import com.google.gwt.user.client.rpc.RemoteService;
+import com.google.gwt.user.client.rpc.RpcRequestBuilder;
 import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
 
 import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.RequestDispatcher;
@@ -34,6 +42,8 @@ import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * Test some of the failure modes associated with
@@ -62,6 +72,38 @@ public class RemoteServiceServletTest extends TestCase {
     }
   }
 
+  private static class MockHttpServletRequestHeaders extends MockHttpServletRequest {
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    @Override
+    public String getHeader(String name) {
+      return headers.get(name);
+    }
+  }
+
+  private static class MockHttpServletRequestPost extends MockHttpServletRequestHeaders {
+    private final String content;
+
+    MockHttpServletRequestPost(String content) {
+      this.content = content;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+      return "utf-8";
+    }
+
+    @Override
+    public String getContentType() {
+      return "text/x-gwt-rpc; charset=utf-8";
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+      return new RPCServletUtilsTest.MockServletInputStream(content);
+    }
+  }
+
   private static class MockServletConfig implements ServletConfig {
     private ServletContext context;
 
@@ -192,6 +234,42 @@ public class RemoteServiceServletTest extends TestCase {
     }
   }
 
+  @SuppressWarnings("rpc-validation")
+  interface RepeatService extends RemoteService {
+    String repeat(int count);
+  }
+
+  /**
+   * Writes its responses while they are encoded, with the default policy.
+   */
+  private static class StreamingServlet extends RemoteServiceServlet implements
+      RepeatService {
+
+    public String repeat(int count) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < count; ++i) {
+        sb.append("repeat\u1234");
+      }
+      return sb.toString();
+    }
+
+    @Override
+    protected SerializationPolicy doGetSerializationPolicy(
+        HttpServletRequest request, String moduleBaseURL, String strongName) {
+      return RPC.getDefaultSerializationPolicy();
+    }
+
+    @Override
+    protected void doUnexpectedFailure(Throwable e) {
+      throw new AssertionError(e);
+    }
+
+    @Override
+    protected boolean shouldStreamResponse(HttpServletRequest request) {
+      return true;
+    }
+  }
+
   public void testDoGetSerializationPolicy_FailToOpenMD5Resource()
       throws ServletException {
     MockServletContext mockContext = new MockServletContext() {
@@ -289,6 +367,56 @@ public class RemoteServiceServletTest extends TestCase {
     assertNotValidDeserialize(serializationPolicy, Baz.class);
   }
 
+  /**
+   * Tests that preloaded policy files are not read again when they are
+   * requested.
+   */
+  public void testDoGetSerializationPolicy_Preloaded() throws ServletException {
+    final String resourcePath = "/MyModule/"
+        + SerializationPolicyLoader.getSerializationPolicyFileName("12345");
+    final int[] opened = new int[1];
+    MockServletContext mockContext = new MockServletContext() {
+      public InputStream getResourceAsStream(String resource) {
+        if (resourcePath.equals(resource)) {
+          opened[0]++;
+          try {
+            String payLoad = Foo.class.getName() + ",true\n";
+            return new ByteArrayInputStream(
+                payLoad.getBytes(SerializationPolicyLoader.SERIALIZATION_POLICY_FILE_ENCODING));
+          } catch (UnsupportedEncodingException e) {
+            return null;
+          }
+        }
+        return null;
+      }
+
+      public Set<String> getResourcePaths(String path) {
+        if ("/".equals(path)) {
+          return new HashSet<String>(Arrays.asList("/MyModule/", "/WEB-INF/", "/index.html"));
+        } else if ("/MyModule/".equals(path)) {
+          return new HashSet<String>(Arrays.asList(resourcePath, "/MyModule/MyModule.nocache.js"));
+        } else if ("/WEB-INF/".equals(path)) {
+          fail("WEB-INF should not be searched");
+        }
+        return null;
+      }
+    };
+    MockServletConfig mockConfig = new MockServletConfig(mockContext);
+
+    RemoteServiceServlet rss = new RemoteServiceServlet();
+    rss.init(mockConfig);
+    rss.preloadSerializationPolicies();
+    assertEquals(1, opened[0]);
+
+    MockHttpServletRequestContextPath mockRequest = new MockHttpServletRequestContextPath();
+    mockRequest.contextPath = "";
+    SerializationPolicy serializationPolicy = rss.doGetSerializationPolicy(
+        mockRequest, "http://www.google.com/MyModule/", "12345");
+    assertNotNull(serializationPolicy);
+    assertTrue(serializationPolicy.shouldDeserializeFields(Foo.class));
+    assertEquals(1, opened[0]);
+  }
+
   private void assertDeserializeFields(SerializationPolicy policy,
       Class<?> clazz) {
     assertTrue(policy.shouldDeserializeFields(clazz));
@@ -314,4 +442,56 @@ public class RemoteServiceServletTest extends TestCase {
       throws SerializationException {
     policy.validateDeserialize(clazz);
   }
+
+  /**
+   * Tests that primitive arrays are packed only for clients that say they can
+   * read them.
+   */
+  public void testGetResponseFlags() {
+    RPCRequest rpcRequest = new RPCRequest(null, null, RPC.getDefaultSerializationPolicy(),
+        AbstractSerializationStream.FLAG_ELIDE_TYPE_NAMES);
+    RemoteServiceServlet rss = new RemoteServiceServlet();
+
+    MockHttpServletRequestHeaders mockRequest = new MockHttpServletRequestHeaders();
+    assertEquals(AbstractSerializationStream.FLAG_ELIDE_TYPE_NAMES,
+        rss.getResponseFlags(rpcRequest, mockRequest));
+
+    mockRequest.headers.put(RpcRequestBuilder.PACKED_ARRAYS_HEADER, "1");
+    assertEquals(AbstractSerializationStream.FLAG_ELIDE_TYPE_NAMES
+        | AbstractSerializationStream.FLAG_PACKED_PRIMITIVE_ARRAYS,
+        rss.getResponseFlags(rpcRequest, mockRequest));
+
+    RemoteServiceServlet classicOnly = new RemoteServiceServlet() {
+      @Override
+      protected boolean shouldPackPrimitiveArrays(HttpServletRequest request) {
+        return false;
+      }
+    };
+    assertEquals(AbstractSerializationStream.FLAG_ELIDE_TYPE_NAMES,
+        classicOnly.getResponseFlags(rpcRequest, mockRequest));
+
+    // Calls processed without HTTP, as in tests, are never packed.
+    assertEquals(AbstractSerializationStream.FLAG_ELIDE_TYPE_NAMES,
+        rss.getResponseFlags(rpcRequest, null));
+  }
+
+  /**
+   * Tests that a streamed response is the same as the response encoded into a
+   * String first.
+   */
+  public void testProcessPostStreamsResponse() throws Exception {
+    String payload = AbstractSerializationStream.SERIALIZATION_STREAM_VERSION
+        + "|0|5|" + RepeatService.class.getName()
+        + "|repeat|I|moduleBaseURL|whitelistHashcode|4|5|1|2|1|3|3|";
+    StreamingServlet rss = new StreamingServlet();
+    MockHttpServletRequestHeaders mockRequest = new MockHttpServletRequestPost(payload);
+    mockRequest.headers.put(RpcRequestBuilder.STRONG_NAME_HEADER, "strongName");
+    MockHttpServletResponse mockResponse = new MockHttpServletResponse();
+    rss.doPost(mockRequest, mockResponse);
+
+    String expected = RPC.encodeResponseForSuccess(
+        RepeatService.class.getMethod("repeat", int.class), rss.repeat(3));
+    assertEquals(expected, new String(mockResponse.getContent(), "UTF-8"));
+    assertFalse(mockResponse.containsHeader("Content-Encoding"));
+  }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.gwt.user.server.rpc.impl;
+
+import static com.google.gwt.user.client.rpc.impl.AbstractSerializationStream.RPC_SEPARATOR_CHAR;
+
+import com.google.gwt.user.client.rpc.IsSerializable;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.server.Base64Utils;
+import com.google.gwt.user.server.rpc.SerializationPolicy;
+import com.google.gwt.user.server.rpc.SerializationPolicyProvider;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests {@link ServerSerializationStreamReader}.
+ */
+public class ServerSerializationStreamReaderTest extends TestCase {
+
+  /**
+   * A class whose setter must be used for the one field it has, as for classes
+   * enhanced by JDO.
+   */
+  public static class Enhanced implements IsSerializable {
+    int count;
+    String name;
+    int serverOnly = 3;
+    transient boolean setterCalled;
+
+    public void setCount(int count) {
+      this.count = count;
+      setterCalled = true;
+    }
+  }
+
+  /**
+   * A class with a field of each kind, named in the order they are read.
+   */
+  static class Fields implements IsSerializable {
+    boolean aBoolean;
+    byte bByte;
+    char cChar;
+    double dDouble;
+    float eFloat;
+    int fInt;
+    long gLong;
+    short hShort;
+    String iString;
+    Object jObject = "not null";
+    transient int notSerialized = 11;
+  }
+
+  public void testDeserializeEnhancedClass() throws SerializationException {
+    Map<Class<?>, Boolean> whitelist = Collections.<Class<?>, Boolean> singletonMap(
+        Enhanced.class, Boolean.TRUE);
+    Map<Class<?>, Set<String>> clientFields = Collections.<Class<?>, Set<String>> singletonMap(
+        Enhanced.class, new HashSet<String>(Arrays.asList("count", "name")));
+    final SerializationPolicy policy = new StandardSerializationPolicy(whitelist, whitelist,
+        Collections.<Class<?>, String> emptyMap(), clientFields);
+
+    ServerSerializationStreamReader reader = new ServerSerializationStreamReader(
+        getClass().getClassLoader(), new SerializationPolicyProvider() {
+          public SerializationPolicy getSerializationPolicy(String moduleBaseURL,
+              String serializationPolicyStrongName) {
+            return policy;
+          }
+        });
+    reader.prepareToRead(encode(
+        SerializabilityUtil.encodeSerializedInstanceReference(Enhanced.class, policy), "name",
+        "3", // type signature
+        "0", // no server-only field data
+        "2", // count
+        "4")); // name
+
+    Enhanced enhanced = (Enhanced) reader.readObject();
+    assertTrue(enhanced.setterCalled);
+    assertEquals(2, enhanced.count);
+    assertEquals("name", enhanced.name);
+    assertEquals(3, enhanced.serverOnly);
+  }
+
+  public void testDeserializeFields() throws SerializationException {
+    ServerSerializationStreamReader reader = new ServerSerializationStreamReader(
+        getClass().getClassLoader(), null);
+    reader.prepareToRead(encode(
+        SerializabilityUtil.encodeSerializedInstanceReference(Fields.class,
+            LegacySerializationPolicy.getInstance()), "nine",
+        "3", // type signature
+        "1", // aBoolean
+        "-2", // bByte
+        "99", // cChar
+        "4.5", // dDouble
+        "-5.5", // eFloat
+        "6", // fInt
+        Base64Utils.toBase64(1L << 40), // gLong
+        "8", // hShort
+        "4", // iString
+        "0")); // jObject
+
+    Fields fields = (Fields) reader.readObject();
+    assertTrue(fields.aBoolean);
+    assertEquals(-2, fields.bByte);
+    assertEquals('c', fields.cChar);
+    assertEquals(4.5, fields.dDouble);
+    assertEquals(-5.5f, fields.eFloat);
+    assertEquals(6, fields.fInt);
+    assertEquals(1L << 40, fields.gLong);
+    assertEquals(8, fields.hShort);
+    assertEquals("nine", fields.iString);
+    assertNull(fields.jObject);
+    assertEquals(11, fields.notSerialized);
+  }
+
+  /**
+   * Encodes a request whose string table holds the module base URL, the strong
+   * name, then <code>type</code> and <code>string</code>, followed by
+   * <code>payload</code>.
+   */
+  private static String encode(String type, String string, String... payload) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(AbstractSerializationStream.SERIALIZATION_STREAM_VERSION).append(RPC_SEPARATOR_CHAR);
+    sb.append("0").append(RPC_SEPARATOR_CHAR); // flags
+    sb.append("4").append(RPC_SEPARATOR_CHAR); // string table entry count
+    sb.append("moduleBaseURL").append(RPC_SEPARATOR_CHAR);
+    sb.append("strongName").append(RPC_SEPARATOR_CHAR);
+    sb.append(type).append(RPC_SEPARATOR_CHAR);
+    sb.append(string).append(RPC_SEPARATOR_CHAR);
+    sb.append("1").append(RPC_SEPARATOR_CHAR); // module base URL
+    sb.append("2").append(RPC_SEPARATOR_CHAR); // strong name
+    for (String token : payload) {
+      sb.append(token).append(RPC_SEPARATOR_CHAR);
+    }
+    return sb.toString();
+  }
+}
@@ -16,13 +16,38 @@
 
 package com.google.gwt.user.server.rpc.impl;
 
+import com.google.gwt.user.client.rpc.IsSerializable;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.client.rpc.impl.PackedPrimitiveArrays;
+
 import junit.framework.TestCase;
 
+import java.io.IOException;
+import java.io.StringWriter;
+
 /**
  * Tests {@link ServerSerializationStreamWriter}.
  */
 public class ServerSerializationStreamWriterTest extends TestCase {
 
+  /**
+   * A class with a field of each kind, named in the order they are written.
+   */
+  static class Fields implements IsSerializable {
+    boolean aBoolean = true;
+    byte bByte = -2;
+    char cChar = 'c';
+    double dDouble = 4.5;
+    float eFloat = -5.5f;
+    int fInt = 6;
+    long gLong = 1L << 40;
+    short hShort = 8;
+    String iString = "nine";
+    Object jObject;
+    transient int notSerialized = 11;
+  }
+
   public void testEscapeString() {
     // Ensure that when using escapeString, a large string is not split into
     // separate nodes like escapeStringSplitNodes does.
@@ -114,4 +139,77 @@ public class ServerSerializationStreamWriterTest extends TestCase {
         escaped);
   }
 
+  public void testSerializeFields() throws SerializationException {
+    ServerSerializationStreamWriter writer = createWriter();
+    writer.writeObject(new Fields());
+
+    ServerSerializationStreamWriter expected = createWriter();
+    expected.writeString(SerializabilityUtil.encodeSerializedInstanceReference(Fields.class,
+        LegacySerializationPolicy.getInstance()));
+    expected.writeBoolean(true);
+    expected.writeByte((byte) -2);
+    expected.writeChar('c');
+    expected.writeDouble(4.5);
+    expected.writeFloat(-5.5f);
+    expected.writeInt(6);
+    expected.writeLong(1L << 40);
+    expected.writeShort((short) 8);
+    expected.writeString("nine");
+    expected.writeString(null);
+    assertEquals(expected.toString(), writer.toString());
+  }
+
+  public void testSerializePackedPrimitiveArrays() throws SerializationException {
+    ServerSerializationStreamWriter writer = createWriter();
+    writer.addFlags(AbstractSerializationStream.FLAG_PACKED_PRIMITIVE_ARRAYS);
+    writer.writeObject(new int[] {1, -2});
+    writer.writeObject(new double[] {0.5});
+
+    ServerSerializationStreamWriter expected = createWriter();
+    expected.addFlags(AbstractSerializationStream.FLAG_PACKED_PRIMITIVE_ARRAYS);
+    expected.writeString(SerializabilityUtil.encodeSerializedInstanceReference(int[].class,
+        LegacySerializationPolicy.getInstance()));
+    expected.writeInt(2);
+    expected.writeString(PackedPrimitiveArrays.encode(new int[] {1, -2}));
+    // Arrays of doubles are never packed
+    expected.writeString(SerializabilityUtil.encodeSerializedInstanceReference(double[].class,
+        LegacySerializationPolicy.getInstance()));
+    expected.writeInt(1);
+    expected.writeDouble(0.5);
+    assertEquals(expected.toString(), writer.toString());
+  }
+
+  public void testWriteTo() throws IOException, SerializationException {
+    ServerSerializationStreamWriter writer = createWriter();
+    writer.writeInt(1);
+    writer.writeString("one");
+    writer.writeString(null);
+    writer.writeString("\"quoted\"");
+    assertWriteToMatchesToString(writer);
+  }
+
+  public void testWriteTo_overMaximumArrayLength() throws IOException, SerializationException {
+    // Both the payload and the string table are split into several arrays.
+    ServerSerializationStreamWriter writer = createWriter();
+    int count =
+        ServerSerializationStreamWriter.LengthConstrainedArray.MAXIMUM_ARRAY_LENGTH * 2 + 1;
+    for (int i = 0; i < count; i++) {
+      writer.writeString(String.valueOf(i));
+    }
+    assertWriteToMatchesToString(writer);
+  }
+
+  private static void assertWriteToMatchesToString(ServerSerializationStreamWriter writer)
+      throws IOException {
+    StringWriter out = new StringWriter();
+    writer.writeTo(out);
+    assertEquals(writer.toString(), out.toString());
+  }
+
+  private static ServerSerializationStreamWriter createWriter() {
+    ServerSerializationStreamWriter writer =
+        new ServerSerializationStreamWriter(LegacySerializationPolicy.getInstance());
+    writer.prepareToWrite();
+    return writer;
+  }
 }